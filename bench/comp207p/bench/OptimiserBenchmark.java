@@ -0,0 +1,99 @@
+package comp207p.bench;
+
+import comp207p.main.ConstantFolder;
+import comp207p.main.corpus.SyntheticMethods;
+import org.apache.bcel.classfile.ClassParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of ConstantFolder.optimize() on the comp207p.target classes and on synthetic methods of
+ * 1k, 10k and 60k bytes of code, or on a generated corpus. Run with "ant -Djmh.lib.dir=... benchmark", which adds the GC profiler
+ * for the allocation rate.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OptimiserBenchmark {
+
+    /**
+     * "target" for the hand-written test classes, "corpus" for a generated corpus (ant corpus),
+     * otherwise the size in bytes of a synthetic method
+     */
+    @Param({"target", "1000", "10000", "60000"})
+    public String input;
+
+    private final List<byte[]> classes = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private int methods = 0;
+
+    /**
+     * Methods folded per second, reported next to the operations per second
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class MethodCounter {
+        public long methods;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            methods = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        if (input.equals("target")) {
+            //Compiled target classes, set by the benchmark target in build.xml
+            Path targets = Paths.get(System.getProperty("bench.classes", "build/classes"), "comp207p", "target");
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(targets, "*.class")) {
+                for (Path file : files) {
+                    classes.add(Files.readAllBytes(file));
+                    names.add(file.getFileName().toString());
+                }
+            }
+        } else if (input.equals("corpus")) {
+            Path corpus = Paths.get(System.getProperty("bench.corpus", "build/corpus"));
+            try (Stream<Path> files = Files.walk(corpus)) {
+                for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".class")).sorted()::iterator) {
+                    classes.add(Files.readAllBytes(file));
+                    names.add(corpus.relativize(file).toString());
+                }
+            }
+        } else {
+            String name = "comp207p.bench.generated.Method" + input;
+            classes.add(SyntheticMethods.generate(name, Integer.parseInt(input)));
+            names.add(name);
+        }
+
+        for (int i = 0; i < classes.size(); i++) {
+            methods += new ClassParser(new ByteArrayInputStream(classes.get(i)), names.get(i)).parse().getMethods().length;
+        }
+    }
+
+    /**
+     * One operation optimises every class of the input
+     */
+    @Benchmark
+    public void optimise(MethodCounter counter, Blackhole blackhole) {
+        for (int i = 0; i < classes.size(); i++) {
+            ConstantFolder cf = new ConstantFolder(classes.get(i), names.get(i));
+            blackhole.consume(cf.optimiseToBytes());
+        }
+        counter.methods += methods;
+    }
+}
@@ -0,0 +1,90 @@
+package comp207p.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running time of a comp207p.target method, original against optimised.
+ * Each version is loaded from its own class directory by its own class loader, so both can be measured
+ * in the same JVM. The method is called through a method handle, which costs the same for both versions.
+ * RuntimeComparison runs this and prints the speedup per method.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuntimeBenchmark {
+
+    /**
+     * Method to run, as SimpleClassName.method; it has to be public, take no arguments and return a value
+     */
+    @Param({
+            "ConstantVariableFolding.methodOne", "ConstantVariableFolding.methodTwo",
+            "ConstantVariableFolding.methodThree", "ConstantVariableFolding.methodFour",
+            "DynamicVariableFolding.methodOne", "DynamicVariableFolding.methodTwo",
+            "DynamicVariableFolding.methodThree", "DynamicVariableFolding.methodFour",
+            "NestedLoops.foo", "ComplexForLoop.foo", "SuperComplexForLoop.foo",
+            "NestedIfs.foo", "Switch.foo", "Negation.foo", "Modulo.foo", "WhileLoop.foo"
+    })
+    public String target;
+
+    /**
+     * "original" for build/classes, "optimised" for optimised/classes
+     */
+    @Param({"original", "optimised"})
+    public String version;
+
+    private URLClassLoader loader;
+    private MethodHandle method;
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void load() throws Throwable {
+        //Some targets print their results, measure the method rather than the console
+        stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+
+        String directory = version.equals("original")
+                ? System.getProperty("bench.classes", "build/classes")
+                : System.getProperty("bench.optimised", "optimised/classes");
+        loader = new URLClassLoader(new URL[] {Paths.get(directory).toUri().toURL()}, null); //Only the JDK is shared
+
+        String className = "comp207p.target." + target.substring(0, target.indexOf('.'));
+        String methodName = target.substring(target.indexOf('.') + 1);
+        Class<?> targetClass = Class.forName(className, true, loader);
+        Object instance = targetClass.getConstructor().newInstance();
+
+        MethodHandle virtual = MethodHandles.publicLookup().unreflect(targetClass.getMethod(methodName));
+        method = virtual.bindTo(instance).asType(MethodType.methodType(Object.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws Exception {
+        System.setOut(stdout);
+        loader.close();
+    }
+
+    @Benchmark
+    public Object run() throws Throwable {
+        return (Object) method.invokeExact();
+    }
+}
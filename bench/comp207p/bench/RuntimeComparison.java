@@ -0,0 +1,79 @@
+package comp207p.bench;
+
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Run RuntimeBenchmark on both versions of every target method and print the speedup of the optimised
+ * version next to the change in its bytecode size
+ */
+public class RuntimeComparison {
+
+    /**
+     * @param args Extra JMH command line options, e.g. "-p target=NestedLoops.foo"
+     */
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        String original = System.getProperty("bench.classes", "build/classes");
+        String optimised = System.getProperty("bench.optimised", "optimised/classes");
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(RuntimeBenchmark.class.getSimpleName())
+                .jvmArgsAppend("-Dbench.classes=" + original, "-Dbench.optimised=" + optimised)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        //Average time per target and version
+        Map<String, double[]> times = new TreeMap<>();
+        for (RunResult result : results) {
+            String target = result.getParams().getParam("target");
+            double[] time = times.get(target);
+            if (time == null) {
+                time = new double[2];
+                times.put(target, time);
+            }
+            int version = result.getParams().getParam("version").equals("original") ? 0 : 1;
+            time[version] = result.getPrimaryResult().getScore();
+        }
+
+        System.out.format("%-36s %14s %14s %8s %14s\n", "method", "original ns", "optimised ns", "speedup", "code bytes");
+        for (Map.Entry<String, double[]> entry : times.entrySet()) {
+            String target = entry.getKey();
+            double[] time = entry.getValue();
+            System.out.format("%-36s %14.2f %14.2f %7.2fx %6d -> %5d\n", target, time[0], time[1], time[0] / time[1],
+                    codeLength(original, target), codeLength(optimised, target));
+        }
+    }
+
+    /**
+     * @return Bytecode length of the target method in the given class directory, -1 if it has no code
+     */
+    private static int codeLength(String directory, String target) throws IOException {
+        String className = target.substring(0, target.indexOf('.'));
+        String methodName = target.substring(target.indexOf('.') + 1);
+        JavaClass javaClass = new ClassParser(
+                Paths.get(directory, "comp207p", "target", className + ".class").toString()).parse();
+        for (Method method : javaClass.getMethods()) {
+            Code code = method.getCode();
+            if (method.getName().equals(methodName) && method.getArgumentTypes().length == 0 && code != null) {
+                return code.getCode().length;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,210 @@
+package comp207p.main;
+
+import comp207p.main.passes.PassManager;
+import comp207p.main.utils.ClassFiles;
+import comp207p.main.utils.Remarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Optimise the classes of a JAR/ZIP archive without unpacking it to a directory.
+ * Entries are read in one pass, class entries are folded on the worker pool and every entry is written
+ * to the output archive in its original order.
+ */
+public class ArchiveOptimiser {
+
+    private final ExecutorService pool;
+    private final OptimisationCache cache;
+    private final PassManager passManager;
+
+    //Maximum number of class entries waiting to be written, bounds the memory held by the pass
+    private final int window;
+
+    /**
+     * @param pool Worker pool used to fold class entries
+     * @param threads Number of workers in the pool
+     * @param cache Optimisation cache, or null to always optimise
+     * @param passManager Passes to run
+     */
+    public ArchiveOptimiser(ExecutorService pool, int threads, OptimisationCache cache, PassManager passManager) {
+        this.pool = pool;
+        this.window = threads * 4;
+        this.cache = cache;
+        this.passManager = passManager;
+    }
+
+    /**
+     * Entry that has been read from the input archive and is waiting to be written to the output
+     */
+    private static class PendingEntry {
+        final ZipEntry entry;
+        final byte[] originalBytes;
+        final Future<byte[]> optimisedBytes; //null for entries copied as they are
+
+        PendingEntry(ZipEntry entry, byte[] originalBytes, Future<byte[]> optimisedBytes) {
+            this.entry = entry;
+            this.originalBytes = originalBytes;
+            this.optimisedBytes = optimisedBytes;
+        }
+    }
+
+    /**
+     * Optimise every class of the input archive into a new archive.
+     * A class that fails to optimise is reported and copied unchanged so the output archive stays complete,
+     * and so is a class that ClassFiles.isSupported rejects, which is not counted as a failure.
+     * @param input Input JAR/ZIP file
+     * @param output Output JAR/ZIP file
+     * @return Number of classes that failed to optimise
+     */
+    public int optimise(Path input, Path output) throws IOException {
+        if (output.getParent() != null) {
+            Files.createDirectories(output.getParent());
+        }
+
+        int failures = 0;
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(input)));
+             ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(output)))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+                    if (pending.isEmpty()) {
+                        copyEntry(entry, in, out); //Nothing waiting in front of it, stream it straight through
+                    } else {
+                        pending.add(new PendingEntry(entry, readEntry(in), null));
+                    }
+                    continue;
+                }
+
+                final byte[] classBytes = readEntry(in);
+                final String name = entry.getName();
+                if (!ClassFiles.isSupported(classBytes)) {
+                    Remarks.info("Copied %s unchanged, it cannot be written as a version 50 class", name);
+                    pending.add(new PendingEntry(entry, classBytes, null));
+                    continue;
+                }
+                Future<byte[]> optimised = pool.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return optimiseClass(classBytes, name);
+                    }
+                });
+                pending.add(new PendingEntry(entry, classBytes, optimised));
+
+                while (pending.size() > window) {
+                    failures += writeEntry(pending.removeFirst(), out);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                failures += writeEntry(pending.removeFirst(), out);
+            }
+        }
+
+        return failures;
+    }
+
+    private byte[] optimiseClass(byte[] classBytes, String name) throws IOException {
+        if (cache != null) {
+            return cache.optimise(classBytes, name);
+        }
+        ConstantFolder cf = new ConstantFolder(classBytes, name, passManager);
+        return cf.optimiseToBytes();
+    }
+
+    /**
+     * Write a pending entry, waiting for its optimisation to finish first
+     * @return 1 if the class failed to optimise, 0 otherwise
+     */
+    private int writeEntry(PendingEntry p, ZipOutputStream out) throws IOException {
+        if (p.optimisedBytes == null) {
+            out.putNextEntry(copyOf(p.entry));
+            out.write(p.originalBytes);
+            out.closeEntry();
+            return 0;
+        }
+
+        byte[] bytes;
+        int failed = 0;
+        try {
+            bytes = p.optimisedBytes.get();
+            Remarks.info("Optimised %s", p.entry.getName());
+        } catch (ExecutionException e) {
+            System.err.format("Failed to optimise %s: %s\n", p.entry.getName(), e.getCause());
+            bytes = p.originalBytes;
+            failed = 1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while optimising " + p.entry.getName(), e);
+        }
+
+        ZipEntry optimisedEntry = new ZipEntry(p.entry.getName());
+        optimisedEntry.setTime(p.entry.getTime());
+        out.putNextEntry(optimisedEntry);
+        out.write(bytes);
+        out.closeEntry();
+        return failed;
+    }
+
+    /**
+     * Copy an entry straight from the input stream to the output
+     */
+    private static void copyEntry(ZipEntry entry, InputStream in, ZipOutputStream out) throws IOException {
+        out.putNextEntry(copyOf(entry));
+        transfer(in, out);
+        out.closeEntry();
+    }
+
+    /**
+     * Copy the metadata of an input entry. Stored entries keep their method, size and CRC;
+     * compressed sizes are dropped because the deflater may not reproduce them exactly.
+     */
+    private static ZipEntry copyOf(ZipEntry entry) {
+        ZipEntry copy = new ZipEntry(entry.getName());
+        copy.setTime(entry.getTime());
+        if (entry.getComment() != null) {
+            copy.setComment(entry.getComment());
+        }
+        if (entry.getExtra() != null) {
+            copy.setExtra(entry.getExtra());
+        }
+        if (entry.getMethod() == ZipEntry.STORED && entry.getSize() >= 0 && entry.getCrc() >= 0) {
+            copy.setMethod(ZipEntry.STORED);
+            copy.setSize(entry.getSize());
+            copy.setCompressedSize(entry.getSize());
+            copy.setCrc(entry.getCrc());
+        }
+        return copy;
+    }
+
+    private static byte[] readEntry(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        transfer(in, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void transfer(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+    }
+}
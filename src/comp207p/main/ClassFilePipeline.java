@@ -0,0 +1,291 @@
+package comp207p.main;
+
+import comp207p.main.passes.PassManager;
+import comp207p.main.utils.ClassFiles;
+import comp207p.main.utils.Remarks;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Optimise class files in three stages connected by bounded queues:
+ * one thread reads the class files ahead of the workers, the workers parse and fold them,
+ * and one thread writes the results. A full queue blocks the stage in front of it, so at most a few
+ * classes per worker are held in memory however large the input is.
+ * Every output is written to a temporary file and renamed over the old one, and is not written at all
+ * when the old file already holds the same bytes, so incremental tools downstream see no change.
+ */
+public class ClassFilePipeline {
+
+    private final int threads;
+    private final OptimisationCache cache;
+    private final PassManager passManager;
+
+    //Capacity of each queue between the stages
+    private final int capacity;
+
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    //Failures by input file, in path order
+    private final Map<Path, String> failures = new ConcurrentSkipListMap<>();
+
+    /**
+     * Class file on its way through the pipeline. A null file marks the end of the input.
+     */
+    private static class Item {
+        final Path file;
+        final Path output;
+        final byte[] bytes;
+
+        Item(Path file, Path output, byte[] bytes) {
+            this.file = file;
+            this.output = output;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Item END = new Item(null, null, null);
+
+    /**
+     * @param threads Number of classes optimised in parallel
+     * @param cache Optimisation cache, or null to always optimise
+     * @param passManager Passes to run
+     */
+    public ClassFilePipeline(int threads, OptimisationCache cache, PassManager passManager) {
+        this.threads = threads;
+        this.cache = cache;
+        this.passManager = passManager;
+        this.capacity = threads * 4;
+    }
+
+    /**
+     * Optimise class files into the same relative paths under the output root.
+     * A class that fails to optimise is reported and copied unchanged so the output stays complete.
+     * @param inputRoot Root directory of the input class files
+     * @param outputRoot Root directory of the optimised class files
+     * @param classFiles Class files under the input root
+     * @return Number of classes that failed to optimise
+     */
+    public int run(final Path inputRoot, final Path outputRoot, List<Path> classFiles) throws IOException {
+        final List<Path> files = new ArrayList<>(classFiles);
+        Collections.sort(files);
+
+        final BlockingQueue<Item> read = new ArrayBlockingQueue<>(capacity);
+        final BlockingQueue<Item> optimised = new ArrayBlockingQueue<>(capacity);
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (Path file : files) {
+                        Path output = outputRoot.resolve(inputRoot.relativize(file).toString());
+                        try {
+                            read.put(new Item(file, output, Files.readAllBytes(file)));
+                        } catch (IOException e) {
+                            failures.put(file, e.toString());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    //One end marker per worker
+                    for (int i = 0; i < threads; i++) {
+                        putUninterruptibly(read, END);
+                    }
+                }
+            }
+        }, "pipeline-reader");
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Item item = null;
+                    try {
+                        while ((item = read.take()) != END) {
+                            byte[] bytes = item.bytes;
+                            try {
+                                bytes = optimise(item.bytes, item.file);
+                            } catch (Throwable e) { //Errors included: the class is reported and copied unchanged
+                                failures.put(item.file, e.toString());
+                            }
+                            optimised.put(new Item(item.file, item.output, bytes));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        //A worker that stops early passes the rest of its input through unchanged,
+                        //so the reader is never left blocked on a full queue
+                        while (item != END) {
+                            item = takeUninterruptibly(read);
+                            if (item != END) {
+                                failures.put(item.file, "Not optimised, the worker stopped");
+                                putUninterruptibly(optimised, item);
+                            }
+                        }
+                        putUninterruptibly(optimised, END);
+                    }
+                }
+            }, "pipeline-worker-" + (i + 1)));
+        }
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int ended = 0;
+                try {
+                    while (ended < threads) {
+                        Item item = optimised.take();
+                        if (item == END) {
+                            ended++;
+                            continue;
+                        }
+                        try {
+                            if (writeIfChanged(item.output, item.bytes)) {
+                                written.incrementAndGet();
+                            } else {
+                                unchanged.incrementAndGet();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            failures.put(item.file, e.toString());
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    //Keep draining so no worker is left blocked on a full queue
+                    while (ended < threads) {
+                        Item item = takeUninterruptibly(optimised);
+                        if (item == END) {
+                            ended++;
+                        } else {
+                            failures.put(item.file, "Not written, the writer stopped");
+                        }
+                    }
+                }
+            }
+        }, "pipeline-writer");
+
+        reader.start();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        writer.start();
+
+        try {
+            reader.join();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            reader.interrupt();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while optimising", e);
+        }
+
+        for (Path file : files) {
+            String failure = failures.get(file);
+            if (failure == null) {
+                Remarks.info("Optimised %s", file);
+            } else {
+                System.err.format("Failed to optimise %s: %s\n", file, failure);
+            }
+        }
+        Remarks.info("Wrote %d class file(s), %d already up to date", written.get(), unchanged.get());
+        return failures.size();
+    }
+
+    /**
+     * Optimise one class, called by the workers
+     * @return Optimised class file, or the class unchanged if it cannot be optimised
+     */
+    byte[] optimise(byte[] classBytes, Path file) throws IOException {
+        if (!ClassFiles.isSupported(classBytes)) {
+            Remarks.info("Copied %s unchanged, it cannot be written as a version 50 class", file);
+            return classBytes;
+        }
+        if (cache != null) {
+            return cache.optimise(classBytes, file.getFileName().toString());
+        }
+        return ConstantFolder.optimise(classBytes, file.toString(), passManager).getBytes();
+    }
+
+    private static Item takeUninterruptibly(BlockingQueue<Item> queue) {
+        boolean interrupted = false;
+        Item item;
+        while (true) {
+            try {
+                item = queue.take();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return item;
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Item> queue, Item item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replace a file with new contents in one step, leaving it untouched if it already has them
+     * @param output File to write
+     * @param bytes New contents
+     * @return true if the file was written, false if it was already up to date
+     */
+    public static boolean writeIfChanged(Path output, byte[] bytes) throws IOException {
+        if (Files.isRegularFile(output) && Files.size(output) == bytes.length
+                && Arrays.equals(Files.readAllBytes(output), bytes)) {
+            return false;
+        }
+
+        Path directory = output.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, output.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes);
+            try {
+                Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+}
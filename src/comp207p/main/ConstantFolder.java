@@ -1,17 +1,25 @@
 package comp207p.main;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Iterator;
-
-import comp207p.main.exceptions.UnableToFetchValueException;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import comp207p.main.metrics.DumpEvent;
+import comp207p.main.metrics.MethodStatistics;
+import comp207p.main.metrics.OptimisationMetrics;
+import comp207p.main.metrics.ParseEvent;
+import comp207p.main.metrics.PassStatistics;
+import comp207p.main.passes.Budget;
+import comp207p.main.passes.BudgetExceededException;
+import comp207p.main.passes.ClassPass;
+import comp207p.main.passes.MethodContext;
+import comp207p.main.passes.OptimisationPass;
+import comp207p.main.passes.PassManager;
 import comp207p.main.utils.*;
 import org.apache.bcel.classfile.*;
 import org.apache.bcel.generic.*;
-import org.apache.bcel.util.InstructionFinder;
-
-import static comp207p.main.utils.DynamicVariableChecker.checkDynamicVariable;
 
 
 public class ConstantFolder
@@ -22,41 +30,210 @@ public class ConstantFolder
     JavaClass original = null;
     JavaClass optimized = null;
 
-    //Regex for matching an instruction that pushes a value onto the stack
-    private static final String LOAD_INSTRUCTION_REGEXP = "(ConstantPushInstruction|LDC|LDC2_W|LoadInstruction)";
+    //Passes run over every method, created for this class only
+    private final PassManager passManager;
+    private final List<OptimisationPass> passes;
+    private final List<ClassPass> classPasses;
+
+    //What was done to each method, for the library API
+    private final List<MethodStatistics> methodStatistics = new ArrayList<>();
+
+    //What is left of the class's budget while its methods are optimised
+    private Long classDeadline = null;
+    private int classIterationsLeft = 0;
+    private boolean classBudgetExhausted = false;
+
+    //Whether a method was kept because time ran out, so the output depends on the machine's load
+    private boolean outOfTime = false;
 
     public ConstantFolder(String classFilePath)
     {
+        this.passManager = PassManager.defaults();
+        this.passes = passManager.createPasses();
+        this.classPasses = passManager.createClassPasses();
         try{
             this.parser = new ClassParser(classFilePath);
-            this.original = this.parser.parse();
-            this.gen = new ClassGen(this.original);
+            parse();
         } catch(IOException e){
             e.printStackTrace();
         }
     }
+
+    /**
+     * Build a folder from class file bytes that have already been read into memory
+     * @param classBytes Contents of the class file
+     * @param fileName Name of the class file, only used for error messages
+     */
+    public ConstantFolder(byte[] classBytes, String fileName)
+    {
+        this(classBytes, fileName, PassManager.defaults());
+    }
+
+    /**
+     * Build a folder from class file bytes that have already been read into memory
+     * @param classBytes Contents of the class file
+     * @param fileName Name of the class file, only used for error messages
+     * @param passManager Passes to run
+     */
+    public ConstantFolder(byte[] classBytes, String fileName, PassManager passManager)
+    {
+        this.passManager = passManager;
+        this.passes = passManager.createPasses();
+        this.classPasses = passManager.createClassPasses();
+        try{
+            this.parser = new ClassParser(new ByteArrayInputStream(classBytes), fileName);
+            parse();
+        } catch(IOException e){
+            e.printStackTrace();
+        }
+    }
+
+    private ConstantFolder(ClassParser parser, PassManager passManager) throws IOException
+    {
+        this.passManager = passManager;
+        this.passes = passManager.createPasses();
+        this.classPasses = passManager.createClassPasses();
+        this.parser = parser;
+        parse();
+    }
+
+    /**
+     * Optimise a class held in memory. Nothing is read from or written to the file system and nothing is printed
+     * unless Remarks have been configured. Every call works on its own folder, so it is safe to call from many
+     * threads at once; a ConstantFolder instance itself is not. A class that cannot be written as a version 50
+     * class (see ClassFiles.isSupported) is returned unchanged, with no method statistics.
+     * @param classBytes Contents of the class file, not modified
+     * @param fileName Name of the class file, only used for error messages
+     * @return Optimised class file and per-method statistics
+     * @throws IOException If the class file is truncated
+     * @throws ClassFormatException If the class file is malformed
+     */
+    public static OptimisationResult optimise(byte[] classBytes, String fileName) throws IOException
+    {
+        return optimise(classBytes, fileName, PassManager.defaults());
+    }
+
+    /**
+     * Optimise a class held in memory with the given passes
+     * @see #optimise(byte[], String)
+     */
+    public static OptimisationResult optimise(byte[] classBytes, String fileName, PassManager passManager) throws IOException
+    {
+        if (!ClassFiles.isSupported(classBytes)) {
+            return new OptimisationResult(ClassFiles.getClassName(classBytes), classBytes, new ArrayList<MethodStatistics>());
+        }
+        ConstantFolder folder = new ConstantFolder(new ClassParser(new ByteArrayInputStream(classBytes), fileName), passManager);
+        byte[] optimised = folder.optimiseToBytes();
+        return new OptimisationResult(folder.original.getClassName(), optimised, folder.methodStatistics);
+    }
+
+    /**
+     * Optimise a class held in a buffer, reading it from its position to its limit without moving the position
+     * @see #optimise(byte[], String)
+     */
+    public static OptimisationResult optimise(ByteBuffer classBuffer, String fileName) throws IOException
+    {
+        return optimise(classBuffer, fileName, PassManager.defaults());
+    }
+
+    /**
+     * Optimise a class held in a buffer with the given passes
+     * @see #optimise(ByteBuffer, String)
+     */
+    public static OptimisationResult optimise(ByteBuffer classBuffer, String fileName, PassManager passManager) throws IOException
+    {
+        ByteBuffer buffer = classBuffer.duplicate();
+        byte[] classBytes;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            classBytes = buffer.array(); //The whole backing array, read but never written
+        } else {
+            classBytes = new byte[buffer.remaining()];
+            buffer.get(classBytes);
+        }
+        return optimise(classBytes, fileName, passManager);
+    }
+
+    private void parse() throws IOException
+    {
+        ParseEvent event = new ParseEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        this.original = this.parser.parse();
+        this.gen = new ClassGen(this.original);
+
+        OptimisationMetrics.addParse(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = original.getClassName();
+            event.bytes = original.getBytes().length;
+            event.commit();
+        }
+    }
+
+    /**
+     * Optimise the class and return the bytes of the optimised class file
+     * @return Optimised class file
+     */
+    public byte[] optimiseToBytes()
+    {
+        this.optimize();
+        return dump();
+    }
+
+    /**
+     * Generate the bytes of the optimised class
+     */
+    private byte[] dump()
+    {
+        DumpEvent event = new DumpEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        byte[] bytes = this.optimized.getBytes();
+
+        OptimisationMetrics.addDump(System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = optimized.getClassName();
+            event.bytes = bytes.length;
+            event.commit();
+        }
+        return bytes;
+    }
     
     public void write(String optimisedFilePath)
     {
         this.optimize();
 
         try {
-            FileOutputStream out = new FileOutputStream(new File(optimisedFilePath));
-            this.optimized.dump(out);
-        } catch (FileNotFoundException e) {
-            // Auto-generated catch block
-            e.printStackTrace();
+            ClassFilePipeline.writeIfChanged(Paths.get(optimisedFilePath), dump());
         } catch (IOException e) {
             // Auto-generated catch block
             e.printStackTrace();
         }
     }
 
+    /**
+     * @return true if a method was kept unoptimised because it or its class ran out of time.
+     * The output is still correct but should not be cached, a later run may get further.
+     */
+    public boolean ranOutOfTime()
+    {
+        return outOfTime;
+    }
+
     /**
      * Initial method
      */
     public void optimize()
     {
+        long start = System.nanoTime();
+        Budget budget = passManager.getBudget();
+        classDeadline = budget.getClassMillis() == 0 ? null : start + budget.getClassMillis() * 1000000L;
+        classIterationsLeft = budget.getClassIterations();
+        classBudgetExhausted = false;
+
         ClassGen cgen = new ClassGen(original);
         cgen.setMajor(50); //Set major version number of class file to 50 (instead of default 45) to eliminate StackMapFrame errors
         ConstantPoolGen cpgen = cgen.getConstantPool();
@@ -64,15 +241,19 @@ public class ConstantFolder
         ConstantPool cp = cpgen.getConstantPool();
         Method[] methods = cgen.getMethods();
 
-        Utilities.printConstants(cp);
+        if (Remarks.isDebugEnabled()) {
+            Utilities.printConstants(cp);
+        }
 
         for(Method m : methods) {
-            System.out.println(m); //Print method name
+            Remarks.debug("%s", m); //Print method name
 
             optimiseMethod(cgen, cpgen, m); //Optimise each method
         }
         
         this.optimized = cgen.getJavaClass();
+        passManager.optimise(classPasses, optimized);
+        OptimisationMetrics.addClass(original.getClassName(), System.nanoTime() - start);
     }
 
     /**
@@ -81,11 +262,21 @@ public class ConstantFolder
     private void optimiseMethod(ClassGen cgen, ConstantPoolGen cpgen, Method method) {
         Code methodCode = method.getCode();
 
-        if(methodCode != null) { // Non-abstract method
-            System.out.println("Method code: " +  methodCode);
+        if(methodCode == null || passes.isEmpty()) { // Abstract or native method, or nothing to run
+            return;
         }
 
-        InstructionList instructionList = new InstructionList(methodCode.getCode());
+        if (classBudgetExhausted) {
+            Remarks.rejected("budget", cgen.getClassName(), method, null, "class budget exhausted, kept the original method");
+            return;
+        }
+
+        long methodStart = System.nanoTime();
+        if (Remarks.isDebugEnabled()) {
+            Remarks.debug("Method code: %s", methodCode);
+        }
+
+        InstructionList instructionList = InstructionLists.parse(methodCode.getCode());
 
         // Initialise a method generator with the original method as the baseline
         MethodGen methodGen = new MethodGen(
@@ -98,18 +289,32 @@ public class ConstantFolder
                 cpgen
         );
 
-        int optimiseCounter = 1;
-        
-        // Run in while loop until no more optimisations can be made
-        // optimiseArithmeticOperations is run twice
-        // once before comparisons are optimised, and once after dead
-        // code has been eliminated from optimiseComparisons
-        while (optimiseCounter > 0) {
-            optimiseCounter = 0;
-            optimiseCounter += optimiseNegations(instructionList, cpgen);
-            optimiseCounter += optimiseArithmeticOperation(instructionList, cpgen); //Add number of arithmetic optimisations made
-            optimiseCounter += optimiseComparisons(instructionList, cpgen); //Add number of comparison optimisations made
-            optimiseCounter += optimiseArithmeticOperation(instructionList, cpgen);
+        //Keep the try/catch blocks, the folds must not delete the instructions they point at
+        for (CodeException e : methodCode.getExceptionTable()) {
+            InstructionHandle start = instructionList.findHandle(e.getStartPC());
+            InstructionHandle end = instructionList.findHandle(e.getEndPC()); //end_pc is exclusive
+            end = end == null ? instructionList.getEnd() : end.getPrev();
+            InstructionHandle handler = instructionList.findHandle(e.getHandlerPC());
+            ObjectType catchType = e.getCatchType() == 0 ? null
+                    : new ObjectType(cpgen.getConstantPool().getConstantString(e.getCatchType(), org.apache.bcel.Constants.CONSTANT_Class).replace('/', '.'));
+            methodGen.addExceptionHandler(start, end, handler, catchType);
+        }
+
+        MethodContext context = new MethodContext(cgen.getClassName(), method, methodGen);
+        limit(context, methodStart);
+        List<PassStatistics> statistics;
+        try {
+            statistics = passManager.optimise(passes, context);
+        } catch (BudgetExceededException e) {
+            //Drop the half-optimised code, the constants it added to the pool are unused but harmless
+            Remarks.rejected("budget", cgen.getClassName(), method, null, "%s, kept the original method", e.getMessage());
+            classBudgetExhausted = e.isClassBudget();
+            outOfTime |= e.isTimeBudget();
+            return;
+        }
+        if (passManager.getBudget().getClassIterations() > 0) {
+            classIterationsLeft -= context.getIterations();
+            classBudgetExhausted = classIterationsLeft <= 0; //Every method takes at least one walk
         }
 
         // setPositions(true) checks whether jump handles
@@ -123,322 +328,40 @@ public class ConstantFolder
         // generate the new method with optimised instructions
         Method newMethod = methodGen.getMethod();
 
-        System.out.println("Fully optimised instruction set:");
-        Utilities.printConstants(cpgen.getConstantPool());
-        System.out.println(newMethod.getCode());
+        if (Remarks.isDebugEnabled()) {
+            Remarks.debug("Fully optimised instruction set:");
+            Utilities.printConstants(cpgen.getConstantPool());
+            Remarks.debug("%s", newMethod.getCode());
+        }
 
         // replace the method in the original class
         cgen.replaceMethod(method, newMethod);
-    }
 
-    /**
-     * Fold negations
-     * @param instructionList
-     * @param cpgen
-     * @return
-     */
-    private int optimiseNegations(InstructionList instructionList, ConstantPoolGen cpgen) {
-        int changeCounter = 0;
-
-        String regExp = LOAD_INSTRUCTION_REGEXP + " (INEG|FNEG|LNEG|DNEG)";
-
-        // Search for instruction list where two constants are loaded from the pool, followed by an arithmetic
-        InstructionFinder finder = new InstructionFinder(instructionList);
-
-        for(Iterator it = finder.search(regExp); it.hasNext();) { // Iterate through instructions to look for arithmetic optimisation
-            InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-            //Debug output
-            System.out.println("==================================");
-            System.out.println("Found optimisable negation");
-
-            InstructionHandle loadInstruction = match[0];
-            InstructionHandle negationInstruction = match[1];
-
-            String type = comp207p.main.utils.Signature.getInstructionSignature(negationInstruction, cpgen);
-
-            Utilities.printInstructionHandles(match, cpgen, instructionList, type);
-
-            Number value = ValueLoader.getValue(loadInstruction, cpgen, instructionList, type);
-
-            //Multiply by -1 to negate it, inefficient but oh well
-            Number negatedValue = Utilities.foldOperation(new DMUL(), value, -1);
-
-            System.out.format("Folding to value %s | Type: %s\n", negatedValue, type);
-
-            int newPoolIndex = ConstantPoolInserter.insert(negatedValue, type, cpgen);
-
-            //Set left constant handle to point to new index
-            ConstantPoolInserter.replaceInstructionHandleWithLoadConstant(loadInstruction, type, newPoolIndex);
-
-            //Delete other handles
-            try {
-                instructionList.delete(match[1]);
-            } catch (TargetLostException e) {
-                e.printStackTrace();
-            }
-
-            System.out.println("==================================");
-            changeCounter++;
-
-        }
-
-        return changeCounter;
+        methodStatistics.add(new MethodStatistics(method.getName(), method.getSignature(), methodCode.getCode().length,
+                newMethod.getCode().getCode().length, System.nanoTime() - methodStart, statistics));
     }
 
     /**
-     * Optimise arithmetic operations
-     * @param instructionList Instruction list
-     * @return Number of changes made to instructions
+     * Give a method its own budget, cut down to what is left of the class's
      */
-    private int optimiseArithmeticOperation(InstructionList instructionList, ConstantPoolGen cpgen) {
-        int changeCounter = 0;
-            
-        String regExp = LOAD_INSTRUCTION_REGEXP + " (ConversionInstruction)? " +
-                LOAD_INSTRUCTION_REGEXP + " (ConversionInstruction)? " +
-                "ArithmeticInstruction";
-
-        // Search for instruction list where two constants are loaded from the pool, followed by an arithmetic
-        InstructionFinder finder = new InstructionFinder(instructionList);
-
-        for(Iterator it = finder.search(regExp); it.hasNext();) { // Iterate through instructions to look for arithmetic optimisation
-            InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-            //Debug output
-            System.out.println("==================================");
-            System.out.println("Found optimisable arithmetic set");
-
-            Number leftValue, rightValue;
-            InstructionHandle leftInstruction, rightInstruction, operationInstruction;
-
-            //Get instructions
-            leftInstruction = match[0]; //Left instruction is always first match
-            if (match[1].getInstruction() instanceof ConversionInstruction) { 
-                rightInstruction = match[2]; //If conversion exists for left, then right instruction occurs after it
-            } else {
-                rightInstruction = match[1]; //No conversion instruction for left
-            }
-            if (rightInstruction == match[2] && match[3].getInstruction() instanceof ConversionInstruction) { //If left has conversion and conversion exists for right
-                operationInstruction = match[4]; 
-            } else if (rightInstruction == match[2] || (rightInstruction == match[1] && match[2].getInstruction() instanceof ConversionInstruction)) { //Left has conversion or right has conversion
-                operationInstruction = match[3]; 
-            } else {
-                operationInstruction = match[2]; //No conversion for either instruction
-            }
-
-            if (leftInstruction.getInstruction() instanceof LoadInstruction) { //Recognise for loops
-                if (checkDynamicVariable(leftInstruction, instructionList)) {
-                    Utilities.printDynamicVariableDetected();
-                    continue;
-                }
-            }
-            if (rightInstruction.getInstruction() instanceof LoadInstruction) {
-                if (checkDynamicVariable(rightInstruction, instructionList)) {
-                    Utilities.printDynamicVariableDetected();
-                    continue;
-                }
-            }
-
-            //Get the signature of the folded value
-            String type = ConstantPoolInserter.getFoldedConstantSignature(leftInstruction, rightInstruction, cpgen);
-
-            Utilities.printInstructionHandles(match, cpgen, instructionList, type);
-
-            //Fetch values for push instructions
-            try {
-                leftValue = ValueLoader.getValue(leftInstruction, cpgen, instructionList, type);
-                rightValue = ValueLoader.getValue(rightInstruction, cpgen, instructionList, type);
-            } catch (UnableToFetchValueException e) {
-                Utilities.printDynamicVariableDetected();
-                continue;
-            }
-
-            ArithmeticInstruction operation = (ArithmeticInstruction) operationInstruction.getInstruction();
-
-            Number foldedValue = Utilities.foldOperation(operation, leftValue, rightValue); //Perform the operation on the two values
-
-            System.out.format("Folding to value %s | Type: %s\n", foldedValue, type);
-
-            //Insert new constant into pool
-            int newPoolIndex = ConstantPoolInserter.insert(foldedValue, type, cpgen);
-
-            //Set left constant handle to point to new index
-            ConstantPoolInserter.replaceInstructionHandleWithLoadConstant(leftInstruction, type, newPoolIndex);
-
-            //Delete other handles
-            try {
-                instructionList.delete(match[1], operationInstruction);
-            } catch (TargetLostException e) {
-                e.printStackTrace();
-            }
-
-            System.out.println("==================================");
-            changeCounter++; //Optimisation found
-
-            break;
-        }
+    private void limit(MethodContext context, long methodStart)
+    {
+        Budget budget = passManager.getBudget();
 
-        return changeCounter;
-    }
+        Long deadline = budget.getMethodMillis() == 0 ? null : methodStart + budget.getMethodMillis() * 1000000L;
+        boolean deadlineFromClass = false;
+        if (classDeadline != null && (deadline == null || classDeadline - deadline < 0)) {
+            deadline = classDeadline;
+            deadlineFromClass = true;
+        }
 
-    /**
-     * Optimise comparison instructions
-     * @param instructionList Instruction list
-     * @return Number of changes made to instructions
-     */
-    private int optimiseComparisons(InstructionList instructionList, ConstantPoolGen cpgen) { //Iterate through instructions to look for comparison optimisations
-        int changeCounter = 0;
-        String regExp =  LOAD_INSTRUCTION_REGEXP + "InvokeInstruction?" + " (ConversionInstruction)?" +
-                        LOAD_INSTRUCTION_REGEXP + "?" + " (ConversionInstruction)?" +
-                        "(LCMP|DCMPG|DCMPL|FCMPG|FCMPL)? IfInstruction (ICONST GOTO ICONST)?";
-
-        InstructionFinder finder = new InstructionFinder(instructionList);
-
-        for(Iterator it = finder.search(regExp); it.hasNext();) { // I
-            InstructionHandle[] match = (InstructionHandle[]) it.next();
-
-            //Debug output
-            System.out.println("==================================");
-            System.out.println("Found optimisable comparison set");
-
-            if (match[1].getInstruction() instanceof InvokeInstruction ) {
-                System.out.println("Method detected, unable to fold");
-                System.out.println("==================================");
-                continue;
-            }
-
-            Number leftValue = 0, rightValue = 0;
-            InstructionHandle leftInstruction = null, rightInstruction = null, compare = null, comparisonInstruction = null;
-
-            //Get instructions
-            leftInstruction = match[0]; //Left instruction is always first match
-            if (match[1].getInstruction() instanceof ConversionInstruction
-                && !(match[2].getInstruction() instanceof IfInstruction)) { 
-                rightInstruction = match[2]; //If conversion exists for left, then right instruction occurs after it
-            } else if (!(match[1].getInstruction() instanceof IfInstruction)) {
-                rightInstruction = match[1]; //No conversion instruction for left
-            } else {
-                rightInstruction = null;
-            }
-
-            int matchCounter = 0;
-            if (rightInstruction != null) {
-                if (rightInstruction == match[2] 
-                    && match[3].getInstruction() instanceof ConversionInstruction) { //If left has conversion and conversion exists for right
-                    matchCounter = 2; 
-                } else if (rightInstruction == match[2] 
-                    || (rightInstruction == match[1]
-                    && match[2].getInstruction() instanceof ConversionInstruction)) { //Left has conversion or right has conversion
-                        matchCounter = 1;
-                } else {
-                    matchCounter = 0; //No conversion for either instruction
-                }
-            } else {
-                if (!(match[1].getInstruction() instanceof ConversionInstruction)) {
-                    matchCounter = -1;
-                }
-            }
-
-            if (leftInstruction.getInstruction() instanceof LoadInstruction) { //Recognise for loops
-                if (checkDynamicVariable(leftInstruction, instructionList)) {
-                    Utilities.printDynamicVariableDetected();
-                    continue;
-                }
-            }
-            if (rightInstruction != null && rightInstruction.getInstruction() instanceof LoadInstruction) {
-                if (checkDynamicVariable(rightInstruction, instructionList)) {
-                    Utilities.printDynamicVariableDetected();
-                    continue;
-                }
-            }
-
-            if (match[2+matchCounter].getInstruction() instanceof IfInstruction) { //If the following instruction after left and right is an IfInstruction (meaning integer comparison), such as IF_ICMPGE
-                comparisonInstruction = match[2+matchCounter];
-            } else {
-                compare = match[2+matchCounter]; //Comparison for non-integers, such as LCMP
-                comparisonInstruction = match[3+matchCounter]; //IfInstruction
-            }
-
-            String type;
-            if(rightInstruction != null) {
-                type = ConstantPoolInserter.getFoldedConstantSignature(leftInstruction, rightInstruction, cpgen);
-            } else {
-                type = comp207p.main.utils.Signature.getInstructionSignature(leftInstruction, cpgen);
-            }
-
-            Utilities.printInstructionHandles(match, cpgen, instructionList, type);
-
-            System.out.println("Comparison instruction type: " + type);
-
-            //Fetch values for push instructions
-            try {
-                leftValue = ValueLoader.getValue(leftInstruction, cpgen, instructionList, type);
-                if (rightInstruction != null) { 
-                    rightValue = ValueLoader.getValue(rightInstruction, cpgen, instructionList, type);
-                }
-            } catch (UnableToFetchValueException e) {
-                Utilities.printDynamicVariableDetected();
-                continue;
-            }
-
-            IfInstruction comparison = (IfInstruction) comparisonInstruction.getInstruction();
-
-            int result;
-
-            if (rightInstruction != null) {
-                if (comparisonInstruction == match[2]) { //Integer comparison
-                    result = ComparisonChecker.checkIntComparison(comparison, leftValue, rightValue);
-                } else { //Non-integer type comparison
-                    result = ComparisonChecker.checkFirstComparison(compare, leftValue, rightValue);
-                    result = ComparisonChecker.checkSecondComparison(comparison, result);
-                }
-            } else {
-                result = ComparisonChecker.checkSecondComparison(comparison, leftValue.intValue());
-            }
-
-            //Set left constant handle to point to new index
-            //1 -> 0 and 0 -> 1 due to instruction interpretation
-            if (result == 1) {
-                ICONST newInstruction = new ICONST(0);
-                leftInstruction.setInstruction(newInstruction);
-                result = 0;
-            } else if (result == 0) {
-                ICONST newInstruction = new ICONST(1);
-                leftInstruction.setInstruction(newInstruction);
-                result = 1;
-            } else {
-                ICONST newInstruction = new ICONST(-1);
-                leftInstruction.setInstruction(newInstruction);
-            }
-
-            System.out.format("Folding return value to %d\n", result);
-
-            //Delete other handles
-            try {
-                if (match[match.length-1].getInstruction() instanceof IfInstruction) {
-                    InstructionHandle tempHandle = (InstructionHandle) ((BranchInstruction)comparisonInstruction.getInstruction()).getTarget().getPrev();
-                    if (result == 1) {
-                        instructionList.delete(match[0], comparisonInstruction);
-                        if (tempHandle.getInstruction() instanceof GotoInstruction) {
-                            InstructionHandle gotoTarget = (InstructionHandle) ((BranchInstruction)tempHandle.getInstruction()).getTarget().getPrev();
-                            instructionList.delete(tempHandle, gotoTarget);
-                        }
-                    } else {
-                        instructionList.delete(match[0], tempHandle);
-                    }
-                } else {
-                    instructionList.delete(match[1], match[match.length-1]);
-                }
-            } catch (TargetLostException e) {
-                e.printStackTrace();
-            }
-
-            System.out.println("==================================");
-            changeCounter++; //Optimisation found
-            break;
+        int iterations = budget.getMethodIterations();
+        boolean iterationsFromClass = false;
+        if (budget.getClassIterations() > 0 && (iterations == 0 || classIterationsLeft < iterations)) {
+            iterations = classIterationsLeft;
+            iterationsFromClass = true;
         }
 
-        return changeCounter;
+        context.setBudget(deadline, deadlineFromClass, iterations, iterationsFromClass);
     }
-
-}
\ No newline at end of file
+}
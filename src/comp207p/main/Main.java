@@ -1,5 +1,9 @@
 package comp207p.main;
 
+import comp207p.main.metrics.OptimisationMetrics;
+import comp207p.main.passes.Budget;
+import comp207p.main.passes.PassManager;
+import comp207p.main.utils.Remarks;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
@@ -8,6 +12,10 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * COMP207p courswork 2
@@ -16,18 +24,85 @@ import java.nio.file.attribute.BasicFileAttributes;
 
 public class Main extends SimpleFileVisitor<Path> {
 
-    @Option(name="-in",required=true, usage="Root directory of the input classfiles")
+    @Option(name="-in",required=true, usage="Root directory of the input classfiles, or a JAR/ZIP archive")
     private String inputRoot;
 
-    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored")
+    @Option(name="-out",required=true, usage="Root directory where optimised classfiles will be stored, or the output archive when -in is an archive")
     private String outputRoot;
 
+    @Option(name="-threads", usage="Number of classes optimised in parallel (defaults to the number of available processors)")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name="-cache", usage="Directory of the incremental optimisation cache, unchanged classes are copied from it instead of being optimised again")
+    private String cacheRoot;
+
+    private PassManager.Level level = PassManager.DEFAULT_LEVEL;
+
+    @Option(name="-O0", usage="Run no passes")
+    private void setO0(boolean set) {
+        level = PassManager.Level.O0;
+    }
+
+    @Option(name="-O1", usage="Run the cheap straight-line folds only")
+    private void setO1(boolean set) {
+        level = PassManager.Level.O1;
+    }
+
+    @Option(name="-O2", usage="Also fold comparisons and remove dead branches (default)")
+    private void setO2(boolean set) {
+        level = PassManager.Level.O2;
+    }
+
+    @Option(name="-O3", usage="Run every pass")
+    private void setO3(boolean set) {
+        level = PassManager.Level.O3;
+    }
+
+    @Option(name="-enable", usage="Comma separated passes to run on top of the -O level's")
+    private String enablePasses;
+
+    @Option(name="-disable", usage="Comma separated passes not to run")
+    private String disablePasses;
+
+    @Option(name="-method-budget", usage="Milliseconds spent on one method before it is kept unoptimised (default 10000, 0 for no limit)")
+    private long methodBudget = Budget.DEFAULT.getMethodMillis();
+
+    @Option(name="-class-budget", usage="Milliseconds spent on one class before its remaining methods are kept unoptimised (default 60000, 0 for no limit)")
+    private long classBudget = Budget.DEFAULT.getClassMillis();
+
+    @Option(name="-method-iterations", usage="Rewrites and walks allowed for one method (default 0, no limit)")
+    private int methodIterations = Budget.DEFAULT.getMethodIterations();
+
+    @Option(name="-class-iterations", usage="Rewrites and walks allowed for all the methods of one class (default 0, no limit)")
+    private int classIterations = Budget.DEFAULT.getClassIterations();
+
+    @Option(name="-log", usage="What to print while optimising: QUIET (default), REMARKS for every fold applied or rejected, or DEBUG")
+    private Remarks.Level logLevel = Remarks.Level.QUIET;
+
+    @Option(name="-trace", usage="File to write every fold applied or rejected to, as one JSON object per line")
+    private String traceFile;
+
+    private OptimisationCache cache = null;
+    private PassManager passManager;
+
+    //Class files found while walking the input tree, optimised once the walk is complete
+    private final List<Path> classFiles = new ArrayList<>();
+
     private void parseArguments(String args[])
     {
         CmdLineParser parser = new CmdLineParser(this);
         parser.setUsageWidth(80);
         try{
             parser.parseArgument(args);
+            if (threads < 1) {
+                throw new CmdLineException(parser, "-threads must be at least 1");
+            }
+            try {
+                passManager = PassManager.fromOptions(level, enablePasses, disablePasses)
+                        .withBudget(new Budget(methodBudget, classBudget, methodIterations, classIterations));
+            } catch (IllegalArgumentException e) {
+                throw new CmdLineException(parser, e.getMessage());
+            }
         } catch (CmdLineException e) {
             System.err.println(e.getMessage());
             System.err.println("java BatchExperiment inputFolder outputFolder");
@@ -41,7 +116,28 @@ public class Main extends SimpleFileVisitor<Path> {
 	System.out.println("Running COMP207p coursework-2");
         Main main = new Main();
         main.parseArguments(args);
-        Files.walkFileTree(Paths.get(main.inputRoot), main);
+        Remarks.configure(main.logLevel, main.traceFile == null ? null : Paths.get(main.traceFile));
+        if (main.cacheRoot != null) {
+            main.cache = new OptimisationCache(Paths.get(main.cacheRoot), main.passManager);
+        }
+
+        int failures;
+        Path input = Paths.get(main.inputRoot);
+        if (Files.isRegularFile(input)) {
+            failures = main.optimiseArchive(input);
+        } else {
+            Files.walkFileTree(input, main);
+            failures = main.optimiseClassFiles();
+        }
+        Remarks.close();
+        OptimisationMetrics.printSummary(System.out);
+        if (main.cache != null) {
+            System.out.format("Optimisation cache: %d hit(s), %d miss(es)\n", main.cache.getHits(), main.cache.getMisses());
+        }
+        if (failures > 0) {
+            System.err.format("%d class(es) could not be optimised\n", failures);
+            System.exit(1);
+        }
     }
 
     @Override
@@ -56,12 +152,31 @@ public class Main extends SimpleFileVisitor<Path> {
     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
         String fname = file.toString();
         if(fname.endsWith(".class") && !fname.contains("main")){
-            System.out.println("---------------------------------------------------");
-            System.out.format("Optimising %s\n", fname);
-            ConstantFolder cf = new ConstantFolder(file.toString());
-            Path rel = Paths.get(inputRoot).relativize(file);
-            cf.write(Paths.get(outputRoot, rel.toString()).toAbsolutePath().toString());
+            classFiles.add(file);
         }
         return super.visitFile(file, attrs);
     }
+
+    /**
+     * Optimise every collected class file through the read/optimise/write pipeline.
+     * Results are reported in path order so the log is the same from run to run,
+     * and a failing class is reported without stopping the rest of the run.
+     * @return Number of classes that failed to optimise
+     */
+    private int optimiseClassFiles() throws IOException {
+        return new ClassFilePipeline(threads, cache, passManager).run(Paths.get(inputRoot), Paths.get(outputRoot), classFiles);
+    }
+
+    /**
+     * Optimise the classes of a JAR/ZIP archive straight into a new archive
+     * @return Number of classes that failed to optimise
+     */
+    private int optimiseArchive(Path archive) throws IOException {
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        try {
+            return new ArchiveOptimiser(pool, threads, cache, passManager).optimise(archive, Paths.get(outputRoot));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 }
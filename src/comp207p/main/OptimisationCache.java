@@ -0,0 +1,176 @@
+package comp207p.main;
+
+import comp207p.main.passes.PassManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.*;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Persistent on-disk cache of optimised class files.
+ * Entries are keyed by a SHA-256 hash of the input class bytes, the optimiser build and the pass configuration,
+ * so an unchanged class is read back from the cache without being parsed or folded again.
+ */
+public class OptimisationCache {
+
+    private final Path cacheRoot;
+
+    //Hash of the optimiser classes and pass configuration, mixed into every key
+    private final byte[] optimiserFingerprint;
+
+    //Passes run on a miss
+    private final PassManager passManager;
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param cacheRoot Directory holding the cache entries, created if missing
+     * @param passManager Passes to run, entries made with another pass configuration are never reused
+     */
+    public OptimisationCache(Path cacheRoot, PassManager passManager) throws IOException {
+        this.cacheRoot = cacheRoot;
+        this.passManager = passManager;
+        Files.createDirectories(cacheRoot);
+
+        MessageDigest digest = newDigest();
+        digest.update(optimiserBuild());
+        digest.update(passManager.describe().getBytes("UTF-8"));
+        this.optimiserFingerprint = digest.digest();
+    }
+
+    /**
+     * Compute the cache key of a class file
+     * @param classBytes Contents of the input class file
+     * @return Hex encoded key
+     */
+    public String key(byte[] classBytes) {
+        MessageDigest digest = newDigest();
+        digest.update(optimiserFingerprint);
+        digest.update(classBytes);
+        return toHex(digest.digest());
+    }
+
+    public boolean contains(String key) {
+        return Files.isRegularFile(entryPath(key));
+    }
+
+    /**
+     * Store optimised bytes under a key. The entry is written to a temporary file first and then renamed,
+     * so concurrent runs sharing the cache never see a partial entry.
+     */
+    public void put(String key, byte[] optimisedBytes) throws IOException {
+        Path entry = entryPath(key);
+        Files.createDirectories(entry.getParent());
+        Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+        try {
+            Files.write(temp, optimisedBytes);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Get the optimised version of class file bytes, optimising and caching them first if needed
+     * @param classBytes Contents of the input class file
+     * @param fileName Name of the class file, only used for error messages
+     * @return Optimised class file
+     */
+    public byte[] optimise(byte[] classBytes, String fileName) throws IOException {
+        String key = key(classBytes);
+
+        if (contains(key)) {
+            hits.incrementAndGet();
+            return Files.readAllBytes(entryPath(key));
+        }
+
+        misses.incrementAndGet();
+        ConstantFolder cf = new ConstantFolder(classBytes, fileName, passManager);
+        byte[] optimisedBytes = cf.optimiseToBytes();
+        if (!cf.ranOutOfTime()) {
+            put(key, optimisedBytes);
+        }
+        return optimisedBytes;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private Path entryPath(String key) {
+        return cacheRoot.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".class");
+    }
+
+    /**
+     * Hash the class files of the optimiser itself, so rebuilding the optimiser invalidates the cache
+     */
+    private static byte[] optimiserBuild() throws IOException {
+        MessageDigest digest = newDigest();
+        CodeSource source = ConstantFolder.class.getProtectionDomain().getCodeSource();
+        URL location = source == null ? null : source.getLocation();
+        if (location == null) {
+            throw new IOException("Unable to locate the optimiser classes");
+        }
+
+        Path root;
+        try {
+            root = Paths.get(location.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        if (Files.isDirectory(root)) {
+            List<Path> classes = new ArrayList<>();
+            try (Stream<Path> files = Files.walk(root.resolve("comp207p").resolve("main"))) {
+                files.filter(p -> p.toString().endsWith(".class")).forEach(classes::add);
+            }
+            Collections.sort(classes);
+            for (Path p : classes) {
+                digest.update(root.relativize(p).toString().getBytes("UTF-8"));
+                digest.update(Files.readAllBytes(p));
+            }
+        } else {
+            try (InputStream in = Files.newInputStream(root)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+        }
+
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,41 @@
+package comp207p.main;
+
+import comp207p.main.metrics.MethodStatistics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Optimised class file and what was done to each of its methods, returned by ConstantFolder.optimise
+ */
+public class OptimisationResult {
+
+    private final String className;
+    private final byte[] bytes;
+    private final List<MethodStatistics> methods;
+
+    OptimisationResult(String className, byte[] bytes, List<MethodStatistics> methods) {
+        this.className = className;
+        this.bytes = bytes;
+        this.methods = Collections.unmodifiableList(methods);
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return Optimised class file, not copied: when the class is passed through unoptimised it is the array
+     * given to ConstantFolder.optimise, or the one behind the buffer, so writing to it changes that input too
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return Statistics of every method with code, in class file order
+     */
+    public List<MethodStatistics> getMethods() {
+        return methods;
+    }
+}
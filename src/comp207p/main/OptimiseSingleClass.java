@@ -1,5 +1,9 @@
 package comp207p.main;
 
+import comp207p.main.utils.Remarks;
+
+import java.io.IOException;
+
 /**
  * Optimise a single class only for debugging
  */
@@ -9,12 +13,13 @@ public class OptimiseSingleClass {
      * 1: ClassName e.g "SimpleFolding.class"
      * @param args
      */
-    public static void main(String args[]) {
+    public static void main(String args[]) throws IOException {
         String className = args[0];
         String inputPath = "build/classes/comp207p/target/" + className;
         String optimisedPath = "optimised/classes/comp207p/target/" + className;
 
         System.out.format("Optimising %s\n", className);
+        Remarks.configure(Remarks.Level.DEBUG, null);
 
         ConstantFolder cf = new ConstantFolder(inputPath);
         cf.write(optimisedPath);
@@ -0,0 +1,129 @@
+package comp207p.main.agent;
+
+import comp207p.main.ConstantFolder;
+import comp207p.main.corpus.SyntheticMethods;
+import comp207p.main.passes.PassManager;
+import comp207p.main.utils.Remarks;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Java agent that folds constants in application classes while they are loaded, e.g.
+ * java -javaagent:build/comp207p-agent.jar=include=com.example;budget=50 -jar app.jar
+ *
+ * Options are separated by ';':
+ *   include=a.b,c.d  package prefixes to optimise (default: everything outside the JDK)
+ *   exclude=a.b.c    package prefixes to leave alone
+ *   cache=4096       number of optimised classes kept in memory
+ *   budget=50        milliseconds a class load waits for its class to be optimised
+ *   threads=2        number of optimising threads
+ *   log=remarks      QUIET, REMARKS or DEBUG
+ *   level=O2         optimisation level, O0 to O3
+ *   enable=a,b       passes to run on top of the level's
+ *   disable=c        passes not to run
+ */
+public class OptimiserAgent {
+
+    public static void premain(String arguments, Instrumentation instrumentation) throws IOException {
+        install(arguments, instrumentation);
+    }
+
+    public static void agentmain(String arguments, Instrumentation instrumentation) throws IOException {
+        install(arguments, instrumentation); //Only classes loaded from now on are optimised
+    }
+
+    private static void install(String arguments, Instrumentation instrumentation) throws IOException {
+        List<String> include = new ArrayList<>();
+        List<String> exclude = new ArrayList<>();
+        int cacheSize = 4096;
+        long budget = 50;
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        Remarks.Level logLevel = Remarks.Level.QUIET;
+        PassManager.Level level = PassManager.DEFAULT_LEVEL;
+        String enable = null;
+        String disable = null;
+
+        for (String option : arguments == null ? new String[0] : arguments.split(";")) {
+            if (option.trim().isEmpty()) {
+                continue;
+            }
+            String[] parts = option.split("=", 2);
+            String key = parts[0].trim();
+            String value = parts.length > 1 ? parts[1].trim() : "";
+            try {
+                switch (key) {
+                    case "include":
+                        include.addAll(prefixes(value));
+                        break;
+                    case "exclude":
+                        exclude.addAll(prefixes(value));
+                        break;
+                    case "cache":
+                        cacheSize = Integer.parseInt(value);
+                        break;
+                    case "budget":
+                        budget = Long.parseLong(value);
+                        break;
+                    case "threads":
+                        threads = Integer.parseInt(value);
+                        break;
+                    case "log":
+                        logLevel = Remarks.Level.valueOf(value.toUpperCase());
+                        break;
+                    case "level":
+                        level = PassManager.Level.valueOf(value.toUpperCase());
+                        break;
+                    case "enable":
+                        enable = value;
+                        break;
+                    case "disable":
+                        disable = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown option");
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid comp207p agent option: " + option, e);
+            }
+        }
+        if (cacheSize < 1 || budget < 0 || threads < 1) {
+            throw new IllegalArgumentException("comp207p agent cache and threads must be positive, budget must not be negative");
+        }
+
+        PassManager passManager = PassManager.fromOptions(level, enable, disable);
+        Remarks.configure(logLevel, null);
+        warmUp();
+
+        final OptimisingTransformer transformer = new OptimisingTransformer(include, exclude, cacheSize, budget, threads, passManager);
+        instrumentation.addTransformer(transformer);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Remarks.info("%s", transformer.summary());
+            }
+        }));
+    }
+
+    private static List<String> prefixes(String value) {
+        List<String> prefixes = new ArrayList<>();
+        for (String prefix : Arrays.asList(value.split(","))) {
+            if (!prefix.trim().isEmpty()) {
+                prefixes.add(prefix.trim().replace('/', '.'));
+            }
+        }
+        return prefixes;
+    }
+
+    /**
+     * Load BCEL and the folder before the first application class, so that the time budget of the first
+     * classes is not spent loading the optimiser itself
+     */
+    private static void warmUp() {
+        byte[] bytes = SyntheticMethods.generate("comp207p.main.agent.WarmUp", 256);
+        new ConstantFolder(bytes, "WarmUp.class").optimiseToBytes();
+    }
+}
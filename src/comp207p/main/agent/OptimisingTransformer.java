@@ -0,0 +1,183 @@
+package comp207p.main.agent;
+
+import comp207p.main.ConstantFolder;
+import comp207p.main.passes.PassManager;
+import comp207p.main.utils.ClassFiles;
+import comp207p.main.utils.Remarks;
+
+import java.lang.instrument.ClassFileTransformer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Folds constants in classes as they are loaded.
+ * Optimisation runs on a pool of daemon threads and the loading thread waits at most the time budget for it;
+ * a class that takes longer is loaded unchanged and its result is cached when it finishes, for the next
+ * class loader that defines the same bytes.
+ */
+public class OptimisingTransformer implements ClassFileTransformer {
+
+    //Never transformed: the JDK, the optimiser and its libraries, which would otherwise transform themselves
+    private static final String[] ALWAYS_EXCLUDED = {
+            "java.", "javax.", "jdk.", "sun.", "com.sun.", "comp207p.main.", "org.apache.bcel.", "org.kohsuke.args4j."
+    };
+
+    private final List<String> include;
+    private final List<String> exclude;
+    private final long budgetMillis;
+    private final ExecutorService pool;
+    private final PassManager passManager;
+
+    //Optimised bytes by hash of the original bytes, least recently used first; empty when folding failed
+    private final Map<String, byte[]> cache;
+
+    private final AtomicInteger optimised = new AtomicInteger();
+    private final AtomicInteger cacheHits = new AtomicInteger();
+    private final AtomicInteger overBudget = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param include Package prefixes to optimise, all packages if empty
+     * @param exclude Package prefixes never optimised
+     * @param cacheSize Number of classes kept in the cache
+     * @param budgetMillis Longest time a class load waits for its class to be optimised
+     * @param threads Number of optimising threads
+     * @param passManager Passes to run
+     */
+    public OptimisingTransformer(List<String> include, List<String> exclude, final int cacheSize, long budgetMillis, int threads,
+                                 PassManager passManager) {
+        this.passManager = passManager;
+        this.include = new ArrayList<>(include);
+        this.exclude = new ArrayList<>(exclude);
+        this.budgetMillis = budgetMillis;
+        this.cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "comp207p-agent-" + count.incrementAndGet());
+                thread.setDaemon(true); //Never keeps the application alive
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined,
+                            ProtectionDomain protectionDomain, final byte[] classfileBuffer) {
+        if (className == null || classBeingRedefined != null) {
+            return null; //Hidden classes and redefinitions are left alone
+        }
+        final String name = className.replace('/', '.');
+        if (!isIncluded(name) || !ClassFiles.isSupported(classfileBuffer)) {
+            skipped.incrementAndGet();
+            return null;
+        }
+
+        final String key = hash(classfileBuffer);
+        byte[] cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached.length == 0 ? null : cached;
+        }
+
+        Future<byte[]> result = pool.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                byte[] bytes;
+                try {
+                    bytes = ConstantFolder.optimise(classfileBuffer, name + ".class", passManager).getBytes();
+                    optimised.incrementAndGet();
+                } catch (Throwable e) { //Anything the folder cannot handle is loaded as it is
+                    Remarks.info("Agent could not optimise %s: %s", name, e);
+                    failed.incrementAndGet();
+                    bytes = new byte[0];
+                }
+                synchronized (cache) {
+                    cache.put(key, bytes);
+                }
+                return bytes;
+            }
+        });
+
+        try {
+            byte[] bytes = result.get(budgetMillis, TimeUnit.MILLISECONDS);
+            return bytes.length == 0 ? null : bytes;
+        } catch (TimeoutException e) {
+            overBudget.incrementAndGet(); //Keeps running and fills the cache
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private boolean isIncluded(String name) {
+        for (String prefix : ALWAYS_EXCLUDED) {
+            if (name.startsWith(prefix)) {
+                return false;
+            }
+        }
+        for (String prefix : exclude) {
+            if (name.startsWith(prefix)) {
+                return false;
+            }
+        }
+        if (include.isEmpty()) {
+            return true;
+        }
+        for (String prefix : include) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String hash(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte d : digest) {
+                hex.append(String.format("%02x", d));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return One line summary of the classes seen so far
+     */
+    public String summary() {
+        return String.format("Agent: %d optimised, %d from cache, %d over budget, %d failed, %d skipped",
+                optimised.get(), cacheHits.get(), overBudget.get(), failed.get(), skipped.get());
+    }
+}
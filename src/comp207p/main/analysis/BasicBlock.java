@@ -0,0 +1,83 @@
+package comp207p.main.analysis;
+
+import org.apache.bcel.generic.InstructionHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Straight-line run of instructions with a single entry at the start and a single exit at the end
+ */
+public class BasicBlock {
+
+    private final int index;
+    private final InstructionHandle start;
+    private InstructionHandle end;
+
+    private final List<BasicBlock> successors = new ArrayList<>();
+    private final List<BasicBlock> predecessors = new ArrayList<>();
+
+    //Handlers of the try blocks covering this block, and the blocks covered by this handler
+    private final List<BasicBlock> exceptionSuccessors = new ArrayList<>();
+    private final List<BasicBlock> exceptionPredecessors = new ArrayList<>();
+
+    BasicBlock(int index, InstructionHandle start) {
+        this.index = index;
+        this.start = start;
+        this.end = start;
+    }
+
+    void setEnd(InstructionHandle end) {
+        this.end = end;
+    }
+
+    void addSuccessor(BasicBlock successor) {
+        if (!successors.contains(successor)) {
+            successors.add(successor);
+            successor.predecessors.add(this);
+        }
+    }
+
+    void addExceptionSuccessor(BasicBlock handler) {
+        if (!exceptionSuccessors.contains(handler)) {
+            exceptionSuccessors.add(handler);
+            handler.exceptionPredecessors.add(this);
+        }
+    }
+
+    /**
+     * @return Position of the block in instruction order, the entry block is 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public InstructionHandle getStart() {
+        return start;
+    }
+
+    public InstructionHandle getEnd() {
+        return end;
+    }
+
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    public List<BasicBlock> getExceptionSuccessors() {
+        return exceptionSuccessors;
+    }
+
+    public List<BasicBlock> getExceptionPredecessors() {
+        return exceptionPredecessors;
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index + "[" + start.getPosition() + "-" + end.getPosition() + "]";
+    }
+}
@@ -0,0 +1,481 @@
+package comp207p.main.analysis;
+
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Control-flow graph of a method: basic blocks with normal and exception edges, the dominator tree
+ * and the natural loops. Built once per method and shared by every pass that folds it.
+ */
+public class ControlFlowGraph {
+
+    private final InstructionList instructionList;
+    private final List<BasicBlock> blocks = new ArrayList<>();
+    private final Map<InstructionHandle, BasicBlock> blockOf = new HashMap<>();
+    private final List<BasicBlock> reversePostOrder;
+
+    //Immediate dominator of each block, and the pre/post numbering of the dominator tree for constant time queries
+    private BasicBlock[] immediateDominator;
+    private int[] dominatorPre;
+    private int[] dominatorPost;
+
+    private final List<Loop> loops = new ArrayList<>();
+    private int[] loopDepth; //Number of loops each block is nested in
+
+    //Blocks on a cycle, natural loop or not: an irreducible cycle has no header dominating the rest of it
+    private final BitSet onCycle = new BitSet();
+
+    //JSR/RET subroutines have no static successors, analyses give up on them
+    private boolean hasSubroutines = false;
+
+    /**
+     * @param instructionList Instructions of the method
+     * @param exceptionHandlers Exception table of the method
+     */
+    public ControlFlowGraph(InstructionList instructionList, CodeExceptionGen[] exceptionHandlers) {
+        this.instructionList = instructionList;
+
+        Set<InstructionHandle> leaders = findLeaders(exceptionHandlers);
+
+        BasicBlock current = null;
+        for (InstructionHandle h = instructionList.getStart(); h != null; h = h.getNext()) {
+            if (current == null || leaders.contains(h)) {
+                current = new BasicBlock(blocks.size(), h);
+                blocks.add(current);
+            }
+            current.setEnd(h);
+            blockOf.put(h, current);
+        }
+
+        for (BasicBlock block : blocks) {
+            addNormalEdges(block);
+        }
+
+        for (CodeExceptionGen handler : exceptionHandlers) {
+            BasicBlock handlerBlock = blockOf.get(handler.getHandlerPC());
+            InstructionHandle last = handler.getEndPC().getNext();
+            for (InstructionHandle h = handler.getStartPC(); h != null && h != last; h = h.getNext()) {
+                blockOf.get(h).addExceptionSuccessor(handlerBlock);
+            }
+        }
+
+        this.reversePostOrder = computeReversePostOrder();
+        computeDominators();
+        computeLoops();
+        computeCycles();
+    }
+
+    private Set<InstructionHandle> findLeaders(CodeExceptionGen[] exceptionHandlers) {
+        Set<InstructionHandle> leaders = new HashSet<>();
+
+        for (InstructionHandle h = instructionList.getStart(); h != null; h = h.getNext()) {
+            Instruction instruction = h.getInstruction();
+
+            if (instruction instanceof JsrInstruction || instruction instanceof RET) {
+                hasSubroutines = true;
+            }
+
+            if (instruction instanceof BranchInstruction) {
+                leaders.add(((BranchInstruction) instruction).getTarget());
+                if (instruction instanceof Select) {
+                    Collections.addAll(leaders, ((Select) instruction).getTargets());
+                }
+            }
+
+            if (endsBlock(instruction) && h.getNext() != null) {
+                leaders.add(h.getNext());
+            }
+        }
+
+        for (CodeExceptionGen handler : exceptionHandlers) {
+            leaders.add(handler.getStartPC());
+            leaders.add(handler.getHandlerPC());
+            if (handler.getEndPC().getNext() != null) {
+                leaders.add(handler.getEndPC().getNext());
+            }
+        }
+
+        return leaders;
+    }
+
+    private static boolean endsBlock(Instruction instruction) {
+        return instruction instanceof BranchInstruction
+                || instruction instanceof ReturnInstruction
+                || instruction instanceof ATHROW
+                || instruction instanceof RET;
+    }
+
+    private void addNormalEdges(BasicBlock block) {
+        InstructionHandle end = block.getEnd();
+        Instruction instruction = end.getInstruction();
+
+        if (instruction instanceof BranchInstruction) {
+            block.addSuccessor(blockOf.get(((BranchInstruction) instruction).getTarget()));
+            if (instruction instanceof Select) {
+                for (InstructionHandle target : ((Select) instruction).getTargets()) {
+                    block.addSuccessor(blockOf.get(target));
+                }
+            }
+        }
+
+        boolean fallsThrough = !(instruction instanceof GotoInstruction
+                || instruction instanceof Select
+                || instruction instanceof ReturnInstruction
+                || instruction instanceof ATHROW
+                || instruction instanceof RET);
+        if (fallsThrough && end.getNext() != null) {
+            block.addSuccessor(blockOf.get(end.getNext()));
+        }
+    }
+
+    /**
+     * Depth-first order from the entry, following exception edges too
+     */
+    private List<BasicBlock> computeReversePostOrder() {
+        List<BasicBlock> postOrder = new ArrayList<>(blocks.size());
+        if (blocks.isEmpty()) {
+            return postOrder;
+        }
+
+        boolean[] visited = new boolean[blocks.size()];
+        List<BasicBlock> stack = new ArrayList<>();
+        List<Integer> nextChild = new ArrayList<>();
+        stack.add(getEntry());
+        nextChild.add(0);
+        visited[0] = true;
+
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            int child = nextChild.get(top);
+            int normal = block.getSuccessors().size();
+
+            if (child < normal + block.getExceptionSuccessors().size()) {
+                nextChild.set(top, child + 1);
+                BasicBlock successor = child < normal
+                        ? block.getSuccessors().get(child)
+                        : block.getExceptionSuccessors().get(child - normal);
+                if (!visited[successor.getIndex()]) {
+                    visited[successor.getIndex()] = true;
+                    stack.add(successor);
+                    nextChild.add(0);
+                }
+            } else {
+                postOrder.add(block);
+                stack.remove(top);
+                nextChild.remove(top);
+            }
+        }
+
+        Collections.reverse(postOrder);
+        return postOrder;
+    }
+
+    /**
+     * Iterative dominator algorithm of Cooper, Harvey and Kennedy over the reverse post-order.
+     * Exception edges count as edges, so a handler is dominated by the blocks that dominate its try block.
+     */
+    private void computeDominators() {
+        int n = blocks.size();
+        immediateDominator = new BasicBlock[n];
+        dominatorPre = new int[n];
+        dominatorPost = new int[n];
+        if (reversePostOrder.isEmpty()) {
+            return;
+        }
+
+        final int[] order = new int[n];
+        Arrays.fill(order, -1);
+        for (int i = 0; i < reversePostOrder.size(); i++) {
+            order[reversePostOrder.get(i).getIndex()] = i;
+        }
+
+        BasicBlock entry = getEntry();
+        immediateDominator[entry.getIndex()] = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : reversePostOrder) {
+                if (block == entry) {
+                    continue;
+                }
+
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : allPredecessors(block)) {
+                    if (order[predecessor.getIndex()] < 0 || immediateDominator[predecessor.getIndex()] == null) {
+                        continue; //Unreachable or not processed yet
+                    }
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator, order);
+                }
+
+                if (dominator != immediateDominator[block.getIndex()]) {
+                    immediateDominator[block.getIndex()] = dominator;
+                    changed = true;
+                }
+            }
+        }
+
+        //Number the dominator tree depth-first, a dominates b iff b's interval lies within a's
+        List<List<BasicBlock>> children = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            children.add(new ArrayList<BasicBlock>());
+        }
+        for (BasicBlock block : reversePostOrder) {
+            if (block != entry) {
+                children.get(immediateDominator[block.getIndex()].getIndex()).add(block);
+            }
+        }
+
+        Arrays.fill(dominatorPre, -1);
+        int counter = 0;
+        List<BasicBlock> stack = new ArrayList<>();
+        List<Integer> nextChild = new ArrayList<>();
+        stack.add(entry);
+        nextChild.add(0);
+        dominatorPre[entry.getIndex()] = counter++;
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            int child = nextChild.get(top);
+            if (child < children.get(block.getIndex()).size()) {
+                nextChild.set(top, child + 1);
+                BasicBlock next = children.get(block.getIndex()).get(child);
+                dominatorPre[next.getIndex()] = counter++;
+                stack.add(next);
+                nextChild.add(0);
+            } else {
+                dominatorPost[block.getIndex()] = counter++;
+                stack.remove(top);
+                nextChild.remove(top);
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b, int[] order) {
+        while (a != b) {
+            while (order[a.getIndex()] > order[b.getIndex()]) {
+                a = immediateDominator[a.getIndex()];
+            }
+            while (order[b.getIndex()] > order[a.getIndex()]) {
+                b = immediateDominator[b.getIndex()];
+            }
+        }
+        return a;
+    }
+
+    private static List<BasicBlock> allPredecessors(BasicBlock block) {
+        List<BasicBlock> predecessors = new ArrayList<>(block.getPredecessors());
+        predecessors.addAll(block.getExceptionPredecessors());
+        return predecessors;
+    }
+
+    /**
+     * Find the natural loop of every back edge, an edge whose target dominates its source.
+     * Back edges into the same header share one loop.
+     */
+    private void computeLoops() {
+        loopDepth = new int[blocks.size()];
+        Map<BasicBlock, Loop> loopOf = new HashMap<>();
+
+        for (BasicBlock block : reversePostOrder) {
+            for (BasicBlock header : block.getSuccessors()) {
+                if (!dominates(header, block)) {
+                    continue;
+                }
+
+                Loop loop = loopOf.get(header);
+                if (loop == null) {
+                    loop = new Loop(header);
+                    loopOf.put(header, loop);
+                    loops.add(loop);
+                }
+
+                //Walk backwards from the end of the back edge until the header
+                List<BasicBlock> worklist = new ArrayList<>();
+                if (!loop.contains(block)) {
+                    loop.add(block);
+                    worklist.add(block);
+                }
+                while (!worklist.isEmpty()) {
+                    BasicBlock current = worklist.remove(worklist.size() - 1);
+                    for (BasicBlock predecessor : allPredecessors(current)) {
+                        if (isReachable(predecessor) && !loop.contains(predecessor)) {
+                            loop.add(predecessor);
+                            worklist.add(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+
+        for (Loop loop : loops) {
+            for (BasicBlock block : blocks) {
+                if (loop.contains(block)) {
+                    loopDepth[block.getIndex()]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the blocks on a cycle: those in a strongly connected component of more than one block, or with an
+     * edge to themselves. Tarjan's algorithm, iterative so a long method cannot overflow the stack.
+     */
+    private void computeCycles() {
+        if (reversePostOrder.isEmpty()) {
+            return;
+        }
+        int n = blocks.size();
+        int[] number = new int[n];
+        int[] lowLink = new int[n];
+        Arrays.fill(number, -1);
+        boolean[] onStack = new boolean[n];
+        int[] position = new int[n]; //Where each block is on Tarjan's stack
+        List<BasicBlock> components = new ArrayList<>(); //Tarjan's stack of blocks not yet in a component
+        List<BasicBlock> stack = new ArrayList<>(); //Depth-first path
+        List<Integer> nextChild = new ArrayList<>();
+        int counter = 0;
+
+        BasicBlock entry = getEntry();
+        number[entry.getIndex()] = lowLink[entry.getIndex()] = counter++;
+        position[entry.getIndex()] = components.size();
+        components.add(entry);
+        onStack[entry.getIndex()] = true;
+        stack.add(entry);
+        nextChild.add(0);
+        while (!stack.isEmpty()) {
+            int top = stack.size() - 1;
+            BasicBlock block = stack.get(top);
+            int b = block.getIndex();
+            int child = nextChild.get(top);
+            int normal = block.getSuccessors().size();
+
+            if (child < normal + block.getExceptionSuccessors().size()) {
+                nextChild.set(top, child + 1);
+                BasicBlock successor = child < normal
+                        ? block.getSuccessors().get(child)
+                        : block.getExceptionSuccessors().get(child - normal);
+                int s = successor.getIndex();
+                if (s == b) {
+                    onCycle.set(b);
+                } else if (number[s] < 0) {
+                    number[s] = lowLink[s] = counter++;
+                    position[s] = components.size();
+                    components.add(successor);
+                    onStack[s] = true;
+                    stack.add(successor);
+                    nextChild.add(0);
+                } else if (onStack[s]) {
+                    lowLink[b] = Math.min(lowLink[b], number[s]);
+                }
+                continue;
+            }
+
+            stack.remove(top);
+            nextChild.remove(top);
+            if (top > 0) {
+                int parent = stack.get(top - 1).getIndex();
+                lowLink[parent] = Math.min(lowLink[parent], lowLink[b]);
+            }
+            if (lowLink[b] == number[b]) {
+                //Root of a component, everything above it on Tarjan's stack belongs to it
+                int root = position[b];
+                boolean cycle = root < components.size() - 1;
+                while (components.size() > root) {
+                    BasicBlock member = components.remove(components.size() - 1);
+                    onStack[member.getIndex()] = false;
+                    if (cycle) {
+                        onCycle.set(member.getIndex());
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isReachable(BasicBlock block) {
+        return immediateDominator[block.getIndex()] != null;
+    }
+
+    /**
+     * @return true if every path from the entry to b goes through a. Unreachable blocks are dominated by nothing.
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        if (a == null || b == null || !isReachable(a) || !isReachable(b)) {
+            return false;
+        }
+        return dominatorPre[a.getIndex()] <= dominatorPre[b.getIndex()]
+                && dominatorPost[b.getIndex()] <= dominatorPost[a.getIndex()];
+    }
+
+    /**
+     * @return Immediate dominator of the block, the entry for itself, null if the block is unreachable
+     */
+    public BasicBlock getImmediateDominator(BasicBlock block) {
+        return immediateDominator[block.getIndex()];
+    }
+
+    public List<Loop> getLoops() {
+        return loops;
+    }
+
+    /**
+     * @return Number of natural loops the block is nested in, 0 outside any loop
+     */
+    public int getLoopDepth(BasicBlock block) {
+        return block == null ? 0 : loopDepth[block.getIndex()];
+    }
+
+    /**
+     * @param h Instruction of the method
+     * @return true if the instruction can run more than once in a call of the method, in a natural loop or
+     * in an irreducible cycle
+     */
+    public boolean isInLoop(InstructionHandle h) {
+        BasicBlock block = getBlock(h);
+        return block != null && onCycle.get(block.getIndex());
+    }
+
+    public InstructionList getInstructionList() {
+        return instructionList;
+    }
+
+    public BasicBlock getEntry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * @return All blocks in instruction order
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return Blocks reachable from the entry, in reverse post-order
+     */
+    public List<BasicBlock> getReversePostOrder() {
+        return reversePostOrder;
+    }
+
+    /**
+     * @param h Instruction of the method
+     * @return Block containing the instruction, or null if the instruction was added after the graph was built
+     */
+    public BasicBlock getBlock(InstructionHandle h) {
+        return blockOf.get(h);
+    }
+
+    public boolean hasSubroutines() {
+        return hasSubroutines;
+    }
+}
@@ -0,0 +1,130 @@
+package comp207p.main.analysis;
+
+import org.apache.bcel.generic.*;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Live local variables, computed once per method over the control-flow graph.
+ * A slot is live at a point if some path from there reads it before writing it. Only the live-out set of
+ * each block is kept; passes walk a block backwards from it with transfer to get the slots live after each
+ * instruction. Any instruction of a try block can throw, so what its handlers read is live all through it.
+ */
+public class LiveVariables {
+
+    private final ControlFlowGraph cfg;
+    private final ConstantPoolGen cpgen;
+
+    private final BitSet[] liveIn;
+    private final BitSet[] liveOut;
+    private final BitSet[] handlersLive; //Live on entry to any handler covering each block
+
+    /**
+     * @param cfg Control-flow graph of the method, which must not have subroutines
+     * @param cpgen Constant pool of the method, used for the types of the loads and stores
+     */
+    public LiveVariables(ControlFlowGraph cfg, ConstantPoolGen cpgen) {
+        this.cfg = cfg;
+        this.cpgen = cpgen;
+
+        int blockCount = cfg.getBlocks().size();
+        liveIn = new BitSet[blockCount];
+        liveOut = new BitSet[blockCount];
+        handlersLive = new BitSet[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            liveIn[b] = new BitSet();
+            liveOut[b] = new BitSet();
+            handlersLive[b] = new BitSet();
+        }
+
+        solve();
+    }
+
+    /**
+     * Iterate the dataflow equations backwards over every block, unreachable ones included, until nothing changes
+     */
+    private void solve() {
+        List<BasicBlock> blocks = cfg.getBlocks();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = blocks.size() - 1; i >= 0; i--) {
+                BasicBlock block = blocks.get(i);
+                int b = block.getIndex();
+
+                BitSet handlers = new BitSet();
+                for (BasicBlock handler : block.getExceptionSuccessors()) {
+                    handlers.or(liveIn[handler.getIndex()]);
+                }
+                BitSet out = (BitSet) handlers.clone();
+                for (BasicBlock successor : block.getSuccessors()) {
+                    out.or(liveIn[successor.getIndex()]);
+                }
+
+                BitSet in = (BitSet) out.clone();
+                for (InstructionHandle h = block.getEnd(); h != block.getStart().getPrev(); h = h.getPrev()) {
+                    transfer(h.getInstruction(), in);
+                    in.or(handlers);
+                }
+
+                //Handlers can gain slots that in and out already hold, so they are kept from every iteration
+                handlersLive[b] = handlers;
+                if (!in.equals(liveIn[b]) || !out.equals(liveOut[b])) {
+                    liveIn[b] = in;
+                    liveOut[b] = out;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn the slots live after an instruction into the slots live before it
+     * @param instruction Instruction of the method
+     * @param live Slots live after the instruction, changed in place
+     */
+    public void transfer(Instruction instruction, BitSet live) {
+        if (instruction instanceof IINC || instruction instanceof RET) {
+            live.set(((IndexedInstruction) instruction).getIndex()); //Reads the slot, IINC writes it back
+        } else if (instruction instanceof StoreInstruction) {
+            int slot = ((StoreInstruction) instruction).getIndex();
+            live.clear(slot, slot + size((StoreInstruction) instruction));
+        } else if (instruction instanceof LoadInstruction) {
+            int slot = ((LoadInstruction) instruction).getIndex();
+            live.set(slot, slot + size((LoadInstruction) instruction));
+        }
+    }
+
+    /**
+     * @return Number of slots the load or store reads or writes
+     */
+    public int size(LocalVariableInstruction instruction) {
+        return instruction instanceof IINC ? 1 : instruction.getType(cpgen).getSize();
+    }
+
+    /**
+     * @return Slots live when the block is left, including those its exception handlers read
+     */
+    public BitSet getLiveOut(BasicBlock block) {
+        return (BitSet) liveOut[block.getIndex()].clone();
+    }
+
+    /**
+     * @return Slots live on entry to the block
+     */
+    public BitSet getLiveIn(BasicBlock block) {
+        return (BitSet) liveIn[block.getIndex()].clone();
+    }
+
+    /**
+     * @return Slots read by the exception handlers covering the block, live at every instruction of it
+     */
+    public BitSet getHandlersLive(BasicBlock block) {
+        return (BitSet) handlersLive[block.getIndex()].clone();
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return cfg;
+    }
+}
@@ -0,0 +1,34 @@
+package comp207p.main.analysis;
+
+import java.util.BitSet;
+
+/**
+ * Natural loop: a header block and every block that can reach a back edge into the header without passing it
+ */
+public class Loop {
+
+    private final BasicBlock header;
+    private final BitSet body = new BitSet(); //Indices of the blocks in the loop, including the header
+
+    Loop(BasicBlock header) {
+        this.header = header;
+        this.body.set(header.getIndex());
+    }
+
+    void add(BasicBlock block) {
+        body.set(block.getIndex());
+    }
+
+    public BasicBlock getHeader() {
+        return header;
+    }
+
+    public boolean contains(BasicBlock block) {
+        return block != null && body.get(block.getIndex());
+    }
+
+    @Override
+    public String toString() {
+        return "Loop(" + header + ", " + body + ")";
+    }
+}
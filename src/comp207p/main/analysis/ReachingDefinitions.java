@@ -0,0 +1,445 @@
+package comp207p.main.analysis;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reaching definitions of local variables, computed once per method over the control-flow graph.
+ * Every load (and IINC) is mapped to the stores that can reach it, so the value of a local is a lookup
+ * instead of a scan back through the instruction list. On top of that, a constant lattice gives the
+ * value of a load when every definition reaching it stores the same constant.
+ * The analysis stays sound while folds delete instructions or dead branches: the remaining paths are a
+ * subset of the analysed ones, and deleted definitions are ignored.
+ */
+public class ReachingDefinitions {
+
+    /**
+     * Store, IINC, or the value a parameter has on entry to the method
+     */
+    public static final class Definition {
+        private final int index;
+        private final InstructionHandle handle;
+        private final int slot;
+        private final int size;
+
+        Definition(int index, InstructionHandle handle, int slot, int size) {
+            this.index = index;
+            this.handle = handle;
+            this.slot = slot;
+            this.size = size;
+        }
+
+        /**
+         * @return Defining instruction, null for a parameter
+         */
+        public InstructionHandle getHandle() {
+            return handle;
+        }
+
+        public int getSlot() {
+            return slot;
+        }
+
+        public boolean isParameter() {
+            return handle == null;
+        }
+
+        /**
+         * @return true if the defining instruction has been deleted from the list since the analysis ran
+         */
+        public boolean isDeleted() {
+            return handle != null && handle.getInstruction() == null;
+        }
+    }
+
+    private final ControlFlowGraph cfg;
+    private final ConstantPoolGen cpgen;
+
+    private final List<Definition> definitions = new ArrayList<>();
+    private final Map<InstructionHandle, Definition> definitionOf = new HashMap<>();
+    private BitSet[] definitionsOfSlot; //Every definition overlapping each slot
+
+    //Definitions reaching every load and IINC
+    private final Map<InstructionHandle, int[]> reaching = new HashMap<>();
+    private Map<Integer, List<InstructionHandle>> uses; //Loads and IINCs reached by each definition, made on demand
+
+    /**
+     * @param cfg Control-flow graph of the method
+     * @param methodGen Method being analysed, used for its parameters and constant pool
+     */
+    public ReachingDefinitions(ControlFlowGraph cfg, MethodGen methodGen) {
+        this.cfg = cfg;
+        this.cpgen = methodGen.getConstantPool();
+
+        int slots = collectDefinitions(methodGen);
+        definitionsOfSlot = new BitSet[slots + 1];
+        for (int i = 0; i < definitionsOfSlot.length; i++) {
+            definitionsOfSlot[i] = new BitSet();
+        }
+        for (Definition d : definitions) {
+            for (int i = 0; i < d.size; i++) {
+                definitionsOfSlot[d.slot + i].set(d.index);
+            }
+        }
+
+        if (!cfg.hasSubroutines()) {
+            solve();
+        }
+    }
+
+    private int collectDefinitions(MethodGen methodGen) {
+        int slot = methodGen.isStatic() ? 0 : 1;
+        if (!methodGen.isStatic()) {
+            addDefinition(null, 0, 1);
+        }
+        for (Type argument : methodGen.getArgumentTypes()) {
+            addDefinition(null, slot, argument.getSize());
+            slot += argument.getSize();
+        }
+
+        int maxSlot = slot;
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (InstructionHandle h = block.getStart(); h != block.getEnd().getNext(); h = h.getNext()) {
+                Instruction instruction = h.getInstruction();
+                if (instruction instanceof LocalVariableInstruction) {
+                    LocalVariableInstruction local = (LocalVariableInstruction) instruction;
+                    int size = instruction instanceof IINC ? 1 : local.getType(cpgen).getSize();
+                    maxSlot = Math.max(maxSlot, local.getIndex() + size);
+                    if (instruction instanceof StoreInstruction || instruction instanceof IINC) {
+                        definitionOf.put(h, addDefinition(h, local.getIndex(), size));
+                    }
+                }
+            }
+        }
+        return maxSlot;
+    }
+
+    private Definition addDefinition(InstructionHandle h, int slot, int size) {
+        Definition d = new Definition(definitions.size(), h, slot, size);
+        definitions.add(d);
+        return d;
+    }
+
+    /**
+     * Iterate the dataflow equations over the blocks in reverse post-order until nothing changes
+     */
+    private void solve() {
+        List<BasicBlock> order = cfg.getReversePostOrder();
+        int blockCount = cfg.getBlocks().size();
+        BitSet[] in = new BitSet[blockCount];
+        BitSet[] out = new BitSet[blockCount];
+        BitSet[] gen = new BitSet[blockCount];
+        BitSet[] kill = new BitSet[blockCount];
+        BitSet[] all = new BitSet[blockCount]; //Every definition in the block, seen by its exception handlers
+
+        for (BasicBlock block : cfg.getBlocks()) {
+            int b = block.getIndex();
+            in[b] = new BitSet();
+            out[b] = new BitSet();
+            gen[b] = new BitSet();
+            kill[b] = new BitSet();
+            all[b] = new BitSet();
+            for (InstructionHandle h = block.getStart(); h != block.getEnd().getNext(); h = h.getNext()) {
+                Definition d = definitionOf.get(h);
+                if (d != null) {
+                    BitSet killed = killedBy(d);
+                    gen[b].andNot(killed);
+                    gen[b].set(d.index);
+                    kill[b].or(killed);
+                    all[b].set(d.index);
+                }
+            }
+        }
+
+        for (Definition d : definitions) {
+            if (d.isParameter()) {
+                in[cfg.getEntry().getIndex()].set(d.index);
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order) {
+                int b = block.getIndex();
+                BitSet newIn = new BitSet();
+                if (block == cfg.getEntry()) {
+                    newIn.or(in[b]);
+                }
+                for (BasicBlock predecessor : block.getPredecessors()) {
+                    newIn.or(out[predecessor.getIndex()]);
+                }
+                for (BasicBlock covered : block.getExceptionPredecessors()) {
+                    newIn.or(in[covered.getIndex()]);
+                    newIn.or(all[covered.getIndex()]);
+                }
+
+                BitSet newOut = (BitSet) newIn.clone();
+                newOut.andNot(kill[b]);
+                newOut.or(gen[b]);
+
+                if (!newIn.equals(in[b]) || !newOut.equals(out[b])) {
+                    in[b] = newIn;
+                    out[b] = newOut;
+                    changed = true;
+                }
+            }
+        }
+
+        //Record the definitions reaching each use, walking each block from its entry state
+        for (BasicBlock block : order) {
+            BitSet current = (BitSet) in[block.getIndex()].clone();
+            for (InstructionHandle h = block.getStart(); h != block.getEnd().getNext(); h = h.getNext()) {
+                Instruction instruction = h.getInstruction();
+                if (instruction instanceof LoadInstruction || instruction instanceof IINC) {
+                    BitSet uses = (BitSet) definitionsOfSlot[((LocalVariableInstruction) instruction).getIndex()].clone();
+                    uses.and(current);
+                    reaching.put(h, uses.stream().toArray());
+                }
+
+                Definition d = definitionOf.get(h);
+                if (d != null) {
+                    current.andNot(killedBy(d));
+                    current.set(d.index);
+                }
+            }
+        }
+    }
+
+    /**
+     * A definition replaces every definition overlapping its slots, including the upper half of a long or double
+     */
+    private BitSet killedBy(Definition d) {
+        BitSet killed = new BitSet();
+        for (int i = 0; i < d.size; i++) {
+            killed.or(definitionsOfSlot[d.slot + i]);
+        }
+        return killed;
+    }
+
+    public ControlFlowGraph getControlFlowGraph() {
+        return cfg;
+    }
+
+    /**
+     * @param use Load or IINC instruction
+     * @return Definitions that can reach the instruction, empty if the method could not be analysed
+     */
+    public List<Definition> getDefinitions(InstructionHandle use) {
+        int[] indices = reaching.get(use);
+        List<Definition> result = new ArrayList<>();
+        if (indices != null) {
+            for (int i : indices) {
+                if (!definitions.get(i).isDeleted()) {
+                    result.add(definitions.get(i));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param definition Store or IINC instruction
+     * @return Loads and IINCs the definition can reach that are still in the method, empty if the method could
+     * not be analysed
+     */
+    public List<InstructionHandle> getUses(InstructionHandle definition) {
+        if (uses == null) {
+            uses = new HashMap<>();
+            for (Map.Entry<InstructionHandle, int[]> use : reaching.entrySet()) {
+                for (int i : use.getValue()) {
+                    List<InstructionHandle> list = uses.get(i);
+                    if (list == null) {
+                        list = new ArrayList<>();
+                        uses.put(i, list);
+                    }
+                    list.add(use.getKey());
+                }
+            }
+        }
+
+        Definition d = definitionOf.get(definition);
+        List<InstructionHandle> result = new ArrayList<>();
+        if (d != null && uses.containsKey(d.index)) {
+            for (InstructionHandle use : uses.get(d.index)) {
+                if (use.getInstruction() != null) {
+                    result.add(use);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the value of a load when every definition reaching it stores the same constant
+     * @param use Load instruction
+     * @return Constant value, or null if the local does not hold a single known constant here
+     */
+    public Number getConstantValue(InstructionHandle use) {
+        Map<Definition, Number> values = new HashMap<>();
+        int[] indices = reaching.get(use);
+        if (indices != null) {
+            for (int i : indices) {
+                if (!definitions.get(i).isDeleted()) {
+                    solve(definitions.get(i), values);
+                }
+            }
+        }
+        return meet(use, values);
+    }
+
+    //Marks a definition that is being evaluated or has no constant value
+    private static final Number UNKNOWN = Double.NaN;
+
+    /**
+     * Meet the values of the definitions reaching a use, all of which have been solved
+     */
+    private Number meet(InstructionHandle use, Map<Definition, Number> values) {
+        int[] indices = reaching.get(use);
+        if (indices == null || indices.length == 0) {
+            return null;
+        }
+
+        Number result = null;
+        for (int i : indices) {
+            if (definitions.get(i).isDeleted()) {
+                continue; //Removed with a dead branch
+            }
+            Number value = values.get(definitions.get(i));
+            if (value == null || value == UNKNOWN || (result != null && !result.equals(value))) {
+                return null;
+            }
+            result = value;
+        }
+        return result;
+    }
+
+    /**
+     * Find the value of a definition and of every definition it is computed from. Chains of IINCs and copies
+     * can be thousands of definitions long, so they are walked with an explicit stack rather than recursion:
+     * a definition is expanded into the definitions reaching its source, and evaluated once they are done.
+     */
+    private void solve(Definition root, Map<Definition, Number> values) {
+        Deque<Definition> pending = new ArrayDeque<>();
+        Set<Definition> expanded = new HashSet<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Definition d = pending.peek();
+            if (!expanded.contains(d)) {
+                if (values.containsKey(d)) {
+                    pending.pop(); //Already solved, or being solved further down the stack
+                    continue;
+                }
+                values.put(d, UNKNOWN); //Breaks cycles through loops
+                expanded.add(d);
+                InstructionHandle source = sourceOf(d);
+                int[] indices = source == null ? null : reaching.get(source);
+                if (indices != null) {
+                    for (int i : indices) {
+                        Definition reached = definitions.get(i);
+                        if (!reached.isDeleted() && !values.containsKey(reached)) {
+                            pending.push(reached);
+                        }
+                    }
+                }
+                continue;
+            }
+
+            pending.pop();
+            expanded.remove(d);
+            Number value = evaluate(d, values);
+            values.put(d, value == null ? UNKNOWN : value);
+        }
+    }
+
+    /**
+     * @return The IINC itself, or the load a store copies, whose reaching definitions the value is computed
+     * from; null if it does not depend on another definition
+     */
+    private static InstructionHandle sourceOf(Definition d) {
+        if (d.isParameter()) {
+            return null;
+        }
+        if (d.handle.getInstruction() instanceof IINC) {
+            return d.handle;
+        }
+        InstructionHandle producer = d.handle.getPrev();
+        return producer != null && producer.getInstruction() instanceof LoadInstruction && !isJumpTarget(d.handle)
+                ? producer : null;
+    }
+
+    private static boolean isJumpTarget(InstructionHandle h) {
+        for (InstructionTargeter targeter : h.getTargeters() == null ? new InstructionTargeter[0] : h.getTargeters()) {
+            if (targeter instanceof BranchInstruction) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compute the value of a definition once the definitions it depends on are solved
+     */
+    private Number evaluate(Definition d, Map<Definition, Number> values) {
+        if (d.isParameter()) {
+            return null;
+        }
+
+        Instruction instruction = d.handle.getInstruction();
+        if (instruction instanceof IINC) {
+            Number base = meet(d.handle, values);
+            return base == null ? null : (Number) (base.intValue() + ((IINC) instruction).getIncrement());
+        }
+
+        //The stored value comes from the previous instruction only if nothing jumps to the store
+        if (isJumpTarget(d.handle)) {
+            return null;
+        }
+
+        InstructionHandle producer = d.handle.getPrev();
+        if (producer == null) {
+            return null;
+        }
+
+        Number stored;
+        Instruction pushed = producer.getInstruction();
+        if (pushed instanceof ConstantPushInstruction) {
+            stored = ((ConstantPushInstruction) pushed).getValue();
+        } else if (pushed instanceof LDC && ((LDC) pushed).getValue(cpgen) instanceof Number) {
+            stored = (Number) ((LDC) pushed).getValue(cpgen);
+        } else if (pushed instanceof LDC2_W) {
+            stored = ((LDC2_W) pushed).getValue(cpgen);
+        } else if (pushed instanceof LoadInstruction) {
+            stored = meet(producer, values); //Copy of another local
+        } else {
+            return null;
+        }
+
+        if (stored == null) {
+            return null;
+        }
+
+        switch (((StoreInstruction) instruction).getType(cpgen).getType()) {
+            case Constants.T_INT:
+                return stored.intValue();
+            case Constants.T_LONG:
+                return stored.longValue();
+            case Constants.T_FLOAT:
+                return stored.floatValue();
+            case Constants.T_DOUBLE:
+                return stored.doubleValue();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package comp207p.main.corpus;
+
+import org.apache.bcel.generic.ClassGen;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates a corpus of synthetic class files for scale-testing the optimiser, e.g.
+ * java comp207p.main.corpus.CorpusGenerator -out build/corpus -classes 100000 -mix HUGE_METHOD=1,NESTED_LOOPS=3
+ * The corpus is the same for the same options, and its classes can be fed to Main or to the benchmarks.
+ */
+public class CorpusGenerator {
+
+    public enum Feature {
+        HUGE_METHOD,       //Long straight-line method with locals and branches
+        EXPRESSION_TREE,   //Deep tree of constant arithmetic
+        MANY_LOCALS,       //Thousands of locals, most of them wide
+        NESTED_LOOPS,      //Counted loops nested several deep
+        LARGE_SWITCH,      //Table and lookup switches with hundreds of cases
+        BIG_CONSTANT_POOL  //Thousands of distinct constants
+    }
+
+    @Option(name="-out", required=true, usage="Directory the class files are written to")
+    private String outputRoot;
+
+    @Option(name="-classes", usage="Number of classes to generate (default 1000)")
+    private int classes = 1000;
+
+    @Option(name="-methods", usage="Methods per class (default 4)")
+    private int methods = 4;
+
+    @Option(name="-mix", usage="Relative weight of each feature, e.g. HUGE_METHOD=1,NESTED_LOOPS=3; features left out are not generated (default: all 1)")
+    private String mix = null;
+
+    @Option(name="-scale", usage="Size multiplier for every feature, e.g. 6 for methods close to the 64k code limit (default 1)")
+    private double scale = 1;
+
+    @Option(name="-seed", usage="Seed of the corpus (default 207)")
+    private long seed = 207;
+
+    @Option(name="-package-size", usage="Classes per package directory (default 1000)")
+    private int packageSize = 1000;
+
+    @Option(name="-threads", usage="Number of classes generated in parallel (defaults to the number of available processors)")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    //Stop adding methods to a class once its constant pool gets close to the 65535 entry limit
+    private static final int MAX_CONSTANT_POOL = 50000;
+
+    private final Map<Feature, Integer> weights = new EnumMap<>(Feature.class);
+    private int totalWeight = 0;
+
+    private void parseArguments(String args[])
+    {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+        try{
+            parser.parseArgument(args);
+            if (classes < 0 || methods < 1 || threads < 1 || packageSize < 1 || scale <= 0) {
+                throw new CmdLineException(parser, "-classes, -methods, -threads, -package-size and -scale must be positive");
+            }
+            parseMix(parser);
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java comp207p.main.corpus.CorpusGenerator -out outputFolder [options]");
+            parser.printUsage(System.err);
+            System.err.println();
+            System.exit(-1);
+        }
+    }
+
+    private void parseMix(CmdLineParser parser) throws CmdLineException {
+        if (mix == null) {
+            for (Feature feature : Feature.values()) {
+                weights.put(feature, 1);
+            }
+        } else {
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.trim().split("=");
+                try {
+                    Feature feature = Feature.valueOf(parts[0].trim().toUpperCase());
+                    int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+                    if (weight < 0) {
+                        throw new NumberFormatException(parts[1]);
+                    }
+                    weights.put(feature, weight);
+                } catch (IllegalArgumentException e) {
+                    throw new CmdLineException(parser, "Invalid -mix entry: " + entry);
+                }
+            }
+        }
+
+        for (int weight : weights.values()) {
+            totalWeight += weight;
+        }
+        if (totalWeight == 0) {
+            throw new CmdLineException(parser, "-mix has to give at least one feature a weight");
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        CorpusGenerator generator = new CorpusGenerator();
+        generator.parseArguments(args);
+
+        long start = System.nanoTime();
+        long bytes = generator.generate(Paths.get(generator.outputRoot));
+        System.out.format("Generated %d class(es), %d bytes, in %.1f s\n",
+                generator.classes, bytes, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Generate the whole corpus, one task per package directory
+     * @return Total size of the generated class files
+     */
+    private long generate(final Path output) throws IOException {
+        final AtomicLong bytes = new AtomicLong();
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int first = 0; first < classes; first += packageSize) {
+            final int from = first;
+            final int to = Math.min(classes, first + packageSize);
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    String packageName = String.format("corpus.p%05d", from / packageSize);
+                    Path directory = output.resolve(packageName.replace('.', '/'));
+                    Files.createDirectories(directory);
+                    for (int i = from; i < to; i++) {
+                        String simpleName = String.format("C%07d", i);
+                        byte[] classBytes = generateClass(packageName + "." + simpleName, new Random(seed * 31 + i));
+                        Files.write(directory.resolve(simpleName + ".class"), classBytes);
+                        bytes.addAndGet(classBytes.length);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not generate the corpus", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating the corpus", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return bytes.get();
+    }
+
+    /**
+     * @param className Name of the class
+     * @param random Source of the features and constants of the class
+     * @return Class file bytes
+     */
+    public byte[] generateClass(String className, Random random) {
+        ClassGen cgen = SyntheticMethods.newClass(className);
+        for (int i = 0; i < methods && cgen.getConstantPool().getSize() < MAX_CONSTANT_POOL; i++) {
+            Feature feature = pickFeature(random);
+            String name = feature.name().toLowerCase() + i;
+            switch (feature) {
+                case HUGE_METHOD:
+                    cgen.addMethod(SyntheticMethods.hugeMethod(cgen, name, scaled(10000)));
+                    break;
+                case EXPRESSION_TREE:
+                    cgen.addMethod(SyntheticMethods.expressionTree(cgen, name, 8 + log2(scale), random));
+                    break;
+                case MANY_LOCALS:
+                    cgen.addMethod(SyntheticMethods.manyLocals(cgen, name, scaled(1000), random));
+                    break;
+                case NESTED_LOOPS:
+                    cgen.addMethod(SyntheticMethods.nestedLoops(cgen, name, 4 + log2(scale), 3, random));
+                    break;
+                case LARGE_SWITCH:
+                    cgen.addMethod(SyntheticMethods.largeSwitch(cgen, name, scaled(256), random.nextBoolean(), random));
+                    break;
+                default:
+                    cgen.addMethod(SyntheticMethods.bigConstantPool(cgen, name, scaled(2000), random));
+                    break;
+            }
+        }
+        return cgen.getJavaClass().getBytes();
+    }
+
+    private Feature pickFeature(Random random) {
+        int pick = random.nextInt(totalWeight);
+        for (Map.Entry<Feature, Integer> weight : weights.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private int scaled(int size) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, size * scale));
+    }
+
+    private static int log2(double value) {
+        return (int) Math.floor(Math.log(value) / Math.log(2));
+    }
+}
@@ -0,0 +1,288 @@
+package comp207p.main.corpus;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+
+import java.util.Random;
+
+/**
+ * Generators for synthetic methods that stress one feature of the optimiser each.
+ * Every method is "public static int name(int seed)", verifies, terminates quickly and uses the seed so
+ * that nothing can be folded away completely.
+ */
+public class SyntheticMethods {
+
+    //Largest code attribute the class file format allows
+    public static final int MAX_CODE_BYTES = 65535;
+
+    //Locals cycled through by the huge methods, enough to keep the reaching definitions busy
+    private static final int LOCALS = 32;
+
+    private static final Type[] ARGUMENTS = {Type.INT};
+    private static final String[] ARGUMENT_NAMES = {"seed"};
+
+    /**
+     * Build a class with a single huge method run(int), for the benchmarks
+     * @param className Name of the generated class
+     * @param codeBytes Target size of the method's bytecode, at most 65535
+     * @return Class file bytes
+     */
+    public static byte[] generate(String className, int codeBytes) {
+        ClassGen cgen = newClass(className);
+        cgen.addMethod(hugeMethod(cgen, "run", codeBytes));
+        return cgen.getJavaClass().getBytes();
+    }
+
+    /**
+     * @param className Name of the class
+     * @return Empty public class with a default constructor
+     */
+    public static ClassGen newClass(String className) {
+        ClassGen cgen = new ClassGen(className, "java.lang.Object", className + ".java",
+                Constants.ACC_PUBLIC | Constants.ACC_SUPER, null);
+        cgen.setMajor(50);
+        cgen.addEmptyConstructor(Constants.ACC_PUBLIC);
+        return cgen;
+    }
+
+    /**
+     * Method of roughly the given size. The body repeats a block of constant arithmetic stored to locals,
+     * arithmetic on those locals and a forward comparison.
+     * @param codeBytes Target size of the method's bytecode, at most 65535
+     */
+    public static Method hugeMethod(ClassGen cgen, String name, int codeBytes) {
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        InstructionList il = new InstructionList();
+        int size = 0;
+        int block = 0;
+        int result = 0; //Local returned at the end, the parameter until something is stored
+        int limit = Math.min(codeBytes, MAX_CODE_BYTES) - 8; //Room for the return sequence
+        while (size < limit) {
+            int local = 1 + block % LOCALS;
+            int other = 1 + (block + 7) % LOCALS;
+            InstructionList blockList = new InstructionList();
+
+            //local = a + b
+            blockList.append(new PUSH(cpgen, block % 100));
+            blockList.append(new PUSH(cpgen, block % 37 + 1));
+            blockList.append(new IADD());
+            blockList.append(new ISTORE(local));
+
+            //other = local * 3 - other (other may not be stored yet on the first blocks, use the parameter)
+            blockList.append(new ILOAD(local));
+            blockList.append(new PUSH(cpgen, 3));
+            blockList.append(new IMUL());
+            blockList.append(new ILOAD(block < LOCALS ? 0 : other));
+            blockList.append(new ISUB());
+            blockList.append(new ISTORE(other));
+
+            //if (local < 50) local++
+            blockList.append(new ILOAD(local));
+            blockList.append(new PUSH(cpgen, 50));
+            BranchHandle skip = blockList.append(new IF_ICMPGE(null));
+            blockList.append(new IINC(local, 1));
+            skip.setTarget(blockList.append(new NOP()));
+
+            int blockSize = blockList.getByteCode().length;
+            if (size + blockSize > limit) {
+                break;
+            }
+            il.append(blockList);
+            size += blockSize;
+            result = other;
+            block++;
+        }
+
+        il.append(new ILOAD(result));
+        il.append(new IRETURN());
+        return finish(cgen, name, il, LOCALS + 1);
+    }
+
+    /**
+     * Balanced tree of constant int arithmetic, added to the seed
+     * @param depth Depth of the tree, capped at 13 to stay within the code size limit
+     */
+    public static Method expressionTree(ClassGen cgen, String name, int depth, Random random) {
+        InstructionList il = new InstructionList();
+        appendExpression(il, cgen.getConstantPool(), Math.min(depth, 13), random);
+        il.append(new ILOAD(0));
+        il.append(new IADD());
+        il.append(new IRETURN());
+        return finish(cgen, name, il, 1);
+    }
+
+    private static void appendExpression(InstructionList il, ConstantPoolGen cpgen, int depth, Random random) {
+        if (depth == 0) {
+            il.append(new PUSH(cpgen, random.nextInt(201) - 100));
+            return;
+        }
+
+        appendExpression(il, cpgen, depth - 1, random);
+        appendExpression(il, cpgen, depth - 1, random);
+        switch (random.nextInt(6)) {
+            case 0:
+                il.append(new IADD());
+                break;
+            case 1:
+                il.append(new ISUB());
+                break;
+            case 2:
+                il.append(new IMUL());
+                break;
+            case 3:
+                il.append(new IAND());
+                break;
+            case 4:
+                il.append(new IOR());
+                break;
+            default:
+                il.append(new IXOR());
+                break;
+        }
+    }
+
+    /**
+     * Thousands of locals, each stored once with a constant and then summed with the seed.
+     * Slots above 255 need the wide form of the loads and stores.
+     * @param locals Number of locals, capped to stay within the code size limit
+     */
+    public static Method manyLocals(ClassGen cgen, String name, int locals, Random random) {
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        int count = Math.max(1, Math.min(locals, 5000));
+        InstructionList il = new InstructionList();
+
+        for (int slot = 1; slot <= count; slot++) {
+            il.append(new PUSH(cpgen, random.nextInt(2000) - 1000));
+            il.append(new ISTORE(slot));
+        }
+
+        il.append(new ILOAD(0));
+        for (int slot = 1; slot <= count; slot++) {
+            il.append(new ILOAD(slot));
+            il.append(new IADD());
+        }
+        il.append(new IRETURN());
+        return finish(cgen, name, il, count + 1);
+    }
+
+    /**
+     * Counted loops nested inside each other, with constant arithmetic in the innermost body
+     * @param depth Number of nested loops
+     * @param iterations Iterations of each loop, the body runs iterations^depth times
+     */
+    public static Method nestedLoops(ClassGen cgen, String name, int depth, int iterations, Random random) {
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        int loops = Math.max(1, Math.min(depth, 64));
+        int accumulator = loops + 1; //Counters are in slots 1..loops
+        InstructionList il = new InstructionList();
+
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(accumulator));
+        appendLoop(il, cpgen, 1, loops, iterations, accumulator, random);
+        il.append(new ILOAD(accumulator));
+        il.append(new IRETURN());
+        return finish(cgen, name, il, accumulator + 1);
+    }
+
+    private static void appendLoop(InstructionList il, ConstantPoolGen cpgen, int level, int loops, int iterations,
+                                   int accumulator, Random random) {
+        il.append(new PUSH(cpgen, 0));
+        il.append(new ISTORE(level));
+        InstructionHandle condition = il.append(new ILOAD(level));
+        il.append(new PUSH(cpgen, iterations));
+        BranchHandle exit = il.append(new IF_ICMPGE(null));
+
+        if (level == loops) {
+            //accumulator += a * b + counter
+            il.append(new ILOAD(accumulator));
+            il.append(new PUSH(cpgen, random.nextInt(50)));
+            il.append(new PUSH(cpgen, random.nextInt(50)));
+            il.append(new IMUL());
+            il.append(new IADD());
+            il.append(new ILOAD(level));
+            il.append(new IADD());
+            il.append(new ISTORE(accumulator));
+        } else {
+            appendLoop(il, cpgen, level + 1, loops, iterations, accumulator, random);
+        }
+
+        il.append(new IINC(level, 1));
+        il.append(new GOTO(condition));
+        exit.setTarget(il.append(new NOP()));
+    }
+
+    /**
+     * Switch on the seed where every case returns a constant expression.
+     * Dense keys compile to a tableswitch, sparse keys (when sparse is set) to a lookupswitch.
+     * @param cases Number of cases, capped to stay within the code size limit
+     */
+    public static Method largeSwitch(ClassGen cgen, String name, int cases, boolean sparse, Random random) {
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        int count = Math.max(1, Math.min(cases, 4000));
+        InstructionList il = new InstructionList();
+
+        int[] keys = new int[count];
+        InstructionHandle[] targets = new InstructionHandle[count];
+        int key = 0;
+        for (int i = 0; i < count; i++) {
+            keys[i] = key;
+            key += sparse ? 2 + random.nextInt(100) : 1; //Keys have to be increasing for a lookupswitch
+            targets[i] = il.append(new PUSH(cpgen, random.nextInt(1000)));
+            il.append(new PUSH(cpgen, random.nextInt(1000)));
+            il.append(new IADD());
+            il.append(new IRETURN());
+        }
+        InstructionHandle otherwise = il.append(new ICONST(-1));
+        il.append(new IRETURN());
+
+        Select select = sparse ? new LOOKUPSWITCH(keys, targets, otherwise) : new TABLESWITCH(keys, targets, otherwise);
+        il.insert(select);
+        il.insert(new ILOAD(0));
+        return finish(cgen, name, il, 1);
+    }
+
+    /**
+     * Sum of many distinct int, long, double and String constants, each taking its own constant pool entries
+     * @param constants Number of constants, capped to stay within the code size limit
+     */
+    public static Method bigConstantPool(ClassGen cgen, String name, int constants, Random random) {
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        int count = Math.max(1, Math.min(constants, 12000));
+        InstructionFactory factory = new InstructionFactory(cgen, cpgen);
+        InstructionList il = new InstructionList();
+
+        il.append(new ILOAD(0));
+        for (int i = 0; i < count; i++) {
+            switch (i % 4) {
+                case 0:
+                    il.append(new PUSH(cpgen, 100000 + random.nextInt(1 << 30))); //Outside the sipush range
+                    break;
+                case 1:
+                    il.append(new PUSH(cpgen, random.nextLong()));
+                    il.append(new L2I());
+                    break;
+                case 2:
+                    il.append(new PUSH(cpgen, random.nextDouble() * 1000));
+                    il.append(new D2I());
+                    break;
+                default:
+                    il.append(new PUSH(cpgen, "constant" + random.nextInt()));
+                    il.append(factory.createInvoke("java.lang.String", "length", Type.INT, Type.NO_ARGS,
+                            Constants.INVOKEVIRTUAL));
+                    break;
+            }
+            il.append(new IADD());
+        }
+        il.append(new IRETURN());
+        return finish(cgen, name, il, 1);
+    }
+
+    private static Method finish(ClassGen cgen, String name, InstructionList il, int maxLocals) {
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT,
+                ARGUMENTS, ARGUMENT_NAMES, name, cgen.getClassName(), il, cgen.getConstantPool());
+        mg.setMaxStack();
+        mg.setMaxLocals(maxLocals);
+        return mg.getMethod(); //The list is not disposed, that would feed BCEL's shared handle free list
+    }
+}
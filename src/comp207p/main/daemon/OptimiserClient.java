@@ -0,0 +1,223 @@
+package comp207p.main.daemon;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client of OptimiserDaemon, e.g.
+ * java comp207p.main.daemon.OptimiserClient -in build/classes -out optimised/classes
+ * It only loads args4j and a socket, so it starts much faster than Main. When no daemon answers, the request
+ * is optimised in this JVM instead, unless -no-fallback is given.
+ */
+public class OptimiserClient {
+
+    @Option(name="-port-file", usage="Port file written by the daemon (default .optimiser-daemon)")
+    private String portFile = ".optimiser-daemon";
+
+    @Option(name="-in", usage="Root directory of the input classfiles, or a single class file with -class")
+    private String inputRoot;
+
+    @Option(name="-out", usage="Root directory where optimised classfiles will be stored, or the output class file with -class")
+    private String outputRoot;
+
+    @Option(name="-files", usage="File listing the class files to optimise, one path relative to -in per line (default: every class under -in)")
+    private String fileList;
+
+    @Option(name="-class", usage="Optimise the single class file given by -in into -out, sending its bytes to the daemon")
+    private boolean singleClass = false;
+
+    @Option(name="-status", usage="Print the daemon's metrics")
+    private boolean status = false;
+
+    @Option(name="-stop", usage="Stop the daemon")
+    private boolean stop = false;
+
+    @Option(name="-wait", usage="Seconds to wait for a daemon that is still starting (default 0)")
+    private int waitSeconds = 0;
+
+    @Option(name="-no-fallback", usage="Fail instead of optimising in this JVM when no daemon answers")
+    private boolean noFallback = false;
+
+    //Access token read from the port file
+    private String token;
+
+    private void parseArguments(String args[])
+    {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+        try{
+            parser.parseArgument(args);
+            if (!status && !stop && (inputRoot == null || outputRoot == null)) {
+                throw new CmdLineException(parser, "-in and -out are required unless -status or -stop is given");
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java comp207p.main.daemon.OptimiserClient -in inputFolder -out outputFolder [options]");
+            parser.printUsage(System.err);
+            System.err.println();
+            System.exit(-1);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        OptimiserClient client = new OptimiserClient();
+        client.parseArguments(args);
+        System.exit(client.run());
+    }
+
+    /**
+     * @return Exit status, 0 if every class was optimised
+     */
+    private int run() throws IOException {
+        Socket socket = connect();
+        if (socket == null) {
+            if (status || stop) {
+                System.err.println("No optimiser daemon is running");
+                return stop ? 0 : 1;
+            }
+            if (noFallback) {
+                System.err.println("No optimiser daemon is running");
+                return 1;
+            }
+            return optimiseInProcess();
+        }
+
+        Path input = inputRoot == null ? null : Paths.get(inputRoot).toAbsolutePath();
+        Path output = outputRoot == null ? null : Paths.get(outputRoot).toAbsolutePath();
+        try (Socket s = socket;
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
+            OptimiserDaemon.writeString(out, token);
+            if (status) {
+                out.writeInt(OptimiserDaemon.STATUS);
+            } else if (stop) {
+                out.writeInt(OptimiserDaemon.STOP);
+            } else if (singleClass) {
+                //Bytes travel over the socket, so the daemon does not need to see the file
+                byte[] classBytes = Files.readAllBytes(input);
+                out.writeInt(OptimiserDaemon.OPTIMISE_CLASS);
+                OptimiserDaemon.writeString(out, input.getFileName().toString());
+                out.writeInt(classBytes.length);
+                out.write(classBytes);
+            } else if (fileList != null) {
+                List<String> files = readFileList();
+                out.writeInt(OptimiserDaemon.OPTIMISE_FILES);
+                OptimiserDaemon.writeString(out, input.toString());
+                OptimiserDaemon.writeString(out, output.toString());
+                out.writeInt(files.size());
+                for (String file : files) {
+                    OptimiserDaemon.writeString(out, file);
+                }
+            } else {
+                out.writeInt(OptimiserDaemon.OPTIMISE_TREE);
+                OptimiserDaemon.writeString(out, input.toString());
+                OptimiserDaemon.writeString(out, output.toString());
+            }
+            out.flush();
+
+            int result = in.readInt();
+            String message = OptimiserDaemon.readString(in);
+            if (result == OptimiserDaemon.OK && singleClass) {
+                byte[] optimised = new byte[in.readInt()];
+                in.readFully(optimised);
+                if (output.getParent() != null) {
+                    Files.createDirectories(output.getParent());
+                }
+                Files.write(output, optimised);
+            }
+            (result == OptimiserDaemon.OK ? System.out : System.err).println(message);
+            return result == OptimiserDaemon.OK ? 0 : 1;
+        }
+    }
+
+    /**
+     * Connect to the daemon named by the port file, retrying for up to -wait seconds
+     * @return Connected socket, or null if no daemon answers
+     */
+    private Socket connect() throws IOException {
+        long deadline = System.currentTimeMillis() + waitSeconds * 1000L;
+        Path file = Paths.get(portFile);
+        while (true) {
+            if (Files.isRegularFile(file)) {
+                String[] parts = new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim().split(" ");
+                try {
+                    Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(parts[0]));
+                    token = parts[1];
+                    return socket;
+                } catch (IOException | RuntimeException e) {
+                    //Stale port file of a daemon that died, or one written while we read it
+                }
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                return null;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    private List<String> readFileList() throws IOException {
+        List<String> files = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(fileList), StandardCharsets.UTF_8)) {
+            if (!line.trim().isEmpty()) {
+                files.add(line.trim());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Serve the request in this JVM with the daemon's own code, paying the startup cost the daemon avoids
+     */
+    private int optimiseInProcess() throws IOException {
+        Path input = Paths.get(inputRoot).toAbsolutePath();
+        Path output = Paths.get(outputRoot).toAbsolutePath();
+        OptimiserDaemon optimiser = new OptimiserDaemon(Runtime.getRuntime().availableProcessors());
+        try {
+            if (singleClass) {
+                byte[] optimised = optimiser.optimiseClass(Files.readAllBytes(input), input.getFileName().toString());
+                if (output.getParent() != null) {
+                    Files.createDirectories(output.getParent());
+                }
+                Files.write(output, optimised);
+                System.out.println("Optimised " + input.getFileName());
+                return 0;
+            }
+
+            List<Path> files;
+            if (fileList != null) {
+                files = new ArrayList<>();
+                for (String file : readFileList()) {
+                    files.add(input.resolve(file));
+                }
+            } else {
+                files = OptimiserDaemon.findClassFiles(input);
+            }
+
+            OptimiserDaemon.Result result = optimiser.optimise(input, output, files);
+            (result.failures.isEmpty() ? System.out : System.err).println(result.describe());
+            return result.failures.isEmpty() ? 0 : 1;
+        } finally {
+            optimiser.shutdown();
+        }
+    }
+}
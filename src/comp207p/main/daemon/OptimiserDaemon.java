@@ -0,0 +1,448 @@
+package comp207p.main.daemon;
+
+import comp207p.main.ClassFilePipeline;
+import comp207p.main.ConstantFolder;
+import comp207p.main.OptimisationCache;
+import comp207p.main.corpus.SyntheticMethods;
+import comp207p.main.metrics.OptimisationMetrics;
+import comp207p.main.passes.Budget;
+import comp207p.main.passes.PassManager;
+import comp207p.main.utils.ClassFiles;
+import comp207p.main.utils.Remarks;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Long-lived optimiser that stays warm between builds, e.g.
+ * java comp207p.main.daemon.OptimiserDaemon -port-file .optimiser-daemon
+ * Requests come from OptimiserClient over a loopback socket. The daemon writes its port and a random access
+ * token to the port file, readable by its owner only, and refuses connections that do not present the token.
+ * Requests are served concurrently, the classes of every request share one pool of optimising threads.
+ */
+public class OptimiserDaemon {
+
+    //Requests, sent after the token
+    static final int OPTIMISE_TREE = 1;  //Input root, output root
+    static final int OPTIMISE_FILES = 2; //Input root, output root, class files under the input root
+    static final int OPTIMISE_CLASS = 3; //File name, class bytes
+    static final int STATUS = 4;
+    static final int STOP = 5;
+
+    //Reply status, followed by a message and, for OPTIMISE_CLASS, the optimised bytes
+    static final int OK = 0;
+    static final int FAILED = 1;
+
+    @Option(name="-port-file", usage="File the port and access token are written to (default .optimiser-daemon)")
+    private String portFile = ".optimiser-daemon";
+
+    @Option(name="-port", usage="Loopback port to listen on (default: any free port)")
+    private int port = 0;
+
+    @Option(name="-threads", usage="Number of classes optimised in parallel (defaults to the number of available processors)")
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name="-cache", usage="Directory of the incremental optimisation cache")
+    private String cacheRoot;
+
+    @Option(name="-log", usage="What to print while optimising: QUIET (default), REMARKS or DEBUG")
+    private Remarks.Level logLevel = Remarks.Level.QUIET;
+
+    private PassManager.Level level = PassManager.DEFAULT_LEVEL;
+
+    @Option(name="-O0", usage="Run no passes")
+    private void setO0(boolean set) {
+        level = PassManager.Level.O0;
+    }
+
+    @Option(name="-O1", usage="Run the cheap straight-line folds only")
+    private void setO1(boolean set) {
+        level = PassManager.Level.O1;
+    }
+
+    @Option(name="-O2", usage="Also fold comparisons and remove dead branches (default)")
+    private void setO2(boolean set) {
+        level = PassManager.Level.O2;
+    }
+
+    @Option(name="-O3", usage="Run every pass")
+    private void setO3(boolean set) {
+        level = PassManager.Level.O3;
+    }
+
+    @Option(name="-enable", usage="Comma separated passes to run on top of the -O level's")
+    private String enablePasses;
+
+    @Option(name="-disable", usage="Comma separated passes not to run")
+    private String disablePasses;
+
+    @Option(name="-method-budget", usage="Milliseconds spent on one method before it is kept unoptimised (default 10000, 0 for no limit)")
+    private long methodBudget = Budget.DEFAULT.getMethodMillis();
+
+    @Option(name="-class-budget", usage="Milliseconds spent on one class before its remaining methods are kept unoptimised (default 60000, 0 for no limit)")
+    private long classBudget = Budget.DEFAULT.getClassMillis();
+
+    @Option(name="-method-iterations", usage="Rewrites and walks allowed for one method (default 0, no limit)")
+    private int methodIterations = Budget.DEFAULT.getMethodIterations();
+
+    @Option(name="-class-iterations", usage="Rewrites and walks allowed for all the methods of one class (default 0, no limit)")
+    private int classIterations = Budget.DEFAULT.getClassIterations();
+
+    private PassManager passManager = PassManager.defaults();
+
+    private ExecutorService pool;
+    private OptimisationCache cache = null;
+
+    private ServerSocket server;
+    private String token;
+
+    private void parseArguments(String args[])
+    {
+        CmdLineParser parser = new CmdLineParser(this);
+        parser.setUsageWidth(80);
+        try{
+            parser.parseArgument(args);
+            if (threads < 1) {
+                throw new CmdLineException(parser, "-threads must be at least 1");
+            }
+            try {
+                passManager = PassManager.fromOptions(level, enablePasses, disablePasses)
+                        .withBudget(new Budget(methodBudget, classBudget, methodIterations, classIterations));
+            } catch (IllegalArgumentException e) {
+                throw new CmdLineException(parser, e.getMessage());
+            }
+        } catch (CmdLineException e) {
+            System.err.println(e.getMessage());
+            System.err.println("java comp207p.main.daemon.OptimiserDaemon [options]");
+            parser.printUsage(System.err);
+            System.err.println();
+            System.exit(-1);
+        }
+    }
+
+    public static void main(String args[]) throws IOException {
+        OptimiserDaemon daemon = new OptimiserDaemon();
+        daemon.parseArguments(args);
+        Remarks.configure(daemon.logLevel, null);
+        daemon.start();
+        daemon.warmUp();
+        System.out.format("Optimiser daemon listening on port %d\n", daemon.server.getLocalPort());
+        daemon.serve();
+    }
+
+    /**
+     * Optimiser used in process, by the client when no daemon is running
+     * @param threads Number of classes optimised in parallel
+     */
+    OptimiserDaemon(int threads) {
+        this.threads = threads;
+        this.pool = Executors.newWorkStealingPool(threads);
+    }
+
+    private OptimiserDaemon() {
+    }
+
+    private void start() throws IOException {
+        pool = Executors.newWorkStealingPool(threads);
+        if (cacheRoot != null) {
+            cache = new OptimisationCache(Paths.get(cacheRoot), passManager);
+        }
+
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        byte[] secret = new byte[16];
+        new SecureRandom().nextBytes(secret);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : secret) {
+            hex.append(String.format("%02x", b));
+        }
+        token = hex.toString();
+        writePortFile(Paths.get(portFile).toAbsolutePath(), server.getLocalPort(), token);
+
+        final Path written = Paths.get(portFile).toAbsolutePath();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Files.deleteIfExists(written);
+                } catch (IOException e) {
+                    //Left for the client to find stale
+                }
+            }
+        }));
+    }
+
+    /**
+     * Write "port token" to a file only the owner can read, replacing any stale file in one step
+     */
+    private static void writePortFile(Path file, int port, String token) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(temp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                //Not a POSIX file system, the temporary file is already private to the user
+            }
+            Files.write(temp, (port + " " + token + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Fold a small generated class so BCEL and the folder are loaded and compiled before the first request
+     */
+    private void warmUp() {
+        for (int i = 0; i < 20; i++) {
+            byte[] bytes = SyntheticMethods.generate("comp207p.main.daemon.WarmUp", 4096);
+            new ConstantFolder(bytes, "WarmUp.class").optimiseToBytes();
+        }
+        OptimisationMetrics.reset();
+    }
+
+    /**
+     * Accept connections until a STOP request closes the server socket, one thread per connection
+     */
+    private void serve() throws IOException {
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try {
+            while (true) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    break; //Closed by STOP
+                }
+                connections.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            }
+        } finally {
+            connections.shutdown();
+            pool.shutdown();
+            Files.deleteIfExists(Paths.get(portFile).toAbsolutePath());
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            if (!token.equals(readString(in, 64))) { //Bounded, so a stranger cannot make the daemon allocate
+                reply(out, FAILED, "Invalid access token");
+                return;
+            }
+
+            int request = in.readInt();
+            switch (request) {
+                case OPTIMISE_TREE: {
+                    Path inputRoot = Paths.get(readString(in));
+                    Path outputRoot = Paths.get(readString(in));
+                    replyResult(out, optimise(inputRoot, outputRoot, findClassFiles(inputRoot)));
+                    break;
+                }
+                case OPTIMISE_FILES: {
+                    Path inputRoot = Paths.get(readString(in));
+                    Path outputRoot = Paths.get(readString(in));
+                    int count = in.readInt();
+                    List<Path> files = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        files.add(inputRoot.resolve(readString(in)));
+                    }
+                    replyResult(out, optimise(inputRoot, outputRoot, files));
+                    break;
+                }
+                case OPTIMISE_CLASS: {
+                    String fileName = readString(in);
+                    byte[] classBytes = new byte[in.readInt()];
+                    in.readFully(classBytes);
+                    byte[] optimised;
+                    try {
+                        optimised = optimiseClass(classBytes, fileName);
+                    } catch (Throwable e) { //Errors included, the connection still gets its reply
+                        reply(out, FAILED, "Failed to optimise " + fileName + ": " + e);
+                        return;
+                    }
+                    out.writeInt(OK);
+                    writeString(out, "Optimised " + fileName);
+                    out.writeInt(optimised.length);
+                    out.write(optimised);
+                    break;
+                }
+                case STATUS: {
+                    ByteArrayOutputStream summary = new ByteArrayOutputStream();
+                    PrintStream print = new PrintStream(summary, true, "UTF-8");
+                    print.format("Optimiser daemon on port %d, %d thread(s), passes %s, budget %s\n",
+                            server.getLocalPort(), threads, passManager.describe(), passManager.getBudget());
+                    OptimisationMetrics.printSummary(print);
+                    if (cache != null) {
+                        print.format("Optimisation cache: %d hit(s), %d miss(es)\n", cache.getHits(), cache.getMisses());
+                    }
+                    reply(out, OK, summary.toString("UTF-8"));
+                    break;
+                }
+                case STOP:
+                    reply(out, OK, "Optimiser daemon stopped");
+                    server.close();
+                    break;
+                default:
+                    reply(out, FAILED, "Unknown request " + request);
+                    break;
+            }
+        } catch (IOException e) {
+            System.err.format("Optimiser daemon request failed: %s\n", e);
+        }
+    }
+
+    /**
+     * Class files under a directory, skipping the optimiser itself as Main does
+     */
+    static List<Path> findClassFiles(Path inputRoot) throws IOException {
+        try (Stream<Path> walk = Files.walk(inputRoot)) {
+            return walk.filter(p -> p.toString().endsWith(".class") && !p.toString().contains("main")
+                    && Files.isRegularFile(p)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Outcome of one request: the number of classes optimised and a line for each failure
+     */
+    static final class Result {
+        int optimised = 0;
+        final List<String> failures = new ArrayList<>();
+
+        String describe() {
+            StringBuilder message = new StringBuilder();
+            for (String failure : failures) {
+                message.append(failure).append('\n');
+            }
+            message.append(String.format("Optimised %d class(es)", optimised));
+            if (!failures.isEmpty()) {
+                message.append(String.format(", %d class(es) could not be optimised", failures.size()));
+            }
+            return message.toString();
+        }
+    }
+
+    /**
+     * Optimise class files into the same relative paths under the output root.
+     * A class that fails to optimise is reported and copied unchanged.
+     */
+    Result optimise(final Path inputRoot, final Path outputRoot, List<Path> files) {
+        List<Path> sorted = new ArrayList<>(files);
+        Collections.sort(sorted);
+
+        List<Future<?>> results = new ArrayList<>(sorted.size());
+        for (final Path file : sorted) {
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    Path output = outputRoot.resolve(inputRoot.relativize(file).toString());
+                    byte[] classBytes = Files.readAllBytes(file);
+                    byte[] optimised;
+                    try {
+                        optimised = optimiseClass(classBytes, file.toString());
+                    } catch (Throwable e) { //Copied unchanged so the output stays complete, and still reported
+                        ClassFilePipeline.writeIfChanged(output, classBytes);
+                        throw e;
+                    }
+                    ClassFilePipeline.writeIfChanged(output, optimised);
+                    return null;
+                }
+            }));
+        }
+
+        Result result = new Result();
+        for (int i = 0; i < sorted.size(); i++) {
+            try {
+                results.get(i).get();
+                result.optimised++;
+                Remarks.info("Optimised %s", sorted.get(i));
+            } catch (ExecutionException e) {
+                result.failures.add(String.format("Failed to optimise %s: %s", sorted.get(i), e.getCause()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.failures.add(String.format("Interrupted while optimising %s", sorted.get(i)));
+                break;
+            }
+        }
+        return result;
+    }
+
+    byte[] optimiseClass(byte[] classBytes, String fileName) throws IOException {
+        if (!ClassFiles.isSupported(classBytes)) {
+            return classBytes; //Copied unchanged, it cannot be written as a version 50 class
+        }
+        if (cache != null) {
+            return cache.optimise(classBytes, fileName);
+        }
+        return ConstantFolder.optimise(classBytes, fileName, passManager).getBytes();
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static void replyResult(DataOutputStream out, Result result) throws IOException {
+        reply(out, result.failures.isEmpty() ? OK : FAILED, result.describe());
+    }
+
+    private static void reply(DataOutputStream out, int status, String message) throws IOException {
+        out.writeInt(status);
+        writeString(out, message);
+    }
+
+    //Length-prefixed UTF-8, unlike writeUTF not limited to 64k
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return readString(in, Integer.MAX_VALUE);
+    }
+
+    private static String readString(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package comp207p.main.ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Basic block of the SSA form: phis, then operations, then the terminator
+ */
+public class Block {
+
+    private final int index;
+    private final List<Phi> phis = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
+    private final List<Block> predecessors = new ArrayList<>();
+    private Terminator terminator;
+
+    Block(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return Position of the block in the layout of the method, the entry is 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public List<Phi> getPhis() {
+        return phis;
+    }
+
+    /**
+     * @return Operations of the block in execution order, without the terminator
+     */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    public void addOperation(Operation operation) {
+        operation.setBlock(this);
+        operations.add(operation);
+    }
+
+    /**
+     * @return Distinct blocks jumping or falling into this one, in the order of phi operands
+     */
+    public List<Block> getPredecessors() {
+        return predecessors;
+    }
+
+    public Terminator getTerminator() {
+        return terminator;
+    }
+
+    public void setTerminator(Terminator terminator) {
+        terminator.setBlock(this);
+        this.terminator = terminator;
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index;
+    }
+}
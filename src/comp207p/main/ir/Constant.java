@@ -0,0 +1,41 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.generic.Type;
+
+/**
+ * Number, string or null constant, pushed again wherever it is used
+ */
+public class Constant extends Value {
+
+    private final Object value;
+
+    /**
+     * @param value Integer, Long, Float, Double, String or null
+     */
+    public Constant(Object value) {
+        super(typeOf(value));
+        this.value = value;
+    }
+
+    private static Type typeOf(Object value) {
+        if (value instanceof Long) {
+            return Type.LONG;
+        } else if (value instanceof Float) {
+            return Type.FLOAT;
+        } else if (value instanceof Double) {
+            return Type.DOUBLE;
+        } else if (value instanceof Number) {
+            return Type.INT;
+        }
+        return Type.OBJECT;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return value instanceof String ? "\"" + value + "\"" : String.valueOf(value);
+    }
+}
@@ -0,0 +1,178 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.util.List;
+
+/**
+ * Evaluate operations and branches of the SSA form on constant operands, with the exact semantics of the JVM:
+ * int and long arithmetic wraps, shifts only use the low bits of their distance, float arithmetic is done in
+ * float, and comparisons treat NaN the way each instruction says.
+ */
+public final class ConstantEvaluator {
+
+    private ConstantEvaluator() {
+    }
+
+    /**
+     * @param instruction Instruction of an operation
+     * @param operands Integer, Long, Float or Double value of each operand
+     * @return Integer, Long, Float or Double result, or null if the operation is not one that can be computed
+     * ahead of time or would throw, like a division by zero
+     */
+    public static Number evaluate(Instruction instruction, List<Object> operands) {
+        for (Object operand : operands) {
+            if (!(operand instanceof Number)) {
+                return null;
+            }
+        }
+        Number a = operands.size() > 0 ? (Number) operands.get(0) : null;
+        Number b = operands.size() > 1 ? (Number) operands.get(1) : null;
+
+        switch (instruction.getOpcode()) {
+            case Constants.IADD: return a.intValue() + b.intValue();
+            case Constants.ISUB: return a.intValue() - b.intValue();
+            case Constants.IMUL: return a.intValue() * b.intValue();
+            case Constants.IDIV: return b.intValue() == 0 ? null : (Number) (a.intValue() / b.intValue());
+            case Constants.IREM: return b.intValue() == 0 ? null : (Number) (a.intValue() % b.intValue());
+            case Constants.INEG: return -a.intValue();
+            case Constants.IAND: return a.intValue() & b.intValue();
+            case Constants.IOR: return a.intValue() | b.intValue();
+            case Constants.IXOR: return a.intValue() ^ b.intValue();
+            case Constants.ISHL: return a.intValue() << b.intValue();
+            case Constants.ISHR: return a.intValue() >> b.intValue();
+            case Constants.IUSHR: return a.intValue() >>> b.intValue();
+
+            //The distance of a long shift is an int
+            case Constants.LADD: return a.longValue() + b.longValue();
+            case Constants.LSUB: return a.longValue() - b.longValue();
+            case Constants.LMUL: return a.longValue() * b.longValue();
+            case Constants.LDIV: return b.longValue() == 0 ? null : (Number) (a.longValue() / b.longValue());
+            case Constants.LREM: return b.longValue() == 0 ? null : (Number) (a.longValue() % b.longValue());
+            case Constants.LNEG: return -a.longValue();
+            case Constants.LAND: return a.longValue() & b.longValue();
+            case Constants.LOR: return a.longValue() | b.longValue();
+            case Constants.LXOR: return a.longValue() ^ b.longValue();
+            case Constants.LSHL: return a.longValue() << b.intValue();
+            case Constants.LSHR: return a.longValue() >> b.intValue();
+            case Constants.LUSHR: return a.longValue() >>> b.intValue();
+
+            case Constants.FADD: return a.floatValue() + b.floatValue();
+            case Constants.FSUB: return a.floatValue() - b.floatValue();
+            case Constants.FMUL: return a.floatValue() * b.floatValue();
+            case Constants.FDIV: return a.floatValue() / b.floatValue();
+            case Constants.FREM: return a.floatValue() % b.floatValue();
+            case Constants.FNEG: return -a.floatValue();
+
+            case Constants.DADD: return a.doubleValue() + b.doubleValue();
+            case Constants.DSUB: return a.doubleValue() - b.doubleValue();
+            case Constants.DMUL: return a.doubleValue() * b.doubleValue();
+            case Constants.DDIV: return a.doubleValue() / b.doubleValue();
+            case Constants.DREM: return a.doubleValue() % b.doubleValue();
+            case Constants.DNEG: return -a.doubleValue();
+
+            //Java casts convert the way the JVM does, NaN included
+            case Constants.I2L: return (long) a.intValue();
+            case Constants.I2F: return (float) a.intValue();
+            case Constants.I2D: return (double) a.intValue();
+            case Constants.I2B: return (int) (byte) a.intValue();
+            case Constants.I2C: return (int) (char) a.intValue();
+            case Constants.I2S: return (int) (short) a.intValue();
+            case Constants.L2I: return (int) a.longValue();
+            case Constants.L2F: return (float) a.longValue();
+            case Constants.L2D: return (double) a.longValue();
+            case Constants.F2I: return (int) a.floatValue();
+            case Constants.F2L: return (long) a.floatValue();
+            case Constants.F2D: return (double) a.floatValue();
+            case Constants.D2I: return (int) a.doubleValue();
+            case Constants.D2L: return (long) a.doubleValue();
+            case Constants.D2F: return (float) a.doubleValue();
+
+            case Constants.LCMP: return Long.compare(a.longValue(), b.longValue());
+            case Constants.FCMPL: return compare(a.floatValue(), b.floatValue(), -1);
+            case Constants.FCMPG: return compare(a.floatValue(), b.floatValue(), 1);
+            case Constants.DCMPL: return compare(a.doubleValue(), b.doubleValue(), -1);
+            case Constants.DCMPG: return compare(a.doubleValue(), b.doubleValue(), 1);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return Result of a float or double comparison, nan if either operand is NaN
+     */
+    private static int compare(double a, double b, int nan) {
+        if (Double.isNaN(a) || Double.isNaN(b)) {
+            return nan;
+        }
+        return a < b ? -1 : (a > b ? 1 : 0);
+    }
+
+    /**
+     * @param terminator Terminator of a block
+     * @param operands Value of each operand: an Integer, a String, null for the null reference, or anything else
+     * for a value that is not constant
+     * @return Index of the successor the terminator goes to, or -1 if it cannot be told
+     */
+    public static int branch(Terminator terminator, List<Object> operands) {
+        Instruction instruction = terminator.getInstruction();
+        if (instruction == null) {
+            return 0;
+        }
+        if (instruction instanceof Select) {
+            if (!(operands.get(0) instanceof Integer)) {
+                return -1;
+            }
+            int[] matches = ((Select) instruction).getMatchs();
+            for (int i = 0; i < matches.length; i++) {
+                if (matches[i] == (Integer) operands.get(0)) {
+                    return i;
+                }
+            }
+            return matches.length; //Default
+        }
+        if (!(instruction instanceof IfInstruction)) {
+            return -1;
+        }
+
+        Boolean taken = null;
+        Object a = operands.get(0);
+        Object b = operands.size() > 1 ? operands.get(1) : null;
+        if (instruction instanceof IFNULL || instruction instanceof IFNONNULL) {
+            if (a == null || a instanceof String) {
+                taken = (a == null) == (instruction instanceof IFNULL); //Constant strings are never null
+            }
+        } else if (instruction instanceof IF_ACMPEQ || instruction instanceof IF_ACMPNE) {
+            if (a == null && b == null) {
+                taken = instruction instanceof IF_ACMPEQ;
+            } else if ((a == null && b instanceof String) || (a instanceof String && b == null)) {
+                taken = instruction instanceof IF_ACMPNE; //Two strings may or may not be the same object
+            }
+        } else if (operands.size() == 1 && operands.get(0) instanceof Integer) {
+            taken = compare(instruction.getOpcode(), (Integer) operands.get(0), 0);
+        } else if (operands.size() == 2 && operands.get(0) instanceof Integer && operands.get(1) instanceof Integer) {
+            taken = compare(instruction.getOpcode(), (Integer) operands.get(0), (Integer) operands.get(1));
+        }
+        if (taken == null) {
+            return -1;
+        }
+        return taken ? 0 : 1;
+    }
+
+    /**
+     * @return Whether an int comparison jumps
+     */
+    private static Boolean compare(short opcode, int a, int b) {
+        switch (opcode) {
+            case Constants.IFEQ: case Constants.IF_ICMPEQ: return a == b;
+            case Constants.IFNE: case Constants.IF_ICMPNE: return a != b;
+            case Constants.IFLT: case Constants.IF_ICMPLT: return a < b;
+            case Constants.IFGE: case Constants.IF_ICMPGE: return a >= b;
+            case Constants.IFGT: case Constants.IF_ICMPGT: return a > b;
+            case Constants.IFLE: case Constants.IF_ICMPLE: return a <= b;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package comp207p.main.ir;
+
+import comp207p.main.analysis.BasicBlock;
+import comp207p.main.analysis.ControlFlowGraph;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Build the SSA form of a method from its instruction list.
+ * Each block is first translated on its own, simulating the operand stack with values: loads and stack shuffles
+ * only move values around, stores record the value of the slot, and anything read before the block writes it
+ * (a local, or a stack slot left by the predecessors) becomes a phi of the block. The phis are then given their
+ * operands from the values the predecessors end with, adding phis to predecessors that do not write the slot
+ * either, and the phis that merge a single value are replaced by it (Braun et al.'s construction over a
+ * finished control-flow graph).
+ * Exception handlers and JSR/RET subroutines are not supported: the edges they add from every instruction
+ * of a try block would need phis of their own.
+ */
+public class IRBuilder {
+
+    //What the translation of a block leaves behind
+    private static final class State {
+        final Block block;
+        final BasicBlock basicBlock; //Null for the start block
+        final Map<Integer, Value> definitions = new HashMap<>(); //Value of each slot read or written by the block so far
+        int entryHeight = 0;
+        List<Value> exitStack = new ArrayList<>();
+
+        State(Block block, BasicBlock basicBlock) {
+            this.block = block;
+            this.basicBlock = basicBlock;
+        }
+    }
+
+    private final MethodGen methodGen;
+    private final ConstantPoolGen cpgen;
+    private final Map<BasicBlock, State> states = new HashMap<>();
+    private final Map<InstructionHandle, Block> blockAt = new HashMap<>();
+    private final Map<Block, State> stateOf = new IdentityHashMap<>();
+    private final Map<Phi, Integer> slotOf = new IdentityHashMap<>(); //Local slot, or -1 - depth for a stack slot
+    private final Deque<Phi> unfilled = new ArrayDeque<>();
+
+    private IRBuilder(MethodGen methodGen) {
+        this.methodGen = methodGen;
+        this.cpgen = methodGen.getConstantPool();
+    }
+
+    /**
+     * @return true if the method can be turned into SSA form: it has code, no exception handlers and no subroutines
+     */
+    public static boolean isSupported(MethodGen methodGen) {
+        InstructionList instructionList = methodGen.getInstructionList();
+        if (instructionList == null || instructionList.isEmpty() || methodGen.getExceptionHandlers().length > 0) {
+            return false;
+        }
+        for (InstructionHandle h = instructionList.getStart(); h != null; h = h.getNext()) {
+            if (h.getInstruction() instanceof JsrInstruction || h.getInstruction() instanceof RET) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param methodGen Method to translate, which is not changed
+     * @return SSA form of the method
+     * @throws IllegalArgumentException If the method is not supported, or its code would not verify
+     */
+    public static IRMethod build(MethodGen methodGen) {
+        if (!isSupported(methodGen)) {
+            throw new IllegalArgumentException("Method " + methodGen.getName() + " has exception handlers or subroutines");
+        }
+        return new IRBuilder(methodGen).build();
+    }
+
+    private IRMethod build() {
+        ControlFlowGraph cfg = new ControlFlowGraph(methodGen.getInstructionList(), methodGen.getExceptionHandlers());
+
+        //Layout: the start block, then the reachable blocks in code order
+        List<Block> blocks = new ArrayList<>();
+        Block start = new Block(0);
+        blocks.add(start);
+        State startState = new State(start, null);
+        stateOf.put(start, startState);
+        Set<BasicBlock> reachable = new LinkedHashSet<>(cfg.getReversePostOrder());
+        for (BasicBlock basicBlock : cfg.getBlocks()) {
+            if (reachable.contains(basicBlock)) {
+                Block block = new Block(blocks.size());
+                blocks.add(block);
+                State state = new State(block, basicBlock);
+                states.put(basicBlock, state);
+                blockAt.put(basicBlock.getStart(), block);
+                stateOf.put(block, state);
+            }
+        }
+
+        List<Parameter> parameters = new ArrayList<>();
+        int slot = 0;
+        if (!methodGen.isStatic()) {
+            parameters.add(new Parameter(Type.OBJECT, slot++));
+        }
+        for (Type argument : methodGen.getArgumentTypes()) {
+            parameters.add(new Parameter(argument, slot));
+            slot += argument.getSize();
+        }
+        for (Parameter parameter : parameters) {
+            startState.definitions.put(parameter.getSlot(), parameter);
+        }
+        start.setTerminator(new Terminator(null, Collections.<Value>emptyList(),
+                Collections.singletonList(states.get(cfg.getEntry()).block)));
+
+        for (BasicBlock basicBlock : cfg.getReversePostOrder()) {
+            translate(states.get(basicBlock), cfg.getEntry());
+        }
+
+        for (Block block : blocks) {
+            for (Block successor : new LinkedHashSet<>(block.getTerminator().getSuccessors())) {
+                successor.getPredecessors().add(block);
+            }
+        }
+
+        while (!unfilled.isEmpty()) {
+            fill(unfilled.poll());
+        }
+
+        IRMethod method = new IRMethod(methodGen, blocks, parameters);
+        method.removeTrivialPhis();
+        method.removeDeadValues();
+        check(method);
+        return method;
+    }
+
+    /**
+     * Translate the instructions of a block
+     */
+    private void translate(State state, BasicBlock entry) {
+        Block block = state.block;
+        List<Value> stack = entryStack(state, entry);
+        state.entryHeight = stack.size();
+
+        InstructionHandle end = state.basicBlock.getEnd();
+        for (InstructionHandle h = state.basicBlock.getStart(); h != end.getNext(); h = h.getNext()) {
+            Instruction instruction = h.getInstruction();
+
+            if (instruction instanceof BranchInstruction) {
+                List<Value> operands = pop(stack, instruction.consumeStack(cpgen));
+                List<Block> successors = new ArrayList<>();
+                if (instruction instanceof Select) {
+                    for (InstructionHandle target : ((Select) instruction).getTargets()) {
+                        successors.add(blockAt(target));
+                    }
+                }
+                successors.add(blockAt(((BranchInstruction) instruction).getTarget()));
+                if (instruction instanceof IfInstruction) {
+                    successors.add(blockAt(h.getNext()));
+                }
+                block.setTerminator(new Terminator(instruction instanceof GotoInstruction ? null : instruction, operands, successors));
+            } else if (instruction instanceof ReturnInstruction || instruction instanceof ATHROW) {
+                List<Value> operands = pop(stack, instruction.consumeStack(cpgen));
+                block.setTerminator(new Terminator(instruction, operands, Collections.<Block>emptyList()));
+            } else if (instruction instanceof ConstantPushInstruction) {
+                stack.add(new Constant(((ConstantPushInstruction) instruction).getValue()));
+            } else if (instruction instanceof ACONST_NULL) {
+                stack.add(new Constant(null));
+            } else if (instruction instanceof LDC && !(((LDC) instruction).getValue(cpgen) instanceof Type)) {
+                stack.add(new Constant(((LDC) instruction).getValue(cpgen)));
+            } else if (instruction instanceof LDC2_W) {
+                stack.add(new Constant(((LDC2_W) instruction).getValue(cpgen)));
+            } else if (instruction instanceof LoadInstruction) {
+                LoadInstruction load = (LoadInstruction) instruction;
+                stack.add(read(state, load.getIndex(), load.getType(cpgen)));
+            } else if (instruction instanceof StoreInstruction) {
+                write(state, ((StoreInstruction) instruction).getIndex(), stack.remove(stack.size() - 1));
+            } else if (instruction instanceof IINC) {
+                IINC iinc = (IINC) instruction;
+                Operation add = new Operation(InstructionConstants.IADD,
+                        Arrays.asList(read(state, iinc.getIndex(), Type.INT), new Constant(iinc.getIncrement())), Type.INT);
+                block.addOperation(add);
+                write(state, iinc.getIndex(), add);
+            } else if (instruction instanceof StackInstruction) {
+                shuffle(instruction, stack);
+            } else if (!(instruction instanceof NOP)) {
+                List<Value> operands = pop(stack, instruction.consumeStack(cpgen));
+                Operation operation = new Operation(instruction, operands, resultType(instruction));
+                block.addOperation(operation);
+                if (operation.getSize() > 0) {
+                    stack.add(operation);
+                }
+            }
+        }
+
+        if (block.getTerminator() == null) {
+            //Falls through into the next block
+            block.setTerminator(new Terminator(null, Collections.<Value>emptyList(), Collections.singletonList(blockAt(end.getNext()))));
+        }
+        state.exitStack = stack;
+    }
+
+    /**
+     * @return Stack on entry to a block: the predecessor's if there is only one, else a phi for every slot
+     */
+    private List<Value> entryStack(State state, BasicBlock entry) {
+        List<BasicBlock> predecessors = state.basicBlock.getPredecessors();
+        if (state.basicBlock == entry && predecessors.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        //Reverse post-order has translated the predecessor the block was reached from
+        State translated = null;
+        for (BasicBlock predecessor : predecessors) {
+            State predecessorState = states.get(predecessor);
+            if (predecessorState != null && predecessorState.block.getTerminator() != null) {
+                translated = predecessorState;
+                break;
+            }
+        }
+        if (translated == null) {
+            return new ArrayList<>(); //The entry, looped back into
+        }
+        if (predecessors.size() == 1) {
+            return new ArrayList<>(translated.exitStack);
+        }
+
+        List<Value> stack = new ArrayList<>();
+        for (int depth = 0; depth < translated.exitStack.size(); depth++) {
+            Phi phi = new Phi(translated.exitStack.get(depth).getType(), state.block);
+            state.block.getPhis().add(phi);
+            slotOf.put(phi, -1 - depth);
+            unfilled.add(phi);
+            stack.add(phi);
+        }
+        return stack;
+    }
+
+    private Block blockAt(InstructionHandle h) {
+        Block block = blockAt.get(h);
+        if (block == null) {
+            throw new IllegalArgumentException("Control falls off the end of the code");
+        }
+        return block;
+    }
+
+    /**
+     * @return Value of a slot in a block, a new phi if the block reads it before writing it
+     */
+    private Value read(State state, int slot, Type type) {
+        Value value = state.definitions.get(slot);
+        if (value == null) {
+            if (state.basicBlock == null) {
+                return Undefined.VALUE; //Not a parameter
+            }
+            Phi phi = new Phi(type, state.block);
+            state.block.getPhis().add(phi);
+            state.definitions.put(slot, phi);
+            slotOf.put(phi, slot);
+            unfilled.add(phi);
+            value = phi;
+        }
+        return value;
+    }
+
+    private static void write(State state, int slot, Value value) {
+        //A long or double takes the next slot too, and a write into half of one destroys it
+        Value previous = state.definitions.get(slot - 1);
+        if (previous != null && previous.getSize() == 2) {
+            state.definitions.put(slot - 1, Undefined.VALUE);
+        }
+        state.definitions.put(slot, value);
+        if (value.getSize() == 2) {
+            state.definitions.put(slot + 1, Undefined.VALUE);
+        }
+    }
+
+    /**
+     * Give a phi one operand per predecessor of its block
+     */
+    private void fill(Phi phi) {
+        int slot = slotOf.get(phi);
+        for (Block predecessor : phi.getBlock().getPredecessors()) {
+            State state = stateOf.get(predecessor);
+            Value operand;
+            if (slot < 0) {
+                int depth = -1 - slot;
+                if (state.exitStack.size() != stateOf.get(phi.getBlock()).entryHeight) {
+                    throw new IllegalArgumentException("Stack heights differ where control flow merges");
+                }
+                operand = state.exitStack.get(depth);
+            } else {
+                operand = read(state, slot, phi.getType());
+            }
+            if (operand != Undefined.VALUE && !operand.getType().equals(phi.getType())) {
+                operand = Undefined.VALUE; //The slot holds another type on this path, so the phi cannot be used
+            }
+            phi.getOperands().add(operand);
+        }
+    }
+
+    /**
+     * Make sure no value that is used depends on a slot that was never written
+     */
+    private static void check(IRMethod method) {
+        for (Block block : method.getBlocks()) {
+            for (Phi phi : block.getPhis()) {
+                if (phi.getOperands().contains(Undefined.VALUE)) {
+                    throw new IllegalArgumentException("A local is read before it is written");
+                }
+            }
+            List<Operation> operations = new ArrayList<>(block.getOperations());
+            operations.add(block.getTerminator());
+            for (Operation operation : operations) {
+                if (operation.getOperands().contains(Undefined.VALUE)) {
+                    throw new IllegalArgumentException("A local is read before it is written");
+                }
+            }
+        }
+    }
+
+    /**
+     * Pop the values taking up a number of stack slots
+     * @return The values, first pushed first
+     */
+    private static List<Value> pop(List<Value> stack, int slots) {
+        List<Value> values = new ArrayList<>();
+        while (slots > 0) {
+            if (stack.isEmpty()) {
+                throw new IllegalArgumentException("Stack underflow");
+            }
+            Value value = stack.remove(stack.size() - 1);
+            values.add(0, value);
+            slots -= value.getSize();
+        }
+        if (slots < 0) {
+            throw new IllegalArgumentException("Instruction pops half of a long or double");
+        }
+        return values;
+    }
+
+    /**
+     * Apply a POP, DUP or SWAP variant to the stack of values, following the size of each value
+     */
+    private static void shuffle(Instruction instruction, List<Value> stack) {
+        Value v1 = stack.remove(stack.size() - 1);
+        switch (instruction.getOpcode()) {
+            case Constants.POP:
+                break;
+            case Constants.POP2:
+                if (v1.getSize() == 1) {
+                    stack.remove(stack.size() - 1);
+                }
+                break;
+            case Constants.DUP:
+                push(stack, v1, v1);
+                break;
+            case Constants.DUP_X1:
+                push(stack, v1, stack.remove(stack.size() - 1), v1);
+                break;
+            case Constants.DUP_X2: {
+                Value v2 = stack.remove(stack.size() - 1);
+                if (v2.getSize() == 2) {
+                    push(stack, v1, v2, v1);
+                } else {
+                    Value v3 = stack.remove(stack.size() - 1);
+                    push(stack, v1, v3, v2, v1);
+                }
+                break;
+            }
+            case Constants.DUP2:
+                if (v1.getSize() == 2) {
+                    push(stack, v1, v1);
+                } else {
+                    Value v2 = stack.remove(stack.size() - 1);
+                    push(stack, v2, v1, v2, v1);
+                }
+                break;
+            case Constants.DUP2_X1: {
+                Value v2 = stack.remove(stack.size() - 1);
+                if (v1.getSize() == 2) {
+                    push(stack, v1, v2, v1);
+                } else {
+                    Value v3 = stack.remove(stack.size() - 1);
+                    push(stack, v2, v1, v3, v2, v1);
+                }
+                break;
+            }
+            case Constants.DUP2_X2: {
+                Value v2 = stack.remove(stack.size() - 1);
+                if (v1.getSize() == 2) {
+                    if (v2.getSize() == 2) {
+                        push(stack, v1, v2, v1);
+                    } else {
+                        Value v3 = stack.remove(stack.size() - 1);
+                        push(stack, v1, v3, v2, v1);
+                    }
+                } else {
+                    Value v3 = stack.remove(stack.size() - 1);
+                    if (v3.getSize() == 2) {
+                        push(stack, v2, v1, v3, v2, v1);
+                    } else {
+                        Value v4 = stack.remove(stack.size() - 1);
+                        push(stack, v2, v1, v4, v3, v2, v1);
+                    }
+                }
+                break;
+            }
+            case Constants.SWAP:
+                push(stack, v1, stack.remove(stack.size() - 1));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown stack instruction " + instruction);
+        }
+    }
+
+    private static void push(List<Value> stack, Value... values) {
+        Collections.addAll(stack, values);
+    }
+
+    /**
+     * @return Kind of the value an instruction pushes, VOID if it pushes nothing
+     */
+    private Type resultType(Instruction instruction) {
+        if (instruction.produceStack(cpgen) == 0) {
+            return Type.VOID;
+        }
+        if (instruction instanceof InvokeInstruction) {
+            return Value.kind(((InvokeInstruction) instruction).getReturnType(cpgen));
+        }
+        if (instruction instanceof FieldInstruction) {
+            return Value.kind(((FieldInstruction) instruction).getFieldType(cpgen));
+        }
+        if (instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction
+                || instruction instanceof ArrayInstruction) {
+            return Value.kind(((TypedInstruction) instruction).getType(cpgen));
+        }
+        if (instruction instanceof INSTANCEOF || instruction instanceof ARRAYLENGTH || instruction instanceof LCMP
+                || instruction instanceof FCMPL || instruction instanceof FCMPG
+                || instruction instanceof DCMPL || instruction instanceof DCMPG) {
+            return Type.INT;
+        }
+        return Type.OBJECT; //NEW, array creation, CHECKCAST and class literals
+    }
+}
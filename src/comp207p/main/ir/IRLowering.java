@@ -0,0 +1,600 @@
+package comp207p.main.ir;
+
+import comp207p.main.analysis.BasicBlock;
+import comp207p.main.analysis.ControlFlowGraph;
+import comp207p.main.analysis.LiveVariables;
+import comp207p.main.utils.InstructionLists;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Turn the SSA form of a method back into bytecode.
+ * Stack scheduling: a value used once, by an operation of its own block that comes right after it (or right
+ * after its other operands), is left on the stack for its user instead of going through a local. Constants
+ * are pushed again wherever they are used.
+ * Every other value gets a local of its own, and a phi gets a local that its predecessors copy their
+ * operand into before jumping to it: all the operands are pushed before any is stored, so phis that swap
+ * values copy them at once. A conditional jump or switch whose target has phis jumps to a trampoline doing
+ * the copies for that edge only.
+ * Local allocation: once the code is out, temporaries that are never live at the same time share a slot,
+ * given greedily in the order they were created, and may take the slots of dead parameters. The copies that sharing turns
+ * into no-ops are then dropped, and what is left of them and of the trampolines tidied up.
+ */
+public class IRLowering {
+
+    //Operation being walked, with the next of its operands to visit
+    private static final class Frame {
+        final Operation operation;
+        int operand;
+
+        Frame(Operation operation, int operand) {
+            this.operation = operation;
+            this.operand = operand;
+        }
+    }
+
+    private final IRMethod method;
+    private final ConstantPoolGen cpgen;
+    private final InstructionList instructionList = new InstructionList();
+
+    private final Map<Value, Integer> uses = new IdentityHashMap<>();
+    private final Set<Value> onStack = Collections.newSetFromMap(new IdentityHashMap<Value, Boolean>());
+    private final Map<Value, Integer> localOf = new IdentityHashMap<>();
+    private final TreeMap<Integer, Type> temporaries = new TreeMap<>(); //Type of each temporary local, by slot
+    private final Type[] parameterTypes; //Declared type of the parameter starting at each slot
+    private final int firstTemporary;
+
+    //Placeholder NOP starting each block and trampoline, deleted once the jumps to it are patched
+    private final Map<Block, InstructionHandle> labels = new HashMap<>();
+    private final List<InstructionHandle> placeholders = new ArrayList<>();
+    private final Map<BranchInstruction, Block> jumps = new IdentityHashMap<>();
+    private final Map<Select, Block[]> switches = new IdentityHashMap<>();
+
+    private IRLowering(IRMethod method) {
+        this.method = method;
+        this.cpgen = method.getConstantPool();
+        MethodGen methodGen = method.getMethodGen();
+        List<Type> types = new ArrayList<>();
+        if (!methodGen.isStatic()) {
+            types.add(Type.OBJECT);
+        }
+        for (Type argument : methodGen.getArgumentTypes()) {
+            types.add(argument);
+            if (argument.getSize() == 2) {
+                types.add(null);
+            }
+        }
+        this.parameterTypes = types.toArray(new Type[types.size()]);
+        this.firstTemporary = parameterTypes.length;
+    }
+
+    /**
+     * @param method SSA form of a method
+     * @return New instruction list with the code of the method
+     */
+    public static InstructionList lower(IRMethod method) {
+        synchronized (InstructionLists.LOCK) { //Creates handles
+            return new IRLowering(method).lower();
+        }
+    }
+
+    private InstructionList lower() {
+        countUses();
+        for (Block block : method.getBlocks()) {
+            schedule(block);
+        }
+
+        List<Block> blocks = method.getBlocks();
+        for (int b = 0; b < blocks.size(); b++) {
+            emit(blocks.get(b), b + 1 < blocks.size() ? blocks.get(b + 1) : null);
+        }
+
+        patchJumps();
+        allocateLocals();
+        tidy();
+        return instructionList;
+    }
+
+    private void countUses() {
+        for (Block block : method.getBlocks()) {
+            for (Phi phi : block.getPhis()) {
+                for (Value operand : phi.getOperands()) {
+                    uses.merge(operand, 2, Integer::sum); //Never left on the stack for a phi
+                }
+            }
+            List<Operation> operations = new ArrayList<>(block.getOperations());
+            operations.add(block.getTerminator());
+            for (Operation operation : operations) {
+                for (Value operand : operation.getOperands()) {
+                    uses.merge(operand, 1, Integer::sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Choose the values of a block that stay on the stack. Going back from each operation that is not itself
+     * left on the stack, its operands are taken from last to first: one computed by the operation right before
+     * (or right before the operands already taken) and used nowhere else stays on the stack, and its own
+     * operands are taken the same way. This keeps every operation in its place, so effects keep their order;
+     * it is the shape the operand stack had in the original code.
+     */
+    private void schedule(Block block) {
+        List<Operation> operations = block.getOperations();
+        int cursor = take(block.getTerminator(), operations.size() - 1, operations);
+        while (cursor >= 0) {
+            cursor = take(operations.get(cursor), cursor - 1, operations);
+        }
+    }
+
+    /**
+     * @param operation Operation whose operands are taken
+     * @param cursor Position of the operation that has to compute the next operand to stay on the stack
+     * @return Position before the operations left on the stack for the operation
+     */
+    private int take(Operation operation, int cursor, List<Operation> operations) {
+        //Operand trees can be thousands deep, so walk them with a stack of our own
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(operation, operation.getOperands().size() - 1));
+        while (!frames.isEmpty() && cursor >= 0) {
+            Frame frame = frames.peek();
+            if (frame.operand < 0) {
+                frames.pop();
+                continue;
+            }
+            Value operand = frame.operation.getOperands().get(frame.operand--);
+            if (operand == operations.get(cursor) && uses.get(operand) == 1) {
+                onStack.add(operand);
+                cursor--;
+                frames.push(new Frame((Operation) operand, ((Operation) operand).getOperands().size() - 1));
+            }
+        }
+        return cursor;
+    }
+
+    private void emit(Block block, Block next) {
+        InstructionHandle label = placeholder();
+        labels.put(block, label);
+
+        for (Operation operation : block.getOperations()) {
+            if (onStack.contains(operation)) {
+                continue;
+            }
+            compute(operation);
+            if (operation.getSize() > 0) {
+                if (uses.getOrDefault(operation, 0) == 0) {
+                    instructionList.append(operation.getSize() == 2 ? InstructionConstants.POP2 : InstructionConstants.POP);
+                } else {
+                    instructionList.append(InstructionFactory.createStore(operation.getType(), local(operation)));
+                }
+            }
+        }
+
+        Terminator terminator = block.getTerminator();
+        Instruction instruction = terminator.getInstruction();
+        List<Block> successors = terminator.getSuccessors();
+        for (Value operand : terminator.getOperands()) {
+            push(operand);
+        }
+
+        if (instruction == null) {
+            copy(block, successors.get(0));
+            if (successors.get(0) != next) {
+                jump(new GOTO(null), successors.get(0));
+            }
+        } else if (instruction instanceof IfInstruction) {
+            Block target = successors.get(0);
+            Block fallThrough = successors.get(1);
+            short opcode = instruction.getOpcode();
+            if (!target.getPhis().isEmpty() && fallThrough.getPhis().isEmpty()) {
+                //Jump on the opposite condition to the block without copies, and do the copies in line
+                opcode = negate((IfInstruction) instruction);
+                target = fallThrough;
+                fallThrough = successors.get(0);
+            }
+            BranchInstruction branch = InstructionFactory.createBranchInstruction(opcode, null);
+            instructionList.append(branch);
+            copy(block, fallThrough);
+            if (target.getPhis().isEmpty()) {
+                jumps.put(branch, target);
+                if (fallThrough != next) {
+                    jump(new GOTO(null), fallThrough);
+                }
+            } else {
+                jump(new GOTO(null), fallThrough);
+                branch.setTarget(trampoline(block, target));
+            }
+        } else if (instruction instanceof Select) {
+            Select original = (Select) instruction;
+            int[] matches = original.getMatchs().clone();
+            Select select = original instanceof TABLESWITCH
+                    ? new TABLESWITCH(matches, new InstructionHandle[matches.length], null)
+                    : new LOOKUPSWITCH(matches, new InstructionHandle[matches.length], null);
+            instructionList.append(select);
+            Block[] targets = successors.toArray(new Block[successors.size()]);
+            switches.put(select, targets);
+            for (int i = 0; i < targets.length; i++) {
+                if (!targets[i].getPhis().isEmpty()) {
+                    InstructionHandle trampoline = trampoline(block, targets[i]);
+                    if (i < matches.length) {
+                        select.setTarget(i, trampoline);
+                    } else {
+                        select.setTarget(trampoline);
+                    }
+                    targets[i] = null;
+                }
+            }
+        } else {
+            instructionList.append(instruction.copy()); //Return or ATHROW
+        }
+    }
+
+    /**
+     * Emit the copies of an edge into a block with phis, then the jump to it
+     * @return First instruction of the trampoline
+     */
+    private InstructionHandle trampoline(Block from, Block to) {
+        InstructionHandle label = placeholder();
+        copy(from, to);
+        jump(new GOTO(null), to);
+        return label;
+    }
+
+    private InstructionHandle placeholder() {
+        InstructionHandle label = instructionList.append(new NOP());
+        placeholders.add(label);
+        return label;
+    }
+
+    private void jump(BranchInstruction branch, Block target) {
+        instructionList.append(branch);
+        jumps.put(branch, target);
+    }
+
+    /**
+     * Copy the operands of the phis of a block for the edge from one of its predecessors
+     */
+    private void copy(Block from, Block to) {
+        int edge = to.getPredecessors().indexOf(from);
+        List<Phi> copied = new ArrayList<>();
+        for (Phi phi : to.getPhis()) {
+            Value operand = phi.getOperands().get(edge);
+            if (operand != phi) {
+                push(operand);
+                copied.add(phi);
+            }
+        }
+        for (int i = copied.size() - 1; i >= 0; i--) {
+            Phi phi = copied.get(i);
+            instructionList.append(InstructionFactory.createStore(phi.getType(), local(phi)));
+        }
+    }
+
+    /**
+     * Push the operands of an operation and emit its instruction, leaving its result on the stack
+     */
+    private void compute(Operation operation) {
+        Deque<Frame> frames = new ArrayDeque<>();
+        frames.push(new Frame(operation, 0));
+        while (!frames.isEmpty()) {
+            Frame frame = frames.peek();
+            List<Value> operands = frame.operation.getOperands();
+            if (frame.operand == operands.size()) {
+                instructionList.append(frame.operation.getInstruction().copy());
+                frames.pop();
+                continue;
+            }
+            Value operand = operands.get(frame.operand++);
+            if (onStack.contains(operand)) {
+                frames.push(new Frame((Operation) operand, 0));
+            } else {
+                push(operand);
+            }
+        }
+    }
+
+    private void push(Value value) {
+        if (value instanceof Constant) {
+            Object constant = ((Constant) value).getValue();
+            if (constant == null) {
+                instructionList.append(InstructionConstants.ACONST_NULL);
+            } else if (constant instanceof String) {
+                instructionList.append(new PUSH(cpgen, (String) constant));
+            } else if (constant instanceof Integer && isPooled((Integer) constant)) {
+                instructionList.append(new LDC(cpgen.lookupInteger((Integer) constant)));
+            } else if (constant.equals(-0.0f)) {
+                instructionList.append(new LDC(cpgen.addFloat(-0.0f))); //PUSH would give FCONST_0, which is +0.0
+            } else if (constant.equals(-0.0)) {
+                instructionList.append(new LDC2_W(cpgen.addDouble(-0.0)));
+            } else {
+                instructionList.append(new PUSH(cpgen, (Number) constant));
+            }
+        } else if (value instanceof Parameter) {
+            instructionList.append(InstructionFactory.createLoad(value.getType(), ((Parameter) value).getSlot()));
+        } else if (onStack.contains(value)) {
+            compute((Operation) value);
+        } else {
+            instructionList.append(InstructionFactory.createLoad(value.getType(), local(value)));
+        }
+    }
+
+    /**
+     * @return true if an int already has a constant pool entry LDC can reach, and LDC is shorter than SIPUSH
+     */
+    private boolean isPooled(int value) {
+        int index = cpgen.lookupInteger(value);
+        return (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) && index > 0 && index <= 255;
+    }
+
+    /**
+     * @return Temporary local of a value, given on first use
+     */
+    private int local(Value value) {
+        Integer slot = localOf.get(value);
+        if (slot == null) {
+            slot = temporaries.isEmpty() ? firstTemporary : temporaries.lastKey() + temporaries.lastEntry().getValue().getSize();
+            temporaries.put(slot, value.getType());
+            localOf.put(value, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Point the jumps at the blocks they go to, then drop the placeholders
+     */
+    private void patchJumps() {
+        for (Map.Entry<BranchInstruction, Block> jump : jumps.entrySet()) {
+            jump.getKey().setTarget(labels.get(jump.getValue()));
+        }
+        for (Map.Entry<Select, Block[]> select : switches.entrySet()) {
+            Block[] targets = select.getValue();
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == null) {
+                    continue; //Goes to a trampoline
+                }
+                if (i < targets.length - 1) {
+                    select.getKey().setTarget(i, labels.get(targets[i]));
+                } else {
+                    select.getKey().setTarget(labels.get(targets[i]));
+                }
+            }
+        }
+
+        for (InstructionHandle placeholder : placeholders) {
+            InstructionHandle next = placeholder.getNext();
+            InstructionTargeter[] targeters = placeholder.getTargeters();
+            if (targeters != null) {
+                for (InstructionTargeter targeter : targeters) {
+                    targeter.updateTarget(placeholder, next);
+                }
+            }
+            try {
+                InstructionLists.delete(instructionList, placeholder, placeholder);
+            } catch (TargetLostException e) {
+                throw new IllegalStateException("Jump to a placeholder left behind", e);
+            }
+        }
+    }
+
+    /**
+     * Give temporaries that are never live at the same time the same slot. A temporary can also take the slot
+     * of a parameter that is no longer live, if it has the parameter's type, so the local variable table
+     * still describes the slot.
+     */
+    private void allocateLocals() {
+        if (temporaries.isEmpty()) {
+            return;
+        }
+
+        //Two temporaries interfere if one is live where the other is stored, and so do parameters
+        Map<Integer, Set<Integer>> interference = new HashMap<>();
+        Map<Integer, BitSet> liveParameters = new HashMap<>();
+        for (int slot : temporaries.keySet()) {
+            interference.put(slot, new HashSet<Integer>());
+            liveParameters.put(slot, new BitSet());
+        }
+        ControlFlowGraph cfg = new ControlFlowGraph(instructionList, new CodeExceptionGen[0]);
+        LiveVariables liveness = new LiveVariables(cfg, cpgen);
+        for (BasicBlock block : cfg.getBlocks()) {
+            BitSet live = liveness.getLiveOut(block);
+            for (InstructionHandle h = block.getEnd(); h != block.getStart().getPrev(); h = h.getPrev()) {
+                Instruction instruction = h.getInstruction();
+                if (instruction instanceof StoreInstruction && ((StoreInstruction) instruction).getIndex() >= firstTemporary) {
+                    int stored = ((StoreInstruction) instruction).getIndex();
+                    liveParameters.get(stored).or(live.get(0, firstTemporary));
+                    for (int slot = live.nextSetBit(firstTemporary); slot >= 0; slot = live.nextSetBit(slot + 1)) {
+                        Integer other = temporaries.floorKey(slot);
+                        if (other != stored) {
+                            interference.get(stored).add(other);
+                            interference.get(other).add(stored);
+                        }
+                    }
+                }
+                liveness.transfer(instruction, live);
+            }
+        }
+
+        //Lowest slot that overlaps no interfering temporary placed already, in creation order
+        Map<Integer, Integer> newSlot = new HashMap<>();
+        for (Map.Entry<Integer, Type> temporary : temporaries.entrySet()) {
+            Type type = temporary.getValue();
+            BitSet taken = (BitSet) liveParameters.get(temporary.getKey()).clone();
+            for (int slot = 0; slot < firstTemporary; slot++) {
+                if (parameterTypes[slot] == null || !Value.kind(parameterTypes[slot]).equals(type)
+                        || (type.equals(Type.INT) && !parameterTypes[slot].equals(Type.INT))) {
+                    taken.set(slot); //Half of a long or double, or another type
+                }
+            }
+            for (int other : interference.get(temporary.getKey())) {
+                Integer placed = newSlot.get(other);
+                if (placed != null) {
+                    taken.set(placed, placed + temporaries.get(other).getSize());
+                }
+            }
+            int slot = 0;
+            while (taken.get(slot, slot + type.getSize()).cardinality() > 0) {
+                slot++;
+            }
+            newSlot.put(temporary.getKey(), slot);
+        }
+
+        for (InstructionHandle h = instructionList.getStart(); h != null; h = h.getNext()) {
+            if (h.getInstruction() instanceof LocalVariableInstruction) {
+                LocalVariableInstruction local = (LocalVariableInstruction) h.getInstruction();
+                if (local.getIndex() >= firstTemporary) {
+                    local.setIndex(newSlot.get(local.getIndex())); //Every load and store here was made by the lowering
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the copies of a slot into itself, innermost first as each one can expose another around it; then keep
+     * a value that is stored and loaded straight back on the stack, and add small constants with IINC
+     */
+    private void tidy() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            InstructionHandle h = instructionList.getStart();
+            while (h != null) {
+                InstructionHandle next = h.getNext();
+                if (next != null && h.getInstruction() instanceof LoadInstruction && sameSlot(h, next, StoreInstruction.class)
+                        && !next.hasTargeters()) {
+                    next = next.getNext();
+                    remove(h, next.getPrev());
+                    changed = true;
+                }
+                h = next;
+            }
+        }
+
+        //Stores followed by a load of the same slot, with whether the slot is read again
+        Map<InstructionHandle, Boolean> storeLoads = new IdentityHashMap<>();
+        ControlFlowGraph cfg = new ControlFlowGraph(instructionList, new CodeExceptionGen[0]);
+        LiveVariables liveness = new LiveVariables(cfg, cpgen);
+        for (BasicBlock block : cfg.getBlocks()) {
+            BitSet live = liveness.getLiveOut(block);
+            for (InstructionHandle h = block.getEnd(); h != block.getStart(); h = h.getPrev()) {
+                if (h.getInstruction() instanceof LoadInstruction && !h.hasTargeters()
+                        && sameSlot(h.getPrev(), h, StoreInstruction.class)) {
+                    storeLoads.put(h.getPrev(), live.get(((LoadInstruction) h.getInstruction()).getIndex()));
+                }
+                liveness.transfer(h.getInstruction(), live);
+            }
+        }
+        for (Map.Entry<InstructionHandle, Boolean> storeLoad : storeLoads.entrySet()) {
+            InstructionHandle store = storeLoad.getKey();
+            InstructionHandle load = store.getNext();
+            if (storeLoad.getValue()) {
+                Instruction instruction = store.getInstruction();
+                store.setInstruction(((StoreInstruction) instruction).getType(cpgen).getSize() == 2
+                        ? InstructionConstants.DUP2 : InstructionConstants.DUP);
+                load.setInstruction(instruction);
+            } else {
+                remove(store, load);
+            }
+        }
+
+        for (InstructionHandle h = instructionList.getStart(); h != null; h = h.getNext()) {
+            foldIncrement(h);
+            skipJump(h);
+        }
+    }
+
+    /**
+     * Turn a conditional jump over a GOTO into the opposite jump to the GOTO's target, which is what is left
+     * of a jump into a block with phis once the copies are gone
+     */
+    private void skipJump(InstructionHandle h) {
+        InstructionHandle jump = h.getNext();
+        if (!(h.getInstruction() instanceof IfInstruction) || jump == null || !(jump.getInstruction() instanceof GOTO)
+                || jump.hasTargeters() || ((IfInstruction) h.getInstruction()).getTarget() != jump.getNext()) {
+            return;
+        }
+        IfInstruction branch = (IfInstruction) h.getInstruction();
+        BranchInstruction negated = InstructionFactory.createBranchInstruction(negate(branch),
+                ((GOTO) jump.getInstruction()).getTarget());
+        branch.setTarget(null);
+        ((GOTO) jump.getInstruction()).setTarget(null);
+        ((BranchHandle) h).setInstruction(negated);
+        remove(jump, jump);
+    }
+
+    /**
+     * Turn iload, a small int constant, iadd or isub and istore of the same slot into IINC
+     */
+    private void foldIncrement(InstructionHandle h) {
+        InstructionHandle push = h.getNext();
+        InstructionHandle add = push == null ? null : push.getNext();
+        InstructionHandle store = add == null ? null : add.getNext();
+        if (store == null || !(h.getInstruction() instanceof ILOAD) || !(store.getInstruction() instanceof ISTORE)
+                || ((ILOAD) h.getInstruction()).getIndex() != ((ISTORE) store.getInstruction()).getIndex()
+                || !(push.getInstruction() instanceof ConstantPushInstruction)
+                || !(add.getInstruction() instanceof IADD || add.getInstruction() instanceof ISUB)
+                || push.hasTargeters() || add.hasTargeters() || store.hasTargeters()) {
+            return;
+        }
+
+        Number value = ((ConstantPushInstruction) push.getInstruction()).getValue();
+        if (!(value instanceof Integer)) {
+            return;
+        }
+        int increment = add.getInstruction() instanceof ISUB ? -value.intValue() : value.intValue();
+        if (increment < Byte.MIN_VALUE || increment > Byte.MAX_VALUE) {
+            return; //A wide IINC is no smaller
+        }
+        h.setInstruction(new IINC(((ILOAD) h.getInstruction()).getIndex(), increment));
+        remove(push, store);
+    }
+
+    /**
+     * @return Opcode of the jump on the opposite condition
+     */
+    private static short negate(IfInstruction branch) {
+        IfInstruction negated = branch.negate();
+        negated.setTarget(null); //Made pointing at the same target, which must not keep it as a targeter
+        return negated.getOpcode();
+    }
+
+    /**
+     * @return true if b is an instruction of the given kind on the slot a loads or stores, with the same type
+     */
+    private boolean sameSlot(InstructionHandle a, InstructionHandle b, Class<? extends LocalVariableInstruction> kind) {
+        if (a == null || !(a.getInstruction() instanceof LocalVariableInstruction) || !kind.isInstance(b.getInstruction())) {
+            return false;
+        }
+        LocalVariableInstruction first = (LocalVariableInstruction) a.getInstruction();
+        LocalVariableInstruction second = (LocalVariableInstruction) b.getInstruction();
+        return first.getIndex() == second.getIndex() && first.getType(cpgen).equals(second.getType(cpgen));
+    }
+
+    /**
+     * Delete a range of instructions, moving jumps to its start onto the instruction after it
+     */
+    private void remove(InstructionHandle from, InstructionHandle to) {
+        InstructionTargeter[] targeters = from.getTargeters();
+        if (targeters != null) {
+            for (InstructionTargeter targeter : targeters) {
+                targeter.updateTarget(from, to.getNext());
+            }
+        }
+        try {
+            InstructionLists.delete(instructionList, from, to);
+        } catch (TargetLostException e) {
+            throw new IllegalStateException("Jump into tidied code", e);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * SSA form of a method, built by IRBuilder and turned back into bytecode by IRLowering.
+ * Blocks are kept in the order their code had in the method, behind a start block that defines the
+ * parameters, so the lowering can keep the original fall-throughs. Only reachable blocks are kept.
+ */
+public class IRMethod {
+
+    private final MethodGen methodGen;
+    private final List<Block> blocks;
+    private final List<Parameter> parameters;
+
+    IRMethod(MethodGen methodGen, List<Block> blocks, List<Parameter> parameters) {
+        this.methodGen = methodGen;
+        this.blocks = blocks;
+        this.parameters = parameters;
+    }
+
+    public MethodGen getMethodGen() {
+        return methodGen;
+    }
+
+    public ConstantPoolGen getConstantPool() {
+        return methodGen.getConstantPool();
+    }
+
+    /**
+     * @return Blocks in layout order, the start block first
+     */
+    public List<Block> getBlocks() {
+        return blocks;
+    }
+
+    public Block getStart() {
+        return blocks.get(0);
+    }
+
+    /**
+     * @return Parameters of the method, this first for instance methods
+     */
+    public List<Parameter> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * Replace values wherever they are used, following chains of replacements
+     * @param replacements Replacement of each value
+     */
+    public void replaceUses(Map<Value, Value> replacements) {
+        if (replacements.isEmpty()) {
+            return;
+        }
+        for (Block block : blocks) {
+            for (Phi phi : block.getPhis()) {
+                replace(phi.getOperands(), replacements);
+            }
+            for (Operation operation : block.getOperations()) {
+                replace(operation.getOperands(), replacements);
+            }
+            replace(block.getTerminator().getOperands(), replacements);
+        }
+    }
+
+    private static void replace(List<Value> operands, Map<Value, Value> replacements) {
+        for (int i = 0; i < operands.size(); i++) {
+            operands.set(i, resolve(operands.get(i), replacements));
+        }
+    }
+
+    /**
+     * @return Value a value ends up replaced by
+     */
+    public static Value resolve(Value value, Map<Value, Value> replacements) {
+        Value replacement = replacements.get(value);
+        while (replacement != null) {
+            value = replacement;
+            replacement = replacements.get(value);
+        }
+        return value;
+    }
+
+    /**
+     * Find the values something with an effect depends on: every operation that is not pure, every
+     * terminator, and transitively their operands
+     * @return Values that cannot be removed
+     */
+    public Set<Value> findLiveValues() {
+        Set<Value> live = Collections.newSetFromMap(new IdentityHashMap<Value, Boolean>());
+        List<Value> worklist = new ArrayList<>();
+        for (Block block : blocks) {
+            for (Operation operation : block.getOperations()) {
+                if (!operation.isPure()) {
+                    worklist.add(operation);
+                }
+            }
+            worklist.add(block.getTerminator());
+        }
+
+        while (!worklist.isEmpty()) {
+            Value value = worklist.remove(worklist.size() - 1);
+            if (!live.add(value)) {
+                continue;
+            }
+            if (value instanceof Phi) {
+                worklist.addAll(((Phi) value).getOperands());
+            } else if (value instanceof Operation) {
+                worklist.addAll(((Operation) value).getOperands());
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Remove the phis and pure operations nothing depends on
+     * @return Number of phis and operations removed
+     */
+    public int removeDeadValues() {
+        Set<Value> live = findLiveValues();
+        int removed = 0;
+        for (Block block : blocks) {
+            int before = block.getPhis().size() + block.getOperations().size();
+            block.getPhis().retainAll(live);
+            block.getOperations().retainAll(live);
+            removed += before - block.getPhis().size() - block.getOperations().size();
+        }
+        return removed;
+    }
+
+    /**
+     * Replace every phi merging a single value or constant (apart from itself) by that value, until none is left
+     * @return Number of phis removed
+     */
+    public int removeTrivialPhis() {
+        Map<Value, Value> replacements = new IdentityHashMap<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Block block : blocks) {
+                for (Phi phi : block.getPhis()) {
+                    if (replacements.containsKey(phi)) {
+                        continue;
+                    }
+                    Value same = null;
+                    boolean trivial = true;
+                    for (Value operand : phi.getOperands()) {
+                        operand = resolve(operand, replacements);
+                        if (operand == phi || operand == same || (operand instanceof Constant && same instanceof Constant
+                                && Objects.equals(((Constant) operand).getValue(), ((Constant) same).getValue()))) {
+                            continue; //Equal constants too, Float and Double equality tell 0.0 from -0.0
+                        }
+                        if (same != null) {
+                            trivial = false;
+                            break;
+                        }
+                        same = operand;
+                    }
+                    if (trivial) {
+                        replacements.put(phi, same == null ? Undefined.VALUE : same);
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        for (Block block : blocks) {
+            block.getPhis().removeAll(replacements.keySet());
+        }
+        replaceUses(replacements);
+        return replacements.size();
+    }
+
+    /**
+     * Remove the blocks the start block no longer reaches through the terminators' successors, and the
+     * predecessors and phi operands of the edges that are gone
+     * @return Number of blocks removed
+     */
+    public int removeUnreachableBlocks() {
+        Set<Block> reachable = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+        List<Block> worklist = new ArrayList<>();
+        worklist.add(getStart());
+        while (!worklist.isEmpty()) {
+            Block block = worklist.remove(worklist.size() - 1);
+            if (reachable.add(block)) {
+                worklist.addAll(block.getTerminator().getSuccessors());
+            }
+        }
+
+        int before = blocks.size();
+        blocks.retainAll(reachable);
+        for (Block block : blocks) {
+            List<Block> predecessors = block.getPredecessors();
+            for (int p = predecessors.size() - 1; p >= 0; p--) {
+                Block predecessor = predecessors.get(p);
+                if (!reachable.contains(predecessor) || !predecessor.getTerminator().getSuccessors().contains(block)) {
+                    predecessors.remove(p);
+                    for (Phi phi : block.getPhis()) {
+                        phi.getOperands().remove(p);
+                    }
+                }
+            }
+        }
+        return before - blocks.size();
+    }
+
+    /**
+     * Send the jumps to a block that does nothing but jump on straight to where it goes, if neither block has phis,
+     * and turn a branch whose successors are all the same block into a jump to it
+     * @return Number of blocks removed
+     */
+    public int bypassEmptyBlocks() {
+        for (Block block : blocks) {
+            Terminator terminator = block.getTerminator();
+            if (block == getStart() || !block.getPhis().isEmpty() || !block.getOperations().isEmpty()
+                    || terminator.getInstruction() != null) {
+                continue;
+            }
+            Block successor = terminator.getSuccessors().get(0);
+            if (successor == block || !successor.getPhis().isEmpty()) {
+                continue;
+            }
+            for (Block predecessor : block.getPredecessors()) {
+                Collections.replaceAll(predecessor.getTerminator().getSuccessors(), block, successor);
+                if (!successor.getPredecessors().contains(predecessor)) {
+                    successor.getPredecessors().add(predecessor);
+                }
+            }
+            block.getPredecessors().clear();
+        }
+
+        for (Block block : blocks) {
+            List<Block> successors = block.getTerminator().getSuccessors();
+            if (block.getTerminator().getInstruction() != null && !successors.isEmpty()
+                    && Collections.frequency(successors, successors.get(0)) == successors.size()) {
+                block.setTerminator(new Terminator(null, Collections.<Value>emptyList(), successors.subList(0, 1)));
+            }
+        }
+        return removeUnreachableBlocks();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        Map<Value, Integer> names = new IdentityHashMap<>();
+        for (Block block : blocks) {
+            s.append(block).append(" <- ").append(block.getPredecessors()).append(":\n");
+            for (Phi phi : block.getPhis()) {
+                s.append("  ").append(name(phi, names)).append(" = phi").append(names(phi.getOperands(), names)).append('\n');
+            }
+            for (Operation operation : block.getOperations()) {
+                s.append("  ");
+                if (operation.getSize() > 0) {
+                    s.append(name(operation, names)).append(" = ");
+                }
+                s.append(operation.getInstruction().getName()).append(names(operation.getOperands(), names)).append('\n');
+            }
+            Terminator terminator = block.getTerminator();
+            s.append("  ").append(terminator.getInstruction() == null ? "goto" : terminator.getInstruction().getName())
+                    .append(names(terminator.getOperands(), names)).append(" -> ").append(terminator.getSuccessors()).append('\n');
+        }
+        return s.toString();
+    }
+
+    private static String name(Value value, Map<Value, Integer> names) {
+        if (value instanceof Phi || value instanceof Operation) {
+            Integer number = names.get(value);
+            if (number == null) {
+                number = names.size();
+                names.put(value, number);
+            }
+            return "v" + number;
+        }
+        return value.toString();
+    }
+
+    private static String names(List<Value> values, Map<Value, Integer> names) {
+        StringBuilder s = new StringBuilder("(");
+        for (Value value : values) {
+            s.append(s.length() > 1 ? ", " : "").append(name(value, names));
+        }
+        return s.append(')').toString();
+    }
+}
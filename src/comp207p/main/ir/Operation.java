@@ -0,0 +1,67 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instruction of the SSA form: a BCEL instruction applied to values instead of stack slots.
+ * Loads, stores and stack shuffles have no operations, they only move values around; everything else
+ * keeps its original instruction, which the lowering emits again after pushing the operands.
+ */
+public class Operation extends Value {
+
+    private final Instruction instruction;
+    private final List<Value> operands;
+    private Block block;
+
+    /**
+     * @param instruction Instruction computing the value, null for a plain jump
+     * @param operands Values popped by the instruction, first pushed first
+     * @param type Kind of the result, VOID if there is none
+     */
+    public Operation(Instruction instruction, List<Value> operands, Type type) {
+        super(type);
+        this.instruction = instruction;
+        this.operands = new ArrayList<>(operands);
+    }
+
+    public Instruction getInstruction() {
+        return instruction;
+    }
+
+    public List<Value> getOperands() {
+        return operands;
+    }
+
+    public Block getBlock() {
+        return block;
+    }
+
+    void setBlock(Block block) {
+        this.block = block;
+    }
+
+    /**
+     * @return true if the operation has no effect but its result: it cannot throw, write memory or
+     * depend on memory, so it can be removed when unused and computed later than where it was
+     */
+    public boolean isPure() {
+        if (instruction instanceof ConversionInstruction) {
+            return true;
+        }
+        if (instruction instanceof ArithmeticInstruction) {
+            short opcode = instruction.getOpcode();
+            return opcode != Constants.IDIV && opcode != Constants.IREM && opcode != Constants.LDIV && opcode != Constants.LREM;
+        }
+        return instruction instanceof LCMP || instruction instanceof FCMPL || instruction instanceof FCMPG
+                || instruction instanceof DCMPL || instruction instanceof DCMPG;
+    }
+
+    @Override
+    public String toString() {
+        return (instruction == null ? "goto" : instruction.getName()) + operands;
+    }
+}
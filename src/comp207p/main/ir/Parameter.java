@@ -0,0 +1,28 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.generic.Type;
+
+/**
+ * Value a parameter (or this) has on entry to the method
+ */
+public class Parameter extends Value {
+
+    private final int slot;
+
+    Parameter(Type type, int slot) {
+        super(kind(type));
+        this.slot = slot;
+    }
+
+    /**
+     * @return Local variable slot the parameter is passed in
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return "param" + slot;
+    }
+}
@@ -0,0 +1,34 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.generic.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Value that depends on which predecessor entered the block: one operand per predecessor, in the order of
+ * the block's predecessor list
+ */
+public class Phi extends Value {
+
+    private final Block block;
+    private final List<Value> operands = new ArrayList<>();
+
+    Phi(Type type, Block block) {
+        super(kind(type));
+        this.block = block;
+    }
+
+    public Block getBlock() {
+        return block;
+    }
+
+    public List<Value> getOperands() {
+        return operands;
+    }
+
+    @Override
+    public String toString() {
+        return "phi" + operands;
+    }
+}
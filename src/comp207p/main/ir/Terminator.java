@@ -0,0 +1,29 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.Type;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Last operation of a block, choosing the block that runs next:
+ * a plain jump (no instruction), an IfInstruction (jump target first, then the fall-through block),
+ * a Select (case targets in order, then the default), or a return or ATHROW without successors.
+ */
+public class Terminator extends Operation {
+
+    private final List<Block> successors;
+
+    public Terminator(Instruction instruction, List<Value> operands, List<Block> successors) {
+        super(instruction, operands, Type.VOID);
+        this.successors = new ArrayList<>(successors);
+    }
+
+    /**
+     * @return Blocks control can go to, in the order described above, possibly with repeats
+     */
+    public List<Block> getSuccessors() {
+        return successors;
+    }
+}
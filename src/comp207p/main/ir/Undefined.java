@@ -0,0 +1,21 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.generic.Type;
+
+/**
+ * Value of a local that has not been written on some path, e.g. a slot reused by variables of another type.
+ * Verified code never uses one, so only dead phis may refer to it.
+ */
+public class Undefined extends Value {
+
+    public static final Undefined VALUE = new Undefined();
+
+    private Undefined() {
+        super(Type.UNKNOWN);
+    }
+
+    @Override
+    public String toString() {
+        return "undefined";
+    }
+}
@@ -0,0 +1,56 @@
+package comp207p.main.ir;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.Type;
+
+/**
+ * Value of the SSA form: defined exactly once, by a constant, a parameter, a phi or an operation.
+ * Values are typed by the kind of stack slot they take, INT (for every int-like type), LONG, FLOAT,
+ * DOUBLE or OBJECT (for every reference), which is all the lowering needs to load and store them.
+ */
+public abstract class Value {
+
+    private final Type type;
+
+    protected Value(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @return Kind of the value, VOID for operations without a result
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return Number of stack or local slots the value takes
+     */
+    public int getSize() {
+        return type.getSize();
+    }
+
+    /**
+     * @return Kind of stack slot a value of the given type takes
+     */
+    public static Type kind(Type type) {
+        switch (type.getType()) {
+            case Constants.T_BOOLEAN:
+            case Constants.T_BYTE:
+            case Constants.T_CHAR:
+            case Constants.T_SHORT:
+            case Constants.T_INT:
+                return Type.INT;
+            case Constants.T_LONG:
+                return Type.LONG;
+            case Constants.T_FLOAT:
+                return Type.FLOAT;
+            case Constants.T_DOUBLE:
+                return Type.DOUBLE;
+            case Constants.T_VOID:
+                return Type.VOID;
+            default:
+                return Type.OBJECT;
+        }
+    }
+}
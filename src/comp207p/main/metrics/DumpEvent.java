@@ -0,0 +1,25 @@
+package comp207p.main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for writing out an optimised class
+ */
+@Name("comp207p.ClassDump")
+@Label("Class Dump")
+@Category({"COMP207p", "Optimiser"})
+@Description("Generating the bytes of an optimised class file")
+public class DumpEvent extends Event {
+
+    @Label("Class")
+    public String className;
+
+    @Label("Class File Size")
+    @DataAmount
+    public int bytes;
+}
@@ -0,0 +1,73 @@
+package comp207p.main.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What the optimiser did to one method: its code size before and after, and the counters of every pass
+ */
+public class MethodStatistics {
+
+    private final String name;
+    private final String signature;
+    private final int originalSize;
+    private final int optimisedSize;
+    private final long time;
+    private final List<PassStatistics> passes;
+
+    /**
+     * @param originalSize Bytes of bytecode before optimisation
+     * @param optimisedSize Bytes of bytecode after optimisation
+     * @param time Time spent optimising the method, in nanoseconds
+     * @param passes Counters of each pass, no longer updated
+     */
+    public MethodStatistics(String name, String signature, int originalSize, int optimisedSize, long time, List<PassStatistics> passes) {
+        this.name = name;
+        this.signature = signature;
+        this.originalSize = originalSize;
+        this.optimisedSize = optimisedSize;
+        this.time = time;
+        this.passes = Collections.unmodifiableList(new ArrayList<>(passes));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSignature() {
+        return signature;
+    }
+
+    public int getOriginalSize() {
+        return originalSize;
+    }
+
+    public int getOptimisedSize() {
+        return optimisedSize;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public List<PassStatistics> getPasses() {
+        return passes;
+    }
+
+    /**
+     * @return Folds applied by every pass together
+     */
+    public int getFolds() {
+        int folds = 0;
+        for (PassStatistics pass : passes) {
+            folds += pass.getFolds();
+        }
+        return folds;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s: %d -> %d bytes, %d fold(s)", name, signature, originalSize, optimisedSize, getFolds());
+    }
+}
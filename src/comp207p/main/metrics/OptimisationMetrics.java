@@ -0,0 +1,107 @@
+package comp207p.main.metrics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals of a whole run, shared by every optimising thread, printed by Main at the end of the run
+ */
+public class OptimisationMetrics {
+
+    private static class PassTotals {
+        final LongAdder time = new LongAdder();
+        final LongAdder folds = new LongAdder();
+        final LongAdder bytesSaved = new LongAdder();
+    }
+
+    //Number of slowest classes listed in the summary
+    private static final int SLOWEST_CLASSES = 5;
+
+    private static final Map<String, PassTotals> passes = new ConcurrentSkipListMap<>();
+    private static final Map<String, Long> classTimes = new ConcurrentHashMap<>();
+    private static final LongAdder parseTime = new LongAdder();
+    private static final LongAdder dumpTime = new LongAdder();
+
+    static void addPass(String pass, long time, int folds, int bytesSaved) {
+        PassTotals totals = passes.get(pass);
+        if (totals == null) {
+            passes.putIfAbsent(pass, new PassTotals());
+            totals = passes.get(pass);
+        }
+        totals.time.add(time);
+        totals.folds.add(folds);
+        totals.bytesSaved.add(bytesSaved);
+    }
+
+    public static void addParse(long time) {
+        parseTime.add(time);
+    }
+
+    public static void addDump(long time) {
+        dumpTime.add(time);
+    }
+
+    /**
+     * @param className Class that was optimised
+     * @param time Time spent optimising its methods
+     */
+    public static void addClass(String className, long time) {
+        classTimes.put(className, time);
+    }
+
+    /**
+     * Forget everything recorded so far, e.g. the warm-up of a long-lived optimiser
+     */
+    public static void reset() {
+        passes.clear();
+        classTimes.clear();
+        parseTime.reset();
+        dumpTime.reset();
+    }
+
+    /**
+     * Print the totals of every pass and the slowest classes
+     */
+    public static void printSummary(PrintStream out) {
+        if (classTimes.isEmpty()) {
+            return;
+        }
+
+        out.format("Optimised %d class(es): parse %.1f ms, dump %.1f ms\n",
+                classTimes.size(), millis(parseTime.sum()), millis(dumpTime.sum()));
+        int width = "pass".length(); //Wide enough for the longest pass name
+        for (String pass : passes.keySet()) {
+            width = Math.max(width, pass.length());
+        }
+        out.format("  %-" + width + "s %10s %8s %12s\n", "pass", "time (ms)", "folds", "bytes saved");
+        for (Map.Entry<String, PassTotals> pass : passes.entrySet()) {
+            PassTotals totals = pass.getValue();
+            out.format("  %-" + width + "s %10.1f %8d %12d\n", pass.getKey(),
+                    millis(totals.time.sum()), totals.folds.sum(), totals.bytesSaved.sum());
+        }
+
+        List<Map.Entry<String, Long>> slowest = new ArrayList<>(classTimes.entrySet());
+        Collections.sort(slowest, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        out.print("  slowest classes:");
+        for (int i = 0; i < Math.min(SLOWEST_CLASSES, slowest.size()); i++) {
+            out.format(" %s (%.1f ms)", slowest.get(i).getKey(), millis(slowest.get(i).getValue()));
+        }
+        out.println();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,25 @@
+package comp207p.main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for parsing a class file
+ */
+@Name("comp207p.ClassParse")
+@Label("Class Parse")
+@Category({"COMP207p", "Optimiser"})
+@Description("Parsing a class file before it is optimised")
+public class ParseEvent extends Event {
+
+    @Label("Class")
+    public String className;
+
+    @Label("Class File Size")
+    @DataAmount
+    public int bytes;
+}
@@ -0,0 +1,41 @@
+package comp207p.main.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one fold pass over one method.
+ * The passes are interleaved instruction by instruction, so the time is the sum of every call of the pass
+ * rather than the duration of the event.
+ */
+@Name("comp207p.Pass")
+@Label("Optimisation Pass")
+@Category({"COMP207p", "Optimiser"})
+@Description("Time spent, folds applied and bytecode saved by a pass in a method")
+public class PassEvent extends Event {
+
+    @Label("Class")
+    public String className;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Pass")
+    public String pass;
+
+    @Label("Pass Time")
+    @Timespan(Timespan.NANOSECONDS)
+    public long time;
+
+    @Label("Folds")
+    public int folds;
+
+    @Label("Bytecode Saved")
+    @DataAmount
+    public int bytesSaved;
+}
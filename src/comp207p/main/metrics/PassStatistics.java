@@ -0,0 +1,70 @@
+package comp207p.main.metrics;
+
+/**
+ * Counters of one pass over one method, committed as a PassEvent and added to the run totals
+ * when the method is done. Only used by the thread optimising the method.
+ */
+public class PassStatistics {
+
+    private final String pass;
+    private long time = 0;
+    private int folds = 0;
+    private int bytesSaved = 0;
+
+    /**
+     * @param pass Name of the pass, e.g. "arithmetic"
+     */
+    public PassStatistics(String pass) {
+        this.pass = pass;
+    }
+
+    /**
+     * Record one call of the pass
+     * @param nanos Time the call took
+     * @param folded Whether the call folded anything
+     * @param saved Bytes of bytecode removed by the call
+     */
+    public void record(long nanos, boolean folded, int saved) {
+        time += nanos;
+        if (folded) {
+            folds++;
+        }
+        bytesSaved += saved;
+    }
+
+    public String getPass() {
+        return pass;
+    }
+
+    /**
+     * @return Time spent in the pass, in nanoseconds
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public int getFolds() {
+        return folds;
+    }
+
+    public int getBytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Emit the Flight Recorder event for the method and add the counters to the run totals
+     */
+    public void commit(String className, String method) {
+        PassEvent event = new PassEvent();
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.method = method;
+            event.pass = pass;
+            event.time = time;
+            event.folds = folds;
+            event.bytesSaved = bytesSaved;
+            event.commit();
+        }
+        OptimisationMetrics.addPass(pass, time, folds, bytesSaved);
+    }
+}
@@ -0,0 +1,304 @@
+package comp207p.main.passes;
+
+import comp207p.main.pattern.InstructionPattern;
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Simplify arithmetic with one constant operand, or with the same local on both sides, following the exact
+ * JVM semantics: int and long operations wrap, so x * 2^k is x << k, x * -1 and x / -1 are -x (MIN_VALUE
+ * included), and x / 1, x + 0, x & -1 and the like are x. x * 0, x & 0 and x % 1 are 0 and an int x | -1 is -1;
+ * x is popped unless it is a load that can just go, so the code is no shorter but the operation is gone.
+ * x - x and x ^ x are 0, x & x and x | x are x.
+ * Float and double operations are only simplified where IEEE 754 gives x back for every x, NaN and -0.0
+ * included: x * 1, x / 1, x - 0.0 and x + -0.0. Divisions are only removed when they cannot throw.
+ */
+public class AlgebraicSimplification implements InstructionPass {
+
+    //Positions: 0 constant, 1 load, 2 load, 3 load, 4 operation
+    private static final InstructionPattern PATTERN = InstructionPattern.compile(
+            "((ConstantPushInstruction|LDC|LDC_W|LDC2_W) LoadInstruction?|LoadInstruction LoadInstruction) ArithmeticInstruction");
+
+    //Only used by the thread optimising one class
+    private final InstructionPattern.Matcher matcher = PATTERN.matcher();
+
+    @Override
+    public String getName() {
+        return "algebraic";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int getMaxLength() {
+        return PATTERN.maxLength();
+    }
+
+    /**
+     * Simplify an operation starting at the given instruction
+     * @param h Instruction the match has to start at
+     * @param context Method being optimised
+     * @return true if the operation was simplified
+     */
+    @Override
+    public boolean apply(InstructionHandle h, MethodContext context) {
+        InstructionPattern.Matcher match = matcher;
+        if (!match.matchAt(h)) {
+            return false;
+        }
+        InstructionHandle operationInstruction = match.last();
+        short opcode = operationInstruction.getInstruction().getOpcode();
+        if (isNegation(opcode)) {
+            return false; //Takes a single operand, so the instructions before it are not its operands
+        }
+        if (!MethodContext.canDelete(match.get(1), operationInstruction)) {
+            return false; //The operands could come from elsewhere, only the first instruction can be jumped to
+        }
+
+        if (match.group(0) == null) {
+            return sameOperands(match, opcode, context);
+        }
+        Number constant = constantOf(match.group(0).getInstruction(), context.getConstantPool());
+        if (constant == null) {
+            return false;
+        }
+        return match.group(1) == null ? rightConstant(match, opcode, constant, context)
+                : leftConstant(match, opcode, constant, context);
+    }
+
+    /**
+     * x op c, where x is whatever was on the stack before the constant
+     */
+    private boolean rightConstant(InstructionPattern.Matcher match, short opcode, Number c, MethodContext context) {
+        InstructionHandle constant = match.get(0);
+        InstructionHandle operation = match.last();
+        String name = operation.getInstruction().getName();
+        Type type = ((ArithmeticInstruction) operation.getInstruction()).getType(context.getConstantPool());
+        boolean canDeleteConstant = MethodContext.canDelete(constant, constant);
+
+        if (isIdentity(opcode, c, false) && canDeleteConstant) {
+            return rewrite(context, constant, "x " + name + " " + c + " is x", constant, operation);
+        }
+        if (isNegatingOperand(opcode, c) && canDeleteConstant) {
+            context.replace(operation, type.equals(Type.LONG) ? InstructionConstants.LNEG : InstructionConstants.INEG);
+            return rewrite(context, constant, "x " + name + " -1 is -x", constant, constant);
+        }
+        Number result = absorbed(opcode, c);
+        if (result != null) {
+            InstructionHandle x = constant.getPrev();
+            if (x != null && x.getInstruction() instanceof LoadInstruction && canDeleteConstant) {
+                context.replace(x, push(result));
+                return rewrite(context, x, "x " + name + " " + c + " is " + result, constant, operation);
+            }
+            //Otherwise x may have side effects, so it is still computed and then dropped
+            context.replace(constant, type.getSize() == 2 ? InstructionConstants.POP2 : InstructionConstants.POP);
+            context.replace(operation, push(result));
+            return rewrite(context, constant, "x " + name + " " + c + " is " + result);
+        }
+        int shift = powerOfTwo(opcode, c);
+        if (shift > 0) {
+            context.replace(constant, push(shift));
+            context.replace(operation, type.equals(Type.LONG) ? InstructionConstants.LSHL : InstructionConstants.ISHL);
+            return rewrite(context, constant, "x * " + c + " is x << " + shift);
+        }
+        return false;
+    }
+
+    /**
+     * c op x, where x is a load, for the operations whose operands can be swapped
+     */
+    private boolean leftConstant(InstructionPattern.Matcher match, short opcode, Number c, MethodContext context) {
+        InstructionHandle constant = match.get(0);
+        InstructionHandle load = match.get(1);
+        InstructionHandle operation = match.last();
+        if (!isCommutative(opcode)) {
+            return false;
+        }
+
+        if (isIdentity(opcode, c, true)) {
+            context.replace(constant, load.getInstruction().copy());
+            return rewrite(context, constant, c + " " + operation.getInstruction().getName() + " x is x", load, operation);
+        }
+        Number result = absorbed(opcode, c);
+        if (result != null) {
+            return rewrite(context, constant, c + " " + operation.getInstruction().getName() + " x is " + result, load, operation);
+        }
+        int shift = powerOfTwo(opcode, c);
+        if (shift > 0) {
+            context.replace(constant, load.getInstruction().copy());
+            context.replace(load, push(shift));
+            context.replace(operation, opcode == Constants.LMUL ? InstructionConstants.LSHL : InstructionConstants.ISHL);
+            return rewrite(context, constant, c + " * x is x << " + shift);
+        }
+        return false;
+    }
+
+    /**
+     * x op x, with both operands loads of the same local
+     */
+    private boolean sameOperands(InstructionPattern.Matcher match, short opcode, MethodContext context) {
+        InstructionHandle first = match.get(0);
+        InstructionHandle second = match.get(1);
+        InstructionHandle operation = match.last();
+        LoadInstruction left = (LoadInstruction) first.getInstruction();
+        LoadInstruction right = (LoadInstruction) second.getInstruction();
+        if (left.getIndex() != right.getIndex() || left.getOpcode() != right.getOpcode()) {
+            return false;
+        }
+
+        switch (opcode) {
+            case Constants.ISUB: case Constants.IXOR:
+                context.replace(first, InstructionConstants.ICONST_0);
+                return rewrite(context, first, "x " + operation.getInstruction().getName() + " x is 0", second, operation);
+            case Constants.LSUB: case Constants.LXOR:
+                context.replace(first, InstructionConstants.LCONST_0);
+                return rewrite(context, first, "x " + operation.getInstruction().getName() + " x is 0", second, operation);
+            case Constants.IAND: case Constants.IOR: case Constants.LAND: case Constants.LOR:
+                return rewrite(context, first, "x " + operation.getInstruction().getName() + " x is x", second, operation);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Record a simplification and delete what it made redundant
+     * @param regions Pairs of first and last instruction of each range to delete
+     */
+    private boolean rewrite(MethodContext context, InstructionHandle at, String remark, InstructionHandle... regions) {
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), at, remark);
+        try {
+            if (regions.length > 0) {
+                context.deleteAll(regions);
+            }
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the operation with c as an operand gives the other operand back
+     * @param left true if c is the left operand
+     */
+    private static boolean isIdentity(short opcode, Number c, boolean left) {
+        switch (opcode) {
+            case Constants.IADD: case Constants.IOR: case Constants.IXOR:
+            case Constants.LADD: case Constants.LOR: case Constants.LXOR:
+                return c.longValue() == 0;
+            case Constants.ISUB: case Constants.LSUB:
+                return !left && c.longValue() == 0;
+            case Constants.IMUL: case Constants.LMUL:
+                return c.longValue() == 1;
+            case Constants.IDIV: case Constants.LDIV:
+                return !left && c.longValue() == 1;
+            case Constants.IAND: case Constants.LAND:
+                return c.longValue() == -1;
+            case Constants.ISHL: case Constants.ISHR: case Constants.IUSHR:
+                return !left && (c.intValue() & 0x1f) == 0; //Only the low five bits of the distance count
+            case Constants.LSHL: case Constants.LSHR: case Constants.LUSHR:
+                return !left && (c.intValue() & 0x3f) == 0;
+            case Constants.FMUL: case Constants.DMUL:
+                return c.doubleValue() == 1;
+            case Constants.FDIV: case Constants.DDIV:
+                return !left && c.doubleValue() == 1;
+            case Constants.FADD: case Constants.DADD:
+                return isNegativeZero(c); //0.0 + -0.0 is 0.0, so only -0.0 leaves every x unchanged
+            case Constants.FSUB: case Constants.DSUB:
+                return !left && c.doubleValue() == 0 && !isNegativeZero(c); //-0.0 - 0.0 is still -0.0
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if x op c is -x: x * -1 and x / -1, which wraps MIN_VALUE the same way negation does
+     */
+    private static boolean isNegatingOperand(short opcode, Number c) {
+        return (opcode == Constants.IMUL || opcode == Constants.IDIV || opcode == Constants.LMUL || opcode == Constants.LDIV)
+                && c.longValue() == -1;
+    }
+
+    /**
+     * @return Result of the operation whatever its other operand, or null if it depends on it
+     */
+    private static Number absorbed(short opcode, Number c) {
+        switch (opcode) {
+            case Constants.IMUL: case Constants.IAND:
+                return c.intValue() == 0 ? (Number) 0 : null;
+            case Constants.IOR:
+                return c.intValue() == -1 ? (Number) (-1) : null;
+            case Constants.IREM:
+                return Math.abs(c.intValue()) == 1 ? (Number) 0 : null; //Cannot throw either
+            case Constants.LMUL: case Constants.LAND:
+                return c.longValue() == 0 ? (Number) 0L : null;
+            case Constants.LREM:
+                return Math.abs(c.longValue()) == 1 ? (Number) 0L : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return k if the operation multiplies by 2^k (k &gt; 0, MIN_VALUE included as it wraps the same way), else 0
+     */
+    private static int powerOfTwo(short opcode, Number c) {
+        if (opcode == Constants.IMUL && c.intValue() != 0 && Integer.bitCount(c.intValue()) == 1) {
+            return Integer.numberOfTrailingZeros(c.intValue());
+        }
+        if (opcode == Constants.LMUL && c.longValue() != 0 && Long.bitCount(c.longValue()) == 1) {
+            return Long.numberOfTrailingZeros(c.longValue());
+        }
+        return 0;
+    }
+
+    private static boolean isCommutative(short opcode) {
+        switch (opcode) {
+            case Constants.IADD: case Constants.IMUL: case Constants.IAND: case Constants.IOR: case Constants.IXOR:
+            case Constants.LADD: case Constants.LMUL: case Constants.LAND: case Constants.LOR: case Constants.LXOR:
+            case Constants.FADD: case Constants.FMUL: case Constants.DADD: case Constants.DMUL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNegation(short opcode) {
+        return opcode == Constants.INEG || opcode == Constants.LNEG || opcode == Constants.FNEG || opcode == Constants.DNEG;
+    }
+
+    private static boolean isNegativeZero(Number c) {
+        return c.doubleValue() == 0 && 1 / c.doubleValue() < 0;
+    }
+
+    /**
+     * @return Value a constant instruction pushes, null for strings and classes
+     */
+    private static Number constantOf(Instruction instruction, ConstantPoolGen cpgen) {
+        if (instruction instanceof ConstantPushInstruction) {
+            return ((ConstantPushInstruction) instruction).getValue();
+        }
+        Object value = instruction instanceof LDC ? ((LDC) instruction).getValue(cpgen) : ((LDC2_W) instruction).getValue(cpgen);
+        return value instanceof Number ? (Number) value : null;
+    }
+
+    /**
+     * @return Shortest instruction pushing an int constant, or the long 0, without a constant pool entry
+     */
+    private static Instruction push(Number value) {
+        if (value instanceof Long) {
+            return InstructionConstants.LCONST_0;
+        }
+        int i = value.intValue();
+        if (i >= -1 && i <= 5) {
+            return InstructionConstants.INSTRUCTIONS[Constants.ICONST_0 + i];
+        }
+        return new BIPUSH((byte) i);
+    }
+}
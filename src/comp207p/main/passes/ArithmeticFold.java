@@ -0,0 +1,148 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.ReachingDefinitions;
+import comp207p.main.exceptions.UnableToFetchValueException;
+import comp207p.main.ir.ConstantEvaluator;
+import comp207p.main.pattern.InstructionPattern;
+import comp207p.main.utils.*;
+import org.apache.bcel.generic.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import static comp207p.main.utils.DynamicVariableChecker.checkDynamicVariable;
+
+/**
+ * Fold an arithmetic operation on two constants into a single constant
+ */
+public class ArithmeticFold implements InstructionPass {
+
+    //Positions: 0 left, 1 conversion, 2 right, 3 conversion, 4 operation
+    private static final InstructionPattern PATTERN = InstructionPattern.compile(
+            LOAD + " ConversionInstruction? " + LOAD + " ConversionInstruction? ArithmeticInstruction");
+
+    //Only used by the thread optimising one class
+    private final InstructionPattern.Matcher matcher = PATTERN.matcher();
+
+    @Override
+    public String getName() {
+        return "arithmetic";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int getMaxLength() {
+        return PATTERN.maxLength();
+    }
+
+    /**
+     * Fold an arithmetic operation starting at the given instruction
+     * @param h Instruction the match has to start at
+     * @param context Method being optimised
+     * @return true if an arithmetic operation was folded
+     */
+    @Override
+    public boolean apply(InstructionHandle h, MethodContext context) {
+        ConstantPoolGen cpgen = context.getConstantPool();
+        ReachingDefinitions definitions = context.getDefinitions();
+        InstructionPattern.Matcher match = matcher;
+        if (!match.matchAt(h)) {
+            return false;
+        }
+
+        Number leftValue, rightValue;
+        InstructionHandle leftInstruction, rightInstruction, operationInstruction;
+
+        //Get instructions
+        leftInstruction = match.group(0);
+        rightInstruction = match.group(2);
+        operationInstruction = match.group(4);
+
+        //A negation takes a single operand, so the two loads are not its operands
+        Instruction operationType = operationInstruction.getInstruction();
+        if (operationType instanceof INEG || operationType instanceof LNEG
+                || operationType instanceof FNEG || operationType instanceof DNEG) {
+            return false;
+        }
+
+        if (leftInstruction.getInstruction() instanceof LoadInstruction) { //Recognise for loops
+            if (checkDynamicVariable(leftInstruction, definitions)) {
+                Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "left operand is a dynamic variable");
+                return false;
+            }
+        }
+        if (rightInstruction.getInstruction() instanceof LoadInstruction) {
+            if (checkDynamicVariable(rightInstruction, definitions)) {
+                Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "right operand is a dynamic variable");
+                return false;
+            }
+        }
+
+        ArithmeticInstruction operation = (ArithmeticInstruction) operationInstruction.getInstruction();
+
+        //The folded value has the type of the operation, the operands may be converted to it first
+        String type = operation.getType(cpgen).getSignature();
+
+        if (Remarks.isDebugEnabled()) {
+            Remarks.debug("Found optimisable arithmetic set");
+            Utilities.printInstructionHandles(match, cpgen, definitions, type);
+        }
+
+        //Fetch values for push instructions
+        try {
+            leftValue = convert(ValueLoader.getValue(leftInstruction, cpgen, definitions,
+                    Signature.getInstructionSignature(leftInstruction, cpgen)), match.group(1));
+            rightValue = convert(ValueLoader.getValue(rightInstruction, cpgen, definitions,
+                    Signature.getInstructionSignature(rightInstruction, cpgen)), match.group(3));
+        } catch (UnableToFetchValueException e) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "operand is not constant");
+            return false;
+        }
+
+        if ((operation instanceof IDIV || operation instanceof IREM || operation instanceof LDIV || operation instanceof LREM)
+                && rightValue.longValue() == 0) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "division by zero throws at run time");
+            return false;
+        }
+
+        Number foldedValue = Utilities.foldOperation(operation, leftValue, rightValue); //Perform the operation on the two values
+
+        if (!MethodContext.canDelete(match.get(1), operationInstruction)) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "operands are a jump or exception handler target");
+            return false;
+        }
+
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), leftInstruction, foldedValue);
+
+        //Insert new constant into pool
+        int newPoolIndex = ConstantPoolInserter.insert(foldedValue, type, cpgen);
+
+        //Set left constant handle to point to new index
+        context.replace(leftInstruction, ConstantPoolInserter.loadConstant(type, newPoolIndex));
+
+        //Delete other handles
+        try {
+            context.delete(match.get(1), operationInstruction);
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+
+        return true;
+    }
+
+    /**
+     * @param value Value of an operand as it was loaded
+     * @param conversion Conversion applied to the operand before the operation, or null
+     * @return Value of the operand the operation sees, e.g. d2i of 2.5 is 2
+     */
+    private static Number convert(Number value, InstructionHandle conversion) {
+        if (conversion == null) {
+            return value;
+        }
+        return ConstantEvaluator.evaluate(conversion.getInstruction(), Collections.<Object>singletonList(value));
+    }
+}
@@ -0,0 +1,73 @@
+package comp207p.main.passes;
+
+/**
+ * Limits on the work spent optimising one method and one class. A method that runs out of its budget, or
+ * of what is left of its class's, is kept exactly as it was. Times are in milliseconds and iterations count
+ * the rewrites applied and the walks started; 0 means no limit.
+ */
+public class Budget {
+
+    public static final Budget UNLIMITED = new Budget(0, 0, 0, 0);
+
+    //Bounds pathological methods without ever cutting into a normal build
+    public static final Budget DEFAULT = new Budget(10000, 60000, 0, 0);
+
+    private final long methodMillis;
+    private final long classMillis;
+    private final int methodIterations;
+    private final int classIterations;
+
+    /**
+     * @param methodMillis Time allowed for one method
+     * @param classMillis Time allowed for all the methods of one class
+     * @param methodIterations Iterations allowed for one method
+     * @param classIterations Iterations allowed for all the methods of one class
+     * @throws IllegalArgumentException If a limit is negative
+     */
+    public Budget(long methodMillis, long classMillis, int methodIterations, int classIterations) {
+        if (methodMillis < 0 || classMillis < 0 || methodIterations < 0 || classIterations < 0) {
+            throw new IllegalArgumentException("Budgets cannot be negative");
+        }
+        this.methodMillis = methodMillis;
+        this.classMillis = classMillis;
+        this.methodIterations = methodIterations;
+        this.classIterations = classIterations;
+    }
+
+    public long getMethodMillis() {
+        return methodMillis;
+    }
+
+    public long getClassMillis() {
+        return classMillis;
+    }
+
+    public int getMethodIterations() {
+        return methodIterations;
+    }
+
+    public int getClassIterations() {
+        return classIterations;
+    }
+
+    /**
+     * @return Description of the iteration limits, which decide the output as much as the passes do.
+     * Time limits are left out: a method that runs out of time is never cached.
+     */
+    String describeIterations() {
+        if (methodIterations == 0 && classIterations == 0) {
+            return "";
+        }
+        return ";iterations=" + methodIterations + "/" + classIterations;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("method %s, class %s", limit(methodMillis, methodIterations), limit(classMillis, classIterations));
+    }
+
+    private static String limit(long millis, int iterations) {
+        String time = millis == 0 ? "unlimited time" : millis + " ms";
+        return iterations == 0 ? time : time + " or " + iterations + " iterations";
+    }
+}
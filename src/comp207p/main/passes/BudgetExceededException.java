@@ -0,0 +1,36 @@
+package comp207p.main.passes;
+
+/**
+ * Thrown out of the passes when a method runs out of its budget; the method is then kept as it was
+ */
+public class BudgetExceededException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean classBudget;
+    private final boolean timeBudget;
+
+    /**
+     * @param classBudget Whether the class's budget ran out rather than the method's own
+     * @param timeBudget Whether time ran out rather than iterations
+     */
+    BudgetExceededException(boolean classBudget, boolean timeBudget, String message) {
+        super(message);
+        this.classBudget = classBudget;
+        this.timeBudget = timeBudget;
+    }
+
+    /**
+     * @return true if the class has nothing left, so its remaining methods should not be tried
+     */
+    public boolean isClassBudget() {
+        return classBudget;
+    }
+
+    /**
+     * @return true if time ran out, which makes the result depend on the machine's load
+     */
+    public boolean isTimeBudget() {
+        return timeBudget;
+    }
+}
@@ -0,0 +1,15 @@
+package comp207p.main.passes;
+
+import org.apache.bcel.classfile.JavaClass;
+
+/**
+ * Pass that works on a whole class once all of its methods have been optimised
+ */
+public interface ClassPass extends OptimisationPass {
+
+    /**
+     * @param javaClass Optimised class, changed in place
+     * @return Bytes removed from the class file, 0 if nothing changed
+     */
+    int run(JavaClass javaClass);
+}
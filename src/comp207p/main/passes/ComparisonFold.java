@@ -0,0 +1,206 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.ReachingDefinitions;
+import comp207p.main.exceptions.UnableToFetchValueException;
+import comp207p.main.pattern.InstructionPattern;
+import comp207p.main.utils.*;
+import org.apache.bcel.generic.*;
+
+import java.util.Collections;
+import java.util.List;
+
+import static comp207p.main.utils.DynamicVariableChecker.checkDynamicVariable;
+
+/**
+ * Fold a comparison of constants and remove the branch that can never be taken
+ */
+public class ComparisonFold implements InstructionPass {
+
+    //Positions: 0 left, 1 invoke, 2 conversion, 3 right, 4 conversion, 5 compare, 6 if, 7-9 boolean result
+    private static final InstructionPattern PATTERN = InstructionPattern.compile(
+            LOAD + " InvokeInstruction? ConversionInstruction? " + LOAD + "? ConversionInstruction? " +
+            "(LCMP|DCMPG|DCMPL|FCMPG|FCMPL)? IfInstruction (ICONST GOTO ICONST)?");
+
+    //Only used by the thread optimising one class
+    private final InstructionPattern.Matcher matcher = PATTERN.matcher();
+
+    @Override
+    public String getName() {
+        return "comparison";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int getMaxLength() {
+        return PATTERN.maxLength();
+    }
+
+    /**
+     * Fold a comparison starting at the given instruction
+     * @param h Instruction the match has to start at
+     * @param context Method being optimised
+     * @return true if a comparison was folded
+     */
+    @Override
+    public boolean apply(InstructionHandle h, MethodContext context) {
+        ConstantPoolGen cpgen = context.getConstantPool();
+        ReachingDefinitions definitions = context.getDefinitions();
+        InstructionPattern.Matcher match = matcher;
+        if (!match.matchAt(h)) {
+            return false;
+        }
+
+        if (match.group(1) != null) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), h, "operand is a method call");
+            return false;
+        }
+
+        Number leftValue = 0, rightValue = 0;
+        InstructionHandle leftInstruction, rightInstruction, compare, comparisonInstruction;
+
+        //Get instructions
+        leftInstruction = match.group(0);
+        rightInstruction = match.group(3); //Null when comparing against zero, e.g. IFEQ
+        compare = match.group(5); //Comparison for non-integers, such as LCMP
+        comparisonInstruction = match.group(6);
+
+        //The matched loads have to be exactly the operands of the comparison, and the branch has to go forwards
+        if (!checkComparisonOperands(rightInstruction, compare, comparisonInstruction)) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), h, "operands not matched");
+            return false;
+        }
+
+        if (leftInstruction.getInstruction() instanceof LoadInstruction) { //Recognise for loops
+            if (checkDynamicVariable(leftInstruction, definitions)) {
+                Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "left operand is a dynamic variable");
+                return false;
+            }
+        }
+        if (rightInstruction != null && rightInstruction.getInstruction() instanceof LoadInstruction) {
+            if (checkDynamicVariable(rightInstruction, definitions)) {
+                Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "right operand is a dynamic variable");
+                return false;
+            }
+        }
+
+        String type;
+        if(rightInstruction != null) {
+            type = ConstantPoolInserter.getFoldedConstantSignature(leftInstruction, rightInstruction, cpgen);
+        } else {
+            type = comp207p.main.utils.Signature.getInstructionSignature(leftInstruction, cpgen);
+        }
+
+        if (Remarks.isDebugEnabled()) {
+            Remarks.debug("Found optimisable comparison set, type %s", type);
+            Utilities.printInstructionHandles(match, cpgen, definitions, type);
+        }
+
+        //Fetch values for push instructions
+        try {
+            leftValue = ValueLoader.getValue(leftInstruction, cpgen, definitions, type);
+            if (rightInstruction != null) {
+                rightValue = ValueLoader.getValue(rightInstruction, cpgen, definitions, type);
+            }
+        } catch (UnableToFetchValueException e) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "operand is not constant");
+            return false;
+        }
+
+        IfInstruction comparison = (IfInstruction) comparisonInstruction.getInstruction();
+
+        int result;
+
+        if (rightInstruction != null) {
+            if (compare == null) { //Integer comparison
+                result = ComparisonChecker.checkIntComparison(comparison, leftValue, rightValue);
+            } else { //Non-integer type comparison
+                result = ComparisonChecker.checkFirstComparison(compare, leftValue, rightValue);
+                result = ComparisonChecker.checkSecondComparison(comparison, result);
+            }
+        } else {
+            result = ComparisonChecker.checkSecondComparison(comparison, leftValue.intValue());
+        }
+
+        //1 -> 0 and 0 -> 1 due to instruction interpretation
+        int pushed = result == 1 ? 0 : result == 0 ? 1 : -1;
+
+        //Work out what to delete before changing anything, so the fold can still be abandoned
+        InstructionHandle[] regions;
+        if (match.last() == comparisonInstruction) {
+            InstructionHandle tempHandle = comparison.getTarget().getPrev();
+            if (pushed == 1) {
+                regions = new InstructionHandle[] {leftInstruction, comparisonInstruction};
+                if (tempHandle.getInstruction() instanceof GotoInstruction) {
+                    InstructionHandle gotoTarget = ((BranchInstruction) tempHandle.getInstruction()).getTarget();
+                    if (gotoTarget.getPosition() <= tempHandle.getPosition()) { //Loop back edge, not an if/else
+                        Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "backward jump");
+                        return false;
+                    }
+                    regions = new InstructionHandle[] {leftInstruction, comparisonInstruction, tempHandle, gotoTarget.getPrev()};
+                }
+            } else {
+                regions = new InstructionHandle[] {leftInstruction, tempHandle};
+            }
+        } else {
+            regions = new InstructionHandle[] {match.get(1), match.last()};
+        }
+
+        if (!MethodContext.canDelete(regions)) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), leftInstruction, "branch is a jump or exception handler target");
+            return false;
+        }
+
+        //Set left constant handle to point to new index
+        context.replace(leftInstruction, new ICONST(pushed));
+
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), leftInstruction, pushed);
+
+        //Delete other handles
+        try {
+            for (int i = 0; i < regions.length; i += 2) {
+                context.delete(regions[i], regions[i + 1]);
+            }
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+
+        context.controlFlowChanged(); //A branch is gone, the next walk needs a fresh analysis
+        return true;
+    }
+
+    /**
+     * Check that a matched comparison pops exactly the matched operands and branches forwards.
+     * The matcher is anchored at every instruction, so a single load directly before a two operand if,
+     * or a compare with only one matched load, is the tail of a longer expression and cannot be folded.
+     * @param right Right operand, null if only one load was matched
+     * @param compare LCMP/DCMPx/FCMPx instruction, null for integer comparisons
+     * @param comparisonInstruction If instruction
+     * @return true if the comparison can be folded
+     */
+    private static boolean checkComparisonOperands(InstructionHandle right, InstructionHandle compare, InstructionHandle comparisonInstruction) {
+        Instruction comparison = comparisonInstruction.getInstruction();
+        boolean unary = comparison instanceof IFEQ || comparison instanceof IFNE
+                || comparison instanceof IFLT || comparison instanceof IFGE
+                || comparison instanceof IFGT || comparison instanceof IFLE;
+        boolean binary = comparison instanceof IF_ICMPEQ || comparison instanceof IF_ICMPNE
+                || comparison instanceof IF_ICMPLT || comparison instanceof IF_ICMPGE
+                || comparison instanceof IF_ICMPGT || comparison instanceof IF_ICMPLE;
+
+        boolean operandsMatch;
+        if (compare != null) {
+            operandsMatch = right != null && unary;
+        } else if (right != null) {
+            operandsMatch = binary;
+        } else {
+            operandsMatch = unary;
+        }
+
+        //Instruction positions are only stale after deletions, which never reorder the remaining handles
+        InstructionHandle target = ((BranchInstruction) comparison).getTarget();
+        return operandsMatch && target.getPosition() > comparisonInstruction.getPosition();
+    }
+}
@@ -0,0 +1,358 @@
+package comp207p.main.passes;
+
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.Constants;
+import org.apache.bcel.classfile.*;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.util.ByteSequence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rebuild the constant pool with only the entries the class still uses.
+ * Folding adds a constant for every intermediate result and ClassGen never drops the ones that end up unused.
+ * Entries are marked from every index in the class (bytecode operands included) and the constants they refer to,
+ * then renumbered: constants loaded by LDC first, so their one-byte operands stay valid, then the rest in their
+ * original order. Classes with attributes or constants the pass does not know how to renumber are left alone.
+ */
+public class ConstantPoolCompaction implements ClassPass {
+
+    /**
+     * Visits every constant pool index of a class, e.g. to mark it or to rewrite it
+     */
+    private static abstract class IndexMapper {
+        abstract int map(int index);
+
+        //Index read by LDC, which only has one byte for it
+        int mapNarrow(int index) {
+            return map(index);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "constant-pool";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int run(JavaClass javaClass) {
+        final Constant[] constants = javaClass.getConstantPool().getConstantPool();
+
+        String unsupported = findUnsupported(javaClass);
+        if (unsupported != null) {
+            Remarks.info("%s rejected: %s: %s", getName(), javaClass.getClassName(), unsupported);
+            return 0;
+        }
+
+        //Work on a copy so nothing shared with the original class or its ClassGen is touched
+        JavaClass copy = javaClass.copy();
+
+        //Mark the live entries, marking doesn't change any index
+        final BitSet live = new BitSet(constants.length);
+        final BitSet narrow = new BitSet(constants.length);
+        remap(copy, new IndexMapper() {
+            @Override
+            int map(int index) {
+                mark(constants, index, live);
+                return index;
+            }
+
+            @Override
+            int mapNarrow(int index) {
+                narrow.set(index);
+                return map(index);
+            }
+        }, copy.getConstantPool());
+
+        if (live.cardinality() == countEntries(constants)) {
+            return 0; //Nothing to drop
+        }
+
+        //Number the LDC constants first, then everything else in its original order
+        final int[] newIndex = new int[constants.length];
+        int size = 1;
+        for (int i = narrow.nextSetBit(0); i >= 0; i = narrow.nextSetBit(i + 1)) {
+            newIndex[i] = size;
+            size += slots(constants[i]);
+        }
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            if (!narrow.get(i)) {
+                newIndex[i] = size;
+                size += slots(constants[i]);
+            }
+        }
+
+        Constant[] compacted = new Constant[size];
+        for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+            compacted[newIndex[i]] = renumber(constants[i].copy(), newIndex);
+        }
+
+        IndexMapper renumber = new IndexMapper() {
+            @Override
+            int map(int index) {
+                return index == 0 ? 0 : newIndex[index];
+            }
+        };
+
+        ConstantPool pool = new ConstantPool(compacted);
+        remap(copy, renumber, pool);
+
+        int saved = poolSize(javaClass.getConstantPool()) - poolSize(pool);
+        javaClass.setConstantPool(pool);
+        javaClass.setClassNameIndex(copy.getClassNameIndex());
+        javaClass.setSuperclassNameIndex(copy.getSuperclassNameIndex());
+        javaClass.setInterfaces(copy.getInterfaceIndices());
+        javaClass.setFields(copy.getFields());
+        javaClass.setMethods(copy.getMethods());
+        javaClass.setAttributes(copy.getAttributes());
+
+        Remarks.info("%s applied: %s: %d constant(s) dropped, %d byte(s) saved", getName(), javaClass.getClassName(),
+                countEntries(constants) - countEntries(compacted), saved);
+        return saved;
+    }
+
+    /**
+     * @return Why the class cannot be compacted, or null if it can
+     */
+    private static String findUnsupported(JavaClass javaClass) {
+        for (Constant constant : javaClass.getConstantPool().getConstantPool()) {
+            if (constant != null && constant.getTag() > Constants.CONSTANT_NameAndType) {
+                return "unsupported constant " + Constants.CONSTANT_NAMES[constant.getTag()];
+            }
+        }
+
+        String unsupported = findUnsupported(javaClass.getAttributes());
+        for (Field field : javaClass.getFields()) {
+            unsupported = unsupported != null ? unsupported : findUnsupported(field.getAttributes());
+        }
+        for (Method method : javaClass.getMethods()) {
+            unsupported = unsupported != null ? unsupported : findUnsupported(method.getAttributes());
+            if (unsupported == null && method.getCode() != null) {
+                unsupported = findUnsupported(method.getCode().getAttributes());
+            }
+        }
+        return unsupported;
+    }
+
+    private static String findUnsupported(Attribute[] attributes) {
+        for (Attribute attribute : attributes) {
+            if (!(attribute instanceof Code || attribute instanceof ConstantValue || attribute instanceof SourceFile
+                    || attribute instanceof InnerClasses || attribute instanceof Signature || attribute instanceof EnclosingMethod
+                    || attribute instanceof ExceptionTable || attribute instanceof LineNumberTable
+                    || attribute instanceof LocalVariableTable || attribute instanceof LocalVariableTypeTable
+                    || attribute instanceof StackMap || attribute instanceof org.apache.bcel.classfile.Deprecated || attribute instanceof Synthetic)) {
+                return "unsupported attribute " + attribute.getClass().getSimpleName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Mark an entry live along with the entries it refers to
+     */
+    private static void mark(Constant[] constants, int index, BitSet live) {
+        if (index == 0 || live.get(index)) {
+            return;
+        }
+        live.set(index);
+
+        Constant constant = constants[index];
+        if (constant instanceof ConstantClass) {
+            mark(constants, ((ConstantClass) constant).getNameIndex(), live);
+        } else if (constant instanceof ConstantString) {
+            mark(constants, ((ConstantString) constant).getStringIndex(), live);
+        } else if (constant instanceof ConstantCP) {
+            mark(constants, ((ConstantCP) constant).getClassIndex(), live);
+            mark(constants, ((ConstantCP) constant).getNameAndTypeIndex(), live);
+        } else if (constant instanceof ConstantNameAndType) {
+            mark(constants, ((ConstantNameAndType) constant).getNameIndex(), live);
+            mark(constants, ((ConstantNameAndType) constant).getSignatureIndex(), live);
+        }
+    }
+
+    /**
+     * Renumber the entries a copied constant refers to
+     */
+    private static Constant renumber(Constant constant, int[] newIndex) {
+        if (constant instanceof ConstantClass) {
+            ConstantClass c = (ConstantClass) constant;
+            c.setNameIndex(newIndex[c.getNameIndex()]);
+        } else if (constant instanceof ConstantString) {
+            ConstantString c = (ConstantString) constant;
+            c.setStringIndex(newIndex[c.getStringIndex()]);
+        } else if (constant instanceof ConstantCP) {
+            ConstantCP c = (ConstantCP) constant;
+            c.setClassIndex(newIndex[c.getClassIndex()]);
+            c.setNameAndTypeIndex(newIndex[c.getNameAndTypeIndex()]);
+        } else if (constant instanceof ConstantNameAndType) {
+            ConstantNameAndType c = (ConstantNameAndType) constant;
+            c.setNameIndex(newIndex[c.getNameIndex()]);
+            c.setSignatureIndex(newIndex[c.getSignatureIndex()]);
+        }
+        return constant;
+    }
+
+    /**
+     * Pass every constant pool index of a class through the mapper, storing what it returns
+     * @param pool Constant pool the class refers to afterwards
+     */
+    private static void remap(JavaClass javaClass, IndexMapper mapper, ConstantPool pool) {
+        javaClass.setClassNameIndex(mapper.map(javaClass.getClassNameIndex()));
+        javaClass.setSuperclassNameIndex(mapper.map(javaClass.getSuperclassNameIndex()));
+        int[] interfaces = javaClass.getInterfaceIndices();
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaces[i] = mapper.map(interfaces[i]);
+        }
+        javaClass.setInterfaces(interfaces);
+
+        remap(javaClass.getAttributes(), mapper, pool);
+        for (Field field : javaClass.getFields()) {
+            remap(field, mapper, pool);
+        }
+        for (Method method : javaClass.getMethods()) {
+            remap(method, mapper, pool);
+        }
+    }
+
+    private static void remap(FieldOrMethod member, IndexMapper mapper, ConstantPool pool) {
+        member.setConstantPool(pool);
+        member.setNameIndex(mapper.map(member.getNameIndex()));
+        member.setSignatureIndex(mapper.map(member.getSignatureIndex()));
+        remap(member.getAttributes(), mapper, pool);
+    }
+
+    private static void remap(Attribute[] attributes, IndexMapper mapper, ConstantPool pool) {
+        for (Attribute attribute : attributes) {
+            attribute.setConstantPool(pool);
+            attribute.setNameIndex(mapper.map(attribute.getNameIndex()));
+
+            if (attribute instanceof Code) {
+                Code code = (Code) attribute;
+                remapBytecode(code.getCode(), mapper);
+                for (CodeException handler : code.getExceptionTable()) {
+                    handler.setCatchType(mapper.map(handler.getCatchType()));
+                }
+                remap(code.getAttributes(), mapper, pool);
+            } else if (attribute instanceof ConstantValue) {
+                ConstantValue value = (ConstantValue) attribute;
+                value.setConstantValueIndex(mapper.map(value.getConstantValueIndex()));
+            } else if (attribute instanceof SourceFile) {
+                SourceFile file = (SourceFile) attribute;
+                file.setSourceFileIndex(mapper.map(file.getSourceFileIndex()));
+            } else if (attribute instanceof Signature) {
+                Signature signature = (Signature) attribute;
+                signature.setSignatureIndex(mapper.map(signature.getSignatureIndex()));
+            } else if (attribute instanceof EnclosingMethod) {
+                EnclosingMethod enclosing = (EnclosingMethod) attribute;
+                enclosing.setEnclosingClassIndex(mapper.map(enclosing.getEnclosingClassIndex()));
+                enclosing.setEnclosingMethodIndex(mapper.map(enclosing.getEnclosingMethodIndex()));
+            } else if (attribute instanceof InnerClasses) {
+                for (InnerClass inner : ((InnerClasses) attribute).getInnerClasses()) {
+                    inner.setInnerClassIndex(mapper.map(inner.getInnerClassIndex()));
+                    inner.setOuterClassIndex(mapper.map(inner.getOuterClassIndex()));
+                    inner.setInnerNameIndex(mapper.map(inner.getInnerNameIndex()));
+                }
+            } else if (attribute instanceof ExceptionTable) {
+                int[] exceptions = ((ExceptionTable) attribute).getExceptionIndexTable();
+                for (int i = 0; i < exceptions.length; i++) {
+                    exceptions[i] = mapper.map(exceptions[i]);
+                }
+            } else if (attribute instanceof LocalVariableTable) {
+                remap(((LocalVariableTable) attribute).getLocalVariableTable(), mapper, pool);
+            } else if (attribute instanceof LocalVariableTypeTable) {
+                remap(((LocalVariableTypeTable) attribute).getLocalVariableTypeTable(), mapper, pool);
+            } else if (attribute instanceof StackMap) {
+                for (StackMapEntry entry : ((StackMap) attribute).getStackMap()) {
+                    entry.setConstantPool(pool);
+                    //Entries are copied shallowly, their types may still be shared with the original class
+                    entry.setTypesOfLocals(remap(entry.getTypesOfLocals(), mapper, pool));
+                    entry.setTypesOfStackItems(remap(entry.getTypesOfStackItems(), mapper, pool));
+                }
+            }
+        }
+    }
+
+    private static void remap(LocalVariable[] variables, IndexMapper mapper, ConstantPool pool) {
+        for (LocalVariable variable : variables) {
+            variable.setConstantPool(pool);
+            variable.setNameIndex(mapper.map(variable.getNameIndex()));
+            variable.setSignatureIndex(mapper.map(variable.getSignatureIndex()));
+        }
+    }
+
+    private static StackMapType[] remap(StackMapType[] types, IndexMapper mapper, ConstantPool pool) {
+        if (types == null) {
+            return null;
+        }
+        StackMapType[] copies = new StackMapType[types.length];
+        for (int i = 0; i < types.length; i++) {
+            copies[i] = types[i].copy();
+            copies[i].setConstantPool(pool);
+            if (copies[i].getType() == Constants.ITEM_Object) {
+                copies[i].setIndex(mapper.map(copies[i].getIndex()));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * Rewrite the constant pool operands of the instructions in place, every operand keeps its width
+     */
+    private static void remapBytecode(byte[] code, IndexMapper mapper) {
+        try (ByteSequence bytes = new ByteSequence(code)) {
+            while (bytes.available() > 0) {
+                int position = bytes.getIndex();
+                Instruction instruction = Instruction.readInstruction(bytes);
+                if (!(instruction instanceof CPInstruction)) {
+                    continue;
+                }
+
+                int index = ((CPInstruction) instruction).getIndex();
+                if (instruction.getOpcode() == Constants.LDC) {
+                    code[position + 1] = (byte) mapper.mapNarrow(index);
+                } else {
+                    int mapped = mapper.map(index);
+                    code[position + 1] = (byte) (mapped >> 8);
+                    code[position + 2] = (byte) mapped;
+                }
+            }
+        } catch (IOException e) {
+            throw new ClassFormatException("Malformed bytecode: " + e.getMessage());
+        }
+    }
+
+    private static int slots(Constant constant) {
+        return constant instanceof ConstantLong || constant instanceof ConstantDouble ? 2 : 1;
+    }
+
+    private static int countEntries(Constant[] constants) {
+        int count = 0;
+        for (Constant constant : constants) {
+            if (constant != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int poolSize(ConstantPool pool) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            pool.dump(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); //Cannot happen in memory
+        }
+        return bytes.size();
+    }
+}
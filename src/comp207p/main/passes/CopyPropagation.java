@@ -0,0 +1,221 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.BasicBlock;
+import comp207p.main.analysis.ControlFlowGraph;
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read locals that are copies of another local from the original instead: after "iload_1; istore_2", a load
+ * of slot 2 becomes "iload_1" as long as neither slot is written again on any path in between. A copy is
+ * available at a point if it happened on every path to it, which is found by a forward dataflow over the
+ * control-flow graph. Once no load reads the copy, dead-store removes it. A load is only rewritten when the
+ * new one is no longer, so loads of low slots keep their one-byte forms.
+ */
+public class CopyPropagation implements MethodPass {
+
+    /**
+     * "load source; store target" with both in the same block
+     */
+    private static final class Copy {
+        private final int source;
+        private final int target;
+        private final int size;
+        private final Type type;
+
+        Copy(int source, int target, Type type) {
+            this.source = source;
+            this.target = target;
+            this.size = type.getSize();
+            this.type = type;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "copy";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean run(MethodContext context) {
+        context.iteration();
+        MethodGen methodGen = context.getMethodGen();
+        ControlFlowGraph cfg = new ControlFlowGraph(context.getInstructionList(), methodGen.getExceptionHandlers());
+        if (cfg.hasSubroutines()) {
+            return false; //RET reads a slot no store visibly feeds
+        }
+
+        ConstantPoolGen cpgen = context.getConstantPool();
+        List<Copy> copies = new ArrayList<>();
+        Map<InstructionHandle, Integer> copyStores = new HashMap<>(); //Index of the copy each store makes
+        for (BasicBlock block : cfg.getBlocks()) {
+            for (InstructionHandle h = block.getStart().getNext(); h != block.getEnd().getNext(); h = h.getNext()) {
+                Copy copy = asCopy(h, cpgen);
+                if (copy != null) {
+                    copyStores.put(h, copies.size());
+                    copies.add(copy);
+                }
+            }
+        }
+        if (copies.isEmpty()) {
+            return false;
+        }
+
+        BitSet[] in = solve(cfg, copies, copyStores, cpgen, methodGen);
+
+        boolean changed = false;
+        for (BasicBlock block : cfg.getReversePostOrder()) {
+            BitSet available = in[block.getIndex()];
+            for (InstructionHandle h = block.getStart(); h != block.getEnd().getNext(); h = h.getNext()) {
+                if (h.getInstruction() instanceof LoadInstruction) {
+                    changed |= propagate(h, available, copies, context);
+                }
+                transfer(h, available, copies, copyStores, cpgen);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return The copy a store makes, if it stores what a load of another local just pushed
+     */
+    private static Copy asCopy(InstructionHandle store, ConstantPoolGen cpgen) {
+        if (!(store.getInstruction() instanceof StoreInstruction) || !(store.getPrev().getInstruction() instanceof LoadInstruction)) {
+            return null;
+        }
+        StoreInstruction target = (StoreInstruction) store.getInstruction();
+        LoadInstruction source = (LoadInstruction) store.getPrev().getInstruction();
+        Type type = target.getType(cpgen);
+        if (!type.equals(source.getType(cpgen))
+                || Math.abs(target.getIndex() - source.getIndex()) < type.getSize()) {
+            return null; //The same slots, or the halves of a long or double overlap
+        }
+        return new Copy(source.getIndex(), target.getIndex(), type);
+    }
+
+    /**
+     * Find the copies available on entry to every block: those made on every path to it and not undone since.
+     * Exception handlers start with none, the instruction that threw could be anywhere in their try block.
+     */
+    private static BitSet[] solve(ControlFlowGraph cfg, List<Copy> copies, Map<InstructionHandle, Integer> copyStores,
+                                  ConstantPoolGen cpgen, MethodGen methodGen) {
+        Set<BasicBlock> handlers = new HashSet<>();
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            handlers.add(cfg.getBlock(handler.getHandlerPC()));
+        }
+
+        int blockCount = cfg.getBlocks().size();
+        BitSet[] in = new BitSet[blockCount];
+        BitSet[] out = new BitSet[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            in[b] = new BitSet();
+            out[b] = new BitSet();
+            out[b].set(0, copies.size()); //Intersection starts from every copy
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : cfg.getReversePostOrder()) {
+                int b = block.getIndex();
+                BitSet newIn = new BitSet();
+                if (block != cfg.getEntry() && !handlers.contains(block) && !block.getPredecessors().isEmpty()) {
+                    newIn.set(0, copies.size());
+                    for (BasicBlock predecessor : block.getPredecessors()) {
+                        newIn.and(out[predecessor.getIndex()]);
+                    }
+                }
+
+                BitSet newOut = (BitSet) newIn.clone();
+                for (InstructionHandle h = block.getStart(); h != block.getEnd().getNext(); h = h.getNext()) {
+                    transfer(h, newOut, copies, copyStores, cpgen);
+                }
+
+                if (!newIn.equals(in[b]) || !newOut.equals(out[b])) {
+                    in[b] = newIn;
+                    out[b] = newOut;
+                    changed = true;
+                }
+            }
+        }
+        return in;
+    }
+
+    /**
+     * Turn the copies available before an instruction into those available after it
+     */
+    private static void transfer(InstructionHandle h, BitSet available, List<Copy> copies,
+                                 Map<InstructionHandle, Integer> copyStores, ConstantPoolGen cpgen) {
+        Instruction instruction = h.getInstruction();
+        if (!(instruction instanceof StoreInstruction || instruction instanceof IINC)) {
+            return;
+        }
+        int slot = ((LocalVariableInstruction) instruction).getIndex();
+        int size = instruction instanceof IINC ? 1 : ((StoreInstruction) instruction).getType(cpgen).getSize();
+        for (int c = available.nextSetBit(0); c >= 0; c = available.nextSetBit(c + 1)) {
+            Copy copy = copies.get(c);
+            if (overlaps(slot, size, copy.source, copy.size) || overlaps(slot, size, copy.target, copy.size)) {
+                available.clear(c);
+            }
+        }
+        Integer made = copyStores.get(h);
+        if (made != null) {
+            available.set(made);
+        }
+    }
+
+    private static boolean overlaps(int slot, int size, int other, int otherSize) {
+        return slot < other + otherSize && other < slot + size;
+    }
+
+    /**
+     * Point a load of a copy at the local it was copied from, following chains of copies as far as a load
+     * no longer than the original goes: with z = y; y = x, a load of z reads y when x needs a wider load
+     * @return true if the load was rewritten
+     */
+    private boolean propagate(InstructionHandle load, BitSet available, List<Copy> copies, MethodContext context) {
+        LoadInstruction instruction = (LoadInstruction) load.getInstruction();
+        Type type = instruction.getType(context.getConstantPool());
+        int slot = instruction.getIndex();
+        Instruction replacement = null;
+        for (int hops = 0; hops < copies.size(); hops++) {
+            Copy from = null;
+            for (int c = available.nextSetBit(0); c >= 0 && from == null; c = available.nextSetBit(c + 1)) {
+                if (copies.get(c).target == slot && copies.get(c).type.equals(type)) {
+                    from = copies.get(c);
+                }
+            }
+            if (from == null) {
+                break;
+            }
+            slot = from.source;
+            Instruction candidate = InstructionFactory.createLoad(type, slot);
+            if (slot != instruction.getIndex() && candidate.getLength() <= instruction.getLength()) {
+                replacement = candidate;
+            }
+        }
+
+        if (replacement == null) {
+            return false;
+        }
+        slot = ((LoadInstruction) replacement).getIndex();
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), load,
+                "load of local %d reads local %d instead", instruction.getIndex(), slot);
+        context.replace(load, replacement);
+        return true;
+    }
+}
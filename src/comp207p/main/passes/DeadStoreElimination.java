@@ -0,0 +1,170 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.BasicBlock;
+import comp207p.main.analysis.ControlFlowGraph;
+import comp207p.main.analysis.LiveVariables;
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remove stores to locals that are never read again, typically left behind once every load of a local
+ * has been folded into a constant. A dead store is deleted along with the expression that computed its value,
+ * as long as that is only constants, loads and arithmetic that cannot throw; when the value comes from anything
+ * else, or the expression is a jump target, the store becomes a POP.
+ * Deleting a load can kill the store feeding it, so the pass repeats until nothing more is deleted.
+ */
+public class DeadStoreElimination implements MethodPass {
+
+    @Override
+    public String getName() {
+        return "dead-store";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean run(MethodContext context) {
+        boolean changed = false;
+        boolean deleted = true;
+        while (deleted) {
+            context.iteration();
+            ControlFlowGraph cfg = new ControlFlowGraph(context.getInstructionList(), context.getMethodGen().getExceptionHandlers());
+            if (cfg.hasSubroutines()) {
+                return changed; //RET reads a slot no store visibly feeds
+            }
+            LiveVariables liveness = new LiveVariables(cfg, context.getConstantPool());
+
+            deleted = false;
+            for (InstructionHandle store : findDeadStores(liveness)) {
+                if (remove(store, context)) {
+                    deleted = true;
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return Stores and IINCs whose slots are not live after them, in instruction order
+     */
+    private static List<InstructionHandle> findDeadStores(LiveVariables liveness) {
+        List<InstructionHandle> dead = new ArrayList<>();
+        for (BasicBlock block : liveness.getControlFlowGraph().getBlocks()) {
+            BitSet live = liveness.getLiveOut(block);
+            BitSet handlers = liveness.getHandlersLive(block);
+            List<InstructionHandle> inBlock = new ArrayList<>();
+
+            for (InstructionHandle h = block.getEnd(); h != block.getStart().getPrev(); h = h.getPrev()) {
+                Instruction instruction = h.getInstruction();
+                if (instruction instanceof StoreInstruction || instruction instanceof IINC) {
+                    int slot = ((LocalVariableInstruction) instruction).getIndex();
+                    int size = liveness.size((LocalVariableInstruction) instruction);
+                    if (live.get(slot, slot + size).isEmpty()) {
+                        inBlock.add(h);
+                    }
+                }
+                liveness.transfer(instruction, live);
+                live.or(handlers);
+            }
+
+            Collections.reverse(inBlock);
+            dead.addAll(inBlock);
+        }
+        return dead;
+    }
+
+    /**
+     * Remove a dead store, or turn it into a POP or NOP
+     * @return true if instructions were deleted, false if the store was only replaced
+     */
+    private boolean remove(InstructionHandle store, MethodContext context) {
+        Instruction instruction = store.getInstruction();
+
+        try {
+            if (instruction instanceof IINC) {
+                if (!MethodContext.canDelete(store, store)) {
+                    Remarks.applied(getName(), context.getClassName(), context.getMethod(), store, "IINC replaced by a nop");
+                    context.replace(store, InstructionConstants.NOP); //Jumped to, the handle has to stay
+                    return false;
+                }
+                Remarks.applied(getName(), context.getClassName(), context.getMethod(), store, "IINC removed");
+                context.delete(store, store);
+                return true;
+            }
+
+            InstructionHandle expression = findPureExpression(store, context.getConstantPool());
+            if (expression != null && MethodContext.canDelete(expression, store)) {
+                Remarks.applied(getName(), context.getClassName(), context.getMethod(), expression, "store and its value removed");
+                context.delete(expression, store);
+                return true;
+            }
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+
+        //The value still has to come off the stack
+        int size = ((StoreInstruction) instruction).getType(context.getConstantPool()).getSize();
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), store, "store replaced by a pop");
+        context.replace(store, size == 2 ? InstructionConstants.POP2 : InstructionConstants.POP);
+        return false;
+    }
+
+    /**
+     * Walk back from a store over the instructions computing the value it pops, e.g. "iload_0 iconst_1 ishl",
+     * until the stack is as it was before the first of them
+     * @return First instruction of the expression, or null if the value is not only pushed and combined
+     */
+    private static InstructionHandle findPureExpression(InstructionHandle store, ConstantPoolGen cpgen) {
+        int needed = store.getInstruction().consumeStack(cpgen); //Stack words the expression still has to push
+        for (InstructionHandle h = store.getPrev(); h != null; h = h.getPrev()) {
+            Instruction instruction = h.getInstruction();
+            if (!isPure(instruction, cpgen) && !isPureOperation(instruction)) {
+                return null;
+            }
+            needed -= instruction.produceStack(cpgen);
+            if (needed < 0) {
+                return null; //Pushes more than the store pops, part of it is used by something else
+            }
+            needed += instruction.consumeStack(cpgen);
+            if (needed == 0) {
+                return h;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the instruction combines or converts the values on the stack and cannot throw
+     */
+    private static boolean isPureOperation(Instruction instruction) {
+        if (instruction instanceof IDIV || instruction instanceof IREM
+                || instruction instanceof LDIV || instruction instanceof LREM) {
+            return false; //Division by zero
+        }
+        return instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction;
+    }
+
+    /**
+     * @return true if the instruction only pushes a value, so it can go along with the store that pops it
+     */
+    private static boolean isPure(Instruction instruction, ConstantPoolGen cpgen) {
+        if (instruction instanceof ConstantPushInstruction || instruction instanceof ACONST_NULL
+                || instruction instanceof LoadInstruction || instruction instanceof LDC2_W) {
+            return true;
+        }
+        if (instruction instanceof LDC) { //A class constant can fail to load
+            Object value = ((LDC) instruction).getValue(cpgen);
+            return value instanceof Number || value instanceof String;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,17 @@
+package comp207p.main.passes;
+
+import comp207p.main.ir.IRMethod;
+
+/**
+ * Pass that works on the SSA form of a method.
+ * Consecutive IR passes share one translation, see PassManager.
+ */
+public interface IRPass extends OptimisationPass {
+
+    /**
+     * @param method SSA form of the method, changed in place
+     * @param context Method being optimised, whose code the pass must not change
+     * @return true if the SSA form was changed
+     */
+    boolean run(IRMethod method, MethodContext context);
+}
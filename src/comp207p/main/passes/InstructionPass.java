@@ -0,0 +1,26 @@
+package comp207p.main.passes;
+
+import org.apache.bcel.generic.InstructionHandle;
+
+/**
+ * Pass that rewrites a short sequence of instructions starting at one handle.
+ * Consecutive instruction passes share one worklist walk over the method, see PassManager.
+ */
+public interface InstructionPass extends OptimisationPass {
+
+    //Pattern of an instruction that pushes a value onto the stack
+    String LOAD = "(ConstantPushInstruction|LDC|LDC_W|LDC2_W|LoadInstruction)";
+
+    /**
+     * @return Longest sequence of instructions the pass rewrites; after a rewrite the walk backs up this far
+     */
+    int getMaxLength();
+
+    /**
+     * Try to rewrite the sequence starting at an instruction
+     * @param h Instruction the sequence has to start at
+     * @param context Method being optimised
+     * @return true if the method was changed
+     */
+    boolean apply(InstructionHandle h, MethodContext context);
+}
@@ -0,0 +1,80 @@
+package comp207p.main.passes;
+
+import org.apache.bcel.generic.*;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Renumber the locals that are still used after dead stores are gone, packing them after the parameters
+ * in their original order. Slots keep their relative order, so a long or double still takes two adjacent slots
+ * and slots shared by several variables stay shared. Low slots also get the one-byte load and store forms.
+ */
+public class LocalRenumbering implements MethodPass {
+
+    @Override
+    public String getName() {
+        return "locals";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean run(MethodContext context) {
+        MethodGen methodGen = context.getMethodGen();
+        ConstantPoolGen cpgen = context.getConstantPool();
+
+        int parameters = methodGen.isStatic() ? 0 : 1;
+        for (Type argument : methodGen.getArgumentTypes()) {
+            parameters += argument.getSize();
+        }
+
+        BitSet used = new BitSet();
+        for (InstructionHandle h = context.getInstructionList().getStart(); h != null; h = h.getNext()) {
+            Instruction instruction = h.getInstruction();
+            if (instruction instanceof RET) {
+                return false; //Subroutine return addresses are left where they are
+            }
+            if (instruction instanceof LocalVariableInstruction) {
+                int slot = ((LocalVariableInstruction) instruction).getIndex();
+                used.set(slot, slot + size((LocalVariableInstruction) instruction, cpgen));
+            }
+        }
+
+        //Slot of every old slot: the parameters stay, every used slot after them moves down over the gaps
+        int[] newSlot = new int[used.length()];
+        boolean moved = false;
+        int next = parameters;
+        for (int slot = 0; slot < newSlot.length; slot++) {
+            if (slot < parameters) {
+                newSlot[slot] = slot;
+            } else if (used.get(slot)) {
+                newSlot[slot] = next++;
+                moved |= newSlot[slot] != slot;
+            }
+        }
+        if (!moved) {
+            return false;
+        }
+
+        for (InstructionHandle h = context.getInstructionList().getStart(); h != null; h = h.getNext()) {
+            if (h.getInstruction() instanceof LocalVariableInstruction) {
+                LocalVariableInstruction local = (LocalVariableInstruction) h.getInstruction();
+                if (newSlot[local.getIndex()] != local.getIndex()) {
+                    LocalVariableInstruction renumbered = (LocalVariableInstruction) local.copy();
+                    renumbered.setIndex(newSlot[local.getIndex()]);
+                    context.replace(h, renumbered);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int size(LocalVariableInstruction instruction, ConstantPoolGen cpgen) {
+        return instruction instanceof IINC ? 1 : instruction.getType(cpgen).getSize();
+    }
+}
@@ -0,0 +1,293 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.ControlFlowGraph;
+import comp207p.main.analysis.ReachingDefinitions;
+import comp207p.main.utils.InstructionLists;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Method being optimised, shared by every pass that runs over it.
+ * The control-flow graph and reaching definitions are built on first use and kept until a pass
+ * reports that it changed the control flow. Rewrites go through delete and replace so that the bytes
+ * they save are counted. The pass manager charges its work to the context, which throws
+ * BudgetExceededException once the method's limits are used up.
+ */
+public class MethodContext {
+
+    private final String className;
+    private final Method method;
+    private final MethodGen methodGen;
+    private final InstructionList instructionList;
+    private final ConstantPoolGen cpgen;
+
+    private ReachingDefinitions definitions = null;
+    private boolean controlFlowChanged = false;
+    private int bytesRemoved = 0;
+
+    //Limits of the method, from its own budget or what is left of its class's
+    private boolean hasDeadline = false;
+    private long deadline;
+    private boolean deadlineFromClass;
+    private int maxIterations = 0;
+    private boolean iterationsFromClass;
+    private int iterations = 0;
+    private int timeChecks = 0;
+
+    //Instructions visited between two looks at the clock
+    private static final int TIME_CHECK_INTERVAL = 64;
+
+    /**
+     * @param className Class being optimised
+     * @param method Method as it was before optimisation
+     * @param methodGen Generator of the optimised method, holding its instruction list and exception handlers
+     */
+    public MethodContext(String className, Method method, MethodGen methodGen) {
+        this.className = className;
+        this.method = method;
+        this.methodGen = methodGen;
+        this.instructionList = methodGen.getInstructionList();
+        this.cpgen = methodGen.getConstantPool();
+    }
+
+    public String getClassName() {
+        return className;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public MethodGen getMethodGen() {
+        return methodGen;
+    }
+
+    public InstructionList getInstructionList() {
+        return instructionList;
+    }
+
+    public ConstantPoolGen getConstantPool() {
+        return cpgen;
+    }
+
+    /**
+     * Get the reaching definitions of the method, building them (and the control-flow graph) if needed.
+     * They stay sound while instructions or dead branches are deleted, as the remaining paths are a subset
+     * of the analysed ones; they are only rebuilt after controlFlowChanged.
+     */
+    public ReachingDefinitions getDefinitions() {
+        if (definitions == null) {
+            ControlFlowGraph cfg = new ControlFlowGraph(instructionList, methodGen.getExceptionHandlers());
+            definitions = new ReachingDefinitions(cfg, methodGen);
+        }
+        return definitions;
+    }
+
+    /**
+     * Record that branches were removed or added, so later walks need a fresh analysis
+     */
+    public void controlFlowChanged() {
+        controlFlowChanged = true;
+    }
+
+    /**
+     * @return true if the control flow changed since the last call, which then rebuilds the analysis on next use
+     */
+    boolean takeControlFlowChanged() {
+        boolean changed = controlFlowChanged;
+        controlFlowChanged = false;
+        if (changed) {
+            definitions = null;
+        }
+        return changed;
+    }
+
+    /**
+     * Drop the analysis without waiting for the current walk to finish
+     */
+    public void invalidateAnalysis() {
+        definitions = null;
+    }
+
+    /**
+     * @return Bytes of bytecode removed from the method so far
+     */
+    public int getBytesRemoved() {
+        return bytesRemoved;
+    }
+
+    /**
+     * Limit the work that can be spent on the method
+     * @param deadline Value of System.nanoTime after which the method is given up, or null for no limit
+     * @param deadlineFromClass Whether the deadline is the class's rather than the method's own
+     * @param maxIterations Iterations allowed, or 0 for no limit
+     * @param iterationsFromClass Whether the iterations are what is left of the class's rather than the method's own
+     */
+    public void setBudget(Long deadline, boolean deadlineFromClass, int maxIterations, boolean iterationsFromClass) {
+        this.hasDeadline = deadline != null;
+        this.deadline = deadline == null ? 0 : deadline;
+        this.deadlineFromClass = deadlineFromClass;
+        this.maxIterations = maxIterations;
+        this.iterationsFromClass = iterationsFromClass;
+    }
+
+    /**
+     * @return Rewrites applied and walks started so far
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Charge one iteration to the method
+     * @throws BudgetExceededException If that was one too many, or time is up
+     */
+    void iteration() {
+        iterations++;
+        if (maxIterations > 0 && iterations > maxIterations) {
+            throw new BudgetExceededException(iterationsFromClass, false, iterationsFromClass
+                    ? "class iteration budget exceeded" : "method iteration budget of " + maxIterations + " exceeded");
+        }
+        checkTime(true);
+    }
+
+    /**
+     * Look at the clock every few calls, or on every call when forced
+     * @throws BudgetExceededException If time is up
+     */
+    void checkTime(boolean force) {
+        if (!hasDeadline || (!force && ++timeChecks % TIME_CHECK_INTERVAL != 0)) {
+            return;
+        }
+        if (System.nanoTime() - deadline > 0) {
+            throw new BudgetExceededException(deadlineFromClass, true,
+                    (deadlineFromClass ? "class" : "method") + " time budget exceeded");
+        }
+    }
+
+    /**
+     * Delete a range of instructions, counting the bytecode they took up.
+     * Local variable and line number ranges that start or end in the range move to the next instruction left.
+     */
+    public void delete(InstructionHandle from, InstructionHandle to) throws TargetLostException {
+        for (InstructionHandle h = from; h != to.getNext(); h = h.getNext()) {
+            bytesRemoved += h.getInstruction().getLength();
+        }
+        InstructionHandle neighbour = to.getNext() != null ? to.getNext() : from.getPrev();
+        try {
+            InstructionLists.delete(instructionList, from, to);
+        } catch (TargetLostException e) {
+            boolean lost = false;
+            for (InstructionHandle target : e.getTargets()) {
+                for (InstructionTargeter targeter : target.getTargeters()) {
+                    if (isDebugInfo(targeter) && neighbour != null) {
+                        targeter.updateTarget(target, neighbour);
+                    } else {
+                        lost = true;
+                    }
+                }
+            }
+            if (lost) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Delete several ranges of instructions that canDelete accepted together.
+     * Jumps from one range into another go with them, so the targets they lose are not an error.
+     * @param regions Pairs of first and last instruction of each range
+     */
+    public void deleteAll(InstructionHandle... regions) throws TargetLostException {
+        Set<Instruction> deleted = deletedInstructions(regions);
+        for (int i = 0; i < regions.length; i += 2) {
+            try {
+                delete(regions[i], regions[i + 1]);
+            } catch (TargetLostException e) {
+                for (InstructionHandle target : e.getTargets()) {
+                    for (InstructionTargeter targeter : target.getTargeters()) {
+                        if (!deleted.contains(targeter)) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the whole code of the method, counting the change in size.
+     * The instructions move out of code, which is left empty; the local variables keep covering the whole method.
+     * @param code New code, with no jumps out of it
+     */
+    public void replaceCode(InstructionList code) throws TargetLostException {
+        int added = 0;
+        for (InstructionHandle h = code.getStart(); h != null; h = h.getNext()) {
+            added += h.getInstruction().getLength();
+        }
+        InstructionHandle start = instructionList.getStart();
+        InstructionHandle end = instructionList.getEnd();
+        instructionList.append(code);
+        deleteAll(start, end);
+        bytesRemoved -= added;
+
+        for (LocalVariableGen variable : methodGen.getLocalVariables()) {
+            variable.setStart(instructionList.getStart());
+            variable.setEnd(instructionList.getEnd());
+        }
+    }
+
+    /**
+     * @return true if the targeter only describes the code for debuggers, so its target can move
+     */
+    private static boolean isDebugInfo(InstructionTargeter targeter) {
+        return targeter instanceof LocalVariableGen || targeter instanceof LineNumberGen;
+    }
+
+    /**
+     * Replace the instruction of a handle, counting the change in size
+     */
+    public void replace(InstructionHandle h, Instruction instruction) {
+        bytesRemoved += h.getInstruction().getLength() - instruction.getLength();
+        h.setInstruction(instruction);
+    }
+
+    /**
+     * Check that deleting instructions cannot lose the target of a jump or an exception handler.
+     * A target can be deleted when every jump to it is deleted along with it; debug info moves with delete.
+     * @param regions Pairs of first and last instruction of each range that will be deleted
+     * @return true if the ranges can be deleted
+     */
+    public static boolean canDelete(InstructionHandle... regions) {
+        Set<Instruction> deleted = deletedInstructions(regions);
+
+        for (int i = 0; i < regions.length; i += 2) {
+            for (InstructionHandle h = regions[i]; h != regions[i + 1].getNext(); h = h.getNext()) {
+                InstructionTargeter[] targeters = h.getTargeters();
+                if (targeters == null) {
+                    continue;
+                }
+                for (InstructionTargeter targeter : targeters) {
+                    if (!deleted.contains(targeter) && !isDebugInfo(targeter)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Set<Instruction> deletedInstructions(InstructionHandle... regions) {
+        Set<Instruction> deleted = Collections.newSetFromMap(new IdentityHashMap<Instruction, Boolean>());
+        for (int i = 0; i < regions.length; i += 2) {
+            for (InstructionHandle h = regions[i]; h != regions[i + 1].getNext(); h = h.getNext()) {
+                deleted.add(h.getInstruction());
+            }
+        }
+        return deleted;
+    }
+}
@@ -0,0 +1,13 @@
+package comp207p.main.passes;
+
+/**
+ * Pass that works on a whole method at once
+ */
+public interface MethodPass extends OptimisationPass {
+
+    /**
+     * @param context Method being optimised
+     * @return true if the method was changed
+     */
+    boolean run(MethodContext context);
+}
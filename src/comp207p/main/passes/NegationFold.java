@@ -0,0 +1,113 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.ReachingDefinitions;
+import comp207p.main.exceptions.UnableToFetchValueException;
+import comp207p.main.pattern.InstructionPattern;
+import comp207p.main.utils.*;
+import org.apache.bcel.generic.*;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fold the negation of a constant into the negated constant
+ */
+public class NegationFold implements InstructionPass {
+
+    //Positions: 0 load, 1 negation
+    private static final InstructionPattern PATTERN = InstructionPattern.compile(
+            LOAD + " (INEG|FNEG|LNEG|DNEG)");
+
+    //Only used by the thread optimising one class
+    private final InstructionPattern.Matcher matcher = PATTERN.matcher();
+
+    @Override
+    public String getName() {
+        return "negation";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int getMaxLength() {
+        return PATTERN.maxLength();
+    }
+
+    /**
+     * Fold a negation starting at the given instruction
+     * @param h Instruction the match has to start at
+     * @param context Method being optimised
+     * @return true if a negation was folded
+     */
+    @Override
+    public boolean apply(InstructionHandle h, MethodContext context) {
+        ConstantPoolGen cpgen = context.getConstantPool();
+        ReachingDefinitions definitions = context.getDefinitions();
+        InstructionPattern.Matcher match = matcher;
+        if (!match.matchAt(h)) {
+            return false;
+        }
+
+
+        InstructionHandle loadInstruction = match.group(0);
+        InstructionHandle negationInstruction = match.group(1);
+
+        String type = comp207p.main.utils.Signature.getInstructionSignature(negationInstruction, cpgen);
+
+        if (Remarks.isDebugEnabled()) {
+            Remarks.debug("Found optimisable negation");
+            Utilities.printInstructionHandles(match, cpgen, definitions, type);
+        }
+
+        Number value;
+        try {
+            value = ValueLoader.getValue(loadInstruction, cpgen, definitions, type);
+        } catch (UnableToFetchValueException e) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), loadInstruction, "operand is not constant");
+            return false;
+        }
+
+        Number negatedValue = negate(value, type);
+
+        if (!MethodContext.canDelete(negationInstruction, negationInstruction)) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), loadInstruction, "negation is a jump or exception handler target");
+            return false;
+        }
+
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), loadInstruction, negatedValue);
+
+        int newPoolIndex = ConstantPoolInserter.insert(negatedValue, type, cpgen);
+
+        //Set left constant handle to point to new index
+        context.replace(loadInstruction, ConstantPoolInserter.loadConstant(type, newPoolIndex));
+
+        //Delete other handles
+        try {
+            context.delete(negationInstruction, negationInstruction);
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+
+        return true;
+    }
+
+    /**
+     * Negate a constant in its own type, so -Integer.MIN_VALUE wraps as INEG does and longs keep every bit
+     * @param type Signature of the negation
+     */
+    private static Number negate(Number value, String type) {
+        switch (type) {
+            case "D":
+                return -value.doubleValue();
+            case "F":
+                return -value.floatValue();
+            case "J":
+                return -value.longValue();
+            default:
+                return -value.intValue();
+        }
+    }
+}
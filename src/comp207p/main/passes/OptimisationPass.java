@@ -0,0 +1,20 @@
+package comp207p.main.passes;
+
+import java.util.List;
+
+/**
+ * A pass of the optimiser, run by the PassManager.
+ * A pass object is only used by the thread optimising one class, so it can keep per-class state.
+ */
+public interface OptimisationPass {
+
+    /**
+     * @return Name of the pass, used on the command line, in remarks and in the metrics
+     */
+    String getName();
+
+    /**
+     * @return Names of the passes that have to run before this one
+     */
+    List<String> getDependencies();
+}
@@ -0,0 +1,427 @@
+package comp207p.main.passes;
+
+import comp207p.main.ir.IRBuilder;
+import comp207p.main.ir.IRLowering;
+import comp207p.main.ir.IRMethod;
+import comp207p.main.metrics.PassStatistics;
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.TargetLostException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Chooses the passes to run and runs them over each method.
+ * Passes are registered with the lowest optimisation level they belong to; a level enables every pass up to it,
+ * and single passes can then be enabled or disabled by name. Enabled passes run in registration order, after
+ * the passes they depend on.
+ * Consecutive instruction passes share one worklist walk: at every instruction each of them is tried in turn,
+ * and after a rewrite the walk backs up by the longest sequence any of them matches, as a rewrite only changes
+ * instructions from its first handle onwards. When a rewrite changes the control flow the method is walked
+ * again with a fresh analysis to pick up what it enables.
+ * Consecutive IR passes share one SSA form of the method: it is built before the first of them and lowered back
+ * into bytecode after the last, if any of them changed it and the lowered code is no larger than the method's.
+ * Methods the SSA form does not support are left to the other passes. Class passes run once all the methods are done.
+ * Every walk and rewrite is charged to the method's budget, so a method that never settles is given up
+ * rather than blocking the build.
+ * A PassManager is immutable and can be shared between threads; the passes it creates cannot.
+ */
+public class PassManager {
+
+    public enum Level {
+        O0, //No passes, the class is only rewritten
+        O1, //Straight-line folds: negation and arithmetic, and constant pool compaction
+        O2, //Plus comparison folding, algebraic simplification, unreachable code removal, copy propagation, dead store and peephole removal and local renumbering (default)
+        O3  //Every pass, including the SSA passes
+    }
+
+    private static final class Registration {
+        final String name;
+        final Level level;
+        final Supplier<OptimisationPass> factory;
+        final List<String> dependencies;
+
+        Registration(String name, Level level, Supplier<OptimisationPass> factory) {
+            this.name = name;
+            this.level = level;
+            this.factory = factory;
+            this.dependencies = factory.get().getDependencies();
+        }
+    }
+
+    //Every pass, in the order they run
+    private static final Map<String, Registration> REGISTRY = new LinkedHashMap<>();
+
+    static {
+        register("negation", Level.O1, NegationFold::new);
+        register("arithmetic", Level.O1, ArithmeticFold::new);
+        register("comparison", Level.O2, ComparisonFold::new);
+        register("algebraic", Level.O2, AlgebraicSimplification::new);
+        register("sccp", Level.O3, SparseConditionalConstantPropagation::new);
+        register("ssa-dce", Level.O3, SsaDeadCodeElimination::new);
+        register("unreachable", Level.O2, UnreachableCodeElimination::new);
+        register("copy", Level.O2, CopyPropagation::new);
+        register("dead-store", Level.O2, DeadStoreElimination::new);
+        register("peephole", Level.O2, PeepholeOptimisation::new);
+        register("locals", Level.O2, LocalRenumbering::new);
+        register("constant-pool", Level.O1, ConstantPoolCompaction::new);
+    }
+
+    private static void register(String name, Level level, Supplier<OptimisationPass> factory) {
+        REGISTRY.put(name, new Registration(name, level, factory));
+    }
+
+    public static final Level DEFAULT_LEVEL = Level.O2;
+
+    private static final PassManager DEFAULTS = new PassManager(DEFAULT_LEVEL, Collections.<String>emptyList(), Collections.<String>emptyList());
+
+    private final Level level;
+    private final List<String> passes;
+    private final Budget budget;
+
+    /**
+     * @param level Optimisation level
+     * @param enable Passes to run on top of the level's
+     * @param disable Passes not to run
+     * @throws IllegalArgumentException If a pass is unknown, or depends on a disabled pass
+     */
+    public PassManager(Level level, Collection<String> enable, Collection<String> disable) {
+        this.level = level;
+
+        Set<String> disabled = new HashSet<>();
+        for (String name : disable) {
+            disabled.add(lookup(name).name);
+        }
+
+        Set<String> selected = new HashSet<>();
+        for (Registration registration : REGISTRY.values()) {
+            if (registration.level.compareTo(level) <= 0 && level != Level.O0) {
+                selected.add(registration.name);
+            }
+        }
+        for (String name : enable) {
+            selected.add(lookup(name).name);
+        }
+        selected.removeAll(disabled);
+
+        //Order the passes, pulling in what they depend on
+        Set<String> ordered = new LinkedHashSet<>();
+        for (Registration registration : REGISTRY.values()) {
+            if (selected.contains(registration.name)) {
+                addWithDependencies(registration, disabled, ordered, new HashSet<String>());
+            }
+        }
+        this.passes = Collections.unmodifiableList(new ArrayList<>(ordered));
+        this.budget = Budget.DEFAULT;
+    }
+
+    private PassManager(PassManager passManager, Budget budget) {
+        this.level = passManager.level;
+        this.passes = passManager.passes;
+        this.budget = budget;
+    }
+
+    /**
+     * @return A pass manager running the same passes within another budget
+     */
+    public PassManager withBudget(Budget budget) {
+        return new PassManager(this, budget);
+    }
+
+    public Budget getBudget() {
+        return budget;
+    }
+
+    private static void addWithDependencies(Registration registration, Set<String> disabled, Set<String> ordered, Set<String> visiting) {
+        if (ordered.contains(registration.name)) {
+            return;
+        }
+        if (!visiting.add(registration.name)) {
+            throw new IllegalStateException("Passes depend on each other: " + visiting);
+        }
+        for (String dependency : registration.dependencies) {
+            if (disabled.contains(dependency)) {
+                throw new IllegalArgumentException("Pass " + registration.name + " needs " + dependency + ", which is disabled");
+            }
+            addWithDependencies(lookup(dependency), disabled, ordered, visiting);
+        }
+        ordered.add(registration.name);
+    }
+
+    private static Registration lookup(String name) {
+        Registration registration = REGISTRY.get(name.trim().toLowerCase());
+        if (registration == null) {
+            throw new IllegalArgumentException("Unknown pass " + name + ", expected one of " + REGISTRY.keySet());
+        }
+        return registration;
+    }
+
+    /**
+     * Build a pass manager from command line values
+     * @param enable Comma separated passes to enable, or null
+     * @param disable Comma separated passes to disable, or null
+     */
+    public static PassManager fromOptions(Level level, String enable, String disable) {
+        return new PassManager(level, split(enable), split(disable));
+    }
+
+    private static List<String> split(String names) {
+        List<String> list = new ArrayList<>();
+        if (names != null) {
+            for (String name : names.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    list.add(name.trim());
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return The default passes, at level O2
+     */
+    public static PassManager defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * @return Names of every pass that can be enabled, in the order they run
+     */
+    public static List<String> getAvailablePasses() {
+        return new ArrayList<>(REGISTRY.keySet());
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return Names of the enabled passes, in the order they run
+     */
+    public List<String> getPasses() {
+        return passes;
+    }
+
+    /**
+     * @return Description of the configuration, part of the optimisation cache key
+     */
+    public String describe() {
+        return (passes.isEmpty() ? "none" : String.join(",", passes)) + budget.describeIterations();
+    }
+
+    /**
+     * @return New instances of the enabled method and instruction passes, for one thread to use on one class
+     */
+    public List<OptimisationPass> createPasses() {
+        List<OptimisationPass> instances = new ArrayList<>(passes.size());
+        for (String name : passes) {
+            OptimisationPass pass = REGISTRY.get(name).factory.get();
+            if (!(pass instanceof ClassPass)) {
+                instances.add(pass);
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * @return New instances of the enabled class passes, for one thread to use on one class
+     */
+    public List<ClassPass> createClassPasses() {
+        List<ClassPass> instances = new ArrayList<>();
+        for (String name : passes) {
+            OptimisationPass pass = REGISTRY.get(name).factory.get();
+            if (pass instanceof ClassPass) {
+                instances.add((ClassPass) pass);
+            }
+        }
+        return instances;
+    }
+
+    /**
+     * Run class passes over an optimised class
+     * @param passes Passes made by createClassPasses
+     * @param javaClass Class to change in place
+     * @return Bytes removed from the class file
+     */
+    public int optimise(List<ClassPass> passes, JavaClass javaClass) {
+        int saved = 0;
+        for (ClassPass pass : passes) {
+            PassStatistics statistics = new PassStatistics(pass.getName());
+            long start = System.nanoTime();
+            int removed = pass.run(javaClass);
+            statistics.record(System.nanoTime() - start, removed > 0, removed);
+            statistics.commit(javaClass.getClassName(), "<class>");
+            saved += removed;
+        }
+        return saved;
+    }
+
+    /**
+     * Run passes over a method
+     * @param passes Passes made by createPasses
+     * @param context Method being optimised
+     * @return Counters of each pass over the method, already added to the run totals
+     * @throws BudgetExceededException If the method ran out of its budget, the counters are then dropped
+     */
+    public List<PassStatistics> optimise(List<OptimisationPass> passes, MethodContext context) {
+        List<PassStatistics> statistics = new ArrayList<>(passes.size());
+        for (OptimisationPass pass : passes) {
+            statistics.add(new PassStatistics(pass.getName()));
+        }
+
+        int i = 0;
+        while (i < passes.size()) {
+            if (passes.get(i) instanceof MethodPass) {
+                context.iteration();
+                int removed = context.getBytesRemoved();
+                long start = System.nanoTime();
+                boolean changed = ((MethodPass) passes.get(i)).run(context);
+                statistics.get(i).record(System.nanoTime() - start, changed, context.getBytesRemoved() - removed);
+                if (changed) {
+                    context.takeControlFlowChanged();
+                    context.invalidateAnalysis();
+                }
+                i++;
+            } else if (passes.get(i) instanceof IRPass) {
+                int end = i;
+                while (end < passes.size() && passes.get(end) instanceof IRPass) {
+                    end++;
+                }
+                transform(passes.subList(i, end), statistics.subList(i, end), context);
+                i = end;
+            } else {
+                int end = i;
+                while (end < passes.size() && passes.get(end) instanceof InstructionPass) {
+                    end++;
+                }
+                walk(passes.subList(i, end), statistics.subList(i, end), context);
+                i = end;
+            }
+        }
+
+        String methodName = context.getMethod().getName() + context.getMethod().getSignature();
+        for (PassStatistics pass : statistics) {
+            pass.commit(context.getClassName(), methodName);
+        }
+        return statistics;
+    }
+
+    /**
+     * Run IR passes over the SSA form of a method, then lower it back in place of the method's code.
+     * The bytes the lowering saves are counted for the last pass that changed anything.
+     */
+    private static void transform(List<OptimisationPass> passes, List<PassStatistics> statistics, MethodContext context) {
+        if (!IRBuilder.isSupported(context.getMethodGen())) {
+            return;
+        }
+        context.iteration();
+        IRMethod method;
+        try {
+            method = IRBuilder.build(context.getMethodGen());
+        } catch (IllegalArgumentException e) {
+            Remarks.rejected(passes.get(0).getName(), context.getClassName(), context.getMethod(), null, "no SSA form: %s", e.getMessage());
+            return;
+        }
+
+        int last = -1;
+        for (int p = 0; p < passes.size(); p++) {
+            context.iteration();
+            long start = System.nanoTime();
+            boolean changed = ((IRPass) passes.get(p)).run(method, context);
+            statistics.get(p).record(System.nanoTime() - start, changed, 0);
+            if (changed) {
+                last = p;
+            }
+        }
+        if (last < 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        InstructionList code = IRLowering.lower(method);
+        int saved = length(context.getInstructionList()) - length(code);
+        if (saved < 0) {
+            Remarks.rejected(passes.get(last).getName(), context.getClassName(), context.getMethod(), null,
+                    "lowered code is %d byte(s) larger, kept the original", -saved);
+            return;
+        }
+        try {
+            context.replaceCode(code);
+        } catch (TargetLostException e) {
+            throw new IllegalStateException("Old code still targeted after lowering", e);
+        }
+        statistics.get(last).record(System.nanoTime() - start, false, saved);
+        context.invalidateAnalysis();
+    }
+
+    private static int length(InstructionList instructionList) {
+        int length = 0;
+        for (InstructionHandle h = instructionList.getStart(); h != null; h = h.getNext()) {
+            length += h.getInstruction().getLength();
+        }
+        return length;
+    }
+
+    /**
+     * Worklist walk trying every instruction pass at every instruction, repeated while the control flow changes
+     */
+    private static void walk(List<OptimisationPass> passes, List<PassStatistics> statistics, MethodContext context) {
+        int maxLength = 1;
+        for (OptimisationPass pass : passes) {
+            maxLength = Math.max(maxLength, ((InstructionPass) pass).getMaxLength());
+        }
+
+        boolean again = true;
+        while (again) {
+            context.iteration();
+            context.invalidateAnalysis();
+            context.getDefinitions(); //Built before the walk changes anything
+            InstructionHandle current = context.getInstructionList().getStart();
+
+            while (current != null) {
+                context.checkTime(false);
+
+                //Work out where to resume before folding, as the fold may delete the current handle
+                InstructionHandle resume = current;
+                for (int j = 0; j < maxLength - 1 && resume.getPrev() != null; j++) {
+                    resume = resume.getPrev();
+                }
+
+                boolean folded = false;
+                int removed = context.getBytesRemoved();
+                long start = System.nanoTime();
+                for (int p = 0; p < passes.size() && !folded; p++) {
+                    folded = ((InstructionPass) passes.get(p)).apply(current, context);
+                    long end = System.nanoTime();
+                    statistics.get(p).record(end - start, folded, context.getBytesRemoved() - removed);
+                    start = end;
+                }
+
+                if (!folded) {
+                    current = current.getNext();
+                    continue;
+                }
+
+                context.iteration();
+                if (resume == current || resume.getInstruction() == null) {
+                    current = context.getInstructionList().getStart(); //Nothing left before the fold, or the resume point went with it
+                } else {
+                    current = resume;
+                }
+            }
+
+            again = context.takeControlFlowChanged();
+        }
+    }
+}
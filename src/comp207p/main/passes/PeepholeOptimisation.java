@@ -0,0 +1,94 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.ReachingDefinitions;
+import comp207p.main.pattern.InstructionPattern;
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.generic.*;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remove pairs of instructions that undo each other: a store straight followed by a load of the same local,
+ * when nothing else reads what was stored, leaves the value on the stack as it was; a DUP followed by a POP
+ * (or DUP2 and POP2) pushes a copy only to drop it.
+ */
+public class PeepholeOptimisation implements InstructionPass {
+
+    private static final InstructionPattern PATTERN = InstructionPattern.compile(
+            "(StoreInstruction LoadInstruction|DUP POP|DUP2 POP2)");
+
+    //Only used by the thread optimising one class
+    private final InstructionPattern.Matcher matcher = PATTERN.matcher();
+
+    @Override
+    public String getName() {
+        return "peephole";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int getMaxLength() {
+        return PATTERN.maxLength();
+    }
+
+    /**
+     * Remove the pair of instructions starting at the given instruction
+     * @param h Instruction the match has to start at
+     * @param context Method being optimised
+     * @return true if the pair was removed
+     */
+    @Override
+    public boolean apply(InstructionHandle h, MethodContext context) {
+        InstructionPattern.Matcher match = matcher;
+        if (!match.matchAt(h)) {
+            return false;
+        }
+        InstructionHandle first = match.get(0);
+        InstructionHandle second = match.get(1);
+
+        if (first.getInstruction() instanceof StoreInstruction && !isOnlyUse(first, second, context)) {
+            return false;
+        }
+
+        if (!MethodContext.canDelete(first, second)) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), first, "pair is a jump or exception handler target");
+            return false;
+        }
+
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), first,
+                "%s and %s removed", first.getInstruction().getName(), second.getInstruction().getName());
+        try {
+            context.delete(first, second);
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the load reads the same local as the store, with the same type, and is the only
+     * instruction reading what the store wrote
+     */
+    private static boolean isOnlyUse(InstructionHandle store, InstructionHandle load, MethodContext context) {
+        ConstantPoolGen cpgen = context.getConstantPool();
+        StoreInstruction storeInstruction = (StoreInstruction) store.getInstruction();
+        LoadInstruction loadInstruction = (LoadInstruction) load.getInstruction();
+        if (storeInstruction.getIndex() != loadInstruction.getIndex()
+                || !storeInstruction.getType(cpgen).equals(loadInstruction.getType(cpgen))) {
+            return false;
+        }
+
+        ReachingDefinitions definitions = context.getDefinitions();
+        List<ReachingDefinitions.Definition> reaching = definitions.getDefinitions(load);
+        if (reaching.size() != 1 || reaching.get(0).getHandle() != store) {
+            return false; //Also the case when the method could not be analysed
+        }
+        List<InstructionHandle> uses = definitions.getUses(store);
+        return uses.size() == 1 && uses.get(0) == load;
+    }
+}
@@ -0,0 +1,273 @@
+package comp207p.main.passes;
+
+import comp207p.main.ir.*;
+import comp207p.main.utils.Remarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Sparse conditional constant propagation over the SSA form (Wegman and Zadeck).
+ * Values start out unknown and only the start block runs; constants are propagated from the operations
+ * that run, and a branch on a constant only makes the successor it takes run, so a phi merging one constant
+ * over every edge that can run is that constant even inside loops or after ifs. Constant values are then
+ * replaced by their constants, branches on constants become jumps and blocks that never run are removed.
+ */
+public class SparseConditionalConstantPropagation implements IRPass {
+
+    //Lattice of a value: unknown (absent), a constant (Number or String, NULL for the null reference), or BOTTOM
+    private static final Object NULL = new Object();
+    private static final Object BOTTOM = new Object();
+
+    @Override
+    public String getName() {
+        return "sccp";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean run(IRMethod method, MethodContext context) {
+        Propagation propagation = new Propagation(method);
+        propagation.solve();
+
+        //Values known to be constant are used as constants; the operations that computed them become dead
+        Map<Value, Value> replacements = new IdentityHashMap<>();
+        int folded = 0;
+        for (Block block : method.getBlocks()) {
+            if (!propagation.executable.contains(block)) {
+                continue;
+            }
+            List<Value> values = new ArrayList<Value>(block.getPhis());
+            values.addAll(block.getOperations());
+            for (Value value : values) {
+                Object constant = propagation.lattice.get(value);
+                if (constant != null && constant != BOTTOM) {
+                    replacements.put(value, new Constant(constant == NULL ? null : constant));
+                    folded++;
+                }
+            }
+            //A division by a constant other than zero cannot throw, so it goes as well
+            block.getOperations().removeAll(replacements.keySet());
+        }
+        method.replaceUses(replacements);
+
+        int branches = 0;
+        for (Block block : method.getBlocks()) {
+            Terminator terminator = block.getTerminator();
+            if (!propagation.executable.contains(block) || terminator.getInstruction() == null
+                    || terminator.getSuccessors().isEmpty()) {
+                continue;
+            }
+            List<Object> constants = propagation.constants(terminator);
+            int taken = constants == null ? -1 : ConstantEvaluator.branch(terminator, constants);
+            if (taken >= 0) {
+                Block successor = terminator.getSuccessors().get(taken);
+                block.setTerminator(new Terminator(null, Collections.<Value>emptyList(), Collections.singletonList(successor)));
+                branches++;
+            }
+        }
+        int blocks = method.removeUnreachableBlocks();
+        method.removeTrivialPhis();
+        method.removeDeadValues();
+        blocks += method.bypassEmptyBlocks(); //Branches whose phis became constants may now lead to the same place
+        method.removeDeadValues();
+
+        if (folded + branches + blocks == 0) {
+            return false;
+        }
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), null,
+                "%d constant value(s), %d constant branch(es) folded, %d block(s) removed", folded, branches, blocks);
+        return true;
+    }
+
+    /**
+     * Fixed point of the lattice values and of the blocks that can run
+     */
+    private static final class Propagation {
+
+        private final IRMethod method;
+        private final Map<Value, Object> lattice = new IdentityHashMap<>();
+        private final Set<Block> executable = Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>());
+        private final Map<Block, Set<Block>> executableEdges = new IdentityHashMap<>(); //Predecessors that can enter each block
+        private final Map<Value, List<Operation>> operationUsers = new IdentityHashMap<>();
+        private final Map<Value, List<Phi>> phiUsers = new IdentityHashMap<>();
+
+        private final List<Block[]> edgeWorklist = new ArrayList<>();
+        private final List<Value> valueWorklist = new ArrayList<>();
+
+        Propagation(IRMethod method) {
+            this.method = method;
+            for (Block block : method.getBlocks()) {
+                executableEdges.put(block, Collections.newSetFromMap(new IdentityHashMap<Block, Boolean>()));
+                for (Phi phi : block.getPhis()) {
+                    for (Value operand : phi.getOperands()) {
+                        users(phiUsers, operand).add(phi);
+                    }
+                }
+                for (Operation operation : block.getOperations()) {
+                    for (Value operand : operation.getOperands()) {
+                        users(operationUsers, operand).add(operation);
+                    }
+                }
+                for (Value operand : block.getTerminator().getOperands()) {
+                    users(operationUsers, operand).add(block.getTerminator());
+                }
+            }
+        }
+
+        private static <T> List<T> users(Map<Value, List<T>> users, Value value) {
+            List<T> list = users.get(value);
+            if (list == null) {
+                list = new ArrayList<>();
+                users.put(value, list);
+            }
+            return list;
+        }
+
+        void solve() {
+            edgeWorklist.add(new Block[]{null, method.getStart()});
+            while (!edgeWorklist.isEmpty() || !valueWorklist.isEmpty()) {
+                while (!edgeWorklist.isEmpty()) {
+                    Block[] edge = edgeWorklist.remove(edgeWorklist.size() - 1);
+                    Block block = edge[1];
+                    if (edge[0] != null && !executableEdges.get(block).add(edge[0])) {
+                        continue;
+                    }
+                    for (Phi phi : block.getPhis()) {
+                        visit(phi);
+                    }
+                    if (executable.add(block)) {
+                        for (Operation operation : block.getOperations()) {
+                            visit(operation);
+                        }
+                        visit(block.getTerminator());
+                    }
+                }
+                while (!valueWorklist.isEmpty()) {
+                    Value value = valueWorklist.remove(valueWorklist.size() - 1);
+                    List<Phi> phis = phiUsers.get(value);
+                    if (phis != null) {
+                        for (Phi phi : phis) {
+                            if (executable.contains(phi.getBlock())) {
+                                visit(phi);
+                            }
+                        }
+                    }
+                    List<Operation> operations = operationUsers.get(value);
+                    if (operations != null) {
+                        for (Operation operation : operations) {
+                            if (executable.contains(operation.getBlock())) {
+                                visit(operation);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * A phi is the meet of its operands over the edges that can run
+         */
+        private void visit(Phi phi) {
+            Object merged = null;
+            List<Block> predecessors = phi.getBlock().getPredecessors();
+            Set<Block> edges = executableEdges.get(phi.getBlock());
+            for (int p = 0; p < predecessors.size(); p++) {
+                if (!edges.contains(predecessors.get(p))) {
+                    continue;
+                }
+                Object operand = valueOf(phi.getOperands().get(p));
+                if (operand == null) {
+                    continue;
+                }
+                if (merged == null) {
+                    merged = operand;
+                } else if (!merged.equals(operand)) {
+                    merged = BOTTOM;
+                }
+            }
+            update(phi, merged);
+        }
+
+        private void visit(Operation operation) {
+            if (operation instanceof Terminator) {
+                Terminator terminator = (Terminator) operation;
+                List<Block> successors = terminator.getSuccessors();
+                if (successors.isEmpty()) {
+                    return;
+                }
+                List<Object> constants = constants(terminator);
+                if (constants == null) {
+                    return; //Not known yet
+                }
+                int taken = ConstantEvaluator.branch(terminator, constants);
+                for (int i = 0; i < successors.size(); i++) {
+                    if (taken < 0 || i == taken) {
+                        edgeWorklist.add(new Block[]{terminator.getBlock(), successors.get(i)});
+                    }
+                }
+                return;
+            }
+
+            if (operation.getSize() == 0) {
+                return;
+            }
+            List<Object> constants = constants(operation);
+            if (constants == null) {
+                return;
+            }
+            Number result = ConstantEvaluator.evaluate(operation.getInstruction(), constants);
+            update(operation, result == null ? BOTTOM : result);
+        }
+
+        /**
+         * @return Constant value of each operand, with null for the null reference and BOTTOM where it is not
+         * constant, or null if an operand is still unknown
+         */
+        List<Object> constants(Operation operation) {
+            List<Object> constants = new ArrayList<>();
+            for (Value operand : operation.getOperands()) {
+                Object constant = valueOf(operand);
+                if (constant == null) {
+                    return null;
+                }
+                constants.add(constant == NULL ? null : constant);
+            }
+            return constants;
+        }
+
+        /**
+         * @return Lattice value of a value, null while it is unknown
+         */
+        private Object valueOf(Value value) {
+            if (value instanceof Constant) {
+                Object constant = ((Constant) value).getValue();
+                return constant == null ? NULL : constant;
+            }
+            if (value instanceof Phi || value instanceof Operation) {
+                return lattice.get(value);
+            }
+            return BOTTOM; //Parameters
+        }
+
+        /**
+         * Lower the lattice value of a value, values only ever go down so the propagation ends
+         */
+        private void update(Value value, Object next) {
+            Object current = lattice.get(value);
+            if (next == null || next == current || current == BOTTOM || (current != null && current.equals(next))) {
+                return;
+            }
+            lattice.put(value, current == null ? next : BOTTOM);
+            valueWorklist.add(value);
+        }
+    }
+}
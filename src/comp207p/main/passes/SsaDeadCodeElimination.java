@@ -0,0 +1,33 @@
+package comp207p.main.passes;
+
+import comp207p.main.ir.IRMethod;
+import comp207p.main.utils.Remarks;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remove the pure operations and phis of the SSA form whose values nothing with an effect depends on.
+ * Unlike dead-store this also drops computations whose result was stored and only fed other dead computations.
+ */
+public class SsaDeadCodeElimination implements IRPass {
+
+    @Override
+    public String getName() {
+        return "ssa-dce";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean run(IRMethod method, MethodContext context) {
+        int removed = method.removeDeadValues();
+        if (removed > 0) {
+            Remarks.applied(getName(), context.getClassName(), context.getMethod(), null, "%d dead value(s) removed", removed);
+        }
+        return removed > 0;
+    }
+}
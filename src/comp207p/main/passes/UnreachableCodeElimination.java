@@ -0,0 +1,258 @@
+package comp207p.main.passes;
+
+import comp207p.main.analysis.BasicBlock;
+import comp207p.main.analysis.ControlFlowGraph;
+import comp207p.main.utils.Remarks;
+import org.apache.bcel.generic.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Clean up the control flow once branches have been folded:
+ * blocks that cannot be reached from the entry, directly or through an exception handler, are deleted;
+ * jumps to a GOTO go straight to its target and a GOTO to the next instruction goes; a block reached only
+ * by a GOTO is moved in place of the GOTO. Each change can enable the others, so the pass repeats until
+ * the method stops changing.
+ */
+public class UnreachableCodeElimination implements MethodPass {
+
+    //Longest branch offset of a conditional jump, which cannot be widened like a GOTO
+    private static final int MAX_BRANCH_OFFSET = Short.MAX_VALUE;
+
+    //Longest chain of GOTOs followed when threading a jump, a longer one is probably a loop
+    private static final int MAX_THREADING = 16;
+
+    @Override
+    public String getName() {
+        return "unreachable";
+    }
+
+    @Override
+    public List<String> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean run(MethodContext context) {
+        InstructionList instructionList = context.getInstructionList();
+        boolean changed = false;
+        boolean again = true;
+        while (again) {
+            context.iteration();
+            ControlFlowGraph cfg = new ControlFlowGraph(instructionList, context.getMethodGen().getExceptionHandlers());
+            if (cfg.hasSubroutines()) {
+                break; //RET has no static successors, every block after a JSR would look unreachable
+            }
+
+            again = removeUnreachable(cfg, context);
+            again |= threadJumps(context);
+            again |= removeJumpsToNext(context);
+            if (!again) {
+                again = mergeBlocks(cfg, context); //Only while the graph is still up to date
+            }
+            changed |= again;
+        }
+
+        if (changed) {
+            //Parameters are described over the whole method, wherever its last instruction ended up
+            for (LocalVariableGen variable : context.getMethodGen().getLocalVariables()) {
+                if (variable.getStart() == instructionList.getStart()) {
+                    variable.setEnd(instructionList.getEnd());
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Delete the blocks the entry cannot reach, shrinking or dropping the exception handlers that cover them
+     */
+    private boolean removeUnreachable(ControlFlowGraph cfg, MethodContext context) {
+        final Set<BasicBlock> reachable = new HashSet<>(cfg.getReversePostOrder());
+        if (reachable.size() == cfg.getBlocks().size()) {
+            return false;
+        }
+
+        MethodGen methodGen = context.getMethodGen();
+        for (CodeExceptionGen handler : methodGen.getExceptionHandlers()) {
+            InstructionHandle start = handler.getStartPC();
+            InstructionHandle last = handler.getEndPC().getNext();
+            while (start != last && !reachable.contains(cfg.getBlock(start))) {
+                start = start.getNext();
+            }
+
+            if (start == last || !reachable.contains(cfg.getBlock(handler.getHandlerPC()))) {
+                //Nothing it covers can throw, release its handles before dropping it
+                handler.setStartPC(null);
+                handler.setEndPC(null);
+                handler.setHandlerPC(null);
+                methodGen.removeExceptionHandler(handler);
+                continue;
+            }
+
+            InstructionHandle end = handler.getEndPC();
+            while (!reachable.contains(cfg.getBlock(end))) {
+                end = end.getPrev();
+            }
+            handler.setStartPC(start);
+            handler.setEndPC(end);
+        }
+
+        List<InstructionHandle> regions = new ArrayList<>();
+        for (BasicBlock block : cfg.getBlocks()) {
+            if (reachable.contains(block)) {
+                continue;
+            }
+            if (!regions.isEmpty() && regions.get(regions.size() - 1).getNext() == block.getStart()) {
+                regions.set(regions.size() - 1, block.getEnd()); //Extend the previous range
+            } else {
+                regions.add(block.getStart());
+                regions.add(block.getEnd());
+            }
+        }
+
+        InstructionHandle[] ranges = regions.toArray(new InstructionHandle[regions.size()]);
+        if (!MethodContext.canDelete(ranges)) {
+            Remarks.rejected(getName(), context.getClassName(), context.getMethod(), ranges[0], "unreachable code is still targeted");
+            return false;
+        }
+
+        Remarks.applied(getName(), context.getClassName(), context.getMethod(), ranges[0],
+                "%d unreachable block(s) removed", cfg.getBlocks().size() - reachable.size());
+        try {
+            context.deleteAll(ranges);
+        } catch (TargetLostException e) {
+            Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+        }
+        return true;
+    }
+
+    /**
+     * Point jumps to a GOTO at the GOTO's own target
+     */
+    private boolean threadJumps(MethodContext context) {
+        //A conditional jump cannot grow into a wide one, keep them as they are where offsets could overflow
+        boolean threadConditionals = context.getMethod().getCode().getCode().length < MAX_BRANCH_OFFSET;
+
+        boolean changed = false;
+        for (InstructionHandle h = context.getInstructionList().getStart(); h != null; h = h.getNext()) {
+            Instruction instruction = h.getInstruction();
+            if (!(instruction instanceof GotoInstruction || (threadConditionals && instruction instanceof IfInstruction))) {
+                continue;
+            }
+
+            BranchInstruction branch = (BranchInstruction) instruction;
+            InstructionHandle target = branch.getTarget();
+            for (int i = 0; i < MAX_THREADING && target.getInstruction() instanceof GotoInstruction; i++) {
+                InstructionHandle next = ((GotoInstruction) target.getInstruction()).getTarget();
+                if (next == target || next == h) {
+                    break; //Infinite loop, leave it alone
+                }
+                target = next;
+            }
+
+            if (target != branch.getTarget()) {
+                Remarks.applied(getName(), context.getClassName(), context.getMethod(), h, "jump threaded through a goto");
+                branch.setTarget(target);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Delete every GOTO to the instruction right after it, moving jumps to the GOTO onto that instruction
+     */
+    private boolean removeJumpsToNext(MethodContext context) {
+        boolean changed = false;
+        InstructionHandle h = context.getInstructionList().getStart();
+        while (h != null) {
+            InstructionHandle next = h.getNext();
+            if (h.getInstruction() instanceof GotoInstruction && ((GotoInstruction) h.getInstruction()).getTarget() == next
+                    && retargetJumps(h, next)) {
+                Remarks.applied(getName(), context.getClassName(), context.getMethod(), h, "goto to the next instruction removed");
+                try {
+                    context.delete(h, h);
+                } catch (TargetLostException e) {
+                    Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+                }
+                changed = true;
+            }
+            h = next;
+        }
+        return changed;
+    }
+
+    /**
+     * Move the jumps to an instruction onto another one
+     * @return true if nothing but debug info targets the instruction any more, false if an exception handler does
+     */
+    private static boolean retargetJumps(InstructionHandle from, InstructionHandle to) {
+        InstructionTargeter[] targeters = from.getTargeters();
+        if (targeters == null) {
+            return true;
+        }
+        for (InstructionTargeter targeter : targeters) {
+            if (targeter instanceof CodeExceptionGen) {
+                return false;
+            }
+        }
+        for (InstructionTargeter targeter : targeters) {
+            if (targeter instanceof BranchInstruction) {
+                targeter.updateTarget(from, to);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Move each block that is only reached through a GOTO in place of the GOTO.
+     * Moving code would change which try blocks cover it, so methods with exception handlers are left alone.
+     */
+    private boolean mergeBlocks(ControlFlowGraph cfg, MethodContext context) {
+        if (context.getMethodGen().getExceptionHandlers().length > 0) {
+            return false;
+        }
+
+        Set<BasicBlock> merged = new HashSet<>();
+        boolean changed = false;
+        for (BasicBlock block : cfg.getReversePostOrder()) {
+            InstructionHandle jump = block.getEnd();
+            if (!(jump.getInstruction() instanceof GotoInstruction)) {
+                continue;
+            }
+
+            BasicBlock successor = cfg.getBlock(((GotoInstruction) jump.getInstruction()).getTarget());
+            if (successor == null || successor == block || successor == cfg.getEntry()
+                    || successor.getPredecessors().size() != 1 || !endsUnconditionally(successor)
+                    || merged.contains(block) || merged.contains(successor) || !retargetJumps(jump, successor.getStart())) {
+                continue;
+            }
+
+            Remarks.applied(getName(), context.getClassName(), context.getMethod(), jump, "block moved in place of its goto");
+            context.getInstructionList().move(successor.getStart(), successor.getEnd(), jump);
+            try {
+                context.delete(jump, jump);
+            } catch (TargetLostException e) {
+                Remarks.targetsLost(getName(), context.getClassName(), context.getMethod(), e);
+            }
+            merged.add(block);
+            merged.add(successor);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * @return true if control never falls through the end of the block, so it can be moved
+     */
+    private static boolean endsUnconditionally(BasicBlock block) {
+        Instruction last = block.getEnd().getInstruction();
+        return last instanceof GotoInstruction || last instanceof Select
+                || last instanceof ReturnInstruction || last instanceof ATHROW;
+    }
+}
@@ -0,0 +1,464 @@
+package comp207p.main.pattern;
+
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionConstants;
+import org.apache.bcel.generic.InstructionHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Instruction pattern compiled once into an automaton over raw opcodes.
+ *
+ * Patterns use the same vocabulary as BCEL's InstructionFinder: opcode names (e.g. LDC, GOTO) and instruction
+ * class names (e.g. LoadInstruction, ICONST), separated by spaces, with "|" for alternatives, "?" for optional
+ * parts and parentheses for grouping. An alternative between single instructions compiles to one position of the
+ * automaton, so "(LDC|LoadInstruction) INEG" has two positions, 0 and 1.
+ *
+ * Matching only looks at the opcodes of the instructions it steps over and never allocates; the handles of a
+ * successful match are read back from the matcher.
+ */
+public final class InstructionPattern {
+
+    //Opcodes are 0-255, one bit per position of the automaton for each of them
+    private static final int OPCODE_COUNT = 256;
+
+    private final String source;
+    private final int positions;
+
+    private final long[] opcodeMasks = new long[OPCODE_COUNT]; //Positions accepting each opcode
+    private final long[] follow; //Positions that can come straight after each position
+    private final long[] precede; //Positions that can come straight before each position
+    private final long first; //Positions a match can start with
+    private final long last; //Positions a match can end with
+
+    private InstructionPattern(String source, Node root, List<long[]> opcodeSets) {
+        this.source = source;
+        this.positions = opcodeSets.size();
+        this.follow = new long[positions];
+        this.precede = new long[positions];
+
+        for (int position = 0; position < positions; position++) {
+            long[] opcodes = opcodeSets.get(position);
+            for (int opcode = 0; opcode < OPCODE_COUNT; opcode++) {
+                if ((opcodes[opcode >> 6] & (1L << opcode)) != 0) {
+                    opcodeMasks[opcode] |= 1L << position;
+                }
+            }
+        }
+
+        root.computeFollow(follow);
+        for (int position = 0; position < positions; position++) {
+            long next = follow[position];
+            while (next != 0) {
+                precede[Long.numberOfTrailingZeros(next)] |= 1L << position;
+                next &= next - 1;
+            }
+        }
+        this.first = root.first;
+        this.last = root.last;
+        if (root.nullable) {
+            throw new IllegalArgumentException("Pattern matches an empty instruction sequence: " + source);
+        }
+    }
+
+    /**
+     * Compile a pattern
+     * @param pattern Pattern, e.g. "(ConstantPushInstruction|LoadInstruction) (INEG|LNEG)"
+     * @return Compiled pattern, immutable and safe to share between threads
+     */
+    public static InstructionPattern compile(String pattern) {
+        Parser parser = new Parser(pattern);
+        Node root = parser.parseAlternation();
+        if (parser.hasMore()) {
+            throw new IllegalArgumentException("Unexpected '" + parser.peek() + "' in pattern: " + pattern);
+        }
+        if (parser.opcodeSets.size() > Long.SIZE) {
+            throw new IllegalArgumentException("Pattern has more than " + Long.SIZE + " positions: " + pattern);
+        }
+        return new InstructionPattern(pattern, root, parser.opcodeSets);
+    }
+
+    /**
+     * @return Matcher with its own buffers. Matchers are not thread-safe, keep one per thread or per class being optimised
+     */
+    public Matcher matcher() {
+        return new Matcher();
+    }
+
+    /**
+     * @return Longest instruction sequence the pattern can match, patterns have no repetition
+     */
+    public int maxLength() {
+        return positions;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Anchored matcher over an instruction list
+     */
+    public final class Matcher {
+        private final InstructionHandle[] handles = new InstructionHandle[positions];
+        private final long[] trace = new long[positions]; //Positions alive after each matched instruction
+        private final int[] matchedPositions = new int[positions];
+        private int length = 0;
+
+        private Matcher() {}
+
+        /**
+         * Match the longest instruction sequence starting exactly at the given handle
+         * @param start First instruction of the match
+         * @return true if the pattern matches
+         */
+        public boolean matchAt(InstructionHandle start) {
+            length = 0;
+
+            int matched = 0;
+            long reachable = first;
+            InstructionHandle h = start;
+            while (h != null && matched < positions) {
+                long alive = reachable & opcodeMasks[h.getInstruction().getOpcode() & 0xff];
+                if (alive == 0) {
+                    break;
+                }
+
+                trace[matched] = alive;
+                handles[matched] = h;
+                matched++;
+                if ((alive & last) != 0) {
+                    length = matched;
+                }
+
+                reachable = followAll(alive);
+                h = h.getNext();
+            }
+
+            if (length == 0) {
+                return false;
+            }
+
+            //Walk back through the trace, preferring the earliest position so optional parts are taken greedily
+            long allowed = last;
+            for (int i = length - 1; i >= 0; i--) {
+                long candidates = trace[i] & allowed;
+                int position = Long.numberOfTrailingZeros(candidates);
+                matchedPositions[i] = position;
+                allowed = precede[position];
+            }
+
+            return true;
+        }
+
+        /**
+         * @return Number of instructions in the last match
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @param i Index into the last match, 0 to length() - 1
+         * @return i-th matched instruction
+         */
+        public InstructionHandle get(int i) {
+            if (i < 0 || i >= length) {
+                throw new IndexOutOfBoundsException("Match of length " + length + " has no instruction " + i);
+            }
+            return handles[i];
+        }
+
+        /**
+         * @param position Position in the pattern
+         * @return Instruction matched at the given position, or null if that optional position was skipped
+         */
+        public InstructionHandle group(int position) {
+            for (int i = 0; i < length; i++) {
+                if (matchedPositions[i] == position) {
+                    return handles[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return Last instruction of the match
+         */
+        public InstructionHandle last() {
+            return get(length - 1);
+        }
+    }
+
+    private long followAll(long alive) {
+        long reachable = 0;
+        while (alive != 0) {
+            int position = Long.numberOfTrailingZeros(alive);
+            reachable |= follow[position];
+            alive &= alive - 1;
+        }
+        return reachable;
+    }
+
+    /**
+     * Node of the parsed pattern, with the first/last/nullable sets of the Glushkov construction
+     */
+    private static abstract class Node {
+        boolean nullable;
+        long first;
+        long last;
+
+        abstract void computeFollow(long[] follow);
+    }
+
+    private static final class Symbol extends Node {
+        Symbol(int position) {
+            this.nullable = false;
+            this.first = 1L << position;
+            this.last = 1L << position;
+        }
+
+        @Override
+        void computeFollow(long[] follow) {}
+    }
+
+    private static final class Optional extends Node {
+        final Node child;
+
+        Optional(Node child) {
+            this.child = child;
+            this.nullable = true;
+            this.first = child.first;
+            this.last = child.last;
+        }
+
+        @Override
+        void computeFollow(long[] follow) {
+            child.computeFollow(follow);
+        }
+    }
+
+    private static final class Sequence extends Node {
+        final List<Node> children;
+
+        Sequence(List<Node> children) {
+            this.children = children;
+            this.nullable = true;
+            for (Node child : children) {
+                if (nullable) {
+                    first |= child.first;
+                }
+                nullable &= child.nullable;
+            }
+            for (int i = children.size() - 1; i >= 0; i--) {
+                last |= children.get(i).last;
+                if (!children.get(i).nullable) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        void computeFollow(long[] follow) {
+            for (Node child : children) {
+                child.computeFollow(follow);
+            }
+            //Whatever can end a child is followed by whatever can start the next children, up to the first one that cannot be skipped
+            for (int i = 0; i < children.size(); i++) {
+                long next = 0;
+                for (int j = i + 1; j < children.size(); j++) {
+                    next |= children.get(j).first;
+                    if (!children.get(j).nullable) {
+                        break;
+                    }
+                }
+                long ends = children.get(i).last;
+                while (ends != 0) {
+                    int position = Long.numberOfTrailingZeros(ends);
+                    follow[position] |= next;
+                    ends &= ends - 1;
+                }
+            }
+        }
+    }
+
+    private static final class Alternation extends Node {
+        final List<Node> children;
+
+        Alternation(List<Node> children) {
+            this.children = children;
+            for (Node child : children) {
+                nullable |= child.nullable;
+                first |= child.first;
+                last |= child.last;
+            }
+        }
+
+        @Override
+        void computeFollow(long[] follow) {
+            for (Node child : children) {
+                child.computeFollow(follow);
+            }
+        }
+    }
+
+    /**
+     * Recursive descent parser, allocating one position per symbol (or per alternation of symbols)
+     */
+    private static final class Parser {
+        private final String pattern;
+        private int index = 0;
+        final List<long[]> opcodeSets = new ArrayList<>();
+
+        Parser(String pattern) {
+            this.pattern = pattern;
+        }
+
+        boolean hasMore() {
+            skipSpaces();
+            return index < pattern.length();
+        }
+
+        char peek() {
+            skipSpaces();
+            return pattern.charAt(index);
+        }
+
+        private void skipSpaces() {
+            while (index < pattern.length() && Character.isWhitespace(pattern.charAt(index))) {
+                index++;
+            }
+        }
+
+        Node parseAlternation() {
+            List<Node> alternatives = new ArrayList<>();
+            alternatives.add(parseSequence());
+            while (hasMore() && peek() == '|') {
+                index++;
+                alternatives.add(parseSequence());
+            }
+            if (alternatives.size() == 1) {
+                return alternatives.get(0);
+            }
+            return mergeSymbols(alternatives);
+        }
+
+        Node parseSequence() {
+            List<Node> items = new ArrayList<>();
+            while (hasMore() && peek() != '|' && peek() != ')') {
+                Node item;
+                if (peek() == '(') {
+                    index++;
+                    item = parseAlternation();
+                    if (!hasMore() || peek() != ')') {
+                        throw new IllegalArgumentException("Missing ')' in pattern: " + pattern);
+                    }
+                    index++;
+                } else {
+                    item = parseSymbol();
+                }
+                if (hasMore() && peek() == '?') {
+                    index++;
+                    item = new Optional(item);
+                }
+                items.add(item);
+            }
+            if (items.isEmpty()) {
+                throw new IllegalArgumentException("Empty alternative in pattern: " + pattern);
+            }
+            return items.size() == 1 ? items.get(0) : new Sequence(items);
+        }
+
+        Node parseSymbol() {
+            int start = index;
+            while (index < pattern.length() && (Character.isLetterOrDigit(pattern.charAt(index)) || pattern.charAt(index) == '_')) {
+                index++;
+            }
+            if (start == index) {
+                throw new IllegalArgumentException("Unexpected '" + pattern.charAt(index) + "' in pattern: " + pattern);
+            }
+            opcodeSets.add(resolve(pattern.substring(start, index)));
+            return new Symbol(opcodeSets.size() - 1);
+        }
+
+        /**
+         * An alternation of single symbols becomes a single position accepting all their opcodes
+         */
+        Node mergeSymbols(List<Node> alternatives) {
+            for (Node alternative : alternatives) {
+                if (!(alternative instanceof Symbol)) {
+                    return new Alternation(alternatives);
+                }
+            }
+
+            int merged = Long.numberOfTrailingZeros(alternatives.get(0).first);
+            long[] opcodes = opcodeSets.get(merged);
+            for (int i = opcodeSets.size() - 1; i > merged; i--) {
+                long[] other = opcodeSets.remove(i);
+                for (int word = 0; word < opcodes.length; word++) {
+                    opcodes[word] |= other[word];
+                }
+            }
+            return new Symbol(merged);
+        }
+
+        /**
+         * Resolve a name the way InstructionFinder does: an opcode name matches that opcode only,
+         * anything else is an instruction class matching every opcode implemented by it or its subclasses
+         */
+        private long[] resolve(String name) {
+            long[] opcodes = new long[OPCODE_COUNT / Long.SIZE];
+
+            for (int opcode = 0; opcode < Constants.OPCODE_NAMES.length; opcode++) {
+                if (Constants.OPCODE_NAMES[opcode].equalsIgnoreCase(name)) {
+                    opcodes[opcode >> 6] |= 1L << opcode;
+                    return opcodes;
+                }
+            }
+
+            Class<?> type;
+            try {
+                type = Class.forName("org.apache.bcel.generic." + name);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Unknown instruction '" + name + "' in pattern: " + pattern);
+            }
+
+            boolean any = false;
+            for (int opcode = 0; opcode < Constants.OPCODE_NAMES.length; opcode++) {
+                Class<?> instructionClass = instructionClass(opcode);
+                if (instructionClass != null && type.isAssignableFrom(instructionClass)) {
+                    opcodes[opcode >> 6] |= 1L << opcode;
+                    any = true;
+                }
+            }
+            if (!any) {
+                throw new IllegalArgumentException("'" + name + "' is not an instruction in pattern: " + pattern);
+            }
+            return opcodes;
+        }
+
+        private static Class<?> instructionClass(int opcode) {
+            Instruction instruction = InstructionConstants.INSTRUCTIONS[opcode];
+            if (instruction != null) {
+                return instruction.getClass();
+            }
+            String name = Constants.OPCODE_NAMES[opcode].toUpperCase();
+            try {
+                return Class.forName("org.apache.bcel.generic." + name);
+            } catch (ClassNotFoundException e) {
+                //Short forms such as iload_1 and iconst_m1 are implemented by ILOAD and ICONST
+            }
+            if (name.indexOf('_') > 0) {
+                try {
+                    return Class.forName("org.apache.bcel.generic." + name.substring(0, name.lastIndexOf('_')));
+                } catch (ClassNotFoundException e) {
+                    //Fall through
+                }
+            }
+            return null; //Unused opcodes and pseudo instructions
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package comp207p.main.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Read the header of a class file without parsing the whole class.
+ * The folder writes every class it optimises as a version 50 class, so classes that would not be valid at
+ * that version are passed through unchanged instead.
+ */
+public class ClassFiles {
+
+    //Highest class file version handled: later versions add nestmates and other attributes a version 50
+    //class cannot express
+    public static final int MAX_MAJOR_VERSION = 52;
+
+    private ClassFiles() {
+    }
+
+    /**
+     * Classes newer than Java 8, interfaces (which may have default methods) and classes using invokedynamic,
+     * method handle or module constants are not optimised.
+     * @param b Class file bytes
+     * @return true if the class can be optimised
+     */
+    public static boolean isSupported(byte[] b) {
+        try {
+            if (u2(b, 6) > MAX_MAJOR_VERSION) {
+                return false;
+            }
+            int[] offsets = scanConstantPool(b, false);
+            if (offsets == null) {
+                return false;
+            }
+            int accessFlags = u2(b, offsets[offsets.length - 1]);
+            return (accessFlags & 0x0200) == 0; //ACC_INTERFACE
+        } catch (ArrayIndexOutOfBoundsException | IOException e) {
+            return false; //Truncated or malformed class, let the JVM report it
+        }
+    }
+
+    /**
+     * @param b Class file bytes
+     * @return Name of the class, with dots between packages
+     * @throws IOException If the class file is truncated or malformed
+     */
+    public static String getClassName(byte[] b) throws IOException {
+        try {
+            int[] offsets = scanConstantPool(b, true);
+            int thisClass = u2(b, offsets[offsets.length - 1] + 2);
+            int name = u2(b, offsets[thisClass] + 1);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(b, offsets[name] + 1, b.length));
+            return in.readUTF().replace('/', '.');
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Truncated class file", e);
+        }
+    }
+
+    /**
+     * @param modern Whether to step over the constants added after Java 6 rather than give up at them
+     * @return Offset of each constant pool entry by index, followed by the offset of the access flags after
+     * the pool, or null if the pool holds a constant a version 50 class cannot have and modern is false
+     * @throws IOException If the pool holds a constant of an unknown kind
+     */
+    private static int[] scanConstantPool(byte[] b, boolean modern) throws IOException {
+        int count = u2(b, 8);
+        int[] offsets = new int[count + 1];
+        int p = 10;
+        for (int i = 1; i < count; i++) {
+            offsets[i] = p;
+            switch (b[p]) {
+                case 1: //Utf8
+                    p += 3 + u2(b, p + 1);
+                    break;
+                case 3: //Integer
+                case 4: //Float
+                case 9: //Fieldref
+                case 10: //Methodref
+                case 11: //InterfaceMethodref
+                case 12: //NameAndType
+                    p += 5;
+                    break;
+                case 5: //Long
+                case 6: //Double
+                    p += 9;
+                    i++; //Takes two entries
+                    break;
+                case 7: //Class
+                case 8: //String
+                    p += 3;
+                    break;
+                case 15: //MethodHandle
+                    if (!modern) {
+                        return null;
+                    }
+                    p += 4;
+                    break;
+                case 16: //MethodType
+                case 19: //Module
+                case 20: //Package
+                    if (!modern) {
+                        return null;
+                    }
+                    p += 3;
+                    break;
+                case 17: //Dynamic
+                case 18: //InvokeDynamic
+                    if (!modern) {
+                        return null;
+                    }
+                    p += 5;
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag " + b[p]);
+            }
+        }
+        offsets[count] = p;
+        return offsets;
+    }
+
+    private static int u2(byte[] b, int p) {
+        return ((b[p] & 0xff) << 8) | (b[p + 1] & 0xff);
+    }
+}
@@ -37,25 +37,21 @@ public class ComparisonChecker {
 
     /**
      * Comparison for non-integers by checking the type of comparison
-     * After identifying the type, compares the values, and returns 1 or -1 accordingly (includes 0 for long compare)
+     * After identifying the type, compares the values, and returns 1, 0 or -1 accordingly
      * @param comparison Comparison type such as DCMPG
      * @param leftValue Left value of the comparison
      * @param rightValue Right value of the comparison
      * @return Comparison result
      */
     public static int checkFirstComparison(InstructionHandle comparison, Number leftValue, Number rightValue) {
-        if (comparison.getInstruction() instanceof DCMPG) { //if double 1 greater than double 2
-            if (leftValue.doubleValue() > rightValue.doubleValue()) return 1;
-            else return -1;
-        } else if (comparison.getInstruction()  instanceof DCMPL) { //if double 1 less than double 2
-            if (leftValue.doubleValue() < rightValue.doubleValue()) return -1;
-            else return 1;
-        } else if (comparison.getInstruction()  instanceof FCMPG) { //if float 1 greater than float 2
-            if (leftValue.floatValue() > rightValue.floatValue()) return 1;
-            else return -1;
-        } else if (comparison.getInstruction()  instanceof FCMPL) { //if float 1 less than float 2
-            if (leftValue.floatValue() < rightValue.floatValue()) return -1;
-            else return 1;
+        if (comparison.getInstruction() instanceof DCMPG) { //NaN compares as greater
+            return compareFloating(leftValue.doubleValue(), rightValue.doubleValue(), 1);
+        } else if (comparison.getInstruction()  instanceof DCMPL) { //NaN compares as less
+            return compareFloating(leftValue.doubleValue(), rightValue.doubleValue(), -1);
+        } else if (comparison.getInstruction()  instanceof FCMPG) {
+            return compareFloating(leftValue.floatValue(), rightValue.floatValue(), 1);
+        } else if (comparison.getInstruction()  instanceof FCMPL) {
+            return compareFloating(leftValue.floatValue(), rightValue.floatValue(), -1);
         } else if (comparison.getInstruction()  instanceof LCMP) { //long comparison, 0 if equal, 1 if long 1 greater than long 2, -1 if long 1 less than long 2
             if (leftValue.longValue() == rightValue.longValue()) return 0;
             else if (leftValue.longValue() > rightValue.longValue()) return 1;
@@ -65,6 +61,18 @@ public class ComparisonChecker {
         }
     }
 
+    /**
+     * Float or double comparison the way the JVM does it: -0.0 equals 0.0, and NaN is unordered
+     * @param nan Result when either value is NaN
+     * @return 0 if equal, 1 if the left value is greater, -1 if it is less
+     */
+    private static int compareFloating(double leftValue, double rightValue, int nan) {
+        if (Double.isNaN(leftValue) || Double.isNaN(rightValue)) return nan;
+        else if (leftValue == rightValue) return 0;
+        else if (leftValue > rightValue) return 1;
+        else return -1;
+    }
+
     /**
      * If comparison
      * After identifying the type of if comparison, compares the values, and returns 1 or 0 accordingly
@@ -35,13 +35,19 @@ public class ConstantPoolInserter {
      * @param poolIndex
      */
     public static void replaceInstructionHandleWithLoadConstant(InstructionHandle h, String type, int poolIndex) {
-        //Set left constant handle to point to new index
+        h.setInstruction(loadConstant(type, poolIndex));
+    }
+
+    /**
+     * @param type Signature of the constant
+     * @param poolIndex Index of the constant in the pool
+     * @return Instruction loading the constant
+     */
+    public static CPInstruction loadConstant(String type, int poolIndex) {
         if (type.equals("F") || type.equals("I") || type.equals("S")) { //Float, short or integer
-            LDC newInstruction = new LDC(poolIndex);
-            h.setInstruction(newInstruction);
+            return new LDC(poolIndex);
         } else { //Types larger than integer use LDC2_W
-            LDC2_W newInstruction = new LDC2_W(poolIndex);
-            h.setInstruction(newInstruction);
+            return new LDC2_W(poolIndex);
         }
     }
 
@@ -1,80 +1,45 @@
 package comp207p.main.utils;
 
+import comp207p.main.analysis.BasicBlock;
+import comp207p.main.analysis.ControlFlowGraph;
+import comp207p.main.analysis.ReachingDefinitions;
+import comp207p.main.analysis.ReachingDefinitions.Definition;
 import org.apache.bcel.generic.*;
 
 public class DynamicVariableChecker {
-    public static boolean checkDynamicVariable(InstructionHandle h, InstructionList list) {
-        if (checkIfCondition(h, list) || checkForLoop(h, list)) {
-            return true;
-        } else {
-            return false;
-        }
+    /**
+     * Check whether the value of a loaded variable can depend on the path taken to the load
+     * @param h Load instruction
+     * @param definitions Reaching definitions of the method
+     * @return true if the variable should not be folded
+     */
+    public static boolean checkDynamicVariable(InstructionHandle h, ReachingDefinitions definitions) {
+        return checkIfCondition(h, definitions) || checkForLoop(h, definitions);
     }
 
-    public static boolean checkIfCondition(InstructionHandle h, InstructionList list) {
-        Instruction checkingInstruction = h.getInstruction();
-        Instruction currentInstruction, currentSubInstruction;
-        InstructionHandle handleIterator = h;
-        while(handleIterator != null) {
-            try {
-                handleIterator = handleIterator.getPrev();
-                currentInstruction = handleIterator.getInstruction();
-                if (currentInstruction instanceof StoreInstruction 
-                    && ((StoreInstruction)currentInstruction).getIndex() == ((LoadInstruction)checkingInstruction).getIndex()) {
-                    InstructionHandle subIterator = handleIterator;
-                    while (subIterator != null) {
-                        subIterator = subIterator.getPrev();
-                        currentSubInstruction = subIterator.getInstruction();
-                        if (currentSubInstruction instanceof BranchInstruction) {
-                            if (((BranchInstruction) currentSubInstruction).getTarget().getPosition() > handleIterator.getPosition()) {
-                                return true;
-                            } else {
-                                return false;
-                            }
-                        } 
-                    }
-                }
-            } catch (NullPointerException e) {
-                break;
+    /**
+     * A store that does not dominate the load only happens on some paths to it, e.g. inside an if
+     */
+    public static boolean checkIfCondition(InstructionHandle h, ReachingDefinitions definitions) {
+        ControlFlowGraph cfg = definitions.getControlFlowGraph();
+        BasicBlock use = cfg.getBlock(h);
+        for (Definition d : definitions.getDefinitions(h)) {
+            if (!d.isParameter() && !cfg.dominates(cfg.getBlock(d.getHandle()), use)) {
+                return true;
             }
         }
 
         return false;
     }
 
-    public static boolean checkForLoop(InstructionHandle h, InstructionList list) {
-        Instruction checkingInstruction = h.getInstruction();
-        Instruction currentInstruction, previousInstruction, currentSubInstruction;
-        InstructionHandle handleIterator = list.getStart();
-        while(handleIterator != null) {
-            try {
-                handleIterator = handleIterator.getNext();
-                currentInstruction = handleIterator.getInstruction();
-                previousInstruction = handleIterator.getPrev().getInstruction();
-                if (currentInstruction instanceof GotoInstruction
-                        && (previousInstruction instanceof IINC
-                        || previousInstruction instanceof StoreInstruction)
-                        && (handleIterator.getPosition() > ((BranchInstruction) currentInstruction).getTarget().getPosition())) {
-                    if (((BranchInstruction) currentInstruction).getTarget().getInstruction().equals(checkingInstruction)) {
-                        return true;
-                    }
-                    InstructionHandle subIterator = handleIterator;
-                    while (subIterator != null) {
-                        subIterator = subIterator.getPrev();
-                        currentSubInstruction = subIterator.getInstruction();
-                        if (currentSubInstruction instanceof StoreInstruction) {
-                            if (((StoreInstruction)currentSubInstruction).getIndex() == ((LoadInstruction)checkingInstruction).getIndex()) {
-                                return true;
-                            }
-                        } else {
-                            if (subIterator.equals((InstructionHandle) ((BranchInstruction)handleIterator.getInstruction()).getTarget())) {
-                                break;
-                            }
-                        }
-                    }
-                }
-            } catch (NullPointerException e) {
-                break;
+    /**
+     * A store inside a loop can run more than once, e.g. the counter of a for loop
+     */
+    public static boolean checkForLoop(InstructionHandle h, ReachingDefinitions definitions) {
+        ControlFlowGraph cfg = definitions.getControlFlowGraph();
+        for (Definition d : definitions.getDefinitions(h)) {
+            if (!d.isParameter() && cfg.isInLoop(d.getHandle())) {
+                return true;
             }
         }
 
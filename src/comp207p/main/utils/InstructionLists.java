@@ -0,0 +1,69 @@
+package comp207p.main.utils;
+
+import org.apache.bcel.generic.*;
+
+import java.lang.reflect.Field;
+
+/**
+ * Instruction list operations that are safe while other threads fold other classes.
+ * BCEL recycles instruction handles through static free lists that are not synchronised: deleting
+ * instructions puts their handles on the lists and creating handles takes them off again. Two threads doing
+ * either at once can hand the same handle to two lists, and a recycled handle no longer looks deleted to
+ * the analyses that kept it. So deletes empty the free lists again before releasing LOCK, and every
+ * operation that creates handles holds LOCK too; the folds themselves run in parallel.
+ */
+public class InstructionLists {
+
+    public static final Object LOCK = new Object();
+
+    //Heads of BCEL's free lists, null if this BCEL version does not have them
+    private static final Field[] FREE_LISTS = {
+            freeList(InstructionHandle.class, "ih_list"),
+            freeList(BranchHandle.class, "bh_list")
+    };
+
+    /**
+     * @param code Bytecode of a method
+     * @return Instruction list of the bytecode
+     */
+    public static InstructionList parse(byte[] code) {
+        synchronized (LOCK) {
+            return new InstructionList(code);
+        }
+    }
+
+    /**
+     * Delete the instructions from one handle to another, inclusive. The deleted handles are never reused.
+     */
+    public static void delete(InstructionList instructionList, InstructionHandle from, InstructionHandle to) throws TargetLostException {
+        synchronized (LOCK) {
+            try {
+                instructionList.delete(from, to);
+            } finally {
+                clearFreeLists();
+            }
+        }
+    }
+
+    private static void clearFreeLists() {
+        for (Field field : FREE_LISTS) {
+            if (field != null) {
+                try {
+                    field.set(null, null);
+                } catch (IllegalAccessException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }
+    }
+
+    private static Field freeList(Class<?> handleClass, String name) {
+        try {
+            Field field = handleClass.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            return null; //Handles are not pooled
+        }
+    }
+}
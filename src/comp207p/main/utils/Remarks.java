@@ -0,0 +1,198 @@
+package comp207p.main.utils;
+
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.TargetLostException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Optimisation remarks: one event for every fold applied or rejected, plus debug dumps.
+ * Nothing is printed by default. Every event method returns straight away when its level is disabled and
+ * takes the objects to describe rather than a formatted message, so a disabled event formats nothing.
+ * Callers with expensive arguments (e.g. instruction dumps) check isDebugEnabled first.
+ */
+public class Remarks {
+
+    public enum Level {
+        QUIET,   //Nothing on stdout
+        REMARKS, //One line per fold applied or rejected
+        DEBUG    //Remarks plus constant pool and instruction dumps
+    }
+
+    private static volatile Level level = Level.QUIET;
+
+    //Machine-readable trace, one JSON object per line, written whatever the level is
+    private static final Object traceLock = new Object();
+    private static Writer trace = null;
+    private static volatile boolean tracing = false;
+
+    /**
+     * @param consoleLevel What to print on stdout
+     * @param traceFile File to write every remark to as JSON lines, or null for no trace
+     */
+    public static void configure(Level consoleLevel, Path traceFile) throws IOException {
+        close();
+        level = consoleLevel;
+        if (traceFile != null) {
+            synchronized (traceLock) {
+                trace = new BufferedWriter(Files.newBufferedWriter(traceFile, StandardCharsets.UTF_8));
+                tracing = true;
+            }
+        }
+    }
+
+    /**
+     * Flush and close the trace file, if there is one
+     */
+    public static void close() throws IOException {
+        synchronized (traceLock) {
+            tracing = false;
+            if (trace != null) {
+                trace.close();
+                trace = null;
+            }
+        }
+    }
+
+    public static boolean isEnabled(Level l) {
+        return level.compareTo(l) >= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return level == Level.DEBUG;
+    }
+
+    /**
+     * A fold was applied
+     * @param pass Name of the fold, e.g. "arithmetic"
+     * @param className Class being optimised
+     * @param method Method being optimised
+     * @param at First instruction of the folded sequence
+     * @param result Value the sequence was folded to
+     */
+    public static void applied(String pass, String className, Method method, InstructionHandle at, Object result) {
+        if (level == Level.QUIET && !tracing) {
+            return;
+        }
+        event("applied", pass, className, method, at, String.valueOf(result));
+    }
+
+    /**
+     * A pass changed the method, described by a message formatted only when the event is printed or traced
+     * @param pass Name of the pass, e.g. "peephole"
+     * @param className Class being optimised
+     * @param method Method being optimised
+     * @param at First instruction changed, or null for the whole method
+     * @param format Format of what was changed, as for String.format
+     * @param args Arguments of the format
+     */
+    public static void applied(String pass, String className, Method method, InstructionHandle at, String format, Object... args) {
+        if (level == Level.QUIET && !tracing) {
+            return;
+        }
+        event("applied", pass, className, method, at, String.format(format, args));
+    }
+
+    /**
+     * A fold matched but could not be applied
+     * @param pass Name of the fold, e.g. "comparison"
+     * @param className Class being optimised
+     * @param method Method being optimised
+     * @param at First instruction of the matched sequence
+     * @param format Format of why the fold was rejected, as for String.format
+     * @param args Arguments of the format
+     */
+    public static void rejected(String pass, String className, Method method, InstructionHandle at, String format, Object... args) {
+        if (level == Level.QUIET && !tracing) {
+            return;
+        }
+        event("rejected", pass, className, method, at, args.length == 0 ? format : String.format(format, args));
+    }
+
+    /**
+     * A pass deleted instructions that a branch or exception handler still targets, so the method is broken.
+     * This is a bug in the pass rather than a fold that did not apply, so it goes to stderr when remarks are off
+     * @param pass Name of the pass, e.g. "peephole"
+     * @param className Class being optimised
+     * @param method Method being optimised
+     * @param e Exception thrown by the deletion, naming the lost targets
+     */
+    public static void targetsLost(String pass, String className, Method method, TargetLostException e) {
+        InstructionHandle[] targets = e.getTargets();
+        InstructionHandle at = targets.length == 0 ? null : targets[0];
+        String detail = targets.length + " deleted instruction(s) still targeted";
+        if (!isEnabled(Level.REMARKS)) {
+            System.err.format("%s lost targets: %s.%s%s @%d: %s\n", pass, className, method.getName(),
+                    method.getSignature(), at == null ? -1 : at.getPosition(), detail);
+        }
+        event("lost targets", pass, className, method, at, detail);
+    }
+
+    /**
+     * Progress message, printed from the REMARKS level up
+     */
+    public static void info(String format, Object... args) {
+        if (isEnabled(Level.REMARKS)) {
+            System.out.format(format + "\n", args);
+        }
+    }
+
+    /**
+     * Debug message, printed at the DEBUG level only
+     */
+    public static void debug(String format, Object... args) {
+        if (level == Level.DEBUG) {
+            System.out.format(format + "\n", args);
+        }
+    }
+
+    private static void event(String event, String pass, String className, Method method, InstructionHandle at, String detail) {
+        String methodName = method.getName() + method.getSignature();
+        int position = at == null ? -1 : at.getPosition();
+
+        if (isEnabled(Level.REMARKS)) {
+            System.out.format("%s %s: %s.%s @%d: %s\n", pass, event, className, methodName, position, detail);
+        }
+
+        if (tracing) {
+            String line = "{\"event\":" + quote(event)
+                    + ",\"pass\":" + quote(pass)
+                    + ",\"class\":" + quote(className)
+                    + ",\"method\":" + quote(methodName)
+                    + ",\"position\":" + position
+                    + ",\"detail\":" + quote(detail) + "}\n";
+            synchronized (traceLock) {
+                if (trace == null) {
+                    return;
+                }
+                try {
+                    trace.write(line);
+                } catch (IOException e) {
+                    System.err.format("Could not write optimisation trace: %s\n", e);
+                    tracing = false;
+                }
+            }
+        }
+    }
+
+    private static String quote(String s) {
+        StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
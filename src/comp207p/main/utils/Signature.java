@@ -4,7 +4,7 @@ import org.apache.bcel.generic.*;
 
 public class Signature {
     /**
-     * Get the signature of a load instruction, e.g. iload_1 would return String "I"
+     * Get the signature of a typed instruction, e.g. iload_1 would return String "I"
      * @param h The load instruction fetch the value from
      * @param cpgen Constant pool of the class
      * @return Load instruction value signature
@@ -15,20 +15,6 @@ public class Signature {
             throw new RuntimeException("InstructionHandle has to be of type TypedInstruction instead got: " + instruction.getClass());
         }
 
-        if(instruction instanceof LoadInstruction) {
-            int localVariableIndex = ((LocalVariableInstruction) instruction).getIndex();
-
-            InstructionHandle handleIterator = h;
-            while (!(instruction instanceof StoreInstruction) || ((StoreInstruction) instruction).getIndex() != localVariableIndex) {
-                handleIterator = handleIterator.getPrev();
-                instruction = handleIterator.getInstruction();
-            }
-
-            //Go back previous one more additional time to fetch constant push instruction
-            handleIterator = handleIterator.getPrev();
-            instruction = handleIterator.getInstruction();
-        }
-
         return ((TypedInstruction)instruction).getType(cpgen).getSignature();
     }
 
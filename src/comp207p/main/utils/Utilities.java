@@ -1,6 +1,8 @@
 package comp207p.main.utils;
 
+import comp207p.main.analysis.ReachingDefinitions;
 import comp207p.main.exceptions.UnableToFetchValueException;
+import comp207p.main.pattern.InstructionPattern;
 import org.apache.bcel.classfile.Constant;
 import org.apache.bcel.classfile.ConstantPool;
 import org.apache.bcel.classfile.ConstantString;
@@ -9,7 +11,7 @@ import org.apache.bcel.generic.*;
 
 public class Utilities {
     /**
-     * Print out constants for debugging
+     * Print out constants for debugging, at the debug level
      * @param cp Constant Pool
      */
     public static void printConstants(ConstantPool cp) {
@@ -18,24 +20,28 @@ public class Utilities {
         for(Constant c : constants) {
             if((c == null) || (c instanceof ConstantString) || (c instanceof ConstantUtf8)) continue; //ignore these constant types
 
-            System.out.println(c);
+            Remarks.debug("%s", c);
 
             constantCount++;
         }
 
-        System.out.format("Total constants: %d\n", constantCount);
+        Remarks.debug("Total constants: %d", constantCount);
     }
 
-    public static void printInstructionHandles(InstructionHandle[] handles, ConstantPoolGen cpgen, InstructionList list, String type) {
-        for(InstructionHandle h : handles) {
+    /**
+     * Print a matched instruction sequence and the values of its loads for debugging, at the debug level
+     */
+    public static void printInstructionHandles(InstructionPattern.Matcher match, ConstantPoolGen cpgen, ReachingDefinitions definitions, String type) {
+        for(int i = 0; i < match.length(); i++) {
+            InstructionHandle h = match.get(i);
             if(h.getInstruction() instanceof LoadInstruction || h.getInstruction() instanceof LDC2_W) {
                 try {
-                    System.out.format("%s | Val: %s\n", h, ValueLoader.getValue(h, cpgen, list, type));
+                    Remarks.debug("%s | Val: %s", h, ValueLoader.getValue(h, cpgen, definitions, type));
                 } catch (UnableToFetchValueException e) {
-                    System.out.format("%s | Val: Could not get\n", h);
+                    Remarks.debug("%s | Val: Could not get", h);
                 }
             } else {
-                System.out.println(h);
+                Remarks.debug("%s", h);
             }
         }
     }
@@ -75,17 +81,21 @@ public class Utilities {
             return left.longValue() | right.longValue();
         } else if(operation instanceof IXOR || operation instanceof LXOR){
             return left.longValue() ^ right.longValue();
-        } else if(operation instanceof ISHL || operation instanceof LSHL){
-            return left.longValue() << right.longValue();
-        } else if(operation instanceof ISHR || operation instanceof LSHR){
-            return left.longValue() >> right.longValue();
+        //Shifts only use the low 5 bits of an int distance and the low 6 bits of a long one
+        } else if(operation instanceof ISHL){
+            return left.intValue() << right.intValue();
+        } else if(operation instanceof LSHL){
+            return left.longValue() << right.intValue();
+        } else if(operation instanceof ISHR){
+            return left.intValue() >> right.intValue();
+        } else if(operation instanceof LSHR){
+            return left.longValue() >> right.intValue();
+        } else if(operation instanceof IUSHR){
+            return left.intValue() >>> right.intValue();
+        } else if(operation instanceof LUSHR){
+            return left.longValue() >>> right.intValue();
         } else {
             throw new RuntimeException("Not supported operation");
         }
     }
-
-    public static void printDynamicVariableDetected() {
-        System.out.println("Possible Dynamic Variable detected. No folding will occur.");
-        System.out.println("==================================");
-    }
 }
@@ -1,5 +1,6 @@
 package comp207p.main.utils;
 
+import comp207p.main.analysis.ReachingDefinitions;
 import comp207p.main.exceptions.UnableToFetchValueException;
 import org.apache.bcel.generic.*;
 
@@ -9,12 +10,14 @@ public class ValueLoader {
      * Get value for any instruction handle that pushes a value onto the stack
      * @param h The load instruction fetch the value from
      * @param cpgen Constant pool of the class
+     * @param definitions Reaching definitions of the method
+     * @param type Signature of the value being folded
      * @return Instruction handle value
      */
-    public static Number getValue(InstructionHandle h, ConstantPoolGen cpgen, InstructionList list, String type) throws UnableToFetchValueException {
+    public static Number getValue(InstructionHandle h, ConstantPoolGen cpgen, ReachingDefinitions definitions, String type) throws UnableToFetchValueException {
         Instruction instruction = h.getInstruction();
         if(instruction instanceof LoadInstruction) {
-            return ValueLoader.getLoadInstructionValue(h, cpgen, list, type);
+            return ValueLoader.getLoadInstructionValue(h, definitions, type);
         } else {
             return ValueLoader.getConstantValue(h, cpgen);
         }
@@ -45,63 +48,28 @@ public class ValueLoader {
     /**
      * Get the value of a load instruction, e.g. iload_2
      * @param h The load instruction fetch the value from
-     * @param cpgen Constant pool of the class
+     * @param definitions Reaching definitions of the method
+     * @param type Signature of the value being folded
      * @return Load instruction value
      */
-    public static Number getLoadInstructionValue(InstructionHandle h, ConstantPoolGen cpgen, InstructionList list, String type) throws UnableToFetchValueException {
+    public static Number getLoadInstructionValue(InstructionHandle h, ReachingDefinitions definitions, String type) throws UnableToFetchValueException {
         Instruction instruction = h.getInstruction();
         if(!(instruction instanceof LoadInstruction)) {
             throw new RuntimeException("InstructionHandle has to be of type LoadInstruction");
         }
 
-        int localVariableIndex = ((LocalVariableInstruction) instruction).getIndex();
-
-        InstructionHandle handleIterator = h;
-        int incrementAccumulator = 0;
-        while(!(instruction instanceof StoreInstruction) || ((StoreInstruction) instruction).getIndex() != localVariableIndex) {
-
-            //If there is an IINC while scanning, we need to accumulate that on top of the ISTORE value
-            if(instruction instanceof IINC) {
-                IINC increment = (IINC) instruction;
-
-                if(increment.getIndex() == localVariableIndex) {
-                    System.out.println("Found increment instruction");
-
-                    //If it's in a for loop, we cannot get the value
-                    if(DynamicVariableChecker.checkDynamicVariable(h, list)) {
-                        throw new UnableToFetchValueException("IINC in for loop");
-                    }
-
-                    System.out.format("%s | Incrementing by %d | Index: %d\n\n", increment, increment.getIncrement(), increment.getIndex());
-                    incrementAccumulator += increment.getIncrement();
-                }
-            }
-
-            handleIterator = handleIterator.getPrev();
-            instruction = handleIterator.getInstruction();
-        }
-
-        //Go back previous one more additional time to fetch constant push instruction
-        handleIterator = handleIterator.getPrev();
-        instruction = handleIterator.getInstruction();
-
-        Number storeValue;
-        if(instruction instanceof ConstantPushInstruction) {
-            storeValue = ((ConstantPushInstruction) instruction).getValue();
-        } else if (instruction instanceof LDC) {
-            storeValue = (Number) ((LDC) instruction).getValue(cpgen);
-        } else if (instruction instanceof LDC2_W) {
-            storeValue = ((LDC2_W) instruction).getValue(cpgen);
-        } else {
-            throw new UnableToFetchValueException("Cannot fetch value for this type of object");
+        //Every store reaching the load has to agree on the same constant
+        Number storeValue = definitions.getConstantValue(h);
+        if(storeValue == null) {
+            throw new UnableToFetchValueException("Local variable does not hold a single constant");
         }
 
         switch (type) {
             case "F":
             case "D":
-                return Utilities.foldOperation(new DADD(), storeValue, incrementAccumulator);
+                return storeValue.doubleValue();
             default:
-                return Utilities.foldOperation(new LADD(), storeValue, incrementAccumulator);
+                return storeValue.longValue();
         }
     }
 }
@@ -0,0 +1,73 @@
+package comp207p.target;
+
+public class Algebraic {
+    private int calls = 0;
+
+    private int next() {
+        return ++calls;
+    }
+
+    public int getCalls() {
+        return calls;
+    }
+
+    public int timesMinusEight(int x) {
+        return x * -8;
+    }
+
+    public long timesMinusEightLong(long x) {
+        return x * -8L;
+    }
+
+    public int timesSixteen(int x) {
+        return x * 16 + 16 * x;
+    }
+
+    public long timesMinValue(long x) {
+        return x * Long.MIN_VALUE;
+    }
+
+    public int timesZeroStillCalls() {
+        return next() * 0 + calls;
+    }
+
+    public long timesZeroLong(long x) {
+        return x * 0L + (x & 0L);
+    }
+
+    public int sameOperands(int x) {
+        return (x - x) + (x ^ x) + (x & x) + (x | x);
+    }
+
+    public long sameOperandsLong(long x) {
+        return (x - x) + (x ^ x) + (x & x);
+    }
+
+    public int divideByMinusOne(int x) {
+        return x / -1;
+    }
+
+    public long divideByMinusOneLong(long x) {
+        return x / -1L;
+    }
+
+    public int remainderOfOne(int x) {
+        return x % 1 + x % -1;
+    }
+
+    public int identities(int x) {
+        return (x + 0) * 1 / 1 - 0 | 0;
+    }
+
+    public double timesZeroDouble(double x) {
+        return x * 0.0;
+    }
+
+    public float plusZeroFloat(float x) {
+        return x + 0.0f;
+    }
+
+    public double minusZeroDouble(double x) {
+        return x - 0.0;
+    }
+}
@@ -7,4 +7,20 @@ public class BitShifting {
 
         return a + b;
     }
+
+    public long unsigned() {
+        int a = -16;
+        long b = -16L;
+        int c = a >>> 2;
+        long d = b >>> 3;
+
+        return c + d;
+    }
+
+    public int distance() {
+        int a = 1;
+        int b = a << 33; //Only the low 5 bits of the distance count
+
+        return b;
+    }
 }
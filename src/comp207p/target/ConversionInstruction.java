@@ -8,4 +8,17 @@ public class ConversionInstruction {
         int c = a + b;
         return c;
     }
+
+    public int mixed(int x) {
+        int a = -(-5);
+        long b = -(3L);
+        double c = -(2.5);
+        return a + (int) b + (int) c + x;
+    }
+
+    public int saturated() {
+        int a = 7;
+        double big = 1e10;
+        return a + (int) big;
+    }
 }
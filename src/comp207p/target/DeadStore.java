@@ -0,0 +1,73 @@
+package comp207p.target;
+
+public class DeadStore {
+    private int calls = 0;
+
+    private int next() {
+        calls++;
+        return calls * 10;
+    }
+
+    public int overwritten(int x) {
+        int a = 5;
+        a = x * 2;
+        return a;
+    }
+
+    public int liveIntoHandler(int[] values) {
+        int a = 1;
+        try {
+            a = 2; //Read by the handler if the next line throws
+            values[3] = 4;
+            a = 3;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return a;
+        }
+        return a;
+    }
+
+    public int sideEffect() {
+        int a = next(); //The call stays even though a is overwritten
+        a = 4;
+        return a + calls;
+    }
+
+    public long wideLocals(long x) {
+        long a = 7L;
+        double d = 1.5;
+        long unused = x + 1;
+        long b = a * 2;
+        d = d * 2;
+        return b + (long) d + x;
+    }
+
+    public double renumbered(int x, double y) {
+        long a = 1L;
+        int b = 2;
+        double c = 3.0;
+        a = x;
+        c = y;
+        int e = x + b;
+        return a + c + e;
+    }
+
+    public int wideIncrement(int n) {
+        long unused = n * 2L; //Removed, so x moves down into its slots
+        int x = 0;
+        for (int i = 0; i < n; i++) {
+            x += 1000; //iinc with a wide constant
+        }
+        return x;
+    }
+
+    public int renumberedIntoHandler(int[] values) {
+        double unused = values.length * 0.5;
+        int a = values.length;
+        try {
+            a = values[1];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return -a;
+        }
+        return a;
+    }
+}
@@ -0,0 +1,47 @@
+package comp207p.target;
+
+public class LocalCopies {
+    public int chain(int x) {
+        int a = x;
+        int b = a;
+        int c = b;
+        return c * c + a;
+    }
+
+    public int sourceChanged(int x) {
+        int a = x;
+        int b = a;
+        a = a + 5; //b still holds the old value
+        return a * 10 + b;
+    }
+
+    public int targetChanged(int x, int y) {
+        int b = x;
+        if (y > 0) {
+            b = y;
+        }
+        return b + x;
+    }
+
+    public int intoHandler(int[] values, int x) {
+        int a = x;
+        int b = 0;
+        try {
+            b = a;
+            int n = values[0];
+            b = n; //The copy only holds for the first access
+            return b + values[1];
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return b * 100 + a;
+        }
+    }
+
+    public long wideCopies(long x, double d) {
+        long a = x;
+        long b = a;
+        double e = d;
+        double f = e;
+        a = a + 1;
+        return a + b + (long) (e * f);
+    }
+}
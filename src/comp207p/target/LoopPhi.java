@@ -0,0 +1,52 @@
+package comp207p.target;
+
+public class LoopPhi {
+    public int sameOnEveryPath(int n) {
+        int x = 6;
+        for (int i = 0; i < n; i++) {
+            if (i % 2 == 0) {
+                x = 2 * 3;
+            } else {
+                x = 12 / 2;
+            }
+        }
+        return x * 7;
+    }
+
+    public long wideLocals(int n) {
+        long a = 5L << 33;
+        double d = 2.5;
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            long b = a;
+            double e = d * 4;
+            sum += b + (long) e;
+        }
+        return sum + a;
+    }
+
+    public int nestedLoops(int n) {
+        int k = 3;
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            int j = 0;
+            while (j < n) {
+                if (k > 2) {
+                    total += k;
+                } else {
+                    total -= 100;
+                }
+                j++;
+            }
+        }
+        return total;
+    }
+
+    public int changing(int n) {
+        int x = 1;
+        for (int i = 0; i < n; i++) {
+            x = x * 2; //Not a constant once the loop runs
+        }
+        return x;
+    }
+}
@@ -8,4 +8,28 @@ public class Negation {
 
         return a + 2;
     }
+
+    public int intMin() {
+        int a = Integer.MIN_VALUE;
+
+        a = -a;
+
+        return a;
+    }
+
+    public long largeLong() {
+        long a = 4611686018427387905L;
+
+        a = -a;
+
+        return a;
+    }
+
+    public float smallFloat() {
+        float a = 1.1f;
+
+        a = -a;
+
+        return a;
+    }
 }
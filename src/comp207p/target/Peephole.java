@@ -0,0 +1,44 @@
+package comp207p.target;
+
+public class Peephole {
+    private int field;
+    private long wide;
+    private int counter;
+
+    public int assignField(int v) {
+        return field = v; //dup_x1
+    }
+
+    public long assignWide(long v) {
+        return wide = v; //dup2_x1
+    }
+
+    public int increment(int[] values, int i) {
+        values[i]++; //dup2
+        return values[i];
+    }
+
+    public int storeThenLoad(int x) {
+        int y = x * 3;
+        return y;
+    }
+
+    public int storeUsedTwice(int x) {
+        int y = x * 3;
+        int z = y + 1;
+        return y * z;
+    }
+
+    public int postIncrement() {
+        int before = counter++; //dup_x1 of the old value
+        return before * 10 + counter;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    public long getWide() {
+        return wide;
+    }
+}
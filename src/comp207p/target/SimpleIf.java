@@ -9,4 +9,19 @@ public class SimpleIf {
 
         return false;
     }
+
+    public float equalFloats() {
+        float m = -0.0f;
+        float k = 0.0f;
+        if (m == k) { //-0.0 equals 0.0
+            return m;
+        }
+        return k;
+    }
+
+    public boolean nan() {
+        double q = 0.0 / 0.0;
+        double r = 1.0;
+        return q < r || q > r || q == r;
+    }
 }
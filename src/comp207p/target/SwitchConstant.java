@@ -0,0 +1,49 @@
+package comp207p.target;
+
+public class SwitchConstant {
+    public int table() {
+        int selector = 3;
+        switch (selector) {
+            case 1:
+                return 10;
+            case 2:
+                return 20;
+            case 3:
+                return 30;
+            default:
+                return -1;
+        }
+    }
+
+    public long lookup(int n) {
+        int selector = 1000;
+        long result = 0;
+        for (int i = 0; i < n; i++) {
+            switch (selector) {
+                case 7:
+                    result -= 1;
+                    break;
+                case 1000:
+                    result += 2L << 40;
+                    break;
+                default:
+                    result = 0;
+            }
+        }
+        return result;
+    }
+
+    public double fallThrough(int x) {
+        double d = 0.5;
+        switch (x) {
+            case 0:
+                d = 1.5;
+            case 1:
+                d += 1.0;
+                break;
+            default:
+                d = 0.5;
+        }
+        return d;
+    }
+}
@@ -0,0 +1,50 @@
+package comp207p.target;
+
+public class TryCatchConstant {
+    public int divideByZero() {
+        int a = 5;
+        int b = 0;
+        try {
+            return a / b;
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    public long remainderByZero() {
+        long a = 5L;
+        long b = 0L;
+        try {
+            return a % b;
+        } catch (ArithmeticException e) {
+            return -2L;
+        }
+    }
+
+    public double floatingDivideByZero() {
+        double a = 1.0;
+        double b = 0.0;
+        return a / b; //Infinity, never throws
+    }
+
+    public int liveIntoHandler(int[] values) {
+        int x = 4;
+        int y = x * 10;
+        try {
+            y = values[2];
+            x = 7;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return x + y; //Still the values from before the try block
+        }
+        return x + y;
+    }
+
+    public int guarded(int n) {
+        int d = 0;
+        int x = 0;
+        if (n > 1) {
+            x = 5 / d; //Only throws when the branch is taken
+        }
+        return x;
+    }
+}
@@ -0,0 +1,67 @@
+package comp207p.target;
+
+public class UnreachableCode {
+    private int calls = 0;
+
+    private int expensive() {
+        calls++;
+        return 100;
+    }
+
+    public int deadBranch() {
+        int k = 3;
+        if (k > 5) {
+            return expensive();
+        }
+        return k + calls;
+    }
+
+    public int deadElse(int x) {
+        int k = 3;
+        int r;
+        if (k < 5) {
+            r = x + 1;
+        } else {
+            r = expensive();
+        }
+        return r;
+    }
+
+    public int deadTryCatch(int[] values) {
+        int k = 1;
+        int r = values.length;
+        if (k < 2) {
+            return r;
+        }
+        try { //Never runs, so neither does its handler
+            r = expensive() / values[10];
+        } catch (ArithmeticException e) {
+            r = -2;
+        }
+        return r;
+    }
+
+    public int handlerStillReachable(int[] values) {
+        int k = 1;
+        try {
+            int n = values[0];
+            if (k < 2) {
+                return n + values[2];
+            }
+            return expensive();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    public int nestedDeadElse(int x) {
+        int k = 0;
+        if (x > 0) {
+            if (k == 0) {
+                return 1 + calls;
+            }
+            return expensive();
+        }
+        return 2 + calls;
+    }
+}
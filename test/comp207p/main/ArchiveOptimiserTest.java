@@ -0,0 +1,121 @@
+package comp207p.main;
+
+import comp207p.main.passes.PassManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * test optimising archives of classes the folder cannot write as version 50 classes
+ */
+public class ArchiveOptimiserTest {
+
+    private Path dir;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("archive-test");
+        pool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        pool.shutdownNow();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testModernClassesCopiedUnchanged() throws Exception
+    {
+        //Compiled for the running JDK: a lambda, an invokedynamic string concatenation and a default method
+        Path src = Files.createDirectories(dir.resolve("src"));
+        Files.write(src.resolve("Greeter.java"), ("public interface Greeter {\n"
+                + "    default String greet(String name) { return \"Hello \" + name; }\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        Files.write(src.resolve("Lambdas.java"), ("public class Lambdas implements Greeter {\n"
+                + "    public String run(int x) {\n"
+                + "        java.util.function.IntUnaryOperator twice = v -> v * 2;\n"
+                + "        return greet(\"x\" + twice.applyAsInt(x + 2 * 3));\n"
+                + "    }\n"
+                + "}\n").getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-d", src.toString(),
+                src.resolve("Greeter.java").toString(), src.resolve("Lambdas.java").toString()));
+
+        Path input = dir.resolve("in.jar");
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+            for (String name : new String[]{"Greeter.class", "Lambdas.class"}) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(Files.readAllBytes(src.resolve(name)));
+                out.closeEntry();
+            }
+        }
+
+        Path output = dir.resolve("out.jar");
+        int failures = new ArchiveOptimiser(pool, 2, null, PassManager.defaults()).optimise(input, output);
+        assertEquals(0, failures);
+
+        Map<String, byte[]> entries = readEntries(output);
+        assertEquals(2, entries.size());
+        assertArrayEquals(Files.readAllBytes(src.resolve("Greeter.class")), entries.get("Greeter.class"));
+        assertArrayEquals(Files.readAllBytes(src.resolve("Lambdas.class")), entries.get("Lambdas.class"));
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{output.toUri().toURL()}, null)) {
+            Class<?> lambdas = loader.loadClass("Lambdas");
+            Method run = lambdas.getMethod("run", int.class);
+            assertEquals("Hello x20", run.invoke(lambdas.getConstructor().newInstance(), 4));
+        }
+    }
+
+    private static Map<String, byte[]> readEntries(Path archive) throws IOException
+    {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), readAll(in));
+            }
+        }
+        return entries;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return bytes.toByteArray();
+    }
+}
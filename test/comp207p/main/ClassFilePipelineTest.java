@@ -0,0 +1,126 @@
+package comp207p.main;
+
+import comp207p.main.passes.PassManager;
+import comp207p.target.BitShifting;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test the class file pipeline writes every class, optimised or not
+ */
+public class ClassFilePipelineTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("pipeline-test");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testFailedClassCopiedUnchanged() throws IOException
+    {
+        byte[] good = classBytes();
+        //Header and access flags are intact, the rest of the class is missing
+        byte[] broken = Arrays.copyOf(good, headerLength(good) + 2);
+
+        Path in = Files.createDirectories(dir.resolve("in"));
+        Path out = dir.resolve("out");
+        Files.write(in.resolve("Good.class"), good);
+        Files.write(in.resolve("Broken.class"), broken);
+
+        int failures = new ClassFilePipeline(2, null, PassManager.defaults())
+                .run(in, out, Arrays.asList(in.resolve("Good.class"), in.resolve("Broken.class")));
+
+        assertEquals(1, failures);
+        assertArrayEquals(broken, Files.readAllBytes(out.resolve("Broken.class")));
+        assertTrue(Files.readAllBytes(out.resolve("Good.class")).length < good.length);
+    }
+
+    @Test(timeout = 60000)
+    public void testErrorsReportedWithoutBlocking() throws IOException
+    {
+        byte[] good = classBytes();
+        Path in = Files.createDirectories(dir.resolve("in"));
+        Path out = dir.resolve("out");
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 13; i++) { //More than the queues between the stages hold
+            files.add(Files.write(in.resolve("Failing" + i + ".class"), good));
+        }
+        files.add(Files.write(in.resolve("Good.class"), good));
+
+        //One worker, whose folder overflows its stack on every class but one
+        ClassFilePipeline pipeline = new ClassFilePipeline(1, null, PassManager.defaults()) {
+            @Override
+            byte[] optimise(byte[] classBytes, Path file) throws IOException {
+                if (file.getFileName().toString().startsWith("Failing")) {
+                    throw new StackOverflowError();
+                }
+                return super.optimise(classBytes, file);
+            }
+        };
+        int failures = pipeline.run(in, out, files);
+
+        assertEquals(13, failures);
+        for (int i = 0; i < 13; i++) {
+            assertArrayEquals(good, Files.readAllBytes(out.resolve("Failing" + i + ".class")));
+        }
+        assertTrue(Files.readAllBytes(out.resolve("Good.class")).length < good.length);
+    }
+
+    private static byte[] classBytes() throws IOException
+    {
+        try (InputStream in = BitShifting.class.getResourceAsStream("BitShifting.class")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * @return Length of the magic number, versions and constant pool of a class without Java 7+ constants
+     */
+    private static int headerLength(byte[] b)
+    {
+        int count = ((b[8] & 0xff) << 8) | (b[9] & 0xff);
+        int p = 10;
+        for (int i = 1; i < count; i++) {
+            switch (b[p]) {
+                case 1: p += 3 + (((b[p + 1] & 0xff) << 8) | (b[p + 2] & 0xff)); break;
+                case 5: case 6: p += 9; i++; break;
+                case 7: case 8: p += 3; break;
+                default: p += 5; break;
+            }
+        }
+        return p;
+    }
+}
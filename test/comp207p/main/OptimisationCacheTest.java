@@ -0,0 +1,164 @@
+package comp207p.main;
+
+import comp207p.main.passes.PassManager;
+import comp207p.target.BitShifting;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * test the on-disk cache of optimised classes
+ */
+public class OptimisationCacheTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("cache-test");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testKeyChangesWithPasses() throws IOException
+    {
+        byte[] bytes = classBytes();
+        Path root = dir.resolve("cache");
+        String defaults = new OptimisationCache(root, PassManager.defaults()).key(bytes);
+        String o1 = new OptimisationCache(root, new PassManager(PassManager.Level.O1,
+                Collections.<String>emptyList(), Collections.<String>emptyList())).key(bytes);
+        String noPeephole = new OptimisationCache(root, new PassManager(PassManager.Level.O2,
+                Collections.<String>emptyList(), Collections.singletonList("peephole"))).key(bytes);
+
+        assertEquals(defaults, new OptimisationCache(root, PassManager.defaults()).key(bytes));
+        assertNotEquals(defaults, o1);
+        assertNotEquals(defaults, noPeephole);
+        assertNotEquals(defaults, new OptimisationCache(root, PassManager.defaults()).key(Arrays.copyOf(bytes, bytes.length + 1)));
+    }
+
+    @Test
+    public void testEntryMadeWithOtherPassesNotReused() throws IOException
+    {
+        byte[] bytes = classBytes();
+        Path root = dir.resolve("cache");
+
+        OptimisationCache first = new OptimisationCache(root, PassManager.defaults());
+        first.optimise(bytes, "BitShifting.class");
+        OptimisationCache second = new OptimisationCache(root, new PassManager(PassManager.Level.O1,
+                Collections.<String>emptyList(), Collections.<String>emptyList()));
+        second.optimise(bytes, "BitShifting.class");
+
+        assertEquals(1, first.getMisses());
+        assertEquals(1, second.getMisses());
+        assertEquals(0, second.getHits());
+        assertEquals(2, entries(root).size());
+    }
+
+    @Test
+    public void testPutLeavesNoTemporaryFile() throws IOException
+    {
+        Path root = dir.resolve("cache");
+        OptimisationCache cache = new OptimisationCache(root, PassManager.defaults());
+        String key = cache.key(classBytes());
+
+        cache.put(key, new byte[]{1, 2, 3});
+        cache.put(key, new byte[]{4, 5});
+
+        assertTrue(cache.contains(key));
+        List<Path> files = files(root);
+        assertEquals(1, files.size());
+        assertTrue(files.get(0).toString().endsWith(".class"));
+        assertArrayEquals(new byte[]{4, 5}, Files.readAllBytes(files.get(0)));
+    }
+
+    @Test
+    public void testHitReadFromEntry() throws IOException
+    {
+        byte[] bytes = classBytes();
+        Path root = dir.resolve("cache");
+        OptimisationCache cache = new OptimisationCache(root, PassManager.defaults());
+
+        byte[] first = cache.optimise(bytes, "BitShifting.class");
+        List<Path> entries = entries(root);
+        assertEquals(1, entries.size());
+        Files.write(entries.get(0), new byte[]{1, 2, 3}); //Only a hit can return this
+        byte[] second = cache.optimise(bytes, "BitShifting.class");
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertTrue(first.length < bytes.length);
+        assertArrayEquals(new byte[]{1, 2, 3}, second);
+    }
+
+    @Test
+    public void testBrokenClassNotCached() throws IOException
+    {
+        byte[] good = classBytes();
+        Path root = dir.resolve("cache");
+        OptimisationCache cache = new OptimisationCache(root, PassManager.defaults());
+
+        try {
+            cache.optimise(Arrays.copyOf(good, good.length / 2), "Broken.class");
+            fail("A truncated class cannot be optimised");
+        } catch (IOException | RuntimeException e) {
+            //Expected, the class cannot be parsed
+        }
+
+        assertEquals(1, cache.getMisses());
+        assertTrue(files(root).isEmpty());
+    }
+
+    /**
+     * @return Every file in the cache, entries or otherwise
+     */
+    private static List<Path> files(Path root) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(root)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    private static List<Path> entries(Path root) throws IOException
+    {
+        return files(root).stream().filter(p -> p.toString().endsWith(".class")).collect(Collectors.toList());
+    }
+
+    private static byte[] classBytes() throws IOException
+    {
+        try (InputStream in = BitShifting.class.getResourceAsStream("BitShifting.class")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package comp207p.main.agent;
+
+import comp207p.main.passes.PassManager;
+import comp207p.target.BitShifting;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test which classes the agent transforms as they are loaded
+ */
+public class OptimisingTransformerTest {
+
+    private static final String NAME = "comp207p/target/BitShifting";
+
+    private OptimisingTransformer transformer;
+
+    @Before
+    public void setUp()
+    {
+        transformer = new OptimisingTransformer(Collections.<String>emptyList(), Collections.<String>emptyList(),
+                16, 60000, 1, PassManager.defaults());
+    }
+
+    @Test
+    public void testSupportedClassOptimised() throws IOException
+    {
+        byte[] original = classBytes();
+        byte[] optimised = transformer.transform(null, NAME, null, null, original);
+        assertTrue(optimised.length < original.length);
+
+        assertSame(optimised, transformer.transform(null, NAME, null, null, original));
+        assertEquals("Agent: 1 optimised, 1 from cache, 0 over budget, 0 failed, 0 skipped", transformer.summary());
+    }
+
+    @Test
+    public void testUnsupportedClassLeftAlone() throws IOException
+    {
+        byte[] modern = classBytes();
+        modern[7] = 53; //Java 9
+        assertNull(transformer.transform(null, NAME, null, null, modern));
+        assertNull(transformer.transform(null, NAME, null, null, Arrays.copyOf(modern, 20)));
+        assertEquals("Agent: 0 optimised, 0 from cache, 0 over budget, 0 failed, 2 skipped", transformer.summary());
+    }
+
+    @Test
+    public void testExcludedPackageLeftAlone() throws IOException
+    {
+        OptimisingTransformer excluding = new OptimisingTransformer(Collections.<String>emptyList(),
+                Collections.singletonList("comp207p.target."), 16, 60000, 1, PassManager.defaults());
+        assertNull(excluding.transform(null, NAME, null, null, classBytes()));
+        assertNull(transformer.transform(null, "comp207p/main/Main", null, null, classBytes()));
+        assertNull(transformer.transform(null, NAME, BitShifting.class, null, classBytes())); //Redefinition
+        assertEquals("Agent: 0 optimised, 0 from cache, 0 over budget, 0 failed, 1 skipped", excluding.summary());
+    }
+
+    @Test
+    public void testBrokenClassLoadedUnchanged() throws IOException
+    {
+        byte[] good = classBytes();
+        //The header and constant pool are intact, so it passes the filter and fails in the folder
+        byte[] broken = Arrays.copyOf(good, good.length - 8);
+        assertNull(transformer.transform(null, NAME, null, null, broken));
+        assertNull(transformer.transform(null, NAME, null, null, broken));
+        assertEquals("Agent: 0 optimised, 1 from cache, 0 over budget, 1 failed, 0 skipped", transformer.summary());
+    }
+
+    private static byte[] classBytes() throws IOException
+    {
+        try (InputStream in = BitShifting.class.getResourceAsStream("BitShifting.class")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
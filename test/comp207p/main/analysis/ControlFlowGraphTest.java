@@ -0,0 +1,196 @@
+package comp207p.main.analysis;
+
+import comp207p.main.corpus.SyntheticMethods;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test the blocks, dominators and natural loops of hand-built methods
+ */
+public class ControlFlowGraphTest {
+
+    @Test
+    public void testNestedLoops()
+    {
+        //i = 0; while (i < n) { j = 0; while (j < n) j++; i++; } return i;
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(1));
+        InstructionHandle outer = il.append(new ILOAD(1));
+        il.append(new ILOAD(0));
+        BranchHandle outerExit = il.append(new IF_ICMPGE(null));
+        InstructionHandle outerBody = il.append(new ICONST(0));
+        il.append(new ISTORE(2));
+        InstructionHandle inner = il.append(new ILOAD(2));
+        il.append(new ILOAD(0));
+        BranchHandle innerExit = il.append(new IF_ICMPGE(null));
+        InstructionHandle innerBody = il.append(new IINC(2, 1));
+        il.append(new GOTO(inner));
+        InstructionHandle outerLatch = il.append(new IINC(1, 1));
+        il.append(new GOTO(outer));
+        InstructionHandle end = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+        outerExit.setTarget(end);
+        innerExit.setTarget(outerLatch);
+
+        ControlFlowGraph cfg = new ControlFlowGraph(il, new CodeExceptionGen[0]);
+        assertEquals(7, cfg.getBlocks().size());
+
+        List<Loop> loops = cfg.getLoops();
+        assertEquals(2, loops.size());
+        Loop outerLoop = loops.get(0).getHeader() == cfg.getBlock(outer) ? loops.get(0) : loops.get(1);
+        Loop innerLoop = outerLoop == loops.get(0) ? loops.get(1) : loops.get(0);
+        assertSame(cfg.getBlock(outer), outerLoop.getHeader());
+        assertSame(cfg.getBlock(inner), innerLoop.getHeader());
+        assertTrue(outerLoop.contains(cfg.getBlock(innerBody)));
+        assertFalse(innerLoop.contains(cfg.getBlock(outerBody)));
+        assertFalse(innerLoop.contains(cfg.getBlock(outerLatch)));
+
+        assertEquals(0, cfg.getLoopDepth(cfg.getEntry()));
+        assertEquals(1, cfg.getLoopDepth(cfg.getBlock(outerBody)));
+        assertEquals(2, cfg.getLoopDepth(cfg.getBlock(inner)));
+        assertEquals(2, cfg.getLoopDepth(cfg.getBlock(innerBody)));
+        assertEquals(1, cfg.getLoopDepth(cfg.getBlock(outerLatch)));
+        assertEquals(0, cfg.getLoopDepth(cfg.getBlock(end)));
+        assertFalse(cfg.isInLoop(end));
+
+        assertSame(cfg.getBlock(outerBody), cfg.getImmediateDominator(cfg.getBlock(inner)));
+        assertSame(cfg.getBlock(inner), cfg.getImmediateDominator(cfg.getBlock(outerLatch)));
+        assertSame(cfg.getBlock(outer), cfg.getImmediateDominator(cfg.getBlock(end)));
+        assertTrue(cfg.dominates(cfg.getBlock(outer), cfg.getBlock(innerBody)));
+        assertFalse(cfg.dominates(cfg.getBlock(innerBody), cfg.getBlock(outerLatch)));
+    }
+
+    @Test
+    public void testIrreducibleCycle()
+    {
+        //A cycle of two blocks entered at either, so neither dominates the other and there is no natural loop
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        BranchHandle intoSecond = il.append(new IFEQ(null));
+        InstructionHandle first = il.append(new IINC(1, 1));
+        il.append(new ILOAD(1));
+        il.append(new BIPUSH((byte) 10));
+        BranchHandle exit = il.append(new IF_ICMPGE(null));
+        InstructionHandle second = il.append(new IINC(1, 2));
+        il.append(new GOTO(first));
+        InstructionHandle end = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+        intoSecond.setTarget(second);
+        exit.setTarget(end);
+
+        ControlFlowGraph cfg = new ControlFlowGraph(il, new CodeExceptionGen[0]);
+
+        assertTrue(cfg.getLoops().isEmpty());
+        assertSame(cfg.getEntry(), cfg.getImmediateDominator(cfg.getBlock(first)));
+        assertSame(cfg.getEntry(), cfg.getImmediateDominator(cfg.getBlock(second)));
+        assertFalse(cfg.dominates(cfg.getBlock(first), cfg.getBlock(second)));
+        assertFalse(cfg.dominates(cfg.getBlock(second), cfg.getBlock(first)));
+
+        //Both increments still run more than once
+        assertTrue(cfg.isInLoop(first));
+        assertTrue(cfg.isInLoop(second));
+        assertFalse(cfg.isInLoop(il.getStart()));
+        assertFalse(cfg.isInLoop(end));
+    }
+
+    @Test
+    public void testExceptionEdges()
+    {
+        //x = 0; try { x = n / 1; } catch (ArithmeticException e) { return -1; } return x;
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(1));
+        InstructionHandle tryStart = il.append(new ILOAD(0));
+        il.append(new ICONST(1));
+        il.append(new IDIV());
+        InstructionHandle tryEnd = il.append(new ISTORE(1));
+        InstructionHandle after = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+        InstructionHandle handler = il.append(new ASTORE(2));
+        il.append(new ICONST(-1));
+        il.append(new IRETURN());
+
+        ControlFlowGraph cfg = graph(il, tryStart, tryEnd, handler);
+        BasicBlock tryBlock = cfg.getBlock(tryStart);
+        BasicBlock handlerBlock = cfg.getBlock(handler);
+
+        assertEquals(4, cfg.getBlocks().size());
+        assertTrue(tryBlock.getExceptionSuccessors().contains(handlerBlock));
+        assertTrue(handlerBlock.getPredecessors().isEmpty());
+        assertTrue(handlerBlock.getExceptionPredecessors().contains(tryBlock));
+        assertFalse(cfg.getEntry().getExceptionSuccessors().contains(handlerBlock));
+
+        //Only reached through the exception edge, yet reachable and dominated by the try block
+        assertTrue(cfg.getReversePostOrder().contains(handlerBlock));
+        assertSame(tryBlock, cfg.getImmediateDominator(handlerBlock));
+        assertTrue(cfg.dominates(cfg.getEntry(), handlerBlock));
+        assertFalse(cfg.dominates(cfg.getBlock(after), handlerBlock));
+        assertTrue(cfg.getLoops().isEmpty());
+    }
+
+    @Test
+    public void testLoopThroughHandler()
+    {
+        //x = 0; while (true) { try { x++; return n / x; } catch (ArithmeticException e) { } }
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(1));
+        InstructionHandle tryStart = il.append(new IINC(1, 1));
+        il.append(new ILOAD(0));
+        il.append(new ILOAD(1));
+        il.append(new IDIV());
+        InstructionHandle tryEnd = il.append(new IRETURN());
+        InstructionHandle handler = il.append(new POP());
+        il.append(new GOTO(tryStart));
+
+        ControlFlowGraph cfg = graph(il, tryStart, tryEnd, handler);
+
+        assertEquals(1, cfg.getLoops().size());
+        Loop loop = cfg.getLoops().get(0);
+        assertSame(cfg.getBlock(tryStart), loop.getHeader());
+        assertTrue(loop.contains(cfg.getBlock(handler))); //Found by walking back over the exception edge
+        assertFalse(loop.contains(cfg.getEntry()));
+        assertTrue(cfg.isInLoop(tryStart));
+        assertFalse(cfg.isInLoop(il.getStart()));
+    }
+
+    @Test
+    public void testUnreachableBlock()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        InstructionHandle ret = il.append(new IRETURN());
+        InstructionHandle dead = il.append(new ICONST(1));
+        il.append(new IRETURN());
+
+        ControlFlowGraph cfg = new ControlFlowGraph(il, new CodeExceptionGen[0]);
+
+        assertEquals(2, cfg.getBlocks().size());
+        assertEquals(1, cfg.getReversePostOrder().size());
+        assertNull(cfg.getImmediateDominator(cfg.getBlock(dead)));
+        assertFalse(cfg.dominates(cfg.getEntry(), cfg.getBlock(dead)));
+        assertSame(cfg.getEntry(), cfg.getImmediateDominator(cfg.getBlock(ret)));
+    }
+
+    /**
+     * @return Graph of a method with one handler catching ArithmeticException over the given range
+     */
+    private static ControlFlowGraph graph(InstructionList il, InstructionHandle start, InstructionHandle end, InstructionHandle handler)
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Flow");
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT, new Type[]{Type.INT},
+                new String[]{"n"}, "run", cgen.getClassName(), il, cgen.getConstantPool());
+        mg.addExceptionHandler(start, end, handler, new ObjectType("java.lang.ArithmeticException"));
+        return new ControlFlowGraph(il, mg.getExceptionHandlers());
+    }
+}
@@ -0,0 +1,128 @@
+package comp207p.main.analysis;
+
+import comp207p.main.ConstantFolder;
+import comp207p.main.corpus.SyntheticMethods;
+import comp207p.main.passes.PassManager;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * test the constant values the reaching definitions give loads
+ */
+public class ReachingDefinitionsTest {
+
+    //Far deeper than the thread stack allows for one frame per definition
+    private static final int CHAIN = 20000;
+
+    //Still too deep for recursion, short enough to optimise at every level within the default budget
+    private static final int FOLDED_CHAIN = 5000;
+
+    @Test
+    public void testLongIncrementChain()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(1));
+        for (int i = 0; i < CHAIN; i++) {
+            il.append(new IINC(1, 1));
+        }
+        InstructionHandle load = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+
+        ReachingDefinitions definitions = analyse(il);
+        assertEquals(CHAIN, definitions.getConstantValue(load));
+    }
+
+    @Test
+    public void testLongCopyChain()
+    {
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(5));
+        il.append(new ISTORE(1));
+        for (int i = 0; i < CHAIN; i++) { //Copy back and forth between two locals
+            il.append(new ILOAD(1 + i % 2));
+            il.append(new ISTORE(2 - i % 2));
+        }
+        InstructionHandle load = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+
+        ReachingDefinitions definitions = analyse(il);
+        assertEquals(5, definitions.getConstantValue(load));
+    }
+
+    @Test
+    public void testLoopNotConstant()
+    {
+        //i = 0; do { i++; } while (seed-- > 0); return i;
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(1));
+        InstructionHandle body = il.append(new IINC(1, 1));
+        il.append(new IINC(0, -1));
+        il.append(new ILOAD(0));
+        il.append(new IFGT(body));
+        InstructionHandle load = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+
+        ReachingDefinitions definitions = analyse(il);
+        assertNull(definitions.getConstantValue(load));
+    }
+
+    @Test
+    public void testLongChainFolds() throws Exception
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Counter");
+        InstructionList il = new InstructionList();
+        il.append(new ICONST(0));
+        il.append(new ISTORE(1));
+        for (int i = 0; i < FOLDED_CHAIN; i++) {
+            il.append(new IINC(1, 1));
+        }
+        il.append(new ILOAD(1));
+        il.append(new ICONST(2)); //Folded with the value of the chain
+        il.append(new IMUL());
+        il.append(new IRETURN());
+        cgen.addMethod(method(cgen, il));
+        byte[] bytes = cgen.getJavaClass().getBytes();
+
+        for (PassManager.Level level : new PassManager.Level[]{PassManager.Level.O1, PassManager.Level.O2, PassManager.Level.O3}) {
+            PassManager passes = new PassManager(level, Collections.<String>emptyList(), Collections.<String>emptyList());
+            byte[] optimised = ConstantFolder.optimise(bytes, "Counter.class", passes).getBytes();
+            Class<?> counter = new ClassLoader(getClass().getClassLoader()) {
+                Class<?> define() {
+                    return defineClass("Counter", optimised, 0, optimised.length);
+                }
+            }.define();
+            Method run = counter.getMethod("run", int.class);
+            assertEquals(level.toString(), 2 * FOLDED_CHAIN, run.invoke(null, 0));
+        }
+    }
+
+    private static ReachingDefinitions analyse(InstructionList il)
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Chain");
+        MethodGen methodGen = methodGen(cgen, il);
+        return new ReachingDefinitions(new ControlFlowGraph(il, methodGen.getExceptionHandlers()), methodGen);
+    }
+
+    private static org.apache.bcel.classfile.Method method(ClassGen cgen, InstructionList il)
+    {
+        return methodGen(cgen, il).getMethod();
+    }
+
+    private static MethodGen methodGen(ClassGen cgen, InstructionList il)
+    {
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT, new Type[]{Type.INT},
+                new String[]{"seed"}, "run", cgen.getClassName(), il, cgen.getConstantPool());
+        mg.setMaxStack();
+        mg.setMaxLocals(3);
+        return mg;
+    }
+}
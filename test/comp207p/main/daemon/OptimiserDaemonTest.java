@@ -0,0 +1,255 @@
+package comp207p.main.daemon;
+
+import comp207p.target.BitShifting;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test the daemon protocol against a daemon running in this JVM, speaking to it as OptimiserClient does
+ */
+public class OptimiserDaemonTest {
+
+    /**
+     * Status, message and, for a class, the optimised bytes of one reply
+     */
+    private static final class Reply {
+        int status;
+        String message;
+        byte[] bytes;
+    }
+
+    private Path dir;
+    private Path portFile;
+    private Thread daemon;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("daemon-test");
+        portFile = dir.resolve("port");
+        daemon = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    OptimiserDaemon.main(new String[]{"-port-file", portFile.toString(), "-threads", "2"});
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        daemon.setDaemon(true);
+        daemon.start();
+
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!Files.isRegularFile(portFile)) {
+            assertTrue("Daemon did not start", System.currentTimeMillis() < deadline && daemon.isAlive());
+            Thread.sleep(50);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        if (daemon.isAlive()) {
+            send(token(), OptimiserDaemon.STOP);
+            daemon.join(10000);
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testOptimiseClass() throws IOException
+    {
+        byte[] original = classBytes();
+        Reply reply = send(token(), OptimiserDaemon.OPTIMISE_CLASS, "BitShifting.class", original);
+
+        assertEquals(OptimiserDaemon.OK, reply.status);
+        assertEquals("Optimised BitShifting.class", reply.message);
+        assertTrue(reply.bytes.length < original.length);
+        assertEquals(0xcafebabe, ((reply.bytes[0] & 0xff) << 24) | ((reply.bytes[1] & 0xff) << 16)
+                | ((reply.bytes[2] & 0xff) << 8) | (reply.bytes[3] & 0xff));
+    }
+
+    @Test
+    public void testUnsupportedClassReturnedUnchanged() throws IOException
+    {
+        byte[] modern = classBytes();
+        modern[7] = 61; //Java 17
+        Reply reply = send(token(), OptimiserDaemon.OPTIMISE_CLASS, "BitShifting.class", modern);
+
+        assertEquals(OptimiserDaemon.OK, reply.status);
+        assertArrayEquals(modern, reply.bytes);
+    }
+
+    @Test
+    public void testOptimiseTree() throws IOException
+    {
+        Path input = Files.createDirectories(dir.resolve("in").resolve("comp207p").resolve("target"));
+        Files.write(input.resolve("BitShifting.class"), classBytes());
+        Path output = dir.resolve("out");
+
+        Reply reply = send(token(), OptimiserDaemon.OPTIMISE_TREE, dir.resolve("in").toString(), output.toString());
+
+        assertEquals(OptimiserDaemon.OK, reply.status);
+        assertEquals("Optimised 1 class(es)", reply.message);
+        Path optimised = output.resolve("comp207p").resolve("target").resolve("BitShifting.class");
+        assertTrue(Files.size(optimised) < classBytes().length);
+    }
+
+    @Test
+    public void testInvalidTokenRefused() throws IOException
+    {
+        Reply refused = send("0123456789abcdef", OptimiserDaemon.STATUS);
+        assertEquals(OptimiserDaemon.FAILED, refused.status);
+        assertEquals("Invalid access token", refused.message);
+
+        Reply status = send(token(), OptimiserDaemon.STATUS);
+        assertEquals(OptimiserDaemon.OK, status.status);
+        assertTrue(status.message.startsWith("Optimiser daemon on port"));
+    }
+
+    @Test
+    public void testBrokenClassFails() throws IOException
+    {
+        byte[] good = classBytes();
+        Reply reply = send(token(), OptimiserDaemon.OPTIMISE_CLASS, "Broken.class", Arrays.copyOf(good, good.length / 2));
+
+        assertEquals(OptimiserDaemon.FAILED, reply.status);
+        assertTrue(reply.message, reply.message.startsWith("Failed to optimise Broken.class"));
+        assertEquals(null, reply.bytes);
+
+        Reply unknown = send(token(), 42);
+        assertEquals(OptimiserDaemon.FAILED, unknown.status);
+        assertEquals("Unknown request 42", unknown.message);
+    }
+
+    @Test
+    public void testInProcessFailureReported() throws IOException
+    {
+        byte[] good = classBytes();
+        Path input = Files.createDirectories(dir.resolve("in"));
+        Files.write(input.resolve("Good.class"), good);
+        Files.write(input.resolve("Broken.class"), Arrays.copyOf(good, good.length / 2));
+
+        OptimiserDaemon optimiser = new OptimiserDaemon(2);
+        OptimiserDaemon.Result result;
+        try {
+            result = optimiser.optimise(input, dir.resolve("out"), OptimiserDaemon.findClassFiles(input));
+        } finally {
+            optimiser.shutdown();
+        }
+
+        assertEquals(1, result.optimised);
+        assertEquals(1, result.failures.size());
+        assertTrue(result.failures.get(0), result.failures.get(0).contains("Broken.class"));
+        assertTrue(Files.isRegularFile(dir.resolve("out").resolve("Good.class")));
+        assertArrayEquals(Arrays.copyOf(good, good.length / 2), Files.readAllBytes(dir.resolve("out").resolve("Broken.class")));
+        assertTrue(result.describe().endsWith("1 class(es) could not be optimised"));
+    }
+
+    @Test
+    public void testErrorReportedAndClassCopied() throws IOException
+    {
+        byte[] good = classBytes();
+        Path input = Files.createDirectories(dir.resolve("in"));
+        Files.write(input.resolve("Good.class"), good);
+        Files.write(input.resolve("Deep.class"), good);
+
+        //The folder overflows its stack on one class
+        OptimiserDaemon optimiser = new OptimiserDaemon(2) {
+            @Override
+            byte[] optimiseClass(byte[] classBytes, String fileName) throws IOException {
+                if (fileName.endsWith("Deep.class")) {
+                    throw new StackOverflowError();
+                }
+                return super.optimiseClass(classBytes, fileName);
+            }
+        };
+        OptimiserDaemon.Result result;
+        try {
+            result = optimiser.optimise(input, dir.resolve("out"), OptimiserDaemon.findClassFiles(input));
+        } finally {
+            optimiser.shutdown();
+        }
+
+        assertEquals(1, result.optimised);
+        assertEquals(1, result.failures.size());
+        assertTrue(result.failures.get(0), result.failures.get(0).endsWith("Deep.class: java.lang.StackOverflowError"));
+        assertArrayEquals(good, Files.readAllBytes(dir.resolve("out").resolve("Deep.class")));
+        assertTrue(Files.size(dir.resolve("out").resolve("Good.class")) < good.length);
+    }
+
+    private String token() throws IOException
+    {
+        return new String(Files.readAllBytes(portFile), StandardCharsets.UTF_8).trim().split(" ")[1];
+    }
+
+    /**
+     * Send one request and read its reply
+     * @param arguments Strings and byte arrays following the request, in order
+     */
+    private Reply send(String token, int request, Object... arguments) throws IOException
+    {
+        int port = Integer.parseInt(new String(Files.readAllBytes(portFile), StandardCharsets.UTF_8).trim().split(" ")[0]);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            OptimiserDaemon.writeString(out, token);
+            out.writeInt(request);
+            for (Object argument : arguments) {
+                if (argument instanceof byte[]) {
+                    out.writeInt(((byte[]) argument).length);
+                    out.write((byte[]) argument);
+                } else {
+                    OptimiserDaemon.writeString(out, (String) argument);
+                }
+            }
+            out.flush();
+
+            Reply reply = new Reply();
+            reply.status = in.readInt();
+            reply.message = OptimiserDaemon.readString(in);
+            if (reply.status == OptimiserDaemon.OK && request == OptimiserDaemon.OPTIMISE_CLASS) {
+                reply.bytes = new byte[in.readInt()];
+                in.readFully(reply.bytes);
+            }
+            return reply;
+        }
+    }
+
+    private static byte[] classBytes() throws IOException
+    {
+        try (InputStream in = BitShifting.class.getResourceAsStream("BitShifting.class")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package comp207p.main.ir;
+
+import comp207p.target.LoopPhi;
+import comp207p.target.SwitchConstant;
+import comp207p.target.TryCatchConstant;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test building the SSA form of the target methods and lowering it straight back, with no pass in between
+ */
+public class IRLoweringTest {
+
+    /**
+     * Loads one class from bytes, everything else from the test class path
+     */
+    private static class RoundTripLoader extends ClassLoader {
+        private final String name;
+        private final byte[] bytes;
+
+        RoundTripLoader(String name, byte[] bytes) {
+            super(IRLoweringTest.class.getClassLoader());
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+            if (className.equals(name)) {
+                synchronized (getClassLoadingLock(className)) {
+                    Class<?> loaded = findLoadedClass(className);
+                    return loaded != null ? loaded : defineClass(className, bytes, 0, bytes.length);
+                }
+            }
+            return super.loadClass(className, resolve);
+        }
+    }
+
+    @Test
+    public void testLoopsKeepTheirResults() throws Exception
+    {
+        Class<?> lowered = roundTrip(LoopPhi.class);
+        Object original = new LoopPhi();
+        Object copy = lowered.getConstructor().newInstance();
+        for (String method : new String[]{"sameOnEveryPath", "wideLocals", "nestedLoops", "changing"}) {
+            for (int n = 0; n < 4; n++) {
+                assertEquals(method + "(" + n + ")", LoopPhi.class.getMethod(method, int.class).invoke(original, n),
+                        lowered.getMethod(method, int.class).invoke(copy, n));
+            }
+        }
+    }
+
+    @Test
+    public void testSwitchesKeepTheirResults() throws Exception
+    {
+        Class<?> lowered = roundTrip(SwitchConstant.class);
+        Object original = new SwitchConstant();
+        Object copy = lowered.getConstructor().newInstance();
+        assertEquals(new SwitchConstant().table(), lowered.getMethod("table").invoke(copy));
+        for (String method : new String[]{"lookup", "fallThrough"}) {
+            for (int n = 0; n < 4; n++) {
+                assertEquals(method + "(" + n + ")", SwitchConstant.class.getMethod(method, int.class).invoke(original, n),
+                        lowered.getMethod(method, int.class).invoke(copy, n));
+            }
+        }
+    }
+
+    @Test
+    public void testLoopHasPhis() throws IOException
+    {
+        IRMethod method = IRBuilder.build(methodGen(LoopPhi.class, "sameOnEveryPath"));
+        int phis = 0;
+        for (Block block : method.getBlocks()) {
+            phis += block.getPhis().size();
+        }
+        assertTrue(phis > 0);
+    }
+
+    @Test
+    public void testExceptionHandlersNotSupported() throws IOException
+    {
+        assertFalse(IRBuilder.isSupported(methodGen(TryCatchConstant.class, "divideByZero")));
+        assertTrue(IRBuilder.isSupported(methodGen(TryCatchConstant.class, "guarded")));
+    }
+
+    /**
+     * Build and lower every method of a class that has an SSA form
+     * @return The class with the lowered methods, in its own class loader
+     */
+    private static Class<?> roundTrip(Class<?> target) throws IOException, ClassNotFoundException
+    {
+        JavaClass javaClass = parse(target);
+        ClassGen cgen = new ClassGen(javaClass);
+        cgen.setMajor(50); //No stack map frames, as the folder writes
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        int lowered = 0;
+        for (Method m : cgen.getMethods()) {
+            MethodGen methodGen = new MethodGen(m, cgen.getClassName(), cpgen);
+            if (m.getCode() == null || !IRBuilder.isSupported(methodGen)) {
+                continue;
+            }
+            methodGen.setInstructionList(IRLowering.lower(IRBuilder.build(methodGen)));
+            methodGen.removeLocalVariables();
+            methodGen.removeLineNumbers();
+            methodGen.setMaxStack();
+            methodGen.setMaxLocals();
+            cgen.replaceMethod(m, methodGen.getMethod());
+            lowered++;
+        }
+        assertTrue(lowered > 0);
+        byte[] bytes = cgen.getJavaClass().getBytes();
+        return new RoundTripLoader(target.getName(), bytes).loadClass(target.getName());
+    }
+
+    private static MethodGen methodGen(Class<?> target, String name) throws IOException
+    {
+        JavaClass javaClass = parse(target);
+        ConstantPoolGen cpgen = new ConstantPoolGen(javaClass.getConstantPool());
+        for (Method m : javaClass.getMethods()) {
+            if (m.getName().equals(name)) {
+                return new MethodGen(m, javaClass.getClassName(), cpgen);
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static JavaClass parse(Class<?> target) throws IOException
+    {
+        String file = target.getSimpleName() + ".class";
+        try (InputStream in = target.getResourceAsStream(file)) {
+            return new ClassParser(in, file).parse();
+        }
+    }
+}
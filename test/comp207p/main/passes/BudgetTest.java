@@ -0,0 +1,135 @@
+package comp207p.main.passes;
+
+import comp207p.main.ConstantFolder;
+import comp207p.main.OptimisationResult;
+import comp207p.main.corpus.SyntheticMethods;
+import comp207p.main.metrics.MethodStatistics;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.ClassGen;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test that methods running out of their own or their class's budget are kept exactly as they were
+ */
+public class BudgetTest {
+
+    //Folds in one block of the generated code, far fewer than in the large method
+    private static final int SMALL = 40;
+    private static final int LARGE = 4000;
+
+    //Enough for the small method, not for the large one
+    private static final int ITERATIONS = 50;
+
+    @Test
+    public void testUnlimitedOptimisesEverything() throws IOException
+    {
+        byte[] bytes = generate("small", "large");
+        OptimisationResult result = ConstantFolder.optimise(bytes, "Budgeted.class", passes(Budget.UNLIMITED));
+
+        assertEquals(Arrays.asList("small", "large"), optimisedMethods(result));
+        assertTrue(code(result.getBytes(), "large").length < code(bytes, "large").length);
+    }
+
+    @Test
+    public void testMethodIterationsKeepOneMethod() throws IOException
+    {
+        byte[] bytes = generate("large", "small");
+        ConstantFolder folder = new ConstantFolder(bytes, "Budgeted.class", passes(new Budget(0, 0, ITERATIONS, 0)));
+        byte[] optimised = folder.optimiseToBytes();
+
+        assertArrayEquals(code(bytes, "large"), code(optimised, "large"));
+        assertTrue(code(optimised, "small").length < code(bytes, "small").length);
+        assertFalse(folder.ranOutOfTime()); //Iterations give the same output every run, it can be cached
+    }
+
+    @Test
+    public void testClassIterationsKeepLaterMethods() throws IOException
+    {
+        //The small method is optimised first, the large one runs out of what it leaves
+        byte[] bytes = generate("small", "large");
+        byte[] optimised = ConstantFolder.optimise(bytes, "Budgeted.class", passes(new Budget(0, 0, 0, ITERATIONS))).getBytes();
+        assertTrue(code(optimised, "small").length < code(bytes, "small").length);
+        assertArrayEquals(code(bytes, "large"), code(optimised, "large"));
+
+        //Once the large method has used up the class's budget, the small one is not started
+        bytes = generate("large", "small");
+        OptimisationResult result = ConstantFolder.optimise(bytes, "Budgeted.class", passes(new Budget(0, 0, 0, ITERATIONS)));
+        assertArrayEquals(code(bytes, "large"), code(result.getBytes(), "large"));
+        assertArrayEquals(code(bytes, "small"), code(result.getBytes(), "small"));
+        assertEquals(Collections.<String>emptyList(), optimisedMethods(result));
+    }
+
+    @Test
+    public void testTimeBudgetKeepsMethodAndIsReported() throws IOException
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Budgeted");
+        cgen.addMethod(SyntheticMethods.hugeMethod(cgen, "huge", SyntheticMethods.MAX_CODE_BYTES));
+        byte[] bytes = cgen.getJavaClass().getBytes();
+
+        ConstantFolder folder = new ConstantFolder(bytes, "Budgeted.class", passes(new Budget(1, 0, 0, 0)));
+        byte[] optimised = folder.optimiseToBytes();
+
+        assertArrayEquals(code(bytes, "huge"), code(optimised, "huge"));
+        assertTrue(folder.ranOutOfTime()); //A later run may get further, so the output is not cached
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBudgetRefused()
+    {
+        new Budget(0, -1, 0, 0);
+    }
+
+    private static PassManager passes(Budget budget)
+    {
+        return new PassManager(PassManager.Level.O2, Collections.<String>emptyList(), Collections.<String>emptyList())
+                .withBudget(budget);
+    }
+
+    /**
+     * @param methods Names of the methods, in order, each small or large
+     */
+    private static byte[] generate(String... methods)
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Budgeted");
+        for (String method : methods) {
+            cgen.addMethod(SyntheticMethods.hugeMethod(cgen, method, method.equals("small") ? SMALL : LARGE));
+        }
+        return cgen.getJavaClass().getBytes();
+    }
+
+    private static List<String> optimisedMethods(OptimisationResult result)
+    {
+        List<String> names = new ArrayList<>();
+        for (MethodStatistics method : result.getMethods()) {
+            if (!method.getName().equals("<init>")) {
+                names.add(method.getName());
+            }
+        }
+        return names;
+    }
+
+    private static byte[] code(byte[] classBytes, String name) throws IOException
+    {
+        JavaClass javaClass = new ClassParser(new ByteArrayInputStream(classBytes), "Budgeted.class").parse();
+        for (Method method : javaClass.getMethods()) {
+            if (method.getName().equals(name)) {
+                return method.getCode().getCode();
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+}
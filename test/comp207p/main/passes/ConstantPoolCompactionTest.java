@@ -0,0 +1,225 @@
+package comp207p.main.passes;
+
+import comp207p.target.ConstantVariableFolding;
+import comp207p.target.Negation;
+import comp207p.target.Peephole;
+import comp207p.target.SwitchConstant;
+import comp207p.target.TryCatchConstant;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantUtf8;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.generic.ClassGen;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test compacting the constant pools of the target classes, loading each compacted class to have it verified
+ */
+public class ConstantPoolCompactionTest {
+
+    //Enough unused entries to push the pool past the 256 that LDC can reach
+    private static final int UNUSED = 300;
+
+    /**
+     * Loads one class from bytes, everything else from the test class path
+     */
+    private static class CompactedLoader extends ClassLoader {
+        private final String name;
+        private final byte[] bytes;
+
+        CompactedLoader(String name, byte[] bytes) {
+            super(ConstantPoolCompactionTest.class.getClassLoader());
+            this.name = name;
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+            if (className.equals(name)) {
+                synchronized (getClassLoadingLock(className)) {
+                    Class<?> loaded = findLoadedClass(className);
+                    return loaded != null ? loaded : defineClass(className, bytes, 0, bytes.length);
+                }
+            }
+            return super.loadClass(className, resolve);
+        }
+    }
+
+    @Test
+    public void testCompactedClassesKeepTheirResults() throws Exception
+    {
+        for (Class<?> target : new Class<?>[]{TryCatchConstant.class, SwitchConstant.class,
+                ConstantVariableFolding.class, Negation.class, Peephole.class}) {
+            JavaClass javaClass = withUnusedConstants(target);
+            int before = javaClass.getConstantPool().getLength();
+
+            int saved = new ConstantPoolCompaction().run(javaClass);
+
+            assertTrue(target.getSimpleName(), saved > 0);
+            assertTrue(target.getSimpleName(), javaClass.getConstantPool().getLength() < before - UNUSED);
+            for (Constant constant : javaClass.getConstantPool().getConstantPool()) {
+                assertFalse(constant instanceof ConstantUtf8 && ((ConstantUtf8) constant).getBytes().startsWith("unused "));
+            }
+
+            byte[] bytes = javaClass.getBytes();
+            Class<?> compacted = new CompactedLoader(target.getName(), bytes).loadClass(target.getName());
+            assertSameResults(target, compacted);
+        }
+    }
+
+    @Test
+    public void testEveryKindOfConstantRenumbered() throws Exception
+    {
+        Path dir = Files.createTempDirectory("compaction-test");
+        try {
+            String source = "import java.util.ArrayList;\n"
+                    + "import java.util.List;\n"
+                    + "public class Constants {\n"
+                    + "    public static final String NAME = \"constants\";\n" //ConstantValue attribute
+                    + "    private long total = 1234567890123L;\n"
+                    + "    public String describe() {\n"
+                    + "        List<Object> parts = new ArrayList<>();\n" //Interface method reference
+                    + "        parts.add(NAME);\n"
+                    + "        parts.add(String.class.getSimpleName());\n" //Class literal
+                    + "        parts.add(total + 0.25);\n"
+                    + "        try {\n"
+                    + "            parts.add(Integer.parseInt(\"twelve\"));\n"
+                    + "        } catch (NumberFormatException e) {\n" //Exception table catch type
+                    + "            parts.add(\"not a number\");\n"
+                    + "        }\n"
+                    + "        return parts.toString();\n"
+                    + "    }\n"
+                    + "}\n";
+            Path file = dir.resolve("Constants.java");
+            Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            assertEquals(0, compiler.run(null, null, null, "-source", "8", "-target", "8", "-nowarn",
+                    "-d", dir.toString(), file.toString()));
+            byte[] original = Files.readAllBytes(dir.resolve("Constants.class"));
+
+            JavaClass javaClass = withUnusedConstants(new ClassParser(new ByteArrayInputStream(original), "Constants.class").parse());
+            assertTrue(new ConstantPoolCompaction().run(javaClass) > 0);
+
+            Class<?> compacted = new CompactedLoader("Constants", javaClass.getBytes()).loadClass("Constants");
+            assertEquals("constants", compacted.getField("NAME").get(null));
+            Object instance = compacted.getConstructor().newInstance();
+            assertEquals("[constants, String, 1.23456789012325E12, not a number]",
+                    compacted.getMethod("describe").invoke(instance));
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Test
+    public void testCompactPoolLeftAlone() throws IOException
+    {
+        JavaClass javaClass = withUnusedConstants(SwitchConstant.class);
+        ConstantPoolCompaction pass = new ConstantPoolCompaction();
+        assertTrue(pass.run(javaClass) > 0);
+
+        byte[] compacted = javaClass.getBytes();
+        assertEquals(0, pass.run(javaClass));
+        assertEquals(compacted.length, javaClass.getBytes().length);
+    }
+
+    /**
+     * Call every public method taking nothing or an int on an instance of each class
+     */
+    private static void assertSameResults(Class<?> original, Class<?> compacted) throws Exception
+    {
+        Object expected = original.getConstructor().newInstance();
+        Object actual = compacted.getConstructor().newInstance(); //Verified as it is linked
+        int called = 0;
+        for (Method method : original.getDeclaredMethods()) {
+            if (!Modifier.isPublic(method.getModifiers())) {
+                continue;
+            }
+            Method copy = compacted.getMethod(method.getName(), method.getParameterTypes());
+            if (method.getParameterCount() == 0) {
+                assertEquals(method.getName(), outcome(method, expected), outcome(copy, actual));
+                called++;
+            } else if (method.getParameterCount() == 1 && method.getParameterTypes()[0] == int.class) {
+                for (int n = -1; n < 4; n++) {
+                    assertEquals(method.getName() + "(" + n + ")", outcome(method, expected, n), outcome(copy, actual, n));
+                }
+                called++;
+            }
+        }
+        assertTrue(original.getSimpleName(), called > 0);
+    }
+
+    /**
+     * @return What the method returned, or the class of what it threw
+     */
+    private static Object outcome(Method method, Object target, Object... args) throws IllegalAccessException
+    {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            return e.getCause().getClass();
+        }
+    }
+
+    /**
+     * Parse a target class and rebuild its methods as the folder does, which leaves their stack maps behind,
+     * then pad its pool with entries nothing refers to
+     */
+    private static JavaClass withUnusedConstants(Class<?> target) throws IOException
+    {
+        String file = target.getSimpleName() + ".class";
+        try (InputStream in = target.getResourceAsStream(file)) {
+            return withUnusedConstants(new ClassParser(in, file).parse());
+        }
+    }
+
+    private static JavaClass withUnusedConstants(JavaClass javaClass)
+    {
+        ClassGen cgen = new ClassGen(javaClass);
+        cgen.setMajor(50);
+        ConstantPoolGen cpgen = cgen.getConstantPool();
+        for (org.apache.bcel.classfile.Method m : cgen.getMethods()) {
+            MethodGen methodGen = new MethodGen(m, cgen.getClassName(), cpgen);
+            methodGen.removeCodeAttributes();
+            cgen.replaceMethod(m, methodGen.getMethod());
+        }
+        for (int i = 0; i < UNUSED; i++) {
+            switch (i % 4) {
+                case 0:
+                    cpgen.addString("unused " + i);
+                    break;
+                case 1:
+                    cpgen.addInteger(1000000 + i);
+                    break;
+                case 2:
+                    cpgen.addDouble(i + 0.5);
+                    break;
+                default:
+                    cpgen.addMethodref("unused " + i, "run", "()V");
+                    break;
+            }
+        }
+        return cgen.getJavaClass();
+    }
+}
@@ -0,0 +1,81 @@
+package comp207p.main.passes;
+
+import comp207p.main.corpus.SyntheticMethods;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test which local each load reads once copies are propagated
+ */
+public class CopyPropagationTest {
+
+    @Test
+    public void testChainFollowedToSource()
+    {
+        //y = x; z = y; return z;
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(1));
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        il.append(new IRETURN());
+
+        assertTrue(propagate(il));
+        assertArrayEquals(new int[]{0, 1, 0, 2, 0}, slots(il));
+    }
+
+    @Test
+    public void testChainStopsBeforeWiderLoad()
+    {
+        //y = x; z = y; return z * z; with x in slot 4, so reading it takes two bytes more than iload_3
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(4));
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        il.append(new ISTORE(3));
+        il.append(new ILOAD(3));
+        il.append(new ILOAD(3));
+        il.append(new IMUL());
+        il.append(new IRETURN());
+
+        assertTrue(propagate(il));
+        assertArrayEquals(new int[]{4, 2, 2, 3, 2, 2}, slots(il));
+    }
+
+    private static boolean propagate(InstructionList il)
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Copies");
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, Type.INT,
+                new Type[]{Type.INT, Type.INT, Type.INT, Type.INT, Type.INT}, null, "run", cgen.getClassName(), il,
+                cgen.getConstantPool());
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        return new CopyPropagation().run(new MethodContext(cgen.getClassName(), mg.getMethod(), mg));
+    }
+
+    /**
+     * @return Local read or written by each load and store, in order
+     */
+    private static int[] slots(InstructionList il)
+    {
+        List<Integer> slots = new ArrayList<>();
+        for (InstructionHandle h = il.getStart(); h != null; h = h.getNext()) {
+            if (h.getInstruction() instanceof LocalVariableInstruction) {
+                slots.add(((LocalVariableInstruction) h.getInstruction()).getIndex());
+            }
+        }
+        int[] result = new int[slots.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = slots.get(i);
+        }
+        return result;
+    }
+}
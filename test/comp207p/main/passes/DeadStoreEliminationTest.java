@@ -0,0 +1,114 @@
+package comp207p.main.passes;
+
+import comp207p.main.corpus.SyntheticMethods;
+import org.apache.bcel.Constants;
+import org.apache.bcel.generic.*;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test what is left of a dead store and the expression computing its value
+ */
+public class DeadStoreEliminationTest {
+
+    @Test
+    public void testWholeExpressionRemoved()
+    {
+        //y = x * 2 + 3; return x;
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new ICONST(1));
+        il.append(new ISHL());
+        il.append(new ICONST(3));
+        il.append(new IADD());
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertTrue(eliminate(il, Type.INT));
+        assertArrayEquals(new short[]{Constants.ILOAD_0, Constants.IRETURN}, opcodes(il));
+    }
+
+    @Test
+    public void testWideExpressionRemoved()
+    {
+        //long y = (long) x * x; return x;
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        il.append(new I2L());
+        il.append(new ILOAD(0));
+        il.append(new I2L());
+        il.append(new LMUL());
+        il.append(new LSTORE(1));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertTrue(eliminate(il, Type.INT));
+        assertArrayEquals(new short[]{Constants.ILOAD_0, Constants.IRETURN}, opcodes(il));
+    }
+
+    @Test
+    public void testDivisionKept()
+    {
+        //y = 10 / x; return x; still throws when x is 0
+        InstructionList il = new InstructionList();
+        il.append(new BIPUSH((byte) 10));
+        il.append(new ILOAD(0));
+        il.append(new IDIV());
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        assertTrue(eliminate(il, Type.INT));
+        assertArrayEquals(new short[]{Constants.BIPUSH, Constants.ILOAD_0, Constants.IDIV, Constants.POP,
+                Constants.ILOAD_0, Constants.IRETURN}, opcodes(il));
+    }
+
+    @Test
+    public void testExpressionUnderJumpTargetKept()
+    {
+        //y = (x == 0 ? 1 : 2) + x; return x; the add is reached from both branches
+        InstructionList il = new InstructionList();
+        il.append(new ILOAD(0));
+        IFNE ifne = new IFNE(null);
+        il.append(ifne);
+        il.append(new ICONST(1));
+        GOTO jump = new GOTO(null);
+        il.append(jump);
+        ifne.setTarget(il.append(new ICONST(2)));
+        jump.setTarget(il.append(new ILOAD(0)));
+        il.append(new IADD());
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(0));
+        il.append(new IRETURN());
+
+        eliminate(il, Type.INT);
+        short[] opcodes = opcodes(il);
+        assertTrue(opcodes.length > 2);
+        for (short opcode : opcodes) {
+            assertTrue(opcode != Constants.ISTORE && opcode != Constants.ISTORE_1);
+        }
+    }
+
+    private static boolean eliminate(InstructionList il, Type returnType)
+    {
+        ClassGen cgen = SyntheticMethods.newClass("Stores");
+        MethodGen mg = new MethodGen(Constants.ACC_PUBLIC | Constants.ACC_STATIC, returnType,
+                new Type[]{Type.INT}, null, "run", cgen.getClassName(), il, cgen.getConstantPool());
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        return new DeadStoreElimination().run(new MethodContext(cgen.getClassName(), mg.getMethod(), mg));
+    }
+
+    private static short[] opcodes(InstructionList il)
+    {
+        Instruction[] instructions = il.getInstructions();
+        short[] opcodes = new short[instructions.length];
+        for (int i = 0; i < opcodes.length; i++) {
+            opcodes[i] = instructions[i].getOpcode();
+        }
+        return opcodes;
+    }
+}
@@ -0,0 +1,175 @@
+package comp207p.main.pattern;
+
+import org.apache.bcel.generic.*;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test matching instruction patterns, compiled to opcode automata, against instruction lists
+ */
+public class InstructionPatternTest {
+
+    private static final String LOAD = "(ConstantPushInstruction|LDC|LDC_W|LDC2_W|LoadInstruction)";
+
+    @Test
+    public void testAlternationMatchesEveryBranch()
+    {
+        InstructionPattern pattern = InstructionPattern.compile(LOAD + " (INEG|LNEG)");
+        assertEquals(2, pattern.maxLength());
+        InstructionPattern.Matcher matcher = pattern.matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle constant = il.append(new ICONST(3));
+        InstructionHandle negation = il.append(new INEG());
+        InstructionHandle load = il.append(new LLOAD(1));
+        il.append(new LNEG());
+        il.append(new IRETURN());
+
+        assertTrue(matcher.matchAt(constant));
+        assertEquals(2, matcher.length());
+        assertSame(constant, matcher.group(0));
+        assertSame(negation, matcher.group(1));
+
+        assertTrue(matcher.matchAt(load));
+        assertSame(load, matcher.group(0));
+        assertSame(load.getNext(), matcher.last());
+    }
+
+    @Test
+    public void testAlternationOfSequences()
+    {
+        InstructionPattern.Matcher matcher = InstructionPattern.compile("(ICONST StoreInstruction|LoadInstruction IRETURN)").matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle store = il.append(new ICONST(1));
+        il.append(new ISTORE(1));
+        InstructionHandle load = il.append(new ILOAD(1));
+        il.append(new IRETURN());
+
+        assertTrue(matcher.matchAt(store));
+        assertEquals(2, matcher.length());
+        assertTrue(matcher.matchAt(load));
+        assertEquals(2, matcher.length());
+        assertFalse(matcher.matchAt(store.getNext())); //A store then IRETURN mixes the alternatives
+    }
+
+    @Test
+    public void testOptionalPartTakenWhenPresent()
+    {
+        InstructionPattern pattern = InstructionPattern.compile(LOAD + " " + LOAD + "? (IADD|IMUL)");
+        assertEquals(3, pattern.maxLength());
+        InstructionPattern.Matcher matcher = pattern.matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle both = il.append(new ICONST(2));
+        InstructionHandle second = il.append(new ICONST(3));
+        il.append(new IADD());
+        InstructionHandle one = il.append(new ILOAD(0));
+        il.append(new IMUL());
+        il.append(new IRETURN());
+
+        assertTrue(matcher.matchAt(both));
+        assertEquals(3, matcher.length());
+        assertSame(second, matcher.group(1));
+
+        assertTrue(matcher.matchAt(one));
+        assertEquals(2, matcher.length());
+        assertSame(one, matcher.group(0));
+        assertNull(matcher.group(1)); //Skipped
+        assertSame(one.getNext(), matcher.group(2));
+    }
+
+    @Test
+    public void testLongestMatchWins()
+    {
+        InstructionPattern.Matcher matcher = InstructionPattern.compile("ICONST (StoreInstruction LoadInstruction)?").matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle start = il.append(new ICONST(1));
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(1));
+        InstructionHandle partial = il.append(new ICONST(2));
+        il.append(new ISTORE(2));
+        il.append(new IRETURN());
+
+        assertTrue(matcher.matchAt(start));
+        assertEquals(3, matcher.length());
+
+        //The optional part starts but does not finish, so the match falls back to the constant alone
+        assertTrue(matcher.matchAt(partial));
+        assertEquals(1, matcher.length());
+        assertSame(partial, matcher.last());
+    }
+
+    @Test
+    public void testOpcodeNameMatchesThatOpcodeOnly()
+    {
+        //As in InstructionFinder, "ILOAD" is the iload opcode, while the class name covers iload_0 to iload_3 too
+        InstructionPattern.Matcher opcode = InstructionPattern.compile("ILOAD").matcher();
+        InstructionPattern.Matcher any = InstructionPattern.compile("LoadInstruction").matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle shortForm = il.append(new ILOAD(1));
+        InstructionHandle longForm = il.append(new ILOAD(5));
+
+        assertFalse(opcode.matchAt(shortForm));
+        assertTrue(opcode.matchAt(longForm));
+        assertTrue(any.matchAt(shortForm));
+        assertTrue(any.matchAt(longForm));
+    }
+
+    @Test
+    public void testMatchIsAnchored()
+    {
+        InstructionPattern.Matcher matcher = InstructionPattern.compile("ICONST INEG").matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle before = il.append(new ILOAD(0));
+        InstructionHandle constant = il.append(new ICONST(1));
+        il.append(new INEG());
+        il.append(new IADD());
+        il.append(new IRETURN());
+
+        assertFalse(matcher.matchAt(before)); //Never skips ahead to the match after it
+        assertTrue(matcher.matchAt(constant));
+        assertEquals(2, matcher.length()); //Stops at the end of the pattern, not of the list
+    }
+
+    @Test
+    public void testNoMatch()
+    {
+        InstructionPattern.Matcher matcher = InstructionPattern.compile("ICONST INEG").matcher();
+
+        InstructionList il = new InstructionList();
+        InstructionHandle constant = il.append(new ICONST(1));
+        il.append(new IRETURN());
+        InstructionHandle truncated = il.append(new ICONST(2)); //The list ends halfway through the pattern
+
+        assertFalse(matcher.matchAt(constant));
+        assertEquals(0, matcher.length());
+        assertFalse(matcher.matchAt(truncated));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyMatchRefused()
+    {
+        InstructionPattern.compile("ICONST? INEG?");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnbalancedParenthesesRefused()
+    {
+        InstructionPattern.compile("(ICONST|LDC INEG");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownInstructionRefused()
+    {
+        InstructionPattern.compile("ICONST NotAnInstruction");
+    }
+}
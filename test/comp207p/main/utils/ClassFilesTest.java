@@ -0,0 +1,125 @@
+package comp207p.main.utils;
+
+import comp207p.target.BitShifting;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * test the class file header checks that decide whether a class is optimised or passed through
+ */
+public class ClassFilesTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("classfiles-test");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testJava8ClassSupported() throws IOException
+    {
+        byte[] bytes = classBytes();
+        assertEquals(52, ((bytes[6] & 0xff) << 8) | (bytes[7] & 0xff));
+        assertTrue(ClassFiles.isSupported(bytes));
+        assertEquals("comp207p.target.BitShifting", ClassFiles.getClassName(bytes));
+    }
+
+    @Test
+    public void testNewerVersionNotSupported() throws IOException
+    {
+        byte[] bytes = classBytes();
+        bytes[7] = (byte) (ClassFiles.MAX_MAJOR_VERSION + 1);
+        assertFalse(ClassFiles.isSupported(bytes));
+        assertEquals("comp207p.target.BitShifting", ClassFiles.getClassName(bytes));
+    }
+
+    @Test
+    public void testInterfaceNotSupported() throws IOException
+    {
+        byte[] bytes = compile("Shape", "public interface Shape {\n"
+                + "    int sides();\n"
+                + "}\n");
+        assertFalse(ClassFiles.isSupported(bytes));
+        assertEquals("Shape", ClassFiles.getClassName(bytes));
+    }
+
+    @Test
+    public void testInvokeDynamicNotSupported() throws IOException
+    {
+        byte[] bytes = compile("Lambda", "public class Lambda {\n"
+                + "    public Runnable task() { return () -> { }; }\n"
+                + "}\n");
+        assertEquals(52, ((bytes[6] & 0xff) << 8) | (bytes[7] & 0xff));
+        assertFalse(ClassFiles.isSupported(bytes));
+        assertEquals("Lambda", ClassFiles.getClassName(bytes)); //Steps over the method handle constants
+    }
+
+    @Test
+    public void testTruncatedClassNotSupported() throws IOException
+    {
+        byte[] bytes = classBytes();
+        assertFalse(ClassFiles.isSupported(Arrays.copyOf(bytes, 20)));
+        assertFalse(ClassFiles.isSupported(Arrays.copyOf(bytes, 4)));
+        assertFalse(ClassFiles.isSupported(new byte[0]));
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedClassHasNoName() throws IOException
+    {
+        ClassFiles.getClassName(Arrays.copyOf(classBytes(), 20));
+    }
+
+    /**
+     * Compile one class as Java 8
+     * @return Bytes of the class file
+     */
+    private byte[] compile(String name, String source) throws IOException
+    {
+        Path file = dir.resolve(name + ".java");
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertEquals(0, compiler.run(null, null, null, "-source", "8", "-target", "8", "-nowarn",
+                "-d", dir.toString(), file.toString()));
+        return Files.readAllBytes(dir.resolve(name + ".class"));
+    }
+
+    private static byte[] classBytes() throws IOException
+    {
+        try (InputStream in = BitShifting.class.getResourceAsStream("BitShifting.class")) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AlgebraicTest {
+    @Test
+    public void timesMinusEight() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(-24, a.timesMinusEight(3));
+        assertEquals(0, a.timesMinusEight(Integer.MIN_VALUE));
+        assertEquals(8, a.timesMinusEight(-1));
+        assertEquals(-24L, a.timesMinusEightLong(3L));
+        assertEquals(0L, a.timesMinusEightLong(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void timesPowerOfTwo() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(96, a.timesSixteen(3));
+        assertEquals(-96, a.timesSixteen(-3));
+        assertEquals(0, a.timesSixteen(Integer.MIN_VALUE));
+        assertEquals(Long.MIN_VALUE, a.timesMinValue(3L));
+        assertEquals(0L, a.timesMinValue(2L));
+    }
+
+    @Test
+    public void timesZeroStillCalls() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(1, a.timesZeroStillCalls());
+        assertEquals(2, a.timesZeroStillCalls());
+        assertEquals(2, a.getCalls());
+        assertEquals(0L, a.timesZeroLong(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void sameOperands() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(14, a.sameOperands(7));
+        assertEquals(0, a.sameOperands(Integer.MIN_VALUE));
+        assertEquals(-7L, a.sameOperandsLong(-7L));
+    }
+
+    @Test
+    public void divideByMinusOne() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(-5, a.divideByMinusOne(5));
+        assertEquals(Integer.MIN_VALUE, a.divideByMinusOne(Integer.MIN_VALUE));
+        assertEquals(Long.MIN_VALUE, a.divideByMinusOneLong(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void remainderOfOne() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(0, a.remainderOfOne(-9));
+        assertEquals(0, a.remainderOfOne(Integer.MIN_VALUE));
+    }
+
+    @Test
+    public void identities() throws Exception {
+        assertEquals(-13, new Algebraic().identities(-13));
+    }
+
+    @Test
+    public void floatingPointNotSimplified() throws Exception {
+        Algebraic a = new Algebraic();
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(a.timesZeroDouble(-1.0)));
+        assertTrue(Double.isNaN(a.timesZeroDouble(Double.NaN)));
+        assertTrue(Double.isNaN(a.timesZeroDouble(Double.POSITIVE_INFINITY)));
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(a.timesZeroDouble(-0.0)));
+        assertEquals(Float.floatToIntBits(0.0f), Float.floatToIntBits(a.plusZeroFloat(-0.0f)));
+        assertEquals(Double.doubleToLongBits(-0.0), Double.doubleToLongBits(a.minusZeroDouble(-0.0)));
+        assertTrue(Double.isNaN(a.minusZeroDouble(Double.NaN)));
+    }
+}
@@ -10,4 +10,14 @@ public class BitShiftingTest {
         assertEquals(56, new BitShifting().shift());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void unsigned() throws Exception {
+        assertEquals(1073741820L + 2305843009213693950L, new BitShifting().unsigned());
+    }
+
+    @Test
+    public void distance() throws Exception {
+        assertEquals(2, new BitShifting().distance());
+    }
+
+}
@@ -10,4 +10,14 @@ public class ConversionInstructionTest {
         assertEquals(108, new ConversionInstruction().foo());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void mixed() throws Exception {
+        assertEquals(10, new ConversionInstruction().mixed(10));
+    }
+
+    @Test
+    public void saturated() throws Exception {
+        assertEquals(-2147483642, new ConversionInstruction().saturated());
+    }
+
+}
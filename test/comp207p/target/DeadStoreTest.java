@@ -0,0 +1,45 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeadStoreTest {
+    @Test
+    public void overwritten() throws Exception {
+        assertEquals(14, new DeadStore().overwritten(7));
+    }
+
+    @Test
+    public void liveIntoHandler() throws Exception {
+        assertEquals(2, new DeadStore().liveIntoHandler(new int[2]));
+        assertEquals(3, new DeadStore().liveIntoHandler(new int[4]));
+    }
+
+    @Test
+    public void sideEffect() throws Exception {
+        assertEquals(5, new DeadStore().sideEffect());
+    }
+
+    @Test
+    public void wideLocals() throws Exception {
+        assertEquals(14 + 3 + 10L, new DeadStore().wideLocals(10L));
+    }
+
+    @Test
+    public void renumbered() throws Exception {
+        assertEquals(4 + 0.5 + 6, new DeadStore().renumbered(4, 0.5), 0);
+    }
+
+    @Test
+    public void wideIncrement() throws Exception {
+        assertEquals(3000, new DeadStore().wideIncrement(3));
+    }
+
+    @Test
+    public void renumberedIntoHandler() throws Exception {
+        assertEquals(-1, new DeadStore().renumberedIntoHandler(new int[1]));
+        assertEquals(7, new DeadStore().renumberedIntoHandler(new int[]{0, 7}));
+    }
+
+}
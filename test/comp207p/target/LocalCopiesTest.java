@@ -0,0 +1,36 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LocalCopiesTest {
+    @Test
+    public void chain() throws Exception {
+        assertEquals(30, new LocalCopies().chain(5));
+    }
+
+    @Test
+    public void sourceChanged() throws Exception {
+        assertEquals(105, new LocalCopies().sourceChanged(5));
+    }
+
+    @Test
+    public void targetChanged() throws Exception {
+        assertEquals(7, new LocalCopies().targetChanged(3, 4));
+        assertEquals(6, new LocalCopies().targetChanged(3, -1));
+    }
+
+    @Test
+    public void intoHandler() throws Exception {
+        assertEquals(15, new LocalCopies().intoHandler(new int[]{7, 8}, 2));
+        assertEquals(702, new LocalCopies().intoHandler(new int[]{7}, 2));
+        assertEquals(202, new LocalCopies().intoHandler(new int[0], 2));
+    }
+
+    @Test
+    public void wideCopies() throws Exception {
+        assertEquals(23L, new LocalCopies().wideCopies(10L, 1.5));
+        assertEquals(Long.MIN_VALUE + Long.MAX_VALUE, new LocalCopies().wideCopies(Long.MAX_VALUE, 0.0));
+    }
+}
@@ -0,0 +1,29 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoopPhiTest {
+    @Test
+    public void sameOnEveryPath() throws Exception {
+        assertEquals(42, new LoopPhi().sameOnEveryPath(5));
+        assertEquals(42, new LoopPhi().sameOnEveryPath(0));
+    }
+
+    @Test
+    public void wideLocals() throws Exception {
+        assertEquals(3 * ((5L << 33) + 10) + (5L << 33), new LoopPhi().wideLocals(3));
+    }
+
+    @Test
+    public void nestedLoops() throws Exception {
+        assertEquals(48, new LoopPhi().nestedLoops(4));
+    }
+
+    @Test
+    public void changing() throws Exception {
+        assertEquals(32, new LoopPhi().changing(5));
+    }
+
+}
@@ -12,4 +12,19 @@ public class NegationTest {
         assertEquals(-0.5343, new Negation().foo(), DELTA);
     }
 
+    @Test
+    public void intMin() throws Exception {
+        assertEquals(Integer.MIN_VALUE, new Negation().intMin());
+    }
+
+    @Test
+    public void largeLong() throws Exception {
+        assertEquals(-4611686018427387905L, new Negation().largeLong());
+    }
+
+    @Test
+    public void smallFloat() throws Exception {
+        assertEquals(Float.floatToIntBits(-1.1f), Float.floatToIntBits(new Negation().smallFloat()));
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,45 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PeepholeTest {
+    @Test
+    public void assignField() throws Exception {
+        Peephole p = new Peephole();
+        assertEquals(4, p.assignField(4));
+        assertEquals(4, p.getField());
+    }
+
+    @Test
+    public void assignWide() throws Exception {
+        Peephole p = new Peephole();
+        assertEquals(1L << 40, p.assignWide(1L << 40));
+        assertEquals(1L << 40, p.getWide());
+    }
+
+    @Test
+    public void increment() throws Exception {
+        int[] values = {1, 2};
+        assertEquals(3, new Peephole().increment(values, 1));
+        assertArrayEquals(new int[]{1, 3}, values);
+    }
+
+    @Test
+    public void storeThenLoad() throws Exception {
+        assertEquals(12, new Peephole().storeThenLoad(4));
+    }
+
+    @Test
+    public void storeUsedTwice() throws Exception {
+        assertEquals(42, new Peephole().storeUsedTwice(2));
+    }
+
+    @Test
+    public void postIncrement() throws Exception {
+        Peephole p = new Peephole();
+        assertEquals(1, p.postIncrement());
+        assertEquals(12, p.postIncrement());
+    }
+}
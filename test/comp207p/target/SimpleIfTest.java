@@ -30,4 +30,14 @@ public class SimpleIfTest {
     public void testFoo(){
         assertEquals(true, simpleIf.foo());
     }
+
+    @Test
+    public void testEqualFloats(){
+        assertEquals(Float.NEGATIVE_INFINITY, 1 / simpleIf.equalFloats(), 0);
+    }
+
+    @Test
+    public void testNan(){
+        assertEquals(false, simpleIf.nan());
+    }
 }
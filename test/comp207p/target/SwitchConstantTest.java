@@ -0,0 +1,25 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SwitchConstantTest {
+    @Test
+    public void table() throws Exception {
+        assertEquals(30, new SwitchConstant().table());
+    }
+
+    @Test
+    public void lookup() throws Exception {
+        assertEquals(3 * (2L << 40), new SwitchConstant().lookup(3));
+    }
+
+    @Test
+    public void fallThrough() throws Exception {
+        assertEquals(2.5, new SwitchConstant().fallThrough(0), 0);
+        assertEquals(1.5, new SwitchConstant().fallThrough(1), 0);
+        assertEquals(0.5, new SwitchConstant().fallThrough(2), 0);
+    }
+
+}
@@ -0,0 +1,39 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TryCatchConstantTest {
+    @Test
+    public void divideByZero() throws Exception {
+        assertEquals(-1, new TryCatchConstant().divideByZero());
+    }
+
+    @Test
+    public void remainderByZero() throws Exception {
+        assertEquals(-2L, new TryCatchConstant().remainderByZero());
+    }
+
+    @Test
+    public void floatingDivideByZero() throws Exception {
+        assertEquals(Double.POSITIVE_INFINITY, new TryCatchConstant().floatingDivideByZero(), 0);
+    }
+
+    @Test
+    public void liveIntoHandler() throws Exception {
+        assertEquals(44, new TryCatchConstant().liveIntoHandler(new int[1]));
+        assertEquals(16, new TryCatchConstant().liveIntoHandler(new int[]{0, 0, 9}));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void guardedThrows() throws Exception {
+        new TryCatchConstant().guarded(2);
+    }
+
+    @Test
+    public void guarded() throws Exception {
+        assertEquals(0, new TryCatchConstant().guarded(1));
+    }
+
+}
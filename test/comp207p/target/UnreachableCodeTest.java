@@ -0,0 +1,39 @@
+package comp207p.target;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class UnreachableCodeTest {
+    @Test
+    public void deadBranch() throws Exception {
+        assertEquals(3, new UnreachableCode().deadBranch());
+    }
+
+    @Test
+    public void deadElse() throws Exception {
+        assertEquals(8, new UnreachableCode().deadElse(7));
+    }
+
+    @Test
+    public void deadTryCatch() throws Exception {
+        assertEquals(2, new UnreachableCode().deadTryCatch(new int[2]));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void deadTryCatchStillThrows() throws Exception {
+        new UnreachableCode().deadTryCatch(null);
+    }
+
+    @Test
+    public void handlerStillReachable() throws Exception {
+        assertEquals(-1, new UnreachableCode().handlerStillReachable(new int[2]));
+        assertEquals(9, new UnreachableCode().handlerStillReachable(new int[]{4, 0, 5}));
+    }
+
+    @Test
+    public void nestedDeadElse() throws Exception {
+        assertEquals(1, new UnreachableCode().nestedDeadElse(3));
+        assertEquals(2, new UnreachableCode().nestedDeadElse(-3));
+    }
+}